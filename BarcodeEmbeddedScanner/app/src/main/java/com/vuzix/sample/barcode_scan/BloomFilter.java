@@ -0,0 +1,257 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A Bloom filter over scanned text, used to rule out codes before a heavier lookup
+ *
+ * Most scans are not on the recall or block lists, so most lookups against those lists fail. The
+ * filter answers "definitely not present" for nearly all of them from a few MB of bits held on the
+ * heap, and only the rest go on to the ProductCatalog or the network.
+ *
+ * Each code is hashed once with ScanHistory.fingerprint(), and the probe positions are derived
+ * from that by double hashing, so a check does not allocate.
+ *
+ * A filter built from a ProductCatalog records the catalog's size and checksum. A filter must
+ * never report a listed code as absent, so one whose list has since been re-provisioned is stale,
+ * and matches() tells the caller to rebuild it.
+ *
+ * File layout: a 32 byte header of [int magic][int version][int hash count][int list checksum]
+ * [long bit count][long list size], followed by the bits as longs.
+ */
+class BloomFilter {
+
+    private static final int MAGIC = 0x565A4246;   // "VZBF"
+    private static final int VERSION = 2;   // Version 1 did not record the list it was built from
+    private static final int HEADER_SIZE = 32;
+    private static final long MAX_BITS = (long) Integer.MAX_VALUE * Long.SIZE;
+    private static final int MAX_HASHES = 30;
+
+    private final long[] mBits;
+    private final long mBitCount;
+    private final int mHashCount;
+    private long mListSize = -1;   // Size of the catalog the filter was built from, or -1 if unknown
+    private int mListChecksum;
+
+    /**
+     * Creates an empty filter sized for the given number of codes
+     *
+     * @param expectedEntries - the number of codes that will be added
+     * @param falsePositiveRate - the fraction of absent codes that may be reported as present, such as 0.01
+     */
+    BloomFilter(long expectedEntries, double falsePositiveRate) {
+        if ((falsePositiveRate <= 0) || (falsePositiveRate >= 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        long entries = Math.max(1, expectedEntries);
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        bits = Math.min(MAX_BITS, Math.max(Long.SIZE, (bits + Long.SIZE - 1) / Long.SIZE * Long.SIZE));
+        mBitCount = bits;
+        mHashCount = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) bits / entries * ln2)));
+        mBits = new long[(int) (bits / Long.SIZE)];
+    }
+
+    private BloomFilter(long[] bits, int hashCount, long listSize, int listChecksum) {
+        mBits = bits;
+        mBitCount = (long) bits.length * Long.SIZE;
+        mHashCount = hashCount;
+        mListSize = listSize;
+        mListChecksum = listChecksum;
+    }
+
+    /**
+     * Checks that the filter was built from the given catalog, and not an earlier version of it
+     *
+     * @param catalog - the catalog the filter stands in front of
+     * @return False if the filter must be rebuilt before it can be trusted
+     */
+    boolean matches(ProductCatalog catalog) {
+        return (mListSize == catalog.size()) && (mListChecksum == catalog.checksum());
+    }
+
+    /**
+     * Adds a code to the filter
+     *
+     * @param text - the code
+     */
+    void put(CharSequence text) {
+        long fingerprint = ScanHistory.fingerprint(text);
+        long h1 = fingerprint;
+        long h2 = (fingerprint >>> 32) | (fingerprint << 32) | 1;
+        for (int i = 0; i < mHashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mBitCount;
+            mBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks a code without allocating
+     *
+     * @param text - the code
+     * @return False if the code is definitely not in the filter. True if it may be.
+     */
+    boolean mightContain(CharSequence text) {
+        long fingerprint = ScanHistory.fingerprint(text);
+        long h1 = fingerprint;
+        long h2 = (fingerprint >>> 32) | (fingerprint << 32) | 1;
+        for (int i = 0; i < mHashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mBitCount;
+            if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the filter to a file, replacing it only once the new one is complete
+     *
+     * @param file - the file to write
+     * @throws IOException if the file cannot be written
+     */
+    void save(File file) throws IOException {
+        File newFile = new File(file.getPath() + ".new");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(newFile, "rw")) {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(mHashCount).putInt(mListChecksum).putLong(mBitCount)
+                    .putLong(mListSize);
+            for (long word : mBits) {
+                if (buffer.remaining() < Long.BYTES) {
+                    writeFully(channel, buffer);
+                }
+                buffer.putLong(word);
+            }
+            writeFully(channel, buffer);
+            channel.force(false);
+        }
+        if (!newFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Reads a filter written by save()
+     *
+     * @param file - the file to read
+     * @return The filter
+     * @throws IOException if the file cannot be read or is not a filter
+     */
+    static BloomFilter load(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header);
+            int hashCount = header.getInt(8);
+            int listChecksum = header.getInt(12);
+            long bitCount = header.getLong(16);
+            long listSize = header.getLong(24);
+            if ((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+                throw new IOException(file + " is not a Bloom filter");
+            }
+            if ((hashCount < 1) || (hashCount > MAX_HASHES) || (bitCount <= 0) || (bitCount > MAX_BITS)
+                    || (bitCount % Long.SIZE != 0) || (HEADER_SIZE + bitCount / Byte.SIZE != channel.size())) {
+                throw new IOException(file + " is corrupt");
+            }
+            long[] bits = new long[(int) (bitCount / Long.SIZE)];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            int word = 0;
+            while (word < bits.length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), (long) (bits.length - word) * Long.BYTES));
+                readFully(channel, buffer);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    bits[word++] = buffer.getLong();
+                }
+            }
+            return new BloomFilter(bits, hashCount, listSize, listChecksum);
+        }
+    }
+
+    /**
+     * Builds the filter file for a catalog file. This only uses plain Java, so it can run off
+     * device and the filter can be provisioned alongside the catalog.
+     *
+     * @param catalogFile - a catalog written by ProductCatalog.Builder
+     * @param falsePositiveRate - the fraction of absent codes that may be reported as present
+     * @param filter - the filter file to write
+     * @throws IOException if a file cannot be read or written
+     */
+    static void build(File catalogFile, double falsePositiveRate, File filter) throws IOException {
+        try (ProductCatalog catalog = new ProductCatalog(catalogFile)) {
+            build(catalog, falsePositiveRate).save(filter);
+        }
+    }
+
+    /**
+     * Builds a filter holding every SKU of a catalog
+     *
+     * @param catalog - the catalog
+     * @param falsePositiveRate - the fraction of absent codes that may be reported as present
+     * @return The filter
+     */
+    static BloomFilter build(ProductCatalog catalog, double falsePositiveRate) {
+        BloomFilter bloomFilter = new BloomFilter(catalog.size(), falsePositiveRate);
+        for (int entry = 0; entry < catalog.size(); entry++) {
+            bloomFilter.put(catalog.getSku(entry));
+        }
+        bloomFilter.mListSize = catalog.size();
+        bloomFilter.mListChecksum = catalog.checksum();
+        return bloomFilter;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ Copyright (c) 2018, Vuzix Corporation
 package com.vuzix.sample.barcode_scan;
 
 import android.app.Activity;
+import android.app.Fragment;
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
@@ -41,6 +42,9 @@ import android.graphics.Bitmap;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.os.Bundle;
+import android.os.Trace;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
@@ -49,17 +53,60 @@ import com.vuzix.sdk.barcode.ScannerFragment;
 import com.vuzix.sdk.barcode.ScannerIntent;
 
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
 
 /**
  * The main activity for the Vuzix M-Series barcode sample application
  */
 public class MainActivity extends Activity implements PermissionsFragment.Listener {
 
+    private static final String TAG = "BarcodeScanner";
     private static final String TAG_PERMISSIONS_FRAGMENT = "permissions";
+    private static final String JOURNAL_FILE_NAME = "scans.journal";
+    private static final String HISTORY_FILE_NAME = "scans.history";
+    private static final String CATALOG_FILE_NAME = "catalog.bin";
+    private static final String CATALOG_DELTA_FILE_NAME = "catalog.delta";
+    private static final String CATALOG_FILTER_FILE_NAME = "catalog.bloom";
+    private static final String BLOCKLIST_FILE_NAME = "blocklist.bin";
+    private static final String BLOCKLIST_FILTER_FILE_NAME = "blocklist.bloom";
+    private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final String UPLOAD_SPOOL_DIRECTORY = "uploads";
+    private static final String LOCAL_UPLOAD_URL = "local";
+    // Trace section names, for systrace and Perfetto
+    private static final String TRACE_SCAN_RESULT = "onScan2Result";
+    private static final String TRACE_HANDLE_RESULT = "onScanFragmentScanResult";
+    private static final String TRACE_SHOW_SCAN_RESULT = "showScanResult";
+    private static final int UPLOAD_BATCH_SIZE = 50;
+    private static final long UPLOAD_BATCH_DELAY_MS = 30 * 1000;
+    // Slots only hold pooled results. The bus keeps just the newest frame bitmap.
+    private static final int RESULT_BUS_CAPACITY = 8;
+    // Enough batches for the ring, plus one in the hands of each consumer and the journal's queue
+    private static final int RESULT_POOL_CAPACITY = 2 * RESULT_BUS_CAPACITY;
+    private static final long THUMBNAIL_MEMORY_CEILING = 16 * 1024 * 1024;
+    private static final int EXPECTED_CODES_PER_JOB = 1 << 20;
     private static final int REQUEST_CODE_SCAN = 90001;
     private View scanInstructionsView;
     private ScannerFragment.Listener2 mScannerListener;
+    private ScanProfile mScanProfile;
+    private ScanJournal mScanJournal;
+    private ResultBus mResultBus;
+    private ResultBatch.Pool mResultPool;
+    private boolean mAwaitingScan;   // Only used on the UI thread
+    private volatile int mScannerSession;   // Changed on the UI thread each time a scanner is shown
+    private ResultVote mResultVote;  // Only used on the UI thread. Null if scans need no confirmation.
+    private ResultThumbnailer mResultThumbnailer;
+    private Bitmap mShownThumbnail;
+    private volatile ScanHistory mScanHistory;
+    private boolean mDestroyed;   // Guarded by the activity. Tells a late opener to close what it opened.
+    private volatile ProductCatalog mProductCatalog;
+    private volatile BloomFilter mCatalogFilter;
+    private volatile ProductCatalog mBlocklist;
+    private volatile BloomFilter mBlocklistFilter;
+    private ResultUploader mResultUploader;
+    private MockUploadServer mMockUploadServer;
 
     /**
      * One-time initialization. Sets up the view and the permissions.
@@ -87,10 +134,270 @@ public class MainActivity extends Activity implements PermissionsFragment.Listen
         scanInstructionsView = findViewById(R.id.scan_instructions);
         scanInstructionsView.setVisibility(View.GONE);
 
+        // The decode hints restrict the scanner to the symbologies used at this site
+        mScanProfile = ScanProfile.load(this, R.raw.scan_profiles).get(getString(R.string.scan_profile));
+        if (mScanProfile == null) {
+            mScanProfile = ScanProfile.DEFAULT;
+        }
+        mResultVote = mScanProfile.createVote();
+
+        // Every result is recorded to storage by a background thread
+        mScanJournal = new ScanJournal(new File(getFilesDir(), JOURNAL_FILE_NAME));
+
+        // Results are handed off by the scanner callback, so no consumer can slow the scanner down
+        createResultBus();
+
+        // Result frames are shrunk to the size of the display rather than kept at full resolution
+        DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+        mResultThumbnailer = new ResultThumbnailer(displayMetrics.widthPixels, displayMetrics.heightPixels,
+                THUMBNAIL_MEMORY_CEILING);
+
+        openScanHistory();
+        openProductLists();
+        createResultUploader();
+
         creeateScannerListener();
         //OnScanClick();
     }
 
+    /**
+     * Writes any queued scan results and closes the journal
+     */
+    @Override
+    protected void onDestroy() {
+        mResultBus.close();
+        mResultThumbnailer.close();
+        mScanJournal.close();
+        synchronized (this) {
+            mDestroyed = true;
+        }
+        closeScanHistory(mScanHistory);
+        closeProductList(mProductCatalog);
+        closeProductList(mBlocklist);
+        if (mResultUploader != null) {
+            mResultUploader.close();
+        }
+        if (mMockUploadServer != null) {
+            try {
+                mMockUploadServer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to stop the mock upload server", e);
+            }
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Creates the uploader for accepted results. The endpoint comes from R.string.upload_url. An
+     * empty value disables uploads, and "local" sends them to a MockUploadServer in this process.
+     * Only debug builds have one, and the debug resources make it the default.
+     */
+    private void createResultUploader() {
+        String uploadUrl = getString(R.string.upload_url);
+        if (uploadUrl.isEmpty()) {
+            return;
+        }
+        try {
+            URL endpoint;
+            if (uploadUrl.equals(LOCAL_UPLOAD_URL)) {
+                mMockUploadServer = new MockUploadServer();
+                endpoint = mMockUploadServer.getUrl();
+            } else {
+                endpoint = new URL(uploadUrl);
+            }
+            mResultUploader = new ResultUploader(new File(getFilesDir(), UPLOAD_SPOOL_DIRECTORY), endpoint,
+                    UPLOAD_BATCH_SIZE, UPLOAD_BATCH_DELAY_MS);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to set up result uploads", e);
+        }
+    }
+
+    /**
+     * Maps the history of the current job on a background thread
+     *
+     * The history is mapped from storage, so there is nothing to rebuild, but a new job's table is
+     * tens of megabytes that must be created and forced to storage. Scans are simply not checked
+     * against the history until it is open.
+     */
+    private void openScanHistory() {
+        final File historyFile = new File(getFilesDir(), HISTORY_FILE_NAME);
+        new Thread("Scan History") {
+            @Override
+            public void run() {
+                ScanHistory scanHistory;
+                try {
+                    scanHistory = new ScanHistory(historyFile, EXPECTED_CODES_PER_JOB);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open scan history", e);
+                    return;
+                }
+                synchronized (MainActivity.this) {
+                    if (!mDestroyed) {
+                        mScanHistory = scanHistory;
+                        return;
+                    }
+                }
+                closeScanHistory(scanHistory);
+            }
+        }.start();
+    }
+
+    private void closeScanHistory(ScanHistory scanHistory) {
+        if (scanHistory != null) {
+            try {
+                scanHistory.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to close scan history", e);
+            }
+        }
+    }
+
+    private void closeProductList(ProductCatalog productList) {
+        if (productList != null) {
+            try {
+                productList.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to close product list", e);
+            }
+        }
+    }
+
+    /**
+     * Maps the product catalog and blocklist, and loads their Bloom filters, for whichever of them
+     * have been provisioned to the device.
+     *
+     * Any pending delta file is merged into the catalog first. A filter that does not match its
+     * list, such as after a merge or a re-provisioned list, is rebuilt. That rewrites files, so it is
+     * done on a background thread. Scans are simply not checked
+     * against a list until it is open.
+     */
+    private void openProductLists() {
+        final File catalogFile = new File(getFilesDir(), CATALOG_FILE_NAME);
+        final File deltaFile = new File(getFilesDir(), CATALOG_DELTA_FILE_NAME);
+        final File catalogFilterFile = new File(getFilesDir(), CATALOG_FILTER_FILE_NAME);
+        final File blocklistFile = new File(getFilesDir(), BLOCKLIST_FILE_NAME);
+        final File blocklistFilterFile = new File(getFilesDir(), BLOCKLIST_FILTER_FILE_NAME);
+        new Thread("Product Lists") {
+            @Override
+            public void run() {
+                try {
+                    if (blocklistFile.exists()) {
+                        ProductCatalog blocklist = new ProductCatalog(blocklistFile);
+                        mBlocklistFilter = openFilter(blocklist, blocklistFilterFile);
+                        mBlocklist = blocklist;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open blocklist", e);
+                }
+                try {
+                    if (deltaFile.exists()) {
+                        if (catalogFile.exists()) {
+                            ProductCatalog.Builder.applyDelta(catalogFile, deltaFile);
+                        }
+                        deltaFile.delete();
+                    }
+                    if (catalogFile.exists()) {
+                        ProductCatalog productCatalog = new ProductCatalog(catalogFile);
+                        mCatalogFilter = openFilter(productCatalog, catalogFilterFile);
+                        mProductCatalog = productCatalog;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open product catalog", e);
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Loads the Bloom filter of a product list. It is rebuilt if it is missing, unreadable, or was
+     * built from another version of the list, since a stale filter would turn listed codes away.
+     *
+     * @param productList - the list
+     * @param filterFile - where the filter is kept
+     * @return The filter
+     */
+    private static BloomFilter openFilter(ProductCatalog productList, File filterFile) {
+        if (filterFile.exists()) {
+            try {
+                BloomFilter filter = BloomFilter.load(filterFile);
+                if (filter.matches(productList)) {
+                    return filter;
+                }
+                Log.i(TAG, filterFile + " was built from another version of its list. Rebuilding it.");
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to load " + filterFile + ". Rebuilding it.", e);
+            }
+        }
+        BloomFilter filter = BloomFilter.build(productList, FILTER_FALSE_POSITIVE_RATE);
+        try {
+            filter.save(filterFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save " + filterFile, e);
+        }
+        return filter;
+    }
+
+    /**
+     * Checks a code against a product list, consulting its Bloom filter first when there is one
+     *
+     * @param filter - the filter of the list, or null
+     * @param productList - the list
+     * @param text - the scanned code
+     * @return True if the code is in the list
+     */
+    private static boolean isListed(BloomFilter filter, ProductCatalog productList, CharSequence text) {
+        if ((filter != null) && !filter.mightContain(text)) {
+            return false;
+        }
+        return productList.contains(text);
+    }
+
+    /**
+     * Creates the bus that carries results from the scanner callback to their consumers. The
+     * journal sees every result. The user interface only ever needs the newest one.
+     *
+     * Results are copied into pooled batches as they arrive, and the batches are recycled once
+     * every consumer is done with them.
+     */
+    private void createResultBus() {
+        mResultPool = new ResultBatch.Pool(RESULT_POOL_CAPACITY);
+        mResultBus = new ResultBus(RESULT_BUS_CAPACITY);
+        mResultBus.addConsumer("Scan Journal Feed", ResultBus.POLICY_BLOCK, new ResultBus.Consumer() {
+            @Override
+            public void onResults(Bitmap bitmap, ResultBatch results) {
+                mScanJournal.append(results);
+            }
+
+            @Override
+            public void onDropped(long count) {
+                // Never called for POLICY_BLOCK
+            }
+        });
+        mResultBus.addConsumer("Scan Results", ResultBus.POLICY_LATEST, new ResultBus.Consumer() {
+            @Override
+            public void onResults(final Bitmap bitmap, final ResultBatch results) {
+                results.retain();   // Until the UI thread has looked at them
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Trace.beginSection(TRACE_HANDLE_RESULT);
+                        try {
+                            onScanFragmentScanResult(bitmap, results);
+                        } finally {
+                            results.release();
+                            Trace.endSection();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onDropped(long count) {
+                Log.d(TAG, "Skipped " + count + " stale scan results");
+            }
+        });
+    }
+
     /**
      * Called upon permissions being granted. This is the only way we show the scanner with API 23
      */
@@ -104,8 +411,19 @@ public class MainActivity extends Activity implements PermissionsFragment.Listen
      */
     private void showScanner() {
         ScannerFragment scannerFragment = new ScannerFragment();
+        String[] symbologies = mScanProfile.getSymbologyNames();
+        if (symbologies != null) {
+            Bundle args = new Bundle();
+            args.putStringArray(ScannerFragment.ARG_BARCODE2_TYPES, symbologies);
+            scannerFragment.setArguments(args);
+        }
         getFragmentManager().beginTransaction().replace(R.id.fragment_container, scannerFragment).commit();
+        mScannerSession++;   // Batches still on the bus from the last scanner are now stale
         scannerFragment.setListener2(mScannerListener);                 // Required to get scan results
+        mAwaitingScan = true;
+        if (mResultVote != null) {
+            mResultVote.reset();
+        }
         scanInstructionsView.setVisibility(View.VISIBLE);  // Put the instructions back on the screen
     }
 
@@ -121,7 +439,14 @@ public class MainActivity extends Activity implements PermissionsFragment.Listen
             class OurScannerListener implements ScannerFragment.Listener2 {
                 @Override
                 public void onScan2Result(Bitmap bitmap, ScanResult2[] results) {
-                    onScanFragmentScanResult(bitmap,results);
+                    Trace.beginSection(TRACE_SCAN_RESULT);
+                    try {
+                        ResultBatch batch = mResultPool.acquire();
+                        batch.set(results, System.currentTimeMillis(), mScannerSession);
+                        mResultBus.publish(bitmap, batch);
+                    } finally {
+                        Trace.endSection();
+                    }
                 }
 
                 @Override
@@ -143,16 +468,55 @@ public class MainActivity extends Activity implements PermissionsFragment.Listen
 
     /**
      * This callback gives us the scan result.  This is relayed through mScannerListener.onScanResult
+     * and mResultBus, so it may arrive after the scanner has already been replaced. Each batch
+     * carries the scanner session it came from, and batches from an earlier scanner are dropped.
      *
      * This sample calls a helper class to display the result to the screen
      *
+     * If the profile requires confirmation, a result is only accepted once enough of the recent
+     * frames agree on it. Frames skipped by the bus are not counted.
+     *
      * @param bitmap -  the bitmap in which barcodes were found
-     * @param results -  an array of ScanResult
+     * @param results -  the results, only valid until this returns
      */
-    private void onScanFragmentScanResult(Bitmap bitmap, ScanResult2[] results) {
-        ScannerFragment scannerFragment = (ScannerFragment)getFragmentManager().findFragmentById(R.id.fragment_container);
-        scannerFragment.setListener2(null);
-        showScanResult(bitmap, results[0]);
+    private void onScanFragmentScanResult(Bitmap bitmap, ResultBatch results) {
+        if (!mAwaitingScan || (results.getSession() != mScannerSession) || isFinishing()) {
+            return;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            ResultRecord result = results.get(i);
+            if (mScanProfile.accepts(result)) {
+                if ((mResultVote != null) && !mResultVote.offer(ScanHistory.fingerprint(result.getText()))) {
+                    return;   // Keep scanning until enough frames agree
+                }
+                Fragment fragment = getFragmentManager().findFragmentById(R.id.fragment_container);
+                if (fragment instanceof ScannerFragment) {
+                    ((ScannerFragment)fragment).setListener2(null);
+                }
+                mAwaitingScan = false;
+                ScanHistory scanHistory = mScanHistory;
+                if ((scanHistory != null)
+                        && (scanHistory.record(ScanHistory.fingerprint(result.getText()), System.currentTimeMillis()) > 0)) {
+                    Toast.makeText(this, R.string.already_scanned, Toast.LENGTH_SHORT).show();
+                }
+                ProductCatalog blocklist = mBlocklist;
+                ProductCatalog productCatalog = mProductCatalog;
+                if ((blocklist != null) && isListed(mBlocklistFilter, blocklist, result.getText())) {
+                    Toast.makeText(this, R.string.blocked_code, Toast.LENGTH_LONG).show();
+                } else if ((productCatalog != null) && !isListed(mCatalogFilter, productCatalog, result.getText())) {
+                    Toast.makeText(this, R.string.not_in_catalog, Toast.LENGTH_SHORT).show();
+                }
+                if (mResultUploader != null) {
+                    mResultUploader.enqueue(result);
+                }
+                showScanResult(bitmap, result);
+                return;
+            }
+        }
+        // Nothing matched the scan profile. Keep the scanner running for the next frame.
+        if (mResultVote != null) {
+            mResultVote.offer(ResultVote.NO_RESULT);
+        }
     }
 
     /**
@@ -169,18 +533,48 @@ public class MainActivity extends Activity implements PermissionsFragment.Listen
     /**
      * Helper method to show a scan result
      *
+     * The full resolution bitmap is shrunk on a background thread, and only the thumbnail is kept.
+     *
      * @param bitmap -  the bitmap in which barcodes were found
-     * @param result -  an array of ScanResult
+     * @param result -  the result. Its text and points are copied, since it is recycled when we return.
      */
-    private void showScanResult(Bitmap bitmap, ScanResult2 result) {
+    private void showScanResult(Bitmap bitmap, ResultRecord result) {
+        final String text = result.getText().toString();
+        final int[] points = Arrays.copyOf(result.getPoints(), 2 * result.getPointCount());
+        final int session = mScannerSession;
         scanInstructionsView.setVisibility(View.GONE);
-        ScanResultFragment scanResultFragment = new ScanResultFragment();
-        Bundle args = new Bundle();
-        args.putParcelable(ScanResultFragment.ARG_BITMAP, bitmap);
-        args.putParcelable(ScanResultFragment.ARG_SCAN_RESULT, result);
-        scanResultFragment.setArguments(args);
-        getFragmentManager().beginTransaction().replace(R.id.fragment_container, scanResultFragment).commit();
         beep();
+        mResultThumbnailer.requestThumbnail(bitmap, new ResultThumbnailer.Callback() {
+            @Override
+            public void onThumbnail(Bitmap thumbnail, float scale) {
+                if (mAwaitingScan || (session != mScannerSession) || isFinishing()) {
+                    // The user went back to scanning before the thumbnail was ready
+                    if (thumbnail != null) {
+                        mResultThumbnailer.release(thumbnail);
+                    }
+                    return;
+                }
+                ScanResultFragment scanResultFragment = new ScanResultFragment();
+                Bundle args = new Bundle();
+                args.putParcelable(ScanResultFragment.ARG_BITMAP, thumbnail);
+                args.putFloat(ScanResultFragment.ARG_BITMAP_SCALE, scale);
+                args.putString(ScanResultFragment.ARG_TEXT, text);
+                args.putIntArray(ScanResultFragment.ARG_POINTS, points);
+                scanResultFragment.setArguments(args);
+                Trace.beginSection(TRACE_SHOW_SCAN_RESULT);
+                try {
+                    getFragmentManager().beginTransaction().replace(R.id.fragment_container, scanResultFragment).commit();
+                } finally {
+                    Trace.endSection();
+                }
+
+                // The previous result was replaced by the scanner long ago, so its thumbnail can be reused
+                if (mShownThumbnail != null) {
+                    mResultThumbnailer.release(mShownThumbnail);
+                }
+                mShownThumbnail = thumbnail;
+            }
+        });
     }
 
     /**
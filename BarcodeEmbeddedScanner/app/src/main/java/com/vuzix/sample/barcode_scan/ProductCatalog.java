@@ -0,0 +1,451 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only catalog of known SKUs, looked up directly from a memory-mapped file
+ *
+ * The headset is often offline, so scanned codes are validated against a local copy of the
+ * catalog. With millions of SKUs, loading the catalog onto the heap would be too slow and too
+ * large. Instead the file holds an index sorted by the 64-bit fingerprint of each SKU (see
+ * ScanHistory.fingerprint()), followed by the SKU text and an optional description. A lookup is a
+ * binary search over the mapped index, followed by a comparison of the stored UTF-8 bytes against
+ * the scanned text. Neither step allocates.
+ *
+ * File layout: a 32 byte header, count index entries of [long fingerprint][int data offset], and
+ * the data section of [short length][UTF-8 SKU][short length][UTF-8 description] records.
+ *
+ * Catalog files are written by the Builder, either from a full text list or by merging a delta
+ * file into an existing catalog. The Builder only uses plain Java, so it can also run off device.
+ */
+class ProductCatalog implements Closeable {
+
+    /** Returned by find() for an unknown SKU */
+    static final int NOT_FOUND = -1;
+
+    private static final int MAGIC = 0x565A4354;   // "VZCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_COUNT = 8;
+    private static final int OFFSET_DATA_SIZE = 16;
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mIndex;
+    private final MappedByteBuffer mData;
+    private final int mCount;
+    private long mChecksum = -1;   // Computed on first use
+
+    /**
+     * Maps a catalog file
+     *
+     * @param file - a file written by the Builder
+     * @throws IOException if the file cannot be mapped or is not a catalog
+     */
+    ProductCatalog(File file) throws IOException {
+        mRandomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mRandomAccessFile.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if ((header.getInt(OFFSET_MAGIC) != MAGIC) || (header.getInt(OFFSET_VERSION) != VERSION)) {
+                throw new IOException(file + " is not a product catalog");
+            }
+            mCount = header.getInt(OFFSET_COUNT);
+            long indexSize = (long) mCount * INDEX_ENTRY_SIZE;
+            long dataSize = header.getLong(OFFSET_DATA_SIZE);
+            if ((mCount < 0) || (HEADER_SIZE + indexSize + dataSize > channel.size())) {
+                throw new IOException(file + " is truncated");
+            }
+            mIndex = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, indexSize);
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + indexSize, dataSize);
+        } catch (IOException | RuntimeException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of SKUs in the catalog
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * A checksum of every entry, which changes whenever the catalog is re-provisioned or merged
+     * with a delta. Derived data such as a BloomFilter records it, so a copy left over from an
+     * earlier catalog can be recognized and rebuilt. Reads the whole file the first time it is
+     * called, so call it off the UI thread.
+     *
+     * @return The CRC-32 of the index and data sections
+     */
+    synchronized int checksum() {
+        if (mChecksum < 0) {
+            CRC32 crc = new CRC32();
+            crc.update(mIndex.duplicate());
+            crc.update(mData.duplicate());
+            mChecksum = crc.getValue();
+        }
+        return (int) mChecksum;
+    }
+
+    /**
+     * Looks up a SKU without allocating
+     *
+     * @param sku - the scanned text
+     * @return The entry number of the SKU, or NOT_FOUND
+     */
+    int find(CharSequence sku) {
+        long fingerprint = ScanHistory.fingerprint(sku);
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (fingerprintAt(middle) < fingerprint) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        // Different SKUs with the same fingerprint sit next to each other
+        for (int entry = low; (entry < mCount) && (fingerprintAt(entry) == fingerprint); entry++) {
+            if (textEquals(dataOffsetAt(entry), sku)) {
+                return entry;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @param sku - the scanned text
+     * @return True if the SKU is in the catalog
+     */
+    boolean contains(CharSequence sku) {
+        return find(sku) != NOT_FOUND;
+    }
+
+    /**
+     * @param entry - an entry number returned by find()
+     * @return The SKU of the entry
+     */
+    String getSku(int entry) {
+        return readText(dataOffsetAt(entry));
+    }
+
+    /**
+     * @param entry - an entry number returned by find()
+     * @return The description of the entry, which may be empty
+     */
+    String getDescription(int entry) {
+        int offset = dataOffsetAt(entry);
+        return readText(offset + 2 + (mData.getShort(offset) & 0xFFFF));
+    }
+
+    /**
+     * Releases the file. The mapping itself is released once it is garbage collected.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    private long fingerprintAt(int entry) {
+        return mIndex.getLong(entry * INDEX_ENTRY_SIZE);
+    }
+
+    private int dataOffsetAt(int entry) {
+        return mIndex.getInt(entry * INDEX_ENTRY_SIZE + 8);
+    }
+
+    private String readText(int offset) {
+        byte[] bytes = new byte[mData.getShort(offset) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mData.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares stored UTF-8 text with a CharSequence, decoding as we go so nothing is allocated
+     */
+    private boolean textEquals(int offset, CharSequence text) {
+        int position = offset + 2;
+        int end = position + (mData.getShort(offset) & 0xFFFF);
+        int index = 0;
+        int length = text.length();
+        while (position < end) {
+            int b = mData.get(position++) & 0xFF;
+            int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+            } else if (b < 0xE0) {
+                codePoint = ((b & 0x1F) << 6) | (mData.get(position++) & 0x3F);
+            } else if (b < 0xF0) {
+                codePoint = ((b & 0x0F) << 12) | ((mData.get(position++) & 0x3F) << 6)
+                        | (mData.get(position++) & 0x3F);
+            } else {
+                codePoint = ((b & 0x07) << 18) | ((mData.get(position++) & 0x3F) << 12)
+                        | ((mData.get(position++) & 0x3F) << 6) | (mData.get(position++) & 0x3F);
+            }
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if ((index + 1 >= length) || (text.charAt(index) != Character.highSurrogate(codePoint))
+                        || (text.charAt(index + 1) != Character.lowSurrogate(codePoint))) {
+                    return false;
+                }
+                index += 2;
+            } else {
+                if ((index >= length) || (text.charAt(index) != codePoint)) {
+                    return false;
+                }
+                index++;
+            }
+        }
+        return index == length;
+    }
+
+    /**
+     * Writes catalog files
+     */
+    static final class Builder {
+
+        private Builder() {
+        }
+
+        /**
+         * Builds a catalog from a text list with one "SKU[TAB description]" per line. Blank lines and
+         * lines starting with # are ignored. A SKU listed twice keeps its last description.
+         *
+         * @param list - the text list
+         * @param catalog - the catalog file to write. It is replaced only once the new one is complete.
+         * @throws IOException if a file cannot be read or written
+         */
+        static void build(File list, File catalog) throws IOException {
+            Map<String, String> products = new LinkedHashMap<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(list), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    int tab = line.indexOf('\t');
+                    products.put((tab < 0) ? line : line.substring(0, tab), (tab < 0) ? "" : line.substring(tab + 1));
+                }
+            }
+            List<Product> sorted = new ArrayList<>(products.size());
+            for (Map.Entry<String, String> product : products.entrySet()) {
+                sorted.add(new Product(product.getKey(), product.getValue()));
+            }
+            Collections.sort(sorted, Product.ORDER);
+            write(sorted, new ArrayList<Product>(), null, catalog);
+        }
+
+        /**
+         * Applies a delta file to an existing catalog. Each line of the delta is either
+         * "+SKU[TAB description]" to add or replace a SKU, or "-SKU" to remove one.
+         *
+         * The existing catalog is streamed rather than loaded, so only the delta is held in memory.
+         *
+         * @param catalog - the catalog to update. It is replaced only once the new one is complete.
+         * @param delta - the delta file
+         * @throws IOException if a file cannot be read or written
+         */
+        static void applyDelta(File catalog, File delta) throws IOException {
+            Map<String, Product> changes = new LinkedHashMap<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(delta), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() < 2 || line.startsWith("#")) {
+                        continue;
+                    }
+                    int tab = line.indexOf('\t');
+                    String sku = (tab < 0) ? line.substring(1) : line.substring(1, tab);
+                    if (line.charAt(0) == '+') {
+                        changes.put(sku, new Product(sku, (tab < 0) ? "" : line.substring(tab + 1)));
+                    } else if (line.charAt(0) == '-') {
+                        changes.put(sku, new Product(sku, null));   // A null description marks a removal
+                    } else {
+                        throw new IOException("Malformed delta line: " + line);
+                    }
+                }
+            }
+            List<Product> sortedChanges = new ArrayList<>(changes.values());
+            Collections.sort(sortedChanges, Product.ORDER);
+            write(new ArrayList<Product>(), sortedChanges, catalog, catalog);
+        }
+
+        /**
+         * Merges the products of an existing catalog with new products and changes, writing the result
+         *
+         * @param products - sorted products to write
+         * @param changes - sorted changes to merge with the existing catalog
+         * @param existing - the existing catalog, or null
+         * @param catalog - the catalog file to write
+         */
+        private static void write(List<Product> products, List<Product> changes, File existing, File catalog)
+                throws IOException {
+            File indexFile = new File(catalog.getPath() + ".index");
+            File dataFile = new File(catalog.getPath() + ".data");
+            File newFile = new File(catalog.getPath() + ".new");
+            int count = 0;
+            long dataSize = 0;
+            try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+                 ProductCatalog old = (existing != null) ? new ProductCatalog(existing) : null) {
+                int oldEntry = 0;
+                int oldCount = (old != null) ? old.size() : 0;
+                int productIndex = 0;
+                int changeIndex = 0;
+                while ((oldEntry < oldCount) || (productIndex < products.size()) || (changeIndex < changes.size())) {
+                    Product next;
+                    if (productIndex < products.size()) {
+                        next = products.get(productIndex++);
+                    } else {
+                        Product current = (oldEntry < oldCount) ? new Product(old.getSku(oldEntry), old.getDescription(oldEntry)) : null;
+                        Product change = (changeIndex < changes.size()) ? changes.get(changeIndex) : null;
+                        int order = (current == null) ? 1 : (change == null) ? -1 : Product.ORDER.compare(current, change);
+                        if (order < 0) {
+                            next = current;
+                            oldEntry++;
+                        } else {
+                            next = change;
+                            changeIndex++;
+                            if (order == 0) {
+                                oldEntry++;   // The change replaces or removes the existing SKU
+                            }
+                        }
+                    }
+                    if (next.mDescription == null) {
+                        continue;
+                    }
+
+                    if (dataSize > Integer.MAX_VALUE) {
+                        throw new IOException("Catalog too large");
+                    }
+                    index.writeLong(next.mFingerprint);
+                    index.writeInt((int) dataSize);
+                    dataSize += writeText(data, next.mSku);
+                    dataSize += writeText(data, next.mDescription);
+                    count++;
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(0);
+                out.writeLong(dataSize);
+                out.writeLong(0);
+                copy(indexFile, out);
+                copy(dataFile, out);
+            }
+            indexFile.delete();
+            dataFile.delete();
+            if (!newFile.renameTo(catalog)) {
+                throw new IOException("Unable to replace " + catalog);
+            }
+        }
+
+        private static int writeText(DataOutputStream out, String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_FIELD_LENGTH) {
+                throw new IOException("Catalog field too long: " + text.substring(0, 32));
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            return 2 + bytes.length;
+        }
+
+        private static void copy(File file, DataOutputStream out) throws IOException {
+            byte[] buffer = new byte[1 << 16];
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * A SKU and its description, in catalog order
+     */
+    private static final class Product {
+        static final Comparator<Product> ORDER = new Comparator<Product>() {
+            @Override
+            public int compare(Product a, Product b) {
+                int order = Long.compare(a.mFingerprint, b.mFingerprint);
+                return (order != 0) ? order : a.mSku.compareTo(b.mSku);
+            }
+        };
+
+        final String mSku;
+        final String mDescription;
+        final long mFingerprint;
+
+        Product(String sku, String description) {
+            mSku = sku;
+            mDescription = description;
+            mFingerprint = ScanHistory.fingerprint(sku);
+        }
+    }
+}
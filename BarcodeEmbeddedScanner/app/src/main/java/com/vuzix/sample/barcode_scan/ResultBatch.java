@@ -0,0 +1,182 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The results of one frame, as pooled ResultRecords
+ *
+ * A batch is taken from a Pool, filled, and handed on. Whoever holds it may retain() it to keep it
+ * past the call it was given in, and must release() it when done. When the last holder releases it,
+ * it goes back to its pool with its records, ready to be refilled for a later frame. So at a steady
+ * frame rate, however many codes each frame holds, results stop costing any garbage.
+ *
+ * Nothing may be read from a batch after it is released, since it may already hold another frame.
+ */
+
+class ResultBatch {
+    private final Pool mPool;
+    private final AtomicInteger mReferences = new AtomicInteger();
+    private ResultRecord[] mRecords = new ResultRecord[0];
+    private int mCount;
+    private int mSession;
+
+    private ResultBatch(Pool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Copies the results of a frame into this batch
+     *
+     * @param results - the results
+     * @param timestamp - wall clock time of the scan in milliseconds
+     * @param session - the scanner session the frame came from, so late batches can be told apart
+     */
+    void set(ScanResult2[] results, long timestamp, int session) {
+        if (mRecords.length < results.length) {
+            ResultRecord[] records = new ResultRecord[results.length];
+            System.arraycopy(mRecords, 0, records, 0, mRecords.length);
+            for (int i = mRecords.length; i < records.length; i++) {
+                records[i] = new ResultRecord();
+            }
+            mRecords = records;
+        }
+        for (int i = 0; i < results.length; i++) {
+            mRecords[i].set(results[i], timestamp);
+        }
+        mCount = results.length;
+        mSession = session;
+    }
+
+    /**
+     * @return The scanner session the frame came from
+     */
+    int getSession() {
+        return mSession;
+    }
+
+    /**
+     * @return The number of results
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @param index - from 0 to size() - 1
+     * @return The result
+     */
+    ResultRecord get(int index) {
+        if (index >= mCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + mCount);
+        }
+        return mRecords[index];
+    }
+
+    /**
+     * Takes another reference to a batch that the caller already holds
+     *
+     * @throws IllegalStateException if the batch has already been recycled
+     */
+    void retain() {
+        if (!tryRetain()) {
+            throw new IllegalStateException("Result batch already recycled");
+        }
+    }
+
+    /**
+     * Takes another reference, unless the batch has already been recycled
+     *
+     * @return False if the batch has been recycled, and was not retained
+     */
+    boolean tryRetain() {
+        while (true) {
+            int references = mReferences.get();
+            if (references <= 0) {
+                return false;
+            }
+            if (mReferences.compareAndSet(references, references + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives up a reference. The last one returns the batch to its pool.
+     */
+    void release() {
+        int references = mReferences.decrementAndGet();
+        if (references == 0) {
+            mPool.recycle(this);
+        } else if (references < 0) {
+            throw new IllegalStateException("Result batch released too often");
+        }
+    }
+
+    /**
+     * Holds batches that are free to be refilled
+     */
+    static final class Pool {
+        private final ArrayBlockingQueue<ResultBatch> mFree;
+
+        /**
+         * @param capacity - the most free batches kept. Any more are left to the garbage collector.
+         *                   Enough for every batch that may be held at once means none are ever created
+         *                   once the pool is warm.
+         */
+        Pool(int capacity) {
+            mFree = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * @return A free batch, or a new one if none are free. The caller holds its one reference.
+         */
+        ResultBatch acquire() {
+            ResultBatch batch = mFree.poll();
+            if (batch == null) {
+                batch = new ResultBatch(this);
+            }
+            batch.mReferences.set(1);
+            return batch;
+        }
+
+        private void recycle(ResultBatch batch) {
+            mFree.offer(batch);
+        }
+    }
+}
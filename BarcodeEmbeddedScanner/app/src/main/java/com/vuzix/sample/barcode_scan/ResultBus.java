@@ -0,0 +1,307 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands scan results from the scanner callback to any number of independent consumers
+ *
+ * Each consumer runs on its own thread and reads from a preallocated ring at its own pace, so a slow
+ * consumer no longer sits on the decoder callback path. publish() takes no locks and allocates
+ * nothing. It must only be called from one thread at a time, which the scanner callback is.
+ *
+ * What happens when a consumer falls a full ring behind is chosen per consumer:
+ *  - POLICY_BLOCK: publish() waits for the consumer, so it sees every result. Use this sparingly,
+ *    since it lets the consumer throttle the scanner again.
+ *  - POLICY_DROP_OLDEST: the consumer skips the results that were overwritten, and is told how many.
+ *  - POLICY_LATEST: the consumer always jumps to the newest result, skipping any it has not read.
+ *
+ * Every slot carries the sequence number of the result in it. A consumer reads that number before
+ * and after copying the slot, so it can tell if the slot was overwritten while it was reading.
+ *
+ * Frame bitmaps are full resolution, so they are not kept in the ring. The bus only holds the
+ * bitmap of the newest result, and only POLICY_LATEST consumers are given it, since they only ever
+ * read the newest result. A POLICY_LATEST consumer that finds a newer result was published while it
+ * was reading skips ahead to that one instead.
+ *
+ * Results travel as pooled ResultBatches. The ring holds one reference to each batch, given up when
+ * its slot is reused, and a consumer holds another for the length of its callback. A batch is
+ * therefore recycled as soon as it has been dispatched to everyone who reads it.
+ */
+class ResultBus {
+    private static final String LOG_TAG = "BarcodeScanner";
+
+    static final int POLICY_BLOCK = 0;
+    static final int POLICY_DROP_OLDEST = 1;
+    static final int POLICY_LATEST = 2;
+
+    private static final long WRITING = -1;
+    private static final long PRODUCER_WAIT_NANOS = 50 * 1000;
+
+    /**
+     * Receives results on its own thread
+     */
+    interface Consumer {
+        /**
+         * @param bitmap - the bitmap in which barcodes were found. Always null for consumers that are
+         *               not POLICY_LATEST.
+         * @param results - the results, exactly as given to publish(). Only valid until this returns,
+         *                unless the consumer retains them, and then releases them when done.
+         */
+        void onResults(Bitmap bitmap, ResultBatch results);
+
+        /**
+         * @param count - the number of results skipped because this consumer fell behind
+         */
+        void onDropped(long count);
+    }
+
+    private final Slot[] mSlots;
+    private final int mMask;
+    private final AtomicLong mCursor = new AtomicLong(-1);   // The last published sequence
+    // Replaced rather than modified, so publish() can read them without a lock
+    private volatile ConsumerThread[] mConsumers = new ConsumerThread[0];
+    private volatile ConsumerThread[] mBlockingConsumers = new ConsumerThread[0];
+    private long mNext;   // Only used by the publishing thread
+    // The newest bitmap and its sequence, written like a slot so a reader can tell they match
+    private volatile long mBitmapSequence = WRITING;
+    private volatile Bitmap mBitmap;
+    private volatile boolean mClosed;
+
+    /**
+     * @param capacity - the number of results held in the ring. Rounded up to a power of two.
+     */
+    ResultBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mSlots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Slot();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * Adds a consumer and starts its thread. Consumers should be added before results are
+     * published. A consumer only sees results published after it was added.
+     *
+     * @param name - the name of the consumer thread
+     * @param policy - one of the POLICY_ constants
+     * @param consumer - receives the results
+     */
+    synchronized void addConsumer(String name, int policy, Consumer consumer) {
+        ConsumerThread thread = new ConsumerThread(name, policy, consumer, mCursor.get());
+        mConsumers = append(mConsumers, thread);
+        if (policy == POLICY_BLOCK) {
+            mBlockingConsumers = append(mBlockingConsumers, thread);
+        }
+        thread.start();
+    }
+
+    /**
+     * Publishes the results of one frame to every consumer. Only call from one thread at a time.
+     *
+     * @param bitmap - the bitmap in which barcodes were found
+     * @param results - the results. The bus takes over the caller's reference.
+     */
+    void publish(Bitmap bitmap, ResultBatch results) {
+        if (mClosed) {
+            results.release();
+            return;
+        }
+        long sequence = mNext;
+        waitForBlockingConsumers(sequence - mSlots.length);
+
+        Slot slot = mSlots[(int) (sequence & mMask)];
+        ResultBatch replaced = slot.mResults;
+        slot.mSequence = WRITING;
+        slot.mResults = results;
+        slot.mSequence = sequence;
+        mBitmapSequence = WRITING;
+        mBitmap = bitmap;
+        mBitmapSequence = sequence;
+        mCursor.set(sequence);
+        mNext = sequence + 1;
+        if (replaced != null) {
+            replaced.release();   // After the slot is marked, so a consumer cannot take it up again
+        }
+
+        for (ConsumerThread consumer : mConsumers) {
+            consumer.wake();
+        }
+    }
+
+    /**
+     * Stops every consumer once it has read what has already been published, and waits for them
+     */
+    void close() {
+        mClosed = true;
+        ConsumerThread[] consumers = mConsumers;
+        for (ConsumerThread consumer : consumers) {
+            LockSupport.unpark(consumer);
+        }
+        for (ConsumerThread consumer : consumers) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static ConsumerThread[] append(ConsumerThread[] consumers, ConsumerThread consumer) {
+        ConsumerThread[] result = new ConsumerThread[consumers.length + 1];
+        System.arraycopy(consumers, 0, result, 0, consumers.length);
+        result[consumers.length] = consumer;
+        return result;
+    }
+
+    /**
+     * Waits until every blocking consumer has read the given sequence, so its slot may be reused
+     */
+    private void waitForBlockingConsumers(long sequence) {
+        if (sequence < 0) {
+            return;
+        }
+        for (ConsumerThread consumer : mBlockingConsumers) {
+            while ((consumer.mRead.get() < sequence) && consumer.isAlive()) {
+                LockSupport.parkNanos(PRODUCER_WAIT_NANOS);
+            }
+        }
+    }
+
+    /**
+     * One entry in the ring
+     */
+    private static final class Slot {
+        volatile long mSequence = WRITING;
+        ResultBatch mResults;
+    }
+
+    /**
+     * Reads the ring for one consumer
+     */
+    private class ConsumerThread extends Thread {
+        final int mPolicy;
+        final Consumer mConsumer;
+        final AtomicLong mRead;   // The last sequence this consumer is done with
+        volatile boolean mWaiting;
+
+        ConsumerThread(String name, int policy, Consumer consumer, long start) {
+            super(name);
+            mPolicy = policy;
+            mConsumer = consumer;
+            mRead = new AtomicLong(start);
+        }
+
+        void wake() {
+            if (mWaiting) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = mRead.get() + 1;
+            while (true) {
+                long available = mCursor.get();
+                if (next > available) {
+                    if (mClosed) {
+                        return;
+                    }
+                    mWaiting = true;
+                    if (mCursor.get() < next && !mClosed) {
+                        LockSupport.park(this);
+                    }
+                    mWaiting = false;
+                    continue;
+                }
+
+                long skipTo = next;
+                if (mPolicy == POLICY_LATEST) {
+                    skipTo = available;
+                } else if ((mPolicy == POLICY_DROP_OLDEST) && (available - next >= mSlots.length)) {
+                    skipTo = available - mSlots.length + 1;
+                }
+                if (skipTo > next) {
+                    notifyDropped(skipTo - next);
+                    next = skipTo;
+                }
+
+                Slot slot = mSlots[(int) (next & mMask)];
+                if (slot.mSequence != next) {
+                    continue;   // Being overwritten. Go round again to skip ahead once it is published.
+                }
+                ResultBatch results = slot.mResults;
+                if (!results.tryRetain()) {
+                    continue;   // Recycled, so the slot has been reused
+                }
+                if (slot.mSequence != next) {
+                    results.release();
+                    continue;   // Overwritten while we were reading it
+                }
+                Bitmap bitmap = null;
+                if (mPolicy == POLICY_LATEST) {
+                    bitmap = mBitmap;
+                    if (mBitmapSequence != next) {
+                        results.release();
+                        continue;   // A newer result has been published. Go round again to take that.
+                    }
+                }
+                // Let go of the slot before the callback, so a blocked producer can move on
+                mRead.set(next);
+                next++;
+                try {
+                    mConsumer.onResults(bitmap, results);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, getName() + " failed", e);
+                } finally {
+                    results.release();
+                }
+            }
+        }
+
+        private void notifyDropped(long count) {
+            try {
+                mConsumer.onDropped(count);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, getName() + " failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import android.graphics.Point;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+
+/**
+ * One scan result held as primitives, in buffers that are reused from frame to frame
+ *
+ * A ScanResult2 carries a String and a Point object per corner. Copied into a record, a result is
+ * a symbology id, an int[] of x0, y0, x1, y1... and the text in a byte buffer. The buffers
+ * only grow, so once they have seen the longest code of a job, refilling a record allocates nothing.
+ *
+ * Text is stored one byte per char while every char fits in eight bits, which covers nearly every
+ * code we scan, and two bytes per char otherwise. getText() reads it in place as a CharSequence,
+ * which is what the profile, the vote, the product lists and the journal all take.
+ *
+ * Records belong to a ResultBatch, and are only valid while the batch is retained.
+ */
+
+class ResultRecord {
+
+    private long mTimestamp;
+    private int mSymbology = ScanResultCodec.UNKNOWN_SYMBOLOGY;
+    private int[] mPoints = new int[8];
+    private int mPointCount;
+    private byte[] mText = new byte[32];
+    private int mTextLength;   // In chars
+    private boolean mWide;     // Two bytes per char
+    private final CharSequence mTextView = new CharSequence() {
+        @Override
+        public int length() {
+            return mTextLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((index < 0) || (index >= mTextLength)) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + mTextLength);
+            }
+            if (mWide) {
+                return (char) (((mText[2 * index] & 0xFF) << 8) | (mText[2 * index + 1] & 0xFF));
+            }
+            return (char) (mText[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[mTextLength];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    };
+
+    /**
+     * Copies a result into this record
+     *
+     * @param result - the result
+     * @param timestamp - wall clock time of the scan in milliseconds
+     */
+    void set(ScanResult2 result, long timestamp) {
+        mTimestamp = timestamp;
+        BarcodeType2 type = result.getBarcodeType();
+        mSymbology = ScanResultCodec.symbologyId(type);
+
+        Point[] points = result.getResultPoints();
+        mPointCount = (points != null) ? points.length : 0;
+        if (mPoints.length < mPointCount * 2) {
+            mPoints = new int[mPointCount * 2];
+        }
+        for (int i = 0; i < mPointCount; i++) {
+            mPoints[2 * i] = points[i].x;
+            mPoints[2 * i + 1] = points[i].y;
+        }
+
+        String text = result.getText();
+        int length = (text != null) ? text.length() : 0;
+        boolean wide = false;
+        for (int i = 0; (i < length) && !wide; i++) {
+            wide = text.charAt(i) > 0xFF;
+        }
+        int size = wide ? length * 2 : length;
+        if (mText.length < size) {
+            mText = new byte[size];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (wide) {
+                mText[2 * i] = (byte) (c >> 8);
+                mText[2 * i + 1] = (byte) c;
+            } else {
+                mText[i] = (byte) c;
+            }
+        }
+        mTextLength = length;
+        mWide = wide;
+    }
+
+    /**
+     * @return Wall clock time of the scan in milliseconds
+     */
+    long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return Stored id of the symbology from ScanResultCodec.symbologyId(), or
+     *         ScanResultCodec.UNKNOWN_SYMBOLOGY
+     */
+    int getSymbology() {
+        return mSymbology;
+    }
+
+    /**
+     * @return The symbology, or null if it is not known
+     */
+    BarcodeType2 getBarcodeType() {
+        return ScanResultCodec.barcodeType(mSymbology);
+    }
+
+    /**
+     * @return The decoded text, read in place. Only valid until the record is refilled. Call
+     *         toString() on it for a copy that outlives the record.
+     */
+    CharSequence getText() {
+        return mTextView;
+    }
+
+    /**
+     * @return The number of result points
+     */
+    int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @return The result points as x0, y0, x1, y1... Only the first 2 * getPointCount() ints are
+     *         valid, and only until the record is refilled.
+     */
+    int[] getPoints() {
+        return mPoints;
+    }
+}
@@ -0,0 +1,190 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Shrinks scan result bitmaps to display size on a background thread
+ *
+ * The scanner hands us a full resolution frame with every result, and keeping it for the result
+ * screen costs several megabytes per scan. Instead the frame is drawn into a display-sized bitmap,
+ * and the reference to the frame is dropped as soon as that is done.
+ *
+ * Thumbnails are taken from a small pool. A thumbnail that is no longer shown is handed back with
+ * release(), and is reconfigured for the next result rather than allocated again. The pool and
+ * the thumbnails in use together stay under a memory ceiling. When a new thumbnail would not fit
+ * even with an empty pool, the callback receives null and the result is shown without an image.
+ */
+class ResultThumbnailer {
+    private static final String LOG_TAG = "BarcodeScanner";
+    private static final int BYTES_PER_PIXEL = 4;   // ARGB_8888
+
+    /**
+     * Receives a thumbnail on the UI thread
+     */
+    interface Callback {
+        /**
+         * @param thumbnail - the thumbnail, or null if it would exceed the memory ceiling
+         * @param scale - thumbnail size divided by source size. Multiply result points by this.
+         */
+        void onThumbnail(Bitmap thumbnail, float scale);
+    }
+
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final long mMemoryCeiling;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);   // Only used on mThread
+    private final Rect mDestination = new Rect();                       // Only used on mThread
+
+    // Guarded by this
+    private final ArrayList<Bitmap> mPool = new ArrayList<>();
+    private long mPoolBytes;
+    private long mInUseBytes;
+
+    /**
+     * @param maxWidth - the widest a thumbnail may be, normally the display width
+     * @param maxHeight - the tallest a thumbnail may be, normally the display height
+     * @param memoryCeiling - the most bytes of thumbnails, pooled and in use, to hold at once
+     */
+    ResultThumbnailer(int maxWidth, int maxHeight, long memoryCeiling) {
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mMemoryCeiling = memoryCeiling;
+        mThread = new HandlerThread("Result Thumbnailer");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Makes a thumbnail of a result bitmap. Holds no reference to the source once the thumbnail is drawn.
+     *
+     * @param source - the full resolution bitmap. It is not modified or recycled.
+     * @param callback - receives the thumbnail on the UI thread
+     */
+    void requestThumbnail(final Bitmap source, final Callback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                float fit = Math.min(1f, Math.min((float) mMaxWidth / source.getWidth(),
+                        (float) mMaxHeight / source.getHeight()));
+                int width = Math.max(1, Math.round(source.getWidth() * fit));
+                int height = Math.max(1, Math.round(source.getHeight() * fit));
+                final float scale = (float) width / source.getWidth();
+                final Bitmap thumbnail = obtain(width, height);
+                if (thumbnail != null) {
+                    mDestination.set(0, 0, width, height);
+                    new Canvas(thumbnail).drawBitmap(source, null, mDestination, mPaint);
+                }
+                // The source is not needed past this point, and the Runnable below does not refer to it
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onThumbnail(thumbnail, scale);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Hands back a thumbnail that is no longer shown, so its memory can be reused
+     *
+     * @param thumbnail - a thumbnail from this object
+     */
+    synchronized void release(Bitmap thumbnail) {
+        long bytes = thumbnail.getAllocationByteCount();
+        mInUseBytes -= bytes;
+        if (mInUseBytes + mPoolBytes + bytes > mMemoryCeiling) {
+            thumbnail.recycle();
+            return;
+        }
+        mPool.add(thumbnail);
+        mPoolBytes += bytes;
+    }
+
+    /**
+     * Stops the worker thread and frees the pool. Thumbnails in use are left to the garbage collector.
+     */
+    synchronized void close() {
+        mThread.quitSafely();
+        for (Bitmap bitmap : mPool) {
+            bitmap.recycle();
+        }
+        mPool.clear();
+        mPoolBytes = 0;
+    }
+
+    /**
+     * Takes a bitmap of the given size from the pool, or allocates one if the ceiling allows
+     *
+     * @return The bitmap, or null if it would exceed the ceiling
+     */
+    private synchronized Bitmap obtain(int width, int height) {
+        long needed = (long) width * height * BYTES_PER_PIXEL;
+        for (int i = 0; i < mPool.size(); i++) {
+            Bitmap bitmap = mPool.get(i);
+            if (bitmap.getAllocationByteCount() >= needed) {
+                mPool.remove(i);
+                mPoolBytes -= bitmap.getAllocationByteCount();
+                mInUseBytes += bitmap.getAllocationByteCount();
+                bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                return bitmap;
+            }
+        }
+        // Nothing big enough. Free pooled bitmaps until a new one fits.
+        while (!mPool.isEmpty() && (mInUseBytes + mPoolBytes + needed > mMemoryCeiling)) {
+            Bitmap bitmap = mPool.remove(mPool.size() - 1);
+            mPoolBytes -= bitmap.getAllocationByteCount();
+            bitmap.recycle();
+        }
+        if (mInUseBytes + mPoolBytes + needed > mMemoryCeiling) {
+            Log.w(LOG_TAG, "Result thumbnail would exceed the " + mMemoryCeiling + " byte ceiling");
+            return null;
+        }
+        mInUseBytes += needed;
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,97 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import java.util.Arrays;
+
+
+/**
+ * Confirms a scan only once K of the last N results agree on it
+ *
+ * A damaged 1D code can decode to the wrong text on one frame and the right text on the next. A
+ * misread that reaches the warehouse system costs far more than the few frames it takes to
+ * confirm a result, so a profile may ask for agreement across frames. Results are compared by
+ * their ScanHistory fingerprints, kept in a fixed ring of longs, so voting allocates nothing and
+ * never compares strings.
+ */
+
+class ResultVote {
+    /** Recorded for a frame that produced no acceptable result. Never a fingerprint. */
+    static final long NO_RESULT = 0;
+
+    private final int mRequired;
+    private final long[] mWindow;   // Fingerprints of the last frames, oldest overwritten first
+    private int mNext;
+
+    /**
+     * @param required - K, the number of frames that must agree
+     * @param window - N, the number of most recent frames considered
+     */
+    ResultVote(int required, int window) {
+        if ((required < 1) || (window < required)) {
+            throw new IllegalArgumentException("Need 1 <= required <= window, got " + required + " of " + window);
+        }
+        mRequired = required;
+        mWindow = new long[window];
+    }
+
+    /**
+     * Records one frame and checks whether its result is now confirmed
+     *
+     * @param fingerprint - the ScanHistory fingerprint of the frame's result, or NO_RESULT
+     * @return True if at least K of the last N frames, including this one, have this fingerprint
+     */
+    synchronized boolean offer(long fingerprint) {
+        long[] window = mWindow;
+        window[mNext] = fingerprint;
+        mNext = (mNext + 1 == window.length) ? 0 : mNext + 1;
+        if (fingerprint == NO_RESULT) {
+            return false;
+        }
+        int agreeing = 0;
+        for (long recorded : window) {
+            if (recorded == fingerprint) {
+                agreeing++;
+            }
+        }
+        return agreeing >= mRequired;
+    }
+
+    /**
+     * Forgets every frame, so the next result must be confirmed from scratch
+     */
+    synchronized void reset() {
+        Arrays.fill(mWindow, NO_RESULT);
+        mNext = 0;
+    }
+}
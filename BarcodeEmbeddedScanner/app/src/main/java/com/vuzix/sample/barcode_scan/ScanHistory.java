@@ -0,0 +1,517 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A persistent record of every code scanned in the current job, answering "already scanned?" in
+ * constant time
+ *
+ * Codes are reduced to a 64-bit fingerprint and kept in an open-addressing hash table with linear
+ * probing. The table lives in a memory-mapped file rather than on the Java heap, so a job with
+ * millions of codes neither has to be rebuilt at startup nor costs heap space. Lookups and updates
+ * use absolute reads and writes on the mapping and allocate nothing.
+ *
+ * File layout: a 32 byte header, then a power-of-two number of 16 byte slots of the form
+ * [long fingerprint][int first seen, seconds since the job's base time][int count]. A fingerprint of
+ * zero marks an empty slot.
+ *
+ * Two different codes share a fingerprint with a probability of about n^2 / 2^65, which is
+ * negligible for the job sizes we expect.
+ *
+ * When the table is 70% full it does not stop to rehash. A table of twice the capacity is created
+ * beside it, new codes go into that, and each record() moves a few dozen slots of the old table
+ * across, so no single call does more than a bounded amount of work. Lookups consult both tables
+ * until the move is complete, when the new file is forced to storage and replaces the old on a
+ * background thread. A move interrupted by the process dying is resumed the next time the history
+ * is opened.
+ */
+class ScanHistory implements Closeable {
+    private static final String LOG_TAG = "BarcodeScanner";
+
+    private static final int MAGIC = 0x565A5348;   // "VZSH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_CAPACITY = 1 << 10;
+    private static final int MAX_CAPACITY = 1 << 26;   // Keeps every slot offset within an int
+    // Grow when the table is this percent full, to keep probe sequences short
+    private static final int MAX_LOAD_PERCENT = 70;
+    // Slots of the old table moved per record() while growing. The move finishes long before the
+    // doubled table could itself reach MAX_LOAD_PERCENT.
+    private static final int MIGRATE_SLOTS_PER_RECORD = 64;
+
+    // Header offsets
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_SIZE = 12;
+    private static final int OFFSET_BASE_TIME = 16;
+    private static final int OFFSET_MIGRATED = 24;   // Only in a table being grown into
+
+    // Slot offsets
+    private static final int SLOT_FIRST_SEEN = 8;
+    private static final int SLOT_COUNT = 12;
+
+    private final File mFile;
+    private final File mGrowFile;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mTable;
+    private int mCapacity;
+    private int mMask;
+    private int mSize;        // Distinct codes in both tables
+    private long mBaseTime;
+
+    // The table being moved into mTable while growing, otherwise null. mTable is then in mGrowFile.
+    private RandomAccessFile mOldRandomAccessFile;
+    private MappedByteBuffer mOldTable;
+    private int mOldCapacity;
+    private int mOldMask;
+    private int mMigrated;    // Slots of the old table already moved
+    private boolean mReplacing;   // Every slot has moved, and a thread is replacing the old file
+
+    /**
+     * Maps an existing history file, or creates a new one
+     *
+     * @param file - the history file
+     * @param expectedEntries - number of codes the job is expected to hold. The table grows beyond
+     *                        this if needed, but presizing avoids rehashing during the job.
+     * @throws IOException if the file cannot be mapped
+     */
+    ScanHistory(File file, int expectedEntries) throws IOException {
+        mFile = file;
+        mGrowFile = new File(file.getPath() + ".grow");
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mCapacity = validCapacity(mRandomAccessFile);
+        if (mCapacity == 0) {
+            deleteGrowFile();
+            create(capacityFor(expectedEntries), System.currentTimeMillis());
+            return;
+        }
+        mTable = map(mRandomAccessFile, tableSize(mCapacity));
+        mMask = mCapacity - 1;
+        mSize = mTable.getInt(OFFSET_SIZE);
+        mBaseTime = mTable.getLong(OFFSET_BASE_TIME);
+
+        // Resume a move that was under way when the process last stopped
+        if (mGrowFile.exists()) {
+            RandomAccessFile growRandomAccessFile = new RandomAccessFile(mGrowFile, "rw");
+            int growCapacity = validCapacity(growRandomAccessFile);
+            if (growCapacity == mCapacity * 2) {
+                MappedByteBuffer growTable = map(growRandomAccessFile, tableSize(growCapacity));
+                startMigration(growRandomAccessFile, growTable, growCapacity);
+                mSize = growTable.getInt(OFFSET_SIZE);
+                mMigrated = Math.max(0, Math.min(mOldCapacity, growTable.getInt(OFFSET_MIGRATED)));
+            } else {
+                growRandomAccessFile.close();
+                deleteGrowFile();
+            }
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a code without allocating
+     *
+     * @param text - the decoded text
+     * @return a non-zero 64-bit fingerprint
+     */
+    static long fingerprint(CharSequence text) {
+        // FNV-1a over the UTF-16 code units, followed by the MurmurHash3 finalizer to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash != 0) ? hash : 1;
+    }
+
+    /**
+     * Records a scan of a code
+     *
+     * @param fingerprint - the code's fingerprint
+     * @param timeMillis - wall clock time of the scan
+     * @return How many times the code had been scanned before this call. Zero for a new code.
+     */
+    synchronized int record(long fingerprint, long timeMillis) {
+        try {
+            migrate(MIGRATE_SLOTS_PER_RECORD);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to grow scan history", e);
+        }
+
+        int offset = slotOffset(find(mTable, mMask, fingerprint));
+        if (mTable.getLong(offset) == fingerprint) {
+            int count = mTable.getInt(offset + SLOT_COUNT);
+            mTable.putInt(offset + SLOT_COUNT, count + 1);
+            return count;
+        }
+        if (mOldTable != null) {
+            // Not moved yet. Move it now, so the new count is only ever kept in the new table.
+            int oldOffset = slotOffset(find(mOldTable, mOldMask, fingerprint));
+            if (mOldTable.getLong(oldOffset) == fingerprint) {
+                int count = mOldTable.getInt(oldOffset + SLOT_COUNT);
+                putSlot(mTable, offset, fingerprint, mOldTable.getInt(oldOffset + SLOT_FIRST_SEEN), count + 1);
+                return count;
+            }
+        }
+
+        if (mSize >= mCapacity - 1) {
+            throw new IllegalStateException("Scan history is full");
+        }
+        putSlot(mTable, offset, fingerprint, (int) ((timeMillis - mBaseTime) / 1000), 1);
+        mSize++;
+        mTable.putInt(OFFSET_SIZE, mSize);
+        if (((long) mSize * 100 > (long) mCapacity * MAX_LOAD_PERCENT) && (mCapacity < MAX_CAPACITY)) {
+            try {
+                // Normally long finished, but the rest must move and replace the old file before we grow again
+                migrate(mOldCapacity);
+                if (mOldTable != null) {
+                    mTable.force();
+                    replaceOldFile();
+                }
+                grow();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to grow scan history", e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param fingerprint - the code's fingerprint
+     * @return How many times the code has been scanned, zero if never
+     */
+    synchronized int count(long fingerprint) {
+        int offset = slotOffset(find(mTable, mMask, fingerprint));
+        if (mTable.getLong(offset) == fingerprint) {
+            return mTable.getInt(offset + SLOT_COUNT);
+        }
+        if (mOldTable != null) {
+            offset = slotOffset(find(mOldTable, mOldMask, fingerprint));
+            if (mOldTable.getLong(offset) == fingerprint) {
+                return mOldTable.getInt(offset + SLOT_COUNT);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param fingerprint - the code's fingerprint
+     * @return Wall clock time the code was first scanned, to the second, or -1 if never
+     */
+    synchronized long firstSeen(long fingerprint) {
+        int offset = slotOffset(find(mTable, mMask, fingerprint));
+        if (mTable.getLong(offset) == fingerprint) {
+            return mBaseTime + mTable.getInt(offset + SLOT_FIRST_SEEN) * 1000L;
+        }
+        if (mOldTable != null) {
+            offset = slotOffset(find(mOldTable, mOldMask, fingerprint));
+            if (mOldTable.getLong(offset) == fingerprint) {
+                return mBaseTime + mOldTable.getInt(offset + SLOT_FIRST_SEEN) * 1000L;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Number of distinct codes in the history
+     */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Forgets every code, for example at the start of a new job
+     *
+     * @throws IOException if the file cannot be resized
+     */
+    synchronized void clear() throws IOException {
+        if (mOldTable != null) {
+            // Abandon the move, and keep the original file
+            mRandomAccessFile.close();
+            mRandomAccessFile = mOldRandomAccessFile;
+            clearMigration();
+            deleteGrowFile();
+        }
+        create(MIN_CAPACITY, System.currentTimeMillis());
+    }
+
+    /**
+     * Forces the mapped table to storage
+     */
+    synchronized void force() {
+        mTable.force();
+        if (mOldTable != null) {
+            mOldTable.force();
+        }
+    }
+
+    /**
+     * Forces the table to storage and releases the file
+     *
+     * A move still under way is left in the grow file, and resumed when the history is next opened.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mRandomAccessFile != null) {
+            mTable.force();
+            mRandomAccessFile.close();
+            mRandomAccessFile = null;
+        }
+        if (mOldRandomAccessFile != null) {
+            mOldTable.force();
+            mOldRandomAccessFile.close();
+            clearMigration();
+        }
+    }
+
+    /**
+     * Finds the slot holding a fingerprint, or the empty slot where it belongs
+     */
+    private static int find(MappedByteBuffer table, int mask, long fingerprint) {
+        int slot = (int) fingerprint & mask;
+        while (true) {
+            long key = table.getLong(slotOffset(slot));
+            if ((key == fingerprint) || (key == 0)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Fills in a slot. The value is written before the key, so a torn write never leaves a key
+     * without its value.
+     */
+    private static void putSlot(MappedByteBuffer table, int offset, long fingerprint, int firstSeen, int count) {
+        table.putInt(offset + SLOT_FIRST_SEEN, firstSeen);
+        table.putInt(offset + SLOT_COUNT, count);
+        table.putLong(offset, fingerprint);
+    }
+
+    /**
+     * Replaces the table with an empty one of the given capacity
+     */
+    private void create(int capacity, long baseTime) throws IOException {
+        mRandomAccessFile.setLength(0);   // Zero fills the slots, which marks them empty
+        mRandomAccessFile.setLength(tableSize(capacity));
+        mTable = map(mRandomAccessFile, tableSize(capacity));
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mSize = 0;
+        mBaseTime = baseTime;
+        writeHeader(mTable, capacity, 0, baseTime);
+        mTable.force();
+    }
+
+    /**
+     * Starts moving into a table of twice the capacity. Only the empty file and its header are
+     * written here. The slots are moved a few at a time by migrate().
+     */
+    private void grow() throws IOException {
+        int capacity = mCapacity * 2;
+        RandomAccessFile growRandomAccessFile = new RandomAccessFile(mGrowFile, "rw");
+        growRandomAccessFile.setLength(0);
+        growRandomAccessFile.setLength(tableSize(capacity));
+        MappedByteBuffer growTable = map(growRandomAccessFile, tableSize(capacity));
+        writeHeader(growTable, capacity, mSize, mBaseTime);
+        startMigration(growRandomAccessFile, growTable, capacity);
+    }
+
+    /**
+     * Makes the current table the old one, and the given table the current one
+     */
+    private void startMigration(RandomAccessFile growRandomAccessFile, MappedByteBuffer growTable, int capacity) {
+        mOldRandomAccessFile = mRandomAccessFile;
+        mOldTable = mTable;
+        mOldCapacity = mCapacity;
+        mOldMask = mMask;
+        mMigrated = 0;
+        mRandomAccessFile = growRandomAccessFile;
+        mTable = growTable;
+        mCapacity = capacity;
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Moves up to the given number of slots of the old table into the current one. Once every slot
+     * has been moved, starts a thread to replace the old file.
+     */
+    private void migrate(int slots) throws IOException {
+        if (mOldTable == null) {
+            return;
+        }
+        int end = Math.min(mOldCapacity, mMigrated + slots);
+        for (; mMigrated < end; mMigrated++) {
+            int offset = slotOffset(mMigrated);
+            long key = mOldTable.getLong(offset);
+            if (key == 0) {
+                continue;
+            }
+            int newOffset = slotOffset(find(mTable, mMask, key));
+            if (mTable.getLong(newOffset) != key) {   // record() may already have moved it
+                putSlot(mTable, newOffset, key, mOldTable.getInt(offset + SLOT_FIRST_SEEN),
+                        mOldTable.getInt(offset + SLOT_COUNT));
+            }
+        }
+        if (mMigrated < mOldCapacity) {
+            mTable.putInt(OFFSET_MIGRATED, mMigrated);
+            return;
+        }
+
+        // Forcing tens of megabytes takes far too long for the caller, which is usually the UI thread
+        if (!mReplacing) {
+            mReplacing = true;
+            final MappedByteBuffer table = mTable;
+            new Thread("Scan History") {
+                @Override
+                public void run() {
+                    finishMigration(table);
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * Forces a table whose move is complete, then makes it replace the old file. Runs on its own thread.
+     *
+     * @param table - the table grown into
+     */
+    private void finishMigration(MappedByteBuffer table) {
+        // Not under the lock, so record() carries on meanwhile. The slots it writes reach storage
+        // with the next force(), as they would have anyway.
+        table.force();
+        synchronized (this) {
+            if ((table != mTable) || (mOldTable == null)) {
+                return;   // Cleared, closed or already replaced meanwhile. An unfinished move resumes on open.
+            }
+            try {
+                replaceOldFile();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to replace scan history", e);
+            }
+        }
+    }
+
+    /**
+     * Makes the table grown into replace the old file, once every slot has been moved and forced to storage
+     */
+    private void replaceOldFile() throws IOException {
+        if (!mGrowFile.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mOldRandomAccessFile.close();
+        clearMigration();
+    }
+
+    private void clearMigration() {
+        mOldRandomAccessFile = null;
+        mOldTable = null;
+        mOldCapacity = 0;
+        mOldMask = 0;
+        mMigrated = 0;
+        mReplacing = false;
+    }
+
+    private void deleteGrowFile() throws IOException {
+        if (mGrowFile.exists() && !mGrowFile.delete()) {
+            throw new IOException("Unable to delete " + mGrowFile);
+        }
+    }
+
+    /**
+     * Reads the capacity from the header of a history file
+     *
+     * @return The capacity, or zero if the file is not a complete history table
+     */
+    private static int validCapacity(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return 0;
+        }
+        MappedByteBuffer header = map(file, HEADER_SIZE);
+        if ((header.getInt(OFFSET_MAGIC) != MAGIC) || (header.getInt(OFFSET_VERSION) != VERSION)) {
+            return 0;
+        }
+        int capacity = header.getInt(OFFSET_CAPACITY);
+        boolean valid = (capacity >= MIN_CAPACITY) && (capacity <= MAX_CAPACITY)
+                && (Integer.bitCount(capacity) == 1) && (file.length() >= tableSize(capacity));
+        return valid ? capacity : 0;
+    }
+
+    /**
+     * Writes a table header, with the magic number last so a torn header is never taken as valid
+     */
+    private static void writeHeader(MappedByteBuffer table, int capacity, int size, long baseTime) {
+        table.putInt(OFFSET_CAPACITY, capacity);
+        table.putInt(OFFSET_SIZE, size);
+        table.putLong(OFFSET_BASE_TIME, baseTime);
+        table.putInt(OFFSET_VERSION, VERSION);
+        table.putInt(OFFSET_MAGIC, MAGIC);
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile file, long size) throws IOException {
+        return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private static int capacityFor(int expectedEntries) {
+        long needed = (long) expectedEntries * 100 / MAX_LOAD_PERCENT + 1;
+        int capacity = MIN_CAPACITY;
+        while ((capacity < needed) && (capacity < MAX_CAPACITY)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long tableSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,373 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, crash-safe record of every scan result
+ *
+ * Results are queued by append(), which never touches the disk, and written by a background thread.
+ * The writer takes everything that is queued, writes it with a single channel write and then
+ * forces it to storage once for the whole group. Bursts of scans therefore cost one sync, not one
+ * sync per scan. Results stay in their pooled ResultBatch until they are written, rather than being
+ * copied into objects of their own.
+ *
+ * The file is a header followed by records of the form [int length][int crc32][payload], where
+ * the payload is a result in the ScanResultCodec encoding. A crash
+ * in the middle of a write leaves a torn record at the end of the file. When the journal is opened,
+ * the records are verified and the file is truncated after the last intact one. A journal from an
+ * older version is renamed aside, with the version appended, rather than appended to.
+ */
+class ScanJournal implements Closeable {
+    private static final String LOG_TAG = "BarcodeScanner";
+
+    private static final int MAGIC = 0x565A534A;   // "VZSJ"
+    private static final int VERSION = 3;   // 3 stores stable symbology ids rather than ordinals
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 18;
+
+    private static final ResultBatch CLOSE = new ResultBatch.Pool(1).acquire();
+
+    private final File mFile;
+    private final LinkedBlockingQueue<ResultBatch> mQueue = new LinkedBlockingQueue<>();
+    private final Thread mWriterThread;
+    private final Object mCommitLock = new Object();
+    private long mQueued;      // Guarded by mCommitLock
+    private long mCommitted;   // Guarded by mCommitLock
+    private boolean mClosed;   // Guarded by mCommitLock. Nothing is queued once set.
+
+    /**
+     * Receives the records of a journal, oldest first
+     */
+    interface Visitor {
+        /**
+         * @param record - a reader positioned on the record. It is reused for the next record.
+         */
+        void onRecord(ScanResultCodec.Reader record);
+    }
+
+    /**
+     * Opens the journal, creating it if needed, and starts the writer thread
+     *
+     * Recovery of a torn tail happens on the writer thread, so this is safe to call from the UI thread.
+     *
+     * @param file - the journal file
+     */
+    ScanJournal(File file) {
+        mFile = file;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Scan Journal");
+        mWriterThread.start();
+    }
+
+    /**
+     * Queues the results of a frame to be written. Returns immediately.
+     *
+     * @param results - the results to record. They are retained until written, or until the journal stops.
+     */
+    void append(ResultBatch results) {
+        synchronized (mCommitLock) {
+            // Checked and queued under the lock, so the writer cannot exit in between and strand the batch
+            if (mClosed) {
+                return;
+            }
+            results.retain();
+            mQueued++;
+            mQueue.add(results);
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is on storage
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        synchronized (mCommitLock) {
+            long target = mQueued;
+            while ((mCommitted < target) && mWriterThread.isAlive()) {
+                mCommitLock.wait(100);
+            }
+        }
+    }
+
+    /**
+     * Writes everything queued so far and stops the writer thread. Results appended afterwards are ignored.
+     */
+    @Override
+    public void close() {
+        synchronized (mCommitLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mQueue.add(CLOSE);
+        }
+    }
+
+    /**
+     * Body of the writer thread
+     */
+    private void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        ArrayList<ResultBatch> pending = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        moveAsideOtherVersion(mFile);
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            long end = recover(channel, crc);
+            channel.position(end);
+
+            boolean closing = false;
+            while (!closing) {
+                pending.add(mQueue.take());
+                mQueue.drainTo(pending);
+
+                buffer.clear();
+                for (ResultBatch results : pending) {
+                    if (results == CLOSE) {
+                        closing = true;
+                        continue;
+                    }
+                    for (int i = 0; i < results.size(); i++) {
+                        if (!encode(results.get(i), buffer, crc)) {
+                            // The buffer is full. Write what we have and continue with an empty one.
+                            writeFully(channel, buffer);
+                            buffer.clear();
+                            if (!encode(results.get(i), buffer, crc)) {
+                                Log.e(LOG_TAG, "Scan result too large to journal");
+                            }
+                        }
+                    }
+                }
+                writeFully(channel, buffer);
+                channel.force(false);   // One sync for the whole group
+
+                synchronized (mCommitLock) {
+                    mCommitted += closing ? pending.size() - 1 : pending.size();
+                    mCommitLock.notifyAll();
+                }
+                for (ResultBatch results : pending) {
+                    if (results != CLOSE) {
+                        results.release();
+                    }
+                }
+                pending.clear();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Scan journal failed", e);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Scan journal interrupted");
+        } finally {
+            // Hand back the batches that will never be written, including any that failed mid-write
+            synchronized (mCommitLock) {
+                mClosed = true;
+                mQueue.drainTo(pending);
+                mCommitLock.notifyAll();
+            }
+            for (ResultBatch results : pending) {
+                if (results != CLOSE) {
+                    results.release();
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Appends one record to the buffer
+     *
+     * @return False if the record does not fit. The buffer is left unchanged in that case.
+     */
+    private static boolean encode(ResultRecord result, ByteBuffer buffer, CRC32 crc) {
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return false;
+        }
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER_SIZE);
+        ByteBuffer record = buffer.slice();
+        if (record.remaining() > MAX_RECORD_SIZE) {
+            record.limit(MAX_RECORD_SIZE);
+        }
+        int payloadSize = ScanResultCodec.encode(result.getTimestamp(), result.getSymbology(), result.getText(),
+                result.getPoints(), result.getPointCount(), record);
+        if (payloadSize < 0) {
+            buffer.position(start);
+            return false;
+        }
+        buffer.putInt(start, payloadSize);
+        buffer.position(start + RECORD_HEADER_SIZE + payloadSize);
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + RECORD_HEADER_SIZE);
+        payload.limit(start + RECORD_HEADER_SIZE + payloadSize);
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return true;
+    }
+
+    /**
+     * Renames a journal written by another version, keeping its records, so a new one is started
+     */
+    private static void moveAsideOtherVersion(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        int version;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if ((raf.length() < HEADER_SIZE) || (raf.readInt() != MAGIC)) {
+                return;   // Not a journal at all. recover() starts a new one.
+            }
+            version = raf.readInt();
+        } catch (IOException e) {
+            return;
+        }
+        if (version != VERSION) {
+            File other = new File(file.getPath() + ".v" + version);
+            Log.w(LOG_TAG, "Scan journal is version " + version + ", moving it to " + other);
+            if (!file.renameTo(other)) {
+                Log.e(LOG_TAG, "Unable to move aside " + file);
+            }
+        }
+    }
+
+    /**
+     * Validates the header and records, truncating any torn tail
+     *
+     * @return The offset at which the next record should be written
+     */
+    private static long recover(FileChannel channel, CRC32 crc) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if ((channel.size() < HEADER_SIZE) || (channel.read(header, 0) < HEADER_SIZE)
+                || (header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+            if (channel.size() > 0) {
+                Log.w(LOG_TAG, "Scan journal header invalid, starting a new journal");
+            }
+            channel.truncate(0);
+            header.clear();
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            channel.force(false);
+            return HEADER_SIZE;
+        }
+
+        long end = scan(channel, crc, null);
+        if (end < channel.size()) {
+            Log.w(LOG_TAG, "Discarding " + (channel.size() - end) + " bytes of torn scan journal");
+            channel.truncate(end);
+            channel.force(false);
+        }
+        return end;
+    }
+
+    /**
+     * Walks the intact records of a journal
+     *
+     * @return The offset just past the last intact record
+     */
+    private static long scan(FileChannel channel, CRC32 crc, Visitor visitor) throws IOException {
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        ByteBuffer payload = ByteBuffer.allocate(MAX_RECORD_SIZE);
+        ScanResultCodec.Reader reader = new ScanResultCodec.Reader();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            recordHeader.clear();
+            channel.read(recordHeader, position);
+            int length = recordHeader.getInt(0);
+            if ((length <= 0) || (length > MAX_RECORD_SIZE) || (position + RECORD_HEADER_SIZE + length > size)) {
+                break;
+            }
+            payload.clear();
+            payload.limit(length);
+            while (payload.hasRemaining()) {
+                if (channel.read(payload, position + RECORD_HEADER_SIZE + payload.position()) < 0) {
+                    return position;
+                }
+            }
+            payload.flip();
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != recordHeader.getInt(4)) {
+                break;
+            }
+            if ((visitor != null) && reader.wrap(payload, 0, length)) {
+                visitor.onRecord(reader);
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * Reads every intact record of a journal file. A torn tail is ignored, but not removed.
+     *
+     * @param file - the journal file
+     * @param visitor - receives each record, oldest first
+     * @throws IOException if the file cannot be read
+     */
+    static void replay(File file, Visitor visitor) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if ((channel.read(header, 0) == HEADER_SIZE) && (header.getInt(0) == MAGIC) && (header.getInt(4) == VERSION)) {
+                scan(channel, new CRC32(), visitor);
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import android.graphics.Point;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact binary encoding of a scan result, for journaling, shipping and reloading results
+ *
+ * A Parcelable ScanResult2 costs an object per field and per point. This encoding is a single run
+ * of bytes, usually well under 64 for a 1D code:
+ *
+ *  [byte version][varint symbology + 1][varint timestamp][varint text length][UTF-8 text]
+ *  [varint point count][zigzag varint dx, dy]...
+ *
+ * The symbology is a stable id from SYMBOLOGY_NAMES, not the ordinal of the BarcodeType2, so a
+ * newer SDK that adds or reorders types cannot change what stored results decode to. It is stored
+ * as 0 when it is unknown. Each point is stored
+ * as the difference from the previous point, starting from (0, 0), since the corners of a code are
+ * close together.
+ *
+ * Encoding writes straight into a ByteBuffer. Decoding uses a Reader, which is reused from record
+ * to record and reads the fields in place, so neither allocates unless a String is asked for.
+ */
+final class ScanResultCodec {
+
+    static final int VERSION = 2;
+    /** The symbology of results whose BarcodeType2 is not known */
+    static final int UNKNOWN_SYMBOLOGY = -1;
+
+    /**
+     * The stored symbology ids. The id of a type is its index here. Names may only be appended,
+     * never removed or reordered. Names this SDK does not define are never written, and read back
+     * as UNKNOWN_SYMBOLOGY.
+     */
+    private static final String[] SYMBOLOGY_NAMES = {
+            "AZTEC", "CODABAR", "CODE_39", "CODE_93", "CODE_128", "DATA_MATRIX", "EAN_8", "EAN_13",
+            "ITF", "MAXICODE", "PDF_417", "QR_CODE", "RSS_14", "RSS_EXPANDED", "UPC_A", "UPC_E",
+            "UPC_EAN_EXTENSION"
+    };
+    private static final BarcodeType2[] TYPES_BY_ID = new BarcodeType2[SYMBOLOGY_NAMES.length];
+    private static final int[] IDS_BY_ORDINAL = new int[BarcodeType2.values().length];
+
+    static {
+        Arrays.fill(IDS_BY_ORDINAL, UNKNOWN_SYMBOLOGY);
+        for (int id = 0; id < SYMBOLOGY_NAMES.length; id++) {
+            try {
+                TYPES_BY_ID[id] = BarcodeType2.valueOf(SYMBOLOGY_NAMES[id]);
+                IDS_BY_ORDINAL[TYPES_BY_ID[id].ordinal()] = id;
+            } catch (IllegalArgumentException e) {
+                // Not defined by this version of the SDK
+            }
+        }
+    }
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int MAX_VARLONG_SIZE = 10;
+
+    private ScanResultCodec() {
+    }
+
+    /**
+     * @param type - the symbology, or null
+     * @return The stored id of the symbology, or UNKNOWN_SYMBOLOGY if it has none
+     */
+    static int symbologyId(BarcodeType2 type) {
+        return (type != null) ? IDS_BY_ORDINAL[type.ordinal()] : UNKNOWN_SYMBOLOGY;
+    }
+
+    /**
+     * @param symbology - a stored id, or UNKNOWN_SYMBOLOGY
+     * @return The symbology, or null if the id is unknown to this version of the SDK
+     */
+    static BarcodeType2 barcodeType(int symbology) {
+        return ((symbology >= 0) && (symbology < TYPES_BY_ID.length)) ? TYPES_BY_ID[symbology] : null;
+    }
+
+    /**
+     * @param textLength - length of the text in chars
+     * @param pointCount - the number of points
+     * @return The most bytes a result of this size can encode to
+     */
+    static int maxEncodedLength(int textLength, int pointCount) {
+        return 1 + MAX_VARINT_SIZE + MAX_VARLONG_SIZE + MAX_VARINT_SIZE + textLength * 3
+                + MAX_VARINT_SIZE + pointCount * 2 * MAX_VARINT_SIZE;
+    }
+
+    /**
+     * Encodes a result at the position of the buffer, advancing it
+     *
+     * @param result - the result
+     * @param timestamp - wall clock time of the scan in milliseconds
+     * @param out - the buffer to write to
+     * @return The number of bytes written, or -1 if the result does not fit. The buffer is unchanged in that case.
+     */
+    static int encode(ScanResult2 result, long timestamp, ByteBuffer out) {
+        BarcodeType2 type = result.getBarcodeType();
+        Point[] points = result.getResultPoints();
+        int pointCount = (points != null) ? points.length : 0;
+        int start = out.position();
+        if (!encodeHeader(timestamp, symbologyId(type), result.getText(), out)
+                || (out.remaining() < MAX_VARINT_SIZE + pointCount * 2 * MAX_VARINT_SIZE)) {
+            out.position(start);
+            return -1;
+        }
+        writeVarint(out, pointCount);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < pointCount; i++) {
+            writeVarint(out, zigzag(points[i].x - x));
+            writeVarint(out, zigzag(points[i].y - y));
+            x = points[i].x;
+            y = points[i].y;
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * Encodes a result held as primitives at the position of the buffer, advancing it
+     *
+     * @param timestamp - wall clock time of the scan in milliseconds
+     * @param symbology - stored id of the symbology from symbologyId(), or UNKNOWN_SYMBOLOGY
+     * @param text - the decoded text
+     * @param points - result points as x0, y0, x1, y1...
+     * @param pointCount - the number of points to take from the array
+     * @param out - the buffer to write to
+     * @return The number of bytes written, or -1 if the result does not fit. The buffer is unchanged in that case.
+     */
+    static int encode(long timestamp, int symbology, CharSequence text, int[] points, int pointCount, ByteBuffer out) {
+        int start = out.position();
+        if (!encodeHeader(timestamp, symbology, text, out)
+                || (out.remaining() < MAX_VARINT_SIZE + pointCount * 2 * MAX_VARINT_SIZE)) {
+            out.position(start);
+            return -1;
+        }
+        writeVarint(out, pointCount);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < pointCount * 2; i += 2) {
+            writeVarint(out, zigzag(points[i] - x));
+            writeVarint(out, zigzag(points[i + 1] - y));
+            x = points[i];
+            y = points[i + 1];
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * Writes everything up to the points
+     *
+     * @return False if it does not fit
+     */
+    private static boolean encodeHeader(long timestamp, int symbology, CharSequence text, ByteBuffer out) {
+        int length = (text != null) ? text.length() : 0;
+        int utf8Length = utf8Length(text, length);
+        if (out.remaining() < 1 + MAX_VARINT_SIZE + MAX_VARLONG_SIZE + MAX_VARINT_SIZE + utf8Length) {
+            return false;
+        }
+        out.put((byte) VERSION);
+        writeVarint(out, symbology + 1);
+        writeVarlong(out, timestamp);
+        writeVarint(out, utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');   // Unpaired, as String.getBytes() does
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return true;
+    }
+
+    private static int utf8Length(CharSequence text, int length) {
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(text.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return utf8Length;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void writeVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an encoded result in place. One Reader may be pointed at many records in turn.
+     */
+    static final class Reader {
+        private ByteBuffer mBuffer;
+        private int mStart;
+        private int mLimit;
+        private int mPosition;   // Used while parsing
+        private int mSymbology;
+        private long mTimestamp;
+        private int mTextOffset;
+        private int mTextLength;
+        private int mPointCount;
+        private int mPointsOffset;
+        private int mEncodedLength;
+
+        /**
+         * Points the reader at a record and checks it. Does not change the buffer's position.
+         *
+         * @param buffer - the buffer holding the record
+         * @param offset - the absolute offset of the record in the buffer
+         * @param limit - the offset the record must end at or before
+         * @return False if the record is truncated, malformed or of an unknown version
+         */
+        boolean wrap(ByteBuffer buffer, int offset, int limit) {
+            mBuffer = buffer;
+            mStart = offset;
+            mLimit = Math.min(limit, buffer.limit());
+            mPosition = offset;
+            try {
+                if (readByte() != VERSION) {
+                    return false;
+                }
+                mSymbology = readVarint() - 1;
+                if (barcodeType(mSymbology) == null) {
+                    mSymbology = UNKNOWN_SYMBOLOGY;   // Written by a newer version, or corrupt
+                }
+                mTimestamp = readVarlong();
+                mTextLength = readVarint();
+                mTextOffset = mPosition;
+                if ((mTextLength < 0) || (mTextLength > mLimit - mPosition)) {
+                    return false;
+                }
+                mPosition += mTextLength;
+                mPointCount = readVarint();
+                mPointsOffset = mPosition;
+                if ((mPointCount < 0) || (mPointCount > (mLimit - mPosition) / 2)) {
+                    return false;
+                }
+                for (int i = 0; i < mPointCount * 2; i++) {
+                    readVarint();
+                }
+                mEncodedLength = mPosition - mStart;
+                return true;
+            } catch (IndexOutOfBoundsException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return The number of bytes in the record, so the next one starts at offset + getEncodedLength()
+         */
+        int getEncodedLength() {
+            return mEncodedLength;
+        }
+
+        /**
+         * @return Wall clock time of the scan in milliseconds
+         */
+        long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return Stored id of the symbology, or UNKNOWN_SYMBOLOGY
+         */
+        int getSymbology() {
+            return mSymbology;
+        }
+
+        /**
+         * @return The BarcodeType2, or null if it is unknown to this version of the SDK
+         */
+        BarcodeType2 getBarcodeType() {
+            return barcodeType(mSymbology);
+        }
+
+        /**
+         * @return The number of result points
+         */
+        int getPointCount() {
+            return mPointCount;
+        }
+
+        /**
+         * Decodes the result points into an array
+         *
+         * @param points - receives x0, y0, x1, y1... Must hold at least 2 * getPointCount() ints.
+         * @return The number of points
+         */
+        int getPoints(int[] points) {
+            mPosition = mPointsOffset;
+            int x = 0;
+            int y = 0;
+            for (int i = 0; i < mPointCount * 2; i += 2) {
+                x += unzigzag(readVarint());
+                y += unzigzag(readVarint());
+                points[i] = x;
+                points[i + 1] = y;
+            }
+            return mPointCount;
+        }
+
+        /**
+         * Decodes the text onto the end of a StringBuilder, so a reused builder avoids allocation
+         *
+         * @param builder - receives the text
+         */
+        void appendText(StringBuilder builder) {
+            int position = mTextOffset;
+            int end = mTextOffset + mTextLength;
+            while (position < end) {
+                int b = mBuffer.get(position++) & 0xFF;
+                if (b < 0x80) {
+                    builder.append((char) b);
+                } else if (b < 0xE0) {
+                    builder.append((char) (((b & 0x1F) << 6) | (mBuffer.get(position++) & 0x3F)));
+                } else if (b < 0xF0) {
+                    builder.append((char) (((b & 0x0F) << 12) | ((mBuffer.get(position++) & 0x3F) << 6)
+                            | (mBuffer.get(position++) & 0x3F)));
+                } else {
+                    builder.appendCodePoint(((b & 0x07) << 18) | ((mBuffer.get(position++) & 0x3F) << 12)
+                            | ((mBuffer.get(position++) & 0x3F) << 6) | (mBuffer.get(position++) & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * @return The text as a new String
+         */
+        String getText() {
+            StringBuilder builder = new StringBuilder(mTextLength);
+            appendText(builder);
+            return builder.toString();
+        }
+
+        private int readByte() {
+            if (mPosition >= mLimit) {
+                throw new IndexOutOfBoundsException();
+            }
+            return mBuffer.get(mPosition++) & 0xFF;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        private long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IndexOutOfBoundsException();
+        }
+    }
+}
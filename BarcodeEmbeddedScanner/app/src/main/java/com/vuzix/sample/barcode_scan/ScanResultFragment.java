@@ -39,15 +39,18 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.vuzix.sdk.barcode.ScanResult2;
-
 /**
  * A fragment to show the result of the barcode scan
  */
 public class ScanResultFragment extends Fragment {
 
     public static final String ARG_BITMAP = "bitmap";
-    public static final String ARG_SCAN_RESULT = "scan_result";
+    /** String: the text of the result */
+    public static final String ARG_TEXT = "text";
+    /** Optional int array: the result points as x0, y0, x1, y1... in frame coordinates */
+    public static final String ARG_POINTS = "points";
+    /** Optional float: the size of ARG_BITMAP divided by the size of the frame the result points refer to */
+    public static final String ARG_BITMAP_SCALE = "bitmap_scale";
 
     /**
      * Inflate the correct layout upon creation
@@ -78,10 +81,30 @@ public class ScanResultFragment extends Fragment {
         // the text extracted from the barcode within the image
         Bundle args = getArguments();
         if (args != null) {
-            ScanResult2 scanResult = args.getParcelable(ARG_SCAN_RESULT);
             bitmap.setImageBitmap((Bitmap)args.getParcelable(ARG_BITMAP));
-            bitmap.setLocation(scanResult.getResultPoints());
-            text.setText(scanResult.getText());
+            bitmap.setLocation(scalePoints(args.getIntArray(ARG_POINTS), args.getFloat(ARG_BITMAP_SCALE, 1f)));
+            text.setText(args.getString(ARG_TEXT));
+        }
+    }
+
+    /**
+     * Maps result points from the scanned frame onto a bitmap of a different size
+     *
+     * The points are scaled into a copy, since the array belongs to the arguments, and the view is
+     * created again from the same arguments whenever the fragment is recreated.
+     *
+     * @param points - the result points as x0, y0, x1, y1..., or null
+     * @param scale - the size of the bitmap divided by the size of the frame
+     * @return The scaled points, or the given array if there is nothing to scale
+     */
+    private static int[] scalePoints(int[] points, float scale) {
+        if ((points == null) || (scale == 1f)) {
+            return points;
+        }
+        int[] scaled = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            scaled[i] = Math.round(points[i] * scale);
         }
+        return scaled;
     }
 }
@@ -36,7 +36,6 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
@@ -50,7 +49,7 @@ import android.widget.ImageView;
  */
 public class ScanResultImageView extends ImageView {
 
-    private Point[] location;
+    private int[] location;   // x0, y0, x1, y1...
     private Paint locationPaint;
 
     public ScanResultImageView(Context context) {
@@ -83,18 +82,18 @@ public class ScanResultImageView extends ImageView {
 
     /**
      * Accessor to get the location of the barcode within the image
-     * @return Location of barcode
+     * @return Location of barcode, as x0, y0, x1, y1...
      */
-    public Point[] getLocation() {
+    public int[] getLocation() {
         return location;
     }
 
     /**
      * Mutator to set the location of the barcode within the image, and re-draw accordingly
      *
-     * @param location  Location object defining the recognized barcode within the image
+     * @param location  Corners of the recognized barcode within the image, as x0, y0, x1, y1...
      */
-    public void setLocation(Point[] location) {
+    public void setLocation(int[] location) {
         this.location = location;
         invalidate();
     }
@@ -113,11 +112,12 @@ public class ScanResultImageView extends ImageView {
             if (d instanceof BitmapDrawable) {
                 Bitmap b = ((BitmapDrawable)d).getBitmap();
                 float scale = (float)getWidth() / b.getWidth();
-                if(location!=null && location.length>1) {
-                    for (int iIndex = 1; iIndex < location.length; iIndex++) {
-                        drawLine(canvas, location[iIndex - 1], location[iIndex], scale);
+                int corners = location.length / 2;
+                if(corners>1) {
+                    for (int iIndex = 1; iIndex < corners; iIndex++) {
+                        drawLine(canvas, location, iIndex - 1, iIndex, scale);
                     }
-                    drawLine(canvas, location[location.length - 1], location[0], scale);
+                    drawLine(canvas, location, corners - 1, 0, scale);
                 }
             }
         }
@@ -127,11 +127,13 @@ public class ScanResultImageView extends ImageView {
      * Utility to draw a single line onto the canvas
      *
      * @param canvas Canvas upon which to draw
-     * @param p1 Point to start the line
-     * @param p2 Point to end the line
+     * @param points Corners as x0, y0, x1, y1...
+     * @param p1 Index of the corner to start the line
+     * @param p2 Index of the corner to end the line
      * @param scale float by which to scale the line. Converts from high-res bitmap dimensions to Canvas dimensions
      */
-    private void drawLine(Canvas canvas, Point p1, Point p2, float scale) {
-        canvas.drawLine(p1.x * scale, p1.y * scale, p2.x * scale, p2.y * scale, locationPaint);
+    private void drawLine(Canvas canvas, int[] points, int p1, int p2, float scale) {
+        canvas.drawLine(points[2 * p1] * scale, points[2 * p1 + 1] * scale,
+                points[2 * p2] * scale, points[2 * p2 + 1] * scale, locationPaint);
     }
 }
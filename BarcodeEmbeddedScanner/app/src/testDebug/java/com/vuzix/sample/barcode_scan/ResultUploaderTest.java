@@ -0,0 +1,253 @@
+/***************************************************************************************
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ *  Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ *  Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ *  Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **************************************************************************************/
+
+package com.vuzix.sample.barcode_scan;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives a ResultUploader against a MockUploadServer on the loopback interface
+ *
+ * Debug builds only, since the server is in the debug source set.
+ */
+public class ResultUploaderTest {
+    private static final long NEVER_MS = 60 * 60 * 1000;
+    private static final long MIN_RETRY_DELAY_MS = 100;
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    private MockUploadServer mServer;
+    private File mSpool;
+    private ResultUploader mUploader;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockUploadServer();
+        mSpool = Files.createTempDirectory("uploads").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mUploader != null) {
+            mUploader.close();
+            mUploader.awaitClose(TIMEOUT_MS);
+        }
+        mServer.close();
+        File[] files = mSpool.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSpool.delete();
+    }
+
+    @Test
+    public void sealsABatchWhenItIsFull() throws Exception {
+        mUploader = uploader(3, NEVER_MS);
+        enqueue("A1", "A2", "A3", "B1");
+        awaitBatches(1);
+        assertEquals(Arrays.asList("A1", "A2", "A3"), mServer.getTexts());
+        Thread.sleep(200);
+        assertEquals("The partial batch must wait for its delay", 1, mServer.getBatchCount());
+    }
+
+    @Test
+    public void sealsABatchWhenItsOldestResultHasWaited() throws Exception {
+        mUploader = uploader(100, 200);
+        long start = System.currentTimeMillis();
+        enqueue("A1", "A2");
+        awaitBatches(1);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertEquals(Arrays.asList("A1", "A2"), mServer.getTexts());
+    }
+
+    @Test
+    public void gzipsEveryBatch() throws Exception {
+        mUploader = uploader(1, NEVER_MS);
+        enqueue("A1", "B1");
+        awaitBatches(2);
+        assertEquals(2, mServer.getGzipBatchCount());
+    }
+
+    @Test
+    public void retriesServerErrorsWithBackoff() throws Exception {
+        for (int code : new int[] { 500, 503, 408, 429 }) {
+            mServer.failNextRequests(2, code);
+            mUploader = uploader(1, NEVER_MS);
+            long start = System.currentTimeMillis();
+            enqueue("A1");
+            awaitBatches(1);
+            // The first retry waits at least half the minimum delay, and the second at least the minimum
+            assertTrue(code + " retried too soon", System.currentTimeMillis() - start >= MIN_RETRY_DELAY_MS * 3 / 2);
+            assertEquals(3, mServer.getRequestCount());
+            assertEquals(Collections.singletonList("A1"), mServer.getTexts());
+            awaitSpoolEmpty();
+            tearDown();
+            mUploader = null;
+            setUp();
+        }
+    }
+
+    @Test
+    public void dropsABatchTheServerRejects() throws Exception {
+        mServer.failNextRequests(1, 400);
+        mUploader = uploader(1, NEVER_MS);
+        enqueue("A1");
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mServer.getRequestCount() == 1;
+            }
+        });
+        enqueue("B1");
+        awaitBatches(1);
+        assertEquals("The rejected batch must not be sent again", 2, mServer.getRequestCount());
+        assertEquals(Collections.singletonList("B1"), mServer.getTexts());
+        awaitSpoolEmpty();
+    }
+
+    @Test
+    public void sendsResultsJournaledByAnEarlierUploader() throws Exception {
+        writeJournal("0000000000000000.pending", "{\"text\":\"A1\",\"symbology\":\"QR_CODE\",\"time\":1}\n"
+                + "{\"text\":\"A2\",\"symbology\":\"QR_CODE\",\"time\":2}\n{\"text\":\"A3\",\"sym");
+        mUploader = uploader(100, NEVER_MS);
+        awaitBatches(1);
+        assertEquals("The torn last line is skipped", Arrays.asList("A1", "A2"), mServer.getTexts());
+        awaitSpoolEmpty();
+    }
+
+    @Test
+    public void doesNotResendAJournalWhoseBatchWasSpooled() throws Exception {
+        mUploader = uploader(100, NEVER_MS);
+        enqueue("A1");
+        mUploader.close();
+        assertTrue(mUploader.awaitClose(TIMEOUT_MS));
+        // As if the process died after spooling the batch but before deleting its journal
+        writeJournal("0000000000000000.pending", "{\"text\":\"A1\",\"symbology\":\"QR_CODE\",\"time\":1}\n");
+
+        mUploader = uploader(100, NEVER_MS);
+        awaitBatches(1);
+        awaitSpoolEmpty();
+        assertEquals(Collections.singletonList("A1"), mServer.getTexts());
+    }
+
+    @Test
+    public void serverAnswersABadContentLengthAndKeepsListening() throws Exception {
+        URL url = mServer.getUrl();
+        try (Socket socket = new Socket(url.getHost(), url.getPort())) {
+            socket.getOutputStream().write(("POST " + url.getPath() + " HTTP/1.1\r\nContent-Length: lots\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            String status = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII)).readLine();
+            assertEquals("HTTP/1.1 400 Bad Request", status);
+        }
+        mUploader = uploader(1, NEVER_MS);
+        enqueue("A1");
+        awaitBatches(1);
+    }
+
+    private ResultUploader uploader(int maxBatchSize, long maxBatchDelayMs) {
+        return new ResultUploader(mSpool, mServer.getUrl(), maxBatchSize, maxBatchDelayMs, MIN_RETRY_DELAY_MS);
+    }
+
+    private void enqueue(String... texts) {
+        for (String text : texts) {
+            ScanResult2 scan = mock(ScanResult2.class);
+            when(scan.getText()).thenReturn(text);
+            when(scan.getBarcodeType()).thenReturn(BarcodeType2.QR_CODE);
+            ResultRecord record = new ResultRecord();
+            record.set(scan, System.currentTimeMillis());
+            mUploader.enqueue(record);
+        }
+    }
+
+    private void writeJournal(String name, String contents) throws IOException {
+        try (OutputStream out = new FileOutputStream(new File(mSpool, name))) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void awaitBatches(final int count) throws Exception {
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mServer.getBatchCount() >= count;
+            }
+        });
+        assertEquals(count, mServer.getBatchCount());
+    }
+
+    /**
+     * Waits for every batch and journal to be deleted from the spool
+     */
+    private void awaitSpoolEmpty() throws Exception {
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                String[] files = mSpool.list();
+                return (files != null) && (files.length == 0);
+            }
+        });
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.call()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
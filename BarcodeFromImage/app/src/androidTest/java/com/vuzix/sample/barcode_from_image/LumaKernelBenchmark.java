@@ -0,0 +1,153 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Times every version of the LumaKernels at several frame sizes, on the device
+ *
+ * Each kernel is warmed up until the JIT has compiled it, then timed over repeated calls. The
+ * report gives nanoseconds per frame pixel, so sizes can be compared, and the bytes allocated per
+ * call on the calling thread, from android.os.Debug's allocation counting.
+ *
+ * Only a run on our ARM cores says which versions are worth shipping, so this is an instrumented
+ * test. Run it with
+ * ./gradlew :app:connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.vuzix.sample.barcode_from_image.LumaKernelBenchmark
+ * adding -Pandroid.testInstrumentationRunnerArguments.threads=N for N threads, and read the report
+ * from logcat under the LumaKernelBenchmark tag. It takes around a minute.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class LumaKernelBenchmark {
+    private static final String LOG_TAG = "LumaKernelBenchmark";
+
+    /** The preview and capture sizes of this sample, and a full resolution still */
+    static final int[][] FRAME_SIZES = {{1408, 792}, {1920, 1080}, {4032, 3024}};
+
+    private static final long WARMUP_NS = 300_000_000L;
+    private static final long MEASURE_NS = 500_000_000L;
+    private static final int MIN_CALLS = 5;
+
+    private volatile long mSink;   // Keeps the JIT from discarding the kernels' work
+
+    /**
+     * Runs the benchmark with the thread count given to the instrumentation, or one per core
+     */
+    @Test
+    public void timeKernels() throws IOException {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String threads = arguments.getString("threads");
+        StringBuilder report = new StringBuilder();
+        run(report, (threads != null) ? Integer.parseInt(threads) : Runtime.getRuntime().availableProcessors());
+        for (String line : report.toString().split("\n")) {
+            Log.i(LOG_TAG, line);
+        }
+    }
+
+    /**
+     * Times every kernel at every size
+     *
+     * @param report - receives one line per kernel and size
+     * @param threads - the number of threads for the row-split versions
+     * @throws IOException if the report cannot be written
+     */
+    void run(Appendable report, int threads) throws IOException {
+        report.append(String.format(Locale.US, "%-28s %11s %10s %12s%n", "kernel", "size", "ns/pixel", "bytes/call"));
+        Debug.startAllocCounting();
+        try {
+            for (int[] size : FRAME_SIZES) {
+                int width = size[0];
+                int height = size[1];
+                byte[] in = new byte[width * height * 4];
+                new Random(width).nextBytes(in);
+                byte[] out = new byte[width * height];
+
+                time(report, LumaKernels.LEGACY_EXTRACT, in, out, width, height);
+                for (LumaKernels.Kernel kernel : LumaKernels.KERNELS) {
+                    time(report, kernel, in, out, width, height);
+                }
+                // The row split is only worth comparing for the faster of each pair
+                for (int k = 1; k < LumaKernels.KERNELS.length; k += 2) {
+                    LumaKernels.RowSplit split = new LumaKernels.RowSplit(LumaKernels.KERNELS[k], threads);
+                    try {
+                        time(report, split, in, out, width, height);
+                    } finally {
+                        split.release();
+                    }
+                }
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void time(Appendable report, LumaKernels.Kernel kernel, byte[] in, byte[] out,
+                      int width, int height) throws IOException {
+        int rows = kernel.getOutputRows(width, height);
+        long sink = 0;
+
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_NS) {
+            sink += kernel.run(in, out, width, height, 0, rows)[0];
+        }
+
+        long allocatedBefore = Debug.getThreadAllocSize();
+        int calls = 0;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += kernel.run(in, out, width, height, 0, rows)[0];
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while ((elapsed < MEASURE_NS) || (calls < MIN_CALLS));
+        long allocatedAfter = Debug.getThreadAllocSize();
+        mSink = sink;
+
+        double nsPerPixel = (double) elapsed / calls / ((long) width * height);
+        report.append(String.format(Locale.US, "%-28s %5dx%-5d %10.3f %12d%n", kernel.getName(),
+                width, height, nsPerPixel, (allocatedAfter - allocatedBefore) / calls));
+    }
+}
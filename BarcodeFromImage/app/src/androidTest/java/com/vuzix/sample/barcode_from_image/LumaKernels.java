@@ -0,0 +1,567 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The per-pixel kernels on the path from camera frame to Scanner2.scan(), each in several versions
+ * so LumaKernelBenchmark can compare them
+ *
+ * The kernels are the stride-4 channel extraction done by the legacy demo's getAlphaChannel(), a
+ * crop, a 2x box downscale, a 90 degree rotation, and the lookup table used for contrast
+ * stretching. Each has a scalar version that handles one byte at a time, a word-at-a-time version
+ * that reads or writes four bytes per access through a little-endian ByteBuffer view, and
+ * RowSplit runs either version on several threads, each taking a band of output rows.
+ *
+ * Kernels write into a caller-owned output array, so they allocate nothing per call, except the
+ * LEGACY_EXTRACT copy of getAlphaChannel(), which is kept to show what its allocation costs.
+ *
+ * Nothing in the app calls these yet, so they live with the instrumented benchmark rather than in
+ * the APK. Move a kernel into the main source set once the device numbers pick it for the hot path.
+ */
+
+class LumaKernels {
+
+    /**
+     * One version of a kernel
+     */
+    interface Kernel {
+        /**
+         * @return A short name for reports, such as "rotate90/word"
+         */
+        String getName();
+
+        /**
+         * @return The number of input bytes for a frame of this size
+         */
+        int getInputSize(int width, int height);
+
+        /**
+         * @return The number of output rows, which is what RowSplit divides between threads
+         */
+        int getOutputRows(int width, int height);
+
+        /**
+         * @return The number of output bytes for a frame of this size
+         */
+        int getOutputSize(int width, int height);
+
+        /**
+         * Computes a band of output rows
+         *
+         * @param in - the input, getInputSize() bytes
+         * @param out - the output, getOutputSize() bytes
+         * @param width - the frame width in pixels
+         * @param height - the frame height in pixels
+         * @param firstRow - the first output row to compute
+         * @param endRow - one past the last output row to compute
+         * @return The array holding the output, which is out except for LEGACY_EXTRACT
+         */
+        byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow);
+    }
+
+    /** The lookup table applied by the stretch kernels: a 2x contrast stretch around mid-gray */
+    private static final byte[] STRETCH_LOOKUP = new byte[256];
+    static {
+        for (int level = 0; level < 256; level++) {
+            STRETCH_LOOKUP[level] = (byte) Math.max(0, Math.min(255, (level - 64) * 2));
+        }
+    }
+
+    private static final int ROTATE_TILE = 32;   // Tile size of the tiled rotation, in pixels
+
+    /** getAlphaChannel() of the legacy demo, unchanged: allocates its output on every call */
+    static final Kernel LEGACY_EXTRACT = new ExtractKernel("extract/legacy") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            int origSize = getInputSize(width, height);
+            byte[] newBytes = new byte[origSize / 4];
+            int j = 0;
+            for (int i = 0; i < origSize; i += 4) {
+                newBytes[j] = in[i];
+                j += 1;
+            }
+            return newBytes;
+        }
+    };
+
+    /** Stride-4 extraction into a reused output, one byte at a time */
+    static final Kernel EXTRACT_SCALAR = new ExtractKernel("extract/scalar") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            int end = endRow * width;
+            for (int o = firstRow * width; o < end; o++) {
+                out[o] = in[o << 2];
+            }
+            return out;
+        }
+    };
+
+    /** Stride-4 extraction reading one word per pixel and writing one word per four pixels */
+    static final Kernel EXTRACT_WORD = new ExtractKernel("extract/word") {
+        private final Views mViews = new Views();
+
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            ByteBuffer input = mViews.input(in);
+            ByteBuffer output = mViews.output(out);
+            int o = firstRow * width;
+            int end = endRow * width;
+            for (; o + 4 <= end; o += 4) {
+                int i = o << 2;
+                int packed = (input.getInt(i) & 0xFF)
+                        | ((input.getInt(i + 4) & 0xFF) << 8)
+                        | ((input.getInt(i + 8) & 0xFF) << 16)
+                        | (input.getInt(i + 12) << 24);
+                output.putInt(o, packed);
+            }
+            for (; o < end; o++) {
+                out[o] = in[o << 2];
+            }
+            return out;
+        }
+    };
+
+    /** Copies the centre quarter of the frame, one byte at a time */
+    static final Kernel CROP_SCALAR = new CropKernel("crop/scalar") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            int cropWidth = width / 2;
+            int left = width / 4;
+            int top = height / 4;
+            for (int y = firstRow; y < endRow; y++) {
+                int source = (top + y) * width + left;
+                int target = y * cropWidth;
+                for (int x = 0; x < cropWidth; x++) {
+                    out[target + x] = in[source + x];
+                }
+            }
+            return out;
+        }
+    };
+
+    /** Copies the centre quarter of the frame with one System.arraycopy() per row */
+    static final Kernel CROP_WORD = new CropKernel("crop/bulk") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            int cropWidth = width / 2;
+            int left = width / 4;
+            int top = height / 4;
+            for (int y = firstRow; y < endRow; y++) {
+                System.arraycopy(in, (top + y) * width + left, out, y * cropWidth, cropWidth);
+            }
+            return out;
+        }
+    };
+
+    /** Halves both dimensions by averaging 2x2 blocks, one pixel at a time */
+    static final Kernel DOWNSCALE_SCALAR = new DownscaleKernel("downscale/scalar") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            int outWidth = width / 2;
+            for (int y = firstRow; y < endRow; y++) {
+                int row0 = 2 * y * width;
+                int row1 = row0 + width;
+                int target = y * outWidth;
+                for (int x = 0; x < outWidth; x++) {
+                    int sum = (in[row0 + 2 * x] & 0xFF) + (in[row0 + 2 * x + 1] & 0xFF)
+                            + (in[row1 + 2 * x] & 0xFF) + (in[row1 + 2 * x + 1] & 0xFF);
+                    out[target + x] = (byte) ((sum + 2) >> 2);
+                }
+            }
+            return out;
+        }
+    };
+
+    /**
+     * Halves both dimensions, reading four pixels of each row per access and adding the pairs in
+     * both halves of an int at once
+     */
+    static final Kernel DOWNSCALE_WORD = new DownscaleKernel("downscale/word") {
+        private final Views mViews = new Views();
+
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            ByteBuffer input = mViews.input(in);
+            int outWidth = width / 2;
+            for (int y = firstRow; y < endRow; y++) {
+                int row0 = 2 * y * width;
+                int row1 = row0 + width;
+                int target = y * outWidth;
+                int x = 0;
+                for (; 2 * x + 4 <= width; x += 2) {
+                    int top = input.getInt(row0 + 2 * x);
+                    int bottom = input.getInt(row1 + 2 * x);
+                    // Each 16 bit half holds the sum of one 2x2 block, at most 1020
+                    int sums = (top & 0x00FF00FF) + ((top >>> 8) & 0x00FF00FF)
+                            + (bottom & 0x00FF00FF) + ((bottom >>> 8) & 0x00FF00FF);
+                    out[target + x] = (byte) (((sums & 0xFFFF) + 2) >> 2);
+                    out[target + x + 1] = (byte) (((sums >>> 16) + 2) >> 2);
+                }
+                for (; x < outWidth; x++) {
+                    int sum = (in[row0 + 2 * x] & 0xFF) + (in[row0 + 2 * x + 1] & 0xFF)
+                            + (in[row1 + 2 * x] & 0xFF) + (in[row1 + 2 * x + 1] & 0xFF);
+                    out[target + x] = (byte) ((sum + 2) >> 2);
+                }
+            }
+            return out;
+        }
+    };
+
+    /** Rotates 90 degrees clockwise, walking the output in order and the input down columns */
+    static final Kernel ROTATE_SCALAR = new RotateKernel("rotate90/scalar") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            for (int y = firstRow; y < endRow; y++) {
+                int target = y * height;
+                for (int x = 0; x < height; x++) {
+                    out[target + x] = in[(height - 1 - x) * width + y];
+                }
+            }
+            return out;
+        }
+    };
+
+    /**
+     * Rotates 90 degrees clockwise in square tiles, so the input rows a tile reads stay in the cache
+     * while the tile is written
+     */
+    static final Kernel ROTATE_TILED = new RotateKernel("rotate90/tiled") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            for (int tileY = firstRow; tileY < endRow; tileY += ROTATE_TILE) {
+                int tileEndY = Math.min(endRow, tileY + ROTATE_TILE);
+                for (int tileX = 0; tileX < height; tileX += ROTATE_TILE) {
+                    int tileEndX = Math.min(height, tileX + ROTATE_TILE);
+                    for (int y = tileY; y < tileEndY; y++) {
+                        int target = y * height;
+                        for (int x = tileX; x < tileEndX; x++) {
+                            out[target + x] = in[(height - 1 - x) * width + y];
+                        }
+                    }
+                }
+            }
+            return out;
+        }
+    };
+
+    /** Applies the stretch lookup table one pixel at a time */
+    static final Kernel STRETCH_SCALAR = new StretchKernel("stretch/scalar") {
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            byte[] lookup = STRETCH_LOOKUP;
+            int end = endRow * width;
+            for (int i = firstRow * width; i < end; i++) {
+                out[i] = lookup[in[i] & 0xFF];
+            }
+            return out;
+        }
+    };
+
+    /** Applies the stretch lookup table to four pixels per read and write */
+    static final Kernel STRETCH_WORD = new StretchKernel("stretch/word") {
+        private final Views mViews = new Views();
+
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            ByteBuffer input = mViews.input(in);
+            ByteBuffer output = mViews.output(out);
+            byte[] lookup = STRETCH_LOOKUP;
+            int i = firstRow * width;
+            int end = endRow * width;
+            for (; i + 4 <= end; i += 4) {
+                int pixels = input.getInt(i);
+                int mapped = (lookup[pixels & 0xFF] & 0xFF)
+                        | ((lookup[(pixels >>> 8) & 0xFF] & 0xFF) << 8)
+                        | ((lookup[(pixels >>> 16) & 0xFF] & 0xFF) << 16)
+                        | (lookup[pixels >>> 24] << 24);
+                output.putInt(i, mapped);
+            }
+            for (; i < end; i++) {
+                out[i] = lookup[in[i] & 0xFF];
+            }
+            return out;
+        }
+    };
+
+    /** Every single-threaded kernel except the legacy one, in pairs of scalar then word-at-a-time */
+    static final Kernel[] KERNELS = {
+            EXTRACT_SCALAR, EXTRACT_WORD,
+            CROP_SCALAR, CROP_WORD,
+            DOWNSCALE_SCALAR, DOWNSCALE_WORD,
+            ROTATE_SCALAR, ROTATE_TILED,
+            STRETCH_SCALAR, STRETCH_WORD
+    };
+
+    private LumaKernels() {
+    }
+
+    /**
+     * Runs a kernel over bands of output rows on several threads, the caller's included
+     *
+     * Tasks and their queue are created up front and reused, so a call allocates nothing. A
+     * RowSplit must be used by one caller at a time.
+     */
+    static final class RowSplit implements Kernel {
+        private final Kernel mKernel;
+        private final Band[] mBands;
+        private final ThreadPoolExecutor mExecutor;
+        private final Object mLock = new Object();
+        private int mPending;   // Guarded by mLock
+
+        /**
+         * @param kernel - the kernel to split
+         * @param threads - the number of bands, including the one run by the caller
+         */
+        RowSplit(Kernel kernel, int threads) {
+            mKernel = kernel;
+            mBands = new Band[threads];
+            for (int i = 0; i < threads; i++) {
+                mBands[i] = new Band();
+            }
+            int workers = Math.max(1, threads - 1);
+            // An ArrayBlockingQueue holds tasks without allocating a node for each one
+            mExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads));
+            mExecutor.prestartAllCoreThreads();
+        }
+
+        @Override
+        public String getName() {
+            return mKernel.getName() + " x" + mBands.length;
+        }
+
+        @Override
+        public int getInputSize(int width, int height) {
+            return mKernel.getInputSize(width, height);
+        }
+
+        @Override
+        public int getOutputRows(int width, int height) {
+            return mKernel.getOutputRows(width, height);
+        }
+
+        @Override
+        public int getOutputSize(int width, int height) {
+            return mKernel.getOutputSize(width, height);
+        }
+
+        @Override
+        public byte[] run(byte[] in, byte[] out, int width, int height, int firstRow, int endRow) {
+            int count = mBands.length;
+            int rows = endRow - firstRow;
+            synchronized (mLock) {
+                mPending = count - 1;
+            }
+            for (int i = 0; i < count; i++) {
+                Band band = mBands[i];
+                band.mIn = in;
+                band.mOut = out;
+                band.mWidth = width;
+                band.mHeight = height;
+                band.mFirstRow = firstRow + (int) ((long) rows * i / count);
+                band.mEndRow = firstRow + (int) ((long) rows * (i + 1) / count);
+                if (i > 0) {
+                    mExecutor.execute(band);
+                }
+            }
+            mBands[0].compute();
+            synchronized (mLock) {
+                while (mPending > 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            return out;
+        }
+
+        /**
+         * Stops the worker threads
+         */
+        void release() {
+            mExecutor.shutdown();
+        }
+
+        private final class Band implements Runnable {
+            byte[] mIn;
+            byte[] mOut;
+            int mWidth;
+            int mHeight;
+            int mFirstRow;
+            int mEndRow;
+
+            void compute() {
+                mKernel.run(mIn, mOut, mWidth, mHeight, mFirstRow, mEndRow);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    compute();
+                } finally {
+                    synchronized (mLock) {
+                        mPending--;
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Little-endian views of the last input and output arrays, rebuilt only when the arrays change.
+     * Only absolute gets and puts are used, so the views can be shared by RowSplit's threads.
+     */
+    private static final class Views {
+        private byte[] mInArray;
+        private ByteBuffer mIn;
+        private byte[] mOutArray;
+        private ByteBuffer mOut;
+
+        synchronized ByteBuffer input(byte[] array) {
+            if (mInArray != array) {
+                mInArray = array;
+                mIn = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return mIn;
+        }
+
+        synchronized ByteBuffer output(byte[] array) {
+            if (mOutArray != array) {
+                mOutArray = array;
+                mOut = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return mOut;
+        }
+    }
+
+    private abstract static class NamedKernel implements Kernel {
+        private final String mName;
+
+        NamedKernel(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public int getInputSize(int width, int height) {
+            return width * height;
+        }
+
+        @Override
+        public int getOutputRows(int width, int height) {
+            return height;
+        }
+
+        @Override
+        public int getOutputSize(int width, int height) {
+            return width * height;
+        }
+    }
+
+    /** Input is four bytes per pixel, as the legacy demo assumed, output one byte per pixel */
+    private abstract static class ExtractKernel extends NamedKernel {
+        ExtractKernel(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getInputSize(int width, int height) {
+            return width * height * 4;
+        }
+    }
+
+    private abstract static class CropKernel extends NamedKernel {
+        CropKernel(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getOutputRows(int width, int height) {
+            return height / 2;
+        }
+
+        @Override
+        public int getOutputSize(int width, int height) {
+            return (width / 2) * (height / 2);
+        }
+    }
+
+    private abstract static class DownscaleKernel extends NamedKernel {
+        DownscaleKernel(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getOutputRows(int width, int height) {
+            return height / 2;
+        }
+
+        @Override
+        public int getOutputSize(int width, int height) {
+            return (width / 2) * (height / 2);
+        }
+    }
+
+    /** Output rows are input columns */
+    private abstract static class RotateKernel extends NamedKernel {
+        RotateKernel(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getOutputRows(int width, int height) {
+            return width;
+        }
+    }
+
+    private abstract static class StretchKernel extends NamedKernel {
+        StretchKernel(String name) {
+            super(name);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Streams a stored image through BarcodeFinder one region at a time, on the device
+ *
+ * BitmapRegionDecoder has no JVM implementation, so this is an instrumented test. The image is a
+ * checkerboard of black and white squares, which survives PNG and RGB_565 exactly, and a stand-in
+ * engine checks each region's luma against it.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class RegionStreamDecoderTest {
+    private static final int WIDTH = 2500;
+    private static final int HEIGHT = 1200;
+    private static final int SQUARE = 8;
+
+    private File mImage;
+
+    @Before
+    public void setUp() throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] row = new int[WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                row[x] = (luma(x, y) == 0) ? 0xFF000000 : 0xFFFFFFFF;
+            }
+            bitmap.setPixels(row, 0, WIDTH, 0, y, WIDTH, 1);
+        }
+        mImage = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "region_stream.png");
+        OutputStream out = new FileOutputStream(mImage);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mImage.delete();
+    }
+
+    @Test
+    public void scansEveryRegionOfTheImage() throws IOException {
+        final TileGrid grid = new TileGrid(RegionStreamDecoder.REGION_SIZE, RegionStreamDecoder.REGION_OVERLAP);
+        grid.cover(WIDTH, HEIGHT, null);
+        final List<String> mismatches = new ArrayList<>();
+        final int[] scanned = new int[1];
+        BarcodeFinder finder = new BarcodeFinder(null, new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                int tile = scanned[0]++;
+                assertEquals(grid.getWidth(tile), width);
+                assertEquals(grid.getHeight(tile), height);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int expected = luma(grid.getLeft(tile) + x, grid.getTop(tile) + y);
+                        if ((data[y * width + x] & 0xFF) != expected) {
+                            mismatches.add("Region " + tile + " at " + x + "," + y);
+                            return null;
+                        }
+                    }
+                }
+                return null;
+            }
+        });
+        try {
+            assertTrue(finder.getAllBarcodeResults(mImage.getPath()).isEmpty());
+        } finally {
+            finder.release();
+        }
+        assertTrue("The image must take more than one region", grid.getTileCount() > 1);
+        assertEquals(grid.getTileCount(), scanned[0]);
+        assertTrue(mismatches.toString(), mismatches.isEmpty());
+    }
+
+    private static int luma(int x, int y) {
+        return (((x / SQUARE) + (y / SQUARE)) % 2 == 0) ? 0 : 255;
+    }
+}
@@ -33,13 +33,16 @@
 package com.vuzix.sample.barcode_from_image;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.media.Image;
 import android.media.ImageReader;
 import com.vuzix.sdk.barcode.ScanResult2;
-import com.vuzix.sdk.barcode.Scanner2;
-import com.vuzix.sdk.barcode.Scanner2Factory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 
 /**
@@ -49,46 +52,328 @@ import java.nio.ByteBuffer;
  *
  * This is called from a worker thread, not the UI thread since it might take a noticeable amount
  * of time to analyze the image
+ *
+ * Once its buffers have grown to the frame size, a finder allocates nothing per frame on its own
+ * account. AllocationBudgetTest checks that, since garbage collection pauses show up as preview jank.
  */
 
 class BarcodeFinder {
 
-    private Scanner2 mScanner=null;
+    private final Context mContext;
+    private SymbologyScanner mScanner=null;   // null when a stand-in decoder is used
+    private final ScanEngine.FrameDecoder mDecoder;
+    private VariantDecoder mVariantDecoder;   // Created for the variants the profile asks for
+    private ExecutorService mVariantExecutor; // Runs the variant tasks. null gives each VariantDecoder its own threads.
+    private TiledDecoder mTiledDecoder;       // Created the first time a still is decoded in tiles
+    private RegionStreamDecoder mRegionDecoder;   // Created the first time a stored image is scanned
+    private volatile ScanProfile mProfile = ScanProfile.DEFAULT;
+    private final LumaPreprocessor mPreprocessor = new LumaPreprocessor();
+    private byte[] mLumaCopy;   // Reused by both getBarcodeResults() methods
+    private volatile ResultVote mVote;   // May be shared with other finders
+    private volatile int mDecimation = 1;
     /**
      * Initialize the scan engine
      *
      * @note: Failure to do this will leave the engine in a demonstration mode, and scan data will not be usable.
      */
     public BarcodeFinder(Context iContext) {
+        mContext = iContext.getApplicationContext();
 
         //Call into the SDK to create a scanner instance.
         try {
-            mScanner = Scanner2Factory.getScanner(iContext);
+            mScanner = SymbologyScanner.create(iContext);
         }catch (Exception ex){
 
         }
+        mDecoder = mScanner;
+    }
+
+    /**
+     * Uses the given decoder in place of the barcode engine, so the rest of the path can be run
+     * without a device
+     *
+     * @param context - used only if a profile asks for variants, and may then be null
+     * @param decoder - the decoder
+     */
+    BarcodeFinder(Context context, ScanEngine.FrameDecoder decoder) {
+        mContext = (context != null) ? context.getApplicationContext() : null;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Selects the decode hints used for subsequent scans
+     *
+     * @param profile - The profile to apply, or null to restore the default full search
+     */
+    public void setProfile(ScanProfile profile) {
+        mProfile = (profile != null) ? profile : ScanProfile.DEFAULT;
+    }
+
+    /**
+     * Runs the variants of every frame on a shared pool, rather than on threads of this finder's own
+     *
+     * Finders that decode frames in parallel should share one pool, no larger than the number of
+     * frames allowed to decode at once. Call this before the first frame is decoded.
+     *
+     * @param executor - the pool, which the finder does not shut down, or null for threads of its own
+     */
+    void setVariantExecutor(ExecutorService executor) {
+        mVariantExecutor = executor;
+    }
+
+    /**
+     * Requires results to be confirmed by several frames before they are returned
+     *
+     * Every frame decoded by this finder is offered to the vote, including frames with no result.
+     * A vote shared by several finders counts the frames of all of them.
+     *
+     * @param vote - the vote to apply, or null to return the first acceptable result
+     */
+    public void setVote(ResultVote vote) {
+        mVote = vote;
+    }
+
+    /**
+     * Subsamples frames passed to getBarcodeResults(ByteBuffer...) before decoding them, which
+     * cuts the decode time when the device is hot or the battery is low
+     *
+     * @param decimation - keep every Nth pixel of every Nth row. 1 decodes at full resolution.
+     */
+    public void setDecimation(int decimation) {
+        mDecimation = Math.max(1, decimation);
     }
 
     /**
      * Parses the image data to the barcode engine and displays the results
+     *
+     * The next image is taken from the reader, copied into a reused buffer and closed.
      */
     public String getBarcodeResults(ImageReader reader) {
 
-        // get the latest image and convert to a bitmap
+        // get the latest image and copy the Y plane into our buffer, dropping any row padding
         Image image = reader.acquireNextImage(); // Use acquireNextImage() instead of acquireLatestImage() since we created the reader with a maxImages of 1
-        ByteBuffer buffer = image.getPlanes()[0].getBuffer(); // Y component is all we need
-        byte[] data = new byte[buffer.remaining()];
-        buffer.get(data);
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            Image.Plane plane = image.getPlanes()[0]; // Y component is all we need
+            ByteBuffer buffer = plane.getBuffer();
+            int rowStride = plane.getRowStride();
+            byte[] data = lumaCopy(width * height);
+            int position = buffer.position();
+            for (int y = 0; y < height; y++) {
+                buffer.position(position + y * rowStride);
+                buffer.get(data, y * width, width);
+            }
+            buffer.position(position);
+            return confirm(decode(data, width, height));
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Decodes a frame that has already been copied out of the camera, such as a pre-roll frame
+     *
+     * @param luma - the Y plane, width * height bytes from its position, with no row padding. It is
+     *               not modified, and its position is not changed.
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @return The text of the first acceptable result, or null
+     */
+    public String getBarcodeResults(ByteBuffer luma, int width, int height) {
+        int step = mDecimation;
+        int outWidth = width / step;
+        int outHeight = height / step;
+        byte[] data = lumaCopy(outWidth * outHeight);
+        int base = luma.position();
+        if (step == 1) {
+            // A bulk get then a reset, rather than a duplicate() view, which would be garbage
+            luma.get(data, 0, data.length);
+            luma.position(base);
+        } else {
+            int i = 0;
+            for (int y = 0; y < outHeight; y++) {
+                int row = base + y * step * width;
+                for (int x = 0; x < outWidth; x++) {
+                    data[i++] = luma.get(row + x * step);
+                }
+            }
+        }
+        return confirm(decode(data, outWidth, outHeight));
+    }
+
+    /**
+     * @return The reused copy buffer, resized if the frame size changed
+     */
+    private byte[] lumaCopy(int size) {
+        if ((mLumaCopy == null) || (mLumaCopy.length != size)) {
+            mLumaCopy = new byte[size];
+        }
+        return mLumaCopy;
+    }
 
-        // pass data into barcode scan engine
-        ScanResult2[] results = mScanner.scan(data, image.getWidth(), image.getHeight(),null);
+    /**
+     * Offers a frame's result to the vote, if there is one
+     *
+     * @param text - the frame's result, or null
+     * @return text if it needs no confirmation or is now confirmed, otherwise null
+     */
+    private String confirm(String text) {
+        ResultVote vote = mVote;
+        if (vote == null) {
+            return text;
+        }
+        long fingerprint = (text != null) ? ResultVote.fingerprint(text) : ResultVote.NO_RESULT;
+        return vote.offer(fingerprint) ? text : null;
+    }
 
-        // Examine the results
+    /**
+     * Applies the profile to the frame and decodes it
+     *
+     * @param data - Y plane data. May be modified.
+     */
+    private String decode(byte[] data, int width, int height) {
+        ScanProfile profile = mProfile;
+        if (profile.isInverted()) {
+            invert(data);   // The engine expects dark marks on a light background
+        }
+
+        // Normalize dim, low-contrast frames. This returns data unchanged for well lit frames.
+        data = mPreprocessor.process(data, width, height,
+                profile.getLowLightMode(), profile.getGamma(), profile.isBinarized());
+
+        // pass data into barcode scan engine, limited to the region of interest and the symbologies of the profile
+        Rect region = profile.getSearchRegion(width, height);
+        int variants = profile.getVariants();
+        if (variants != VariantDecoder.VARIANT_RAW) {
+            // Try the rotated, inverted and mirrored copies at the same time. First success wins.
+            if ((mVariantDecoder == null) || (mVariantDecoder.getVariants() != variants)) {
+                if (mVariantDecoder != null) {
+                    mVariantDecoder.release();
+                }
+                mVariantDecoder = new VariantDecoder(mContext, variants, mVariantExecutor);
+            }
+            ScanChannel.Code code = mVariantDecoder.decode(data, width, height, region, profile);
+            return (code != null) ? code.getText() : null;
+        }
+        if (mScanner != null) {
+            mScanner.setSymbologies(profile.getSymbologies());
+        }
+        ScanResult2[] results;
+        PipelineTrace.begin(PipelineTrace.SCAN);
+        try {
+            results = mDecoder.scan(data, width, height, region);
+        } finally {
+            PipelineTrace.end();
+        }
+
+        // Examine the results. The engine only looked for the profile's symbologies, but check anyway.
         String resultString = null;
-        if (results!=null && results.length > 0) {
-            resultString = results[0].getText();   // Use the first one, if any are available
+        if (results!=null) {
+            for (ScanResult2 result : results) {
+                if (profile.accepts(result)) {
+                    resultString = result.getText();   // Use the first one, if any are acceptable
+                    break;
+                }
+            }
         }
         return resultString;
     }
 
+    /**
+     * Finds every code in a full resolution still, decoding it in overlapping tiles on all cores
+     *
+     * The next image is taken from the reader and closed. Results are not confirmed by the vote,
+     * since a still is a single frame.
+     *
+     * @param reader - ImageReader of YUV_420_888 stills, usually at the largest size the camera offers
+     * @return The acceptable codes with their points in frame coordinates, in reading order.
+     *         Empty if there are none.
+     * @throws InterruptedException if interrupted while waiting for the tiles
+     */
+    public List<ScanChannel.Code> getAllBarcodeResults(ImageReader reader) throws InterruptedException {
+        Image image = reader.acquireNextImage();
+        if (image == null) {
+            return new ArrayList<>();
+        }
+        try {
+            Image.Plane plane = image.getPlanes()[0]; // Y component is all we need
+            return getAllBarcodeResults(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                    plane.getRowStride());
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Finds every code in a full resolution still that is already in memory
+     *
+     * @param luma - the Y plane, from position zero. It is only read.
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param rowStride - bytes from the start of one row to the start of the next
+     * @return The acceptable codes with their points in frame coordinates, in reading order.
+     *         Empty if there are none.
+     * @throws InterruptedException if interrupted while waiting for the tiles
+     */
+    public List<ScanChannel.Code> getAllBarcodeResults(ByteBuffer luma, int width, int height, int rowStride)
+            throws InterruptedException {
+        if (mTiledDecoder == null) {
+            mTiledDecoder = TiledDecoder.create(mContext, Runtime.getRuntime().availableProcessors());
+        }
+        return mTiledDecoder.decode(luma, width, height, rowStride, mProfile);
+    }
+
+    /**
+     * Finds every code in a stored image of any size, decoding it one region at a time
+     *
+     * Only one region of the image is ever held in memory, so this suits scanned documents and
+     * panoramas far too large to decode as a single Bitmap. Runs on the calling thread.
+     *
+     * @param path - a JPEG, PNG or WebP file
+     * @return The acceptable codes with their points in image coordinates, in reading order.
+     *         Empty if there are none.
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public List<ScanChannel.Code> getAllBarcodeResults(String path) throws IOException {
+        ScanProfile profile = mProfile;
+        if (mScanner != null) {
+            mScanner.setSymbologies(profile.getSymbologies());
+        }
+        if (mRegionDecoder == null) {
+            mRegionDecoder = new RegionStreamDecoder(mDecoder);
+        }
+        return mRegionDecoder.decode(path, profile);
+    }
+
+    /**
+     * Releases the worker threads used for parallel variant and tile decoding, and the region
+     * bitmap used for stored images
+     */
+    public void release() {
+        if (mVariantDecoder != null) {
+            mVariantDecoder.release();
+            mVariantDecoder = null;
+        }
+        if (mTiledDecoder != null) {
+            mTiledDecoder.release();
+            mTiledDecoder = null;
+        }
+        if (mRegionDecoder != null) {
+            mRegionDecoder.release();
+            mRegionDecoder = null;
+        }
+    }
+
+    /**
+     * Inverts luma in place so light-on-dark marks can be decoded
+     *
+     * @param data - Y plane data
+     */
+    private static void invert(byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ~data[i];
+        }
+    }
+
 }
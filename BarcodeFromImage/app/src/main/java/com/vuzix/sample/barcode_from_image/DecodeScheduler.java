@@ -0,0 +1,323 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+
+/**
+ * Chooses how hard the decoder works, so scanning can be sustained for a whole shift
+ *
+ * Decoding every preview frame on every core throttles a head-worn device within minutes, and
+ * once the device throttles everything slows down. The scheduler instead picks one of a few work
+ * levels from the thermal status, the battery level and how often recent triggers decoded. Each
+ * level sets the rate at which preview frames are kept, how many frames are decoded at once, and
+ * whether frames are decoded at reduced resolution.
+ *
+ * Work is reduced as soon as a reading calls for it, but only increased again once the readings
+ * have allowed it for RECOVERY_MS, so the level does not bounce around a threshold.
+ *
+ * The clock and the sensor readings are injected, so the policy can be run on a JVM with a fake
+ * clock and scripted readings. The Plan objects are created up front, so nothing is allocated per
+ * frame.
+ */
+
+class DecodeScheduler {
+
+    /** Every frame, full pool, full resolution */
+    static final int LEVEL_FULL = 0;
+    /** Fewer frames and one less decoder */
+    static final int LEVEL_REDUCED = 1;
+    /** Few frames, half the decoders, half resolution */
+    static final int LEVEL_LOW = 2;
+    /** The minimum that still scans */
+    static final int LEVEL_MINIMAL = 3;
+
+    // Minimum time between kept preview frames at each level
+    private static final long[] FRAME_INTERVAL_MS = {0, 66, 100, 200};
+    // Decoded frames are subsampled by this step in each direction at each level
+    private static final int[] DECIMATION = {1, 1, 2, 2};
+
+    private static final int LOW_BATTERY_PERCENT = 30;
+    private static final int CRITICAL_BATTERY_PERCENT = 15;
+    // With fewer successes than this percentage of recent triggers, the user is probably not aiming
+    // at a code, so frames are kept less often
+    private static final int LOW_SUCCESS_PERCENT = 20;
+    private static final int MIN_OUTCOMES = 8;          // Outcomes needed before the success ratio counts
+    private static final int OUTCOME_WINDOW = 32;       // Outcomes kept, as bits of mOutcomes. At most 64.
+    // The bits of mOutcomes in the window. A shift by 64 is a shift by 0 in Java, hence the special case.
+    private static final long OUTCOME_MASK = (OUTCOME_WINDOW == 64) ? -1L : (1L << OUTCOME_WINDOW) - 1;
+    private static final long SENSOR_POLL_MS = 5000;    // Sensor readings may be binder calls
+    private static final long RECOVERY_MS = 30000;
+
+    /**
+     * Source of time, in milliseconds from an arbitrary origin
+     */
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    /**
+     * Source of the device readings
+     */
+    interface Sensors {
+        /**
+         * @return One of the PowerManager.THERMAL_STATUS_ values
+         */
+        int getThermalStatus();
+
+        /**
+         * @return Battery charge from 0 to 100
+         */
+        int getBatteryPercent();
+
+        /**
+         * @return True if the device is charging, in which case the battery level is ignored
+         */
+        boolean isCharging();
+    }
+
+    /**
+     * The work allowed at one level
+     */
+    static final class Plan {
+        private final int mLevel;
+        private final long mFrameIntervalMs;
+        private final int mPoolSize;
+        private final int mDecimation;
+
+        private Plan(int level, long frameIntervalMs, int poolSize, int decimation) {
+            mLevel = level;
+            mFrameIntervalMs = frameIntervalMs;
+            mPoolSize = poolSize;
+            mDecimation = decimation;
+        }
+
+        /**
+         * @return One of the LEVEL_ values
+         */
+        int getLevel() {
+            return mLevel;
+        }
+
+        /**
+         * @return The minimum time between preview frames that are kept for decoding
+         */
+        long getFrameIntervalMs() {
+            return mFrameIntervalMs;
+        }
+
+        /**
+         * @return The number of frames that may be decoded at once
+         */
+        int getPoolSize() {
+            return mPoolSize;
+        }
+
+        /**
+         * @return The subsampling step applied to frames before decoding. 1 means full resolution.
+         */
+        int getDecimation() {
+            return mDecimation;
+        }
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    private final Clock mClock;
+    private final Sensors mSensors;
+    private final Plan[] mPlans;
+
+    private Plan mPlan;
+    private long mLastPollTime;
+    private long mRecoveryStart = -1;   // When readings first allowed more work, or -1
+    private long mLastFrameTime;
+    private long mOutcomes;             // Newest outcome in bit 0, 1 for success
+    private int mOutcomeCount;
+
+    /**
+     * @param clock - the time source. SYSTEM_CLOCK on a device.
+     * @param sensors - the readings source. systemSensors() on a device.
+     * @param maxPoolSize - the number of decoders at LEVEL_FULL
+     */
+    DecodeScheduler(Clock clock, Sensors sensors, int maxPoolSize) {
+        mClock = clock;
+        mSensors = sensors;
+        int[] poolSizes = {maxPoolSize, Math.max(1, maxPoolSize - 1), Math.max(1, maxPoolSize / 2), 1};
+        mPlans = new Plan[FRAME_INTERVAL_MS.length];
+        for (int level = 0; level < mPlans.length; level++) {
+            mPlans[level] = new Plan(level, FRAME_INTERVAL_MS[level], poolSizes[level], DECIMATION[level]);
+        }
+        mPlan = mPlans[LEVEL_FULL];
+        mLastPollTime = clock.elapsedRealtime() - SENSOR_POLL_MS;
+        mLastFrameTime = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * Creates a sensor source that reads the device's PowerManager and BatteryManager
+     *
+     * @param context - any Context
+     * @return The sensor source
+     */
+    static Sensors systemSensors(Context context) {
+        final PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        final BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        return new Sensors() {
+            @Override
+            public int getThermalStatus() {
+                return (powerManager != null) ? powerManager.getCurrentThermalStatus() : PowerManager.THERMAL_STATUS_NONE;
+            }
+
+            @Override
+            public int getBatteryPercent() {
+                return (batteryManager != null) ? batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY) : 100;
+            }
+
+            @Override
+            public boolean isCharging() {
+                return (batteryManager != null) && batteryManager.isCharging();
+            }
+        };
+    }
+
+    /**
+     * Re-reads the sensors if they have not been read recently, and returns the current plan
+     *
+     * @return The plan to apply. Only changes when the level does.
+     */
+    synchronized Plan update() {
+        long now = mClock.elapsedRealtime();
+        if (now - mLastPollTime < SENSOR_POLL_MS) {
+            return mPlan;
+        }
+        mLastPollTime = now;
+
+        int wanted = chooseLevel();
+        if (wanted > mPlan.getLevel()) {
+            mPlan = mPlans[wanted];
+            mRecoveryStart = -1;
+        } else if (wanted < mPlan.getLevel()) {
+            if (mRecoveryStart < 0) {
+                mRecoveryStart = now;
+            } else if (now - mRecoveryStart >= RECOVERY_MS) {
+                mPlan = mPlans[mPlan.getLevel() - 1];   // Recover one level at a time
+                mRecoveryStart = (wanted < mPlan.getLevel()) ? now : -1;
+            }
+        } else {
+            mRecoveryStart = -1;
+        }
+        return mPlan;
+    }
+
+    /**
+     * Decides whether a preview frame should be kept, given the frame interval of the current plan.
+     * Called for every preview frame.
+     *
+     * @return True if the frame should be kept
+     */
+    synchronized boolean shouldKeepFrame() {
+        Plan plan = update();
+        long now = mClock.elapsedRealtime();
+        if (now - mLastFrameTime < plan.getFrameIntervalMs()) {
+            return false;
+        }
+        mLastFrameTime = now;
+        return true;
+    }
+
+    /**
+     * Records whether a trigger produced a result
+     *
+     * @param success - true if a result was reported
+     */
+    synchronized void recordOutcome(boolean success) {
+        mOutcomes = ((mOutcomes << 1) | (success ? 1 : 0)) & OUTCOME_MASK;
+        if (mOutcomeCount < OUTCOME_WINDOW) {
+            mOutcomeCount++;
+        }
+    }
+
+    /**
+     * @return The percentage of recent triggers that produced a result, or 100 with too few to tell
+     */
+    synchronized int getSuccessPercent() {
+        if (mOutcomeCount < MIN_OUTCOMES) {
+            return 100;
+        }
+        // Bits beyond mOutcomeCount are still zero until the window fills
+        return Long.bitCount(mOutcomes) * 100 / mOutcomeCount;
+    }
+
+    /**
+     * Applies the policy to fresh readings
+     */
+    private int chooseLevel() {
+        int level;
+        switch (mSensors.getThermalStatus()) {
+            case PowerManager.THERMAL_STATUS_NONE:
+                level = LEVEL_FULL;
+                break;
+            case PowerManager.THERMAL_STATUS_LIGHT:
+                level = LEVEL_REDUCED;
+                break;
+            case PowerManager.THERMAL_STATUS_MODERATE:
+                level = LEVEL_LOW;
+                break;
+            default:
+                level = LEVEL_MINIMAL;
+                break;
+        }
+
+        if (!mSensors.isCharging()) {
+            int battery = mSensors.getBatteryPercent();
+            if (battery <= CRITICAL_BATTERY_PERCENT) {
+                level = Math.max(level, LEVEL_LOW);
+            } else if (battery <= LOW_BATTERY_PERCENT) {
+                level = Math.max(level, LEVEL_REDUCED);
+            }
+        }
+
+        if (getSuccessPercent() < LOW_SUCCESS_PERCENT) {
+            level = Math.min(LEVEL_MINIMAL, level + 1);
+        }
+        return level;
+    }
+}
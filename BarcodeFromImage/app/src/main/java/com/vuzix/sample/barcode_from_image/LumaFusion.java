@@ -0,0 +1,213 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Averages several consecutive Y planes into one frame with less sensor noise
+ *
+ * Dim frames are too noisy to decode, and a longer exposure blurs as the head moves. Averaging N
+ * short frames cuts the noise by about the square root of N instead. Head motion between frames is
+ * mostly a global shift, so each frame is first aligned to the first one by matching the row and
+ * column sums (projections) of the two frames over a small range of offsets. A frame that matches
+ * poorly at every offset has moved too much, or differently, and is left out.
+ *
+ * Where a shifted frame does not cover the reference, the reference pixel is used in its place,
+ * so every output pixel is the average of the same number of samples.
+ *
+ * Every buffer is owned by this object and reused from frame to frame, so an instance must only be
+ * used from one thread.
+ */
+
+class LumaFusion {
+
+    // Largest shift searched, as a fraction of the frame dimension
+    private static final int MAX_SHIFT_DIVISOR = 32;
+    // A frame is rejected if its projections differ from the reference by more than this many
+    // levels per pixel on average, at the best offset
+    private static final int MAX_MEAN_DIFFERENCE = 12;
+
+    private int[] mSum = new int[0];
+    private byte[] mOutput = new byte[0];
+    private int[] mReferenceRows = new int[0];
+    private int[] mReferenceColumns = new int[0];
+    private int[] mRows = new int[0];
+    private int[] mColumns = new int[0];
+
+    private int mBestShift;   // Set by align()
+    private int mFused;
+
+    /**
+     * Aligns and averages the frames
+     *
+     * @param frames - Y planes of width * height bytes with no row padding, each read from position
+     *                 zero. The first is the reference the others are aligned to.
+     * @param count - the number of frames to use from the start of the array
+     * @param width - width of the frames in pixels
+     * @param height - height of the frames in pixels
+     * @return An internal buffer of width * height bytes holding the result. It is overwritten by the next call.
+     */
+    byte[] fuse(ByteBuffer[] frames, int count, int width, int height) {
+        int size = width * height;
+        if (mSum.length < size) {
+            mSum = new int[size];
+            mOutput = new byte[size];
+        }
+        if (mReferenceRows.length < height) {
+            mReferenceRows = new int[height];
+            mRows = new int[height];
+        }
+        if (mReferenceColumns.length < width) {
+            mReferenceColumns = new int[width];
+            mColumns = new int[width];
+        }
+
+        ByteBuffer reference = frames[0];
+        int[] sum = mSum;
+        for (int i = 0; i < size; i++) {
+            sum[i] = reference.get(i) & 0xFF;
+        }
+        project(reference, width, height, mReferenceRows, mReferenceColumns);
+        mFused = 1;
+
+        for (int f = 1; f < count; f++) {
+            ByteBuffer frame = frames[f];
+            project(frame, width, height, mRows, mColumns);
+            int maxShiftX = Math.max(1, width / MAX_SHIFT_DIVISOR);
+            int maxShiftY = Math.max(1, height / MAX_SHIFT_DIVISOR);
+            // Projections are sums over a full row or column, so scale the limit to match
+            if (!align(mReferenceColumns, mColumns, width, maxShiftX, (long) MAX_MEAN_DIFFERENCE * height)) {
+                continue;
+            }
+            int shiftX = mBestShift;
+            if (!align(mReferenceRows, mRows, height, maxShiftY, (long) MAX_MEAN_DIFFERENCE * width)) {
+                continue;
+            }
+            accumulate(reference, frame, width, height, shiftX, mBestShift);
+            mFused++;
+        }
+
+        // Divide by the frame count with a fixed point reciprocal rather than a division per pixel
+        int reciprocal = ((1 << 16) + mFused / 2) / mFused;
+        byte[] output = mOutput;
+        for (int i = 0; i < size; i++) {
+            output[i] = (byte) Math.min(255, (sum[i] * reciprocal + (1 << 15)) >>> 16);
+        }
+        return output;
+    }
+
+    /**
+     * @return The number of frames that went into the last result, including the reference
+     */
+    int getFusedCount() {
+        return mFused;
+    }
+
+    /**
+     * Sums each row and each column of a frame
+     */
+    private static void project(ByteBuffer frame, int width, int height, int[] rows, int[] columns) {
+        for (int x = 0; x < width; x++) {
+            columns[x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int rowSum = 0;
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int value = frame.get(offset + x) & 0xFF;
+                rowSum += value;
+                columns[x] += value;
+            }
+            rows[y] = rowSum;
+        }
+    }
+
+    /**
+     * Finds the shift of one projection that best matches the reference, and stores it in mBestShift
+     *
+     * A shift of s means that sample i of the frame lines up with sample i - s of the reference.
+     *
+     * @return False if even the best shift differs by more than the limit per sample
+     */
+    private boolean align(int[] reference, int[] projection, int length, int maxShift, long limit) {
+        long best = Long.MAX_VALUE;
+        int bestShift = 0;
+        for (int shift = -maxShift; shift <= maxShift; shift++) {
+            int start = Math.max(0, -shift);
+            int end = Math.min(length, length - shift);
+            long difference = 0;
+            for (int i = start; i < end; i++) {
+                difference += Math.abs(reference[i] - projection[i + shift]);
+            }
+            // Compare the mean difference, since larger shifts overlap fewer samples
+            difference = difference * length / Math.max(1, end - start);
+            if (difference < best) {
+                best = difference;
+                bestShift = shift;
+            }
+        }
+        mBestShift = bestShift;
+        return best <= limit * length;
+    }
+
+    /**
+     * Adds a frame shifted by (shiftX, shiftY) to the sum, using the reference where it has no pixel
+     */
+    private void accumulate(ByteBuffer reference, ByteBuffer frame, int width, int height, int shiftX, int shiftY) {
+        int[] sum = mSum;
+        int left = Math.max(0, -shiftX);
+        int right = Math.min(width, width - shiftX);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int sourceY = y + shiftY;
+            if ((sourceY < 0) || (sourceY >= height)) {
+                for (int x = 0; x < width; x++) {
+                    sum[row + x] += reference.get(row + x) & 0xFF;
+                }
+                continue;
+            }
+            int sourceRow = sourceY * width + shiftX;
+            for (int x = 0; x < left; x++) {
+                sum[row + x] += reference.get(row + x) & 0xFF;
+            }
+            for (int x = left; x < right; x++) {
+                sum[row + x] += frame.get(sourceRow + x) & 0xFF;
+            }
+            for (int x = right; x < width; x++) {
+                sum[row + x] += reference.get(row + x) & 0xFF;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+
+/**
+ * Optional normalization of the Y plane before it is passed to the barcode engine
+ *
+ * Frames from dim aisles often use only a narrow band of the 256 luma levels. Stretching that band
+ * to the full range, lifting the mid-tones with a gamma curve, and optionally binarizing against
+ * the local mean gives the engine a much cleaner signal on the first frame.
+ *
+ * All work is done with table lookups and a running-sum (integral) image. Every buffer is owned by
+ * this object and reused from frame to frame, so an instance must only be used from one thread.
+ */
+
+class LumaPreprocessor {
+
+    /** Never preprocess */
+    static final int MODE_OFF = 0;
+    /** Preprocess only when the frame statistics indicate low contrast */
+    static final int MODE_AUTO = 1;
+    /** Always preprocess */
+    static final int MODE_ALWAYS = 2;
+
+    // A frame whose central 98% of pixels span fewer levels than this is considered low contrast
+    private static final int LOW_CONTRAST_RANGE = 96;
+    // Fraction of pixels ignored at each end of the histogram so glare and noise don't define the range
+    private static final int CLIP_PERCENT = 1;
+    // A pixel is set to black when it is this percentage darker than the mean of its neighborhood
+    private static final int THRESHOLD_PERCENT = 10;
+    // The neighborhood is a square with sides of this fraction of the longer frame dimension
+    private static final int WINDOW_DIVISOR = 16;
+
+    private final int[] mHistogram = new int[256];
+    private final byte[] mLookup = new byte[256];
+    private byte[] mOutput = new byte[0];
+    private int[] mIntegral = new int[0];
+
+    private int mLow;
+    private int mHigh;
+    private int mMean;
+
+    /**
+     * Preprocesses a frame if the mode and frame statistics call for it
+     *
+     * @param data - Y plane data, which is never modified
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param mode - MODE_OFF, MODE_AUTO or MODE_ALWAYS
+     * @param gamma - gamma applied after stretching, or 0 to choose one that centers the mean
+     * @param binarize - true to follow the stretch with adaptive local thresholding
+     * @return data if no preprocessing was done, otherwise an internal buffer holding the result.
+     * The internal buffer is overwritten by the next call.
+     */
+    byte[] process(byte[] data, int width, int height, int mode, float gamma, boolean binarize) {
+        if (mode == MODE_OFF) {
+            return data;
+        }
+        int count = width * height;
+        measure(data, count);
+        if ((mode == MODE_AUTO) && (mHigh - mLow >= LOW_CONTRAST_RANGE)) {
+            return data;
+        }
+
+        if (mOutput.length < count) {
+            mOutput = new byte[count];
+        }
+        buildLookup(gamma);
+        byte[] lookup = mLookup;
+        byte[] output = mOutput;
+        for (int i = 0; i < count; i++) {
+            output[i] = lookup[data[i] & 0xFF];
+        }
+
+        if (binarize) {
+            threshold(output, width, height);
+        }
+        return output;
+    }
+
+    /**
+     * Finds the clipped low and high levels and the mean of a frame
+     */
+    private void measure(byte[] data, int count) {
+        int[] histogram = mHistogram;
+        for (int i = 0; i < 256; i++) {
+            histogram[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            histogram[data[i] & 0xFF]++;
+        }
+
+        int clip = (int) ((long) count * CLIP_PERCENT / 100);
+        long total = 0;
+        int seen = 0;
+        mLow = -1;
+        mHigh = 255;
+        for (int level = 0; level < 256; level++) {
+            total += (long) level * histogram[level];
+            seen += histogram[level];
+            if ((mLow < 0) && (seen > clip)) {
+                mLow = level;
+            }
+            if (seen >= count - clip) {
+                mHigh = Math.min(mHigh, level);
+            }
+        }
+        if (mLow < 0) {
+            mLow = 0;
+        }
+        mMean = (count > 0) ? (int) (total / count) : 0;
+    }
+
+    /**
+     * Combines the contrast stretch and gamma curve into one table
+     */
+    private void buildLookup(float gamma) {
+        int range = Math.max(1, mHigh - mLow);
+        if (gamma <= 0) {
+            // Choose the gamma that maps the stretched mean to mid-gray
+            double mean = Math.min(0.95, Math.max(0.05, (double) (mMean - mLow) / range));
+            gamma = (float) (Math.log(0.5) / Math.log(mean));
+        }
+        for (int level = 0; level < 256; level++) {
+            double stretched = Math.min(1.0, Math.max(0.0, (double) (level - mLow) / range));
+            mLookup[level] = (byte) (int) Math.round(255 * Math.pow(stretched, gamma));
+        }
+    }
+
+    /**
+     * Binarizes a frame in place against the mean of the surrounding window
+     *
+     * The integral image is kept in ints. Sums of large frames overflow, but the arithmetic wraps
+     * and the difference taken for any single window is still exact.
+     */
+    private void threshold(byte[] frame, int width, int height) {
+        int stride = width + 1;
+        int size = stride * (height + 1);
+        if (mIntegral.length < size) {
+            mIntegral = new int[size];
+        }
+        int[] integral = mIntegral;
+        for (int x = 0; x < stride; x++) {
+            integral[x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int rowSum = 0;
+            int in = y * width;
+            int out = (y + 1) * stride;
+            integral[out] = 0;
+            for (int x = 0; x < width; x++) {
+                rowSum += frame[in + x] & 0xFF;
+                integral[out + x + 1] = integral[out + x + 1 - stride] + rowSum;
+            }
+        }
+
+        int half = Math.max(1, Math.max(width, height) / WINDOW_DIVISOR / 2);
+        for (int y = 0; y < height; y++) {
+            int top = Math.max(0, y - half);
+            int bottom = Math.min(height, y + half + 1);
+            int rowTop = top * stride;
+            int rowBottom = bottom * stride;
+            int in = y * width;
+            for (int x = 0; x < width; x++) {
+                int left = Math.max(0, x - half);
+                int right = Math.min(width, x + half + 1);
+                int sum = integral[rowBottom + right] - integral[rowTop + right]
+                        - integral[rowBottom + left] + integral[rowTop + left];
+                int area = (bottom - top) * (right - left);
+                // value < mean * (100 - THRESHOLD_PERCENT) / 100, without a division per pixel
+                long scaled = (long) (frame[in + x] & 0xFF) * area * 100;
+                frame[in + x] = (scaled < (long) sum * (100 - THRESHOLD_PERCENT)) ? 0 : (byte) 255;
+            }
+        }
+    }
+}
@@ -44,16 +44,22 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
+import android.os.ConditionVariable;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
+import android.util.Range;
+import android.util.Rational;
 import android.util.Size;
 import android.view.KeyEvent;
 import android.view.Surface;
@@ -62,9 +68,13 @@ import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.Toast;
+
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Barcode scanner sample code.
@@ -73,10 +83,30 @@ import java.util.List;
  *
  * Position barcode in view frame and in focus.  Take picture with any key. If results are found
  * a toast with result text will show.
+ *
+ * While the preview runs, its most recent frames are kept in a pre-roll ring. A key press decodes
+ * the newest of them at the same time as a fresh burst capture, and the first result is shown.
+ * The barcode is usually already in focus before the key is pressed, so this is often immediate.
+ *
+ * The burst varies exposure and focus from frame to frame, which gets past the glare of glossy or
+ * curved labels. Its frames are decoded as they arrive, and the rest of the burst is aborted as
+ * soon as any frame decodes.
+ *
+ * A profile marked "tiled", for documents such as packing lists that hold many codes, skips both.
+ * It takes one still at the largest YUV size the camera offers instead, finds every code in it in
+ * overlapping tiles, and shows them all.
+ *
+ * Launched with a file path in EXTRA_IMAGE_PATH, it also finds every code in that stored image,
+ * reading it one region at a time so that even a scanned document or a panorama fits in memory.
+ * The app needs no storage permission to read its own external files directory, for example:
+ * adb shell am start -n com.vuzix.sample.barcode_from_image/.MainActivity
+ *     --es image_path /sdcard/Android/data/com.vuzix.sample.barcode_from_image/files/rack.jpg
  */
 
 public class MainActivity extends Activity {
     private final String LOG_TAG = "BarcodeFromImage";
+    /** Intent extra naming a stored image to scan when the activity is created */
+    static final String EXTRA_IMAGE_PATH = "image_path";
     private TextureView mTextureView;
     private CameraDevice mCameraDevice;
     private CameraCaptureSession mCameraCaptureSessions;
@@ -85,13 +115,45 @@ public class MainActivity extends Activity {
     private Handler mBackgroundHandler;
     private Handler mUiThreadHandler;
 
-    BarcodeFinder mBarcodeProcessor;
+    private PreRollRing mPreRollRing;
+    private PreRollRing mBurstRing;
+    private PreRollDecoder mFrameDecoder;
+    private DecodeScheduler mScheduler;
+    private ImageReader mPreRollReader;
+    private Handler mPreRollHandler;
+    private HandlerThread mPreRollThread;
+
+    // The burst and each frame being decoded hold one count. The trigger is complete at zero.
+    private final AtomicInteger mAttemptsPending = new AtomicInteger();
+    private volatile boolean mResultShown;   // A result has been shown for the current trigger
+    private volatile CameraCaptureSession mBurstSession;   // Set while a burst may still be capturing
+    private ImageReader mBurstReader;        // Camera background thread only
+    private int mBurstFramesRemaining;       // Camera background thread only
+    private ScanProfile mProfile;
+    private BarcodeFinder mStillFinder;      // Camera background thread only
+    private ImageReader mStillReader;        // Camera background thread only
 
     private boolean mTakingPicture;   // Prevents multiple requests at one time
     private static final int REQUEST_CODE_SCAN = 90001; // Must be unique within this Activity
     private final static int TAKE_PICTURE_COMPLETED = 1001;
+    private final static int SCAN_RESULT = 1002;
     private static final int REQUEST_PERMISSIONS = 2222; // unique to this application
     private final static Size CAPTURE_SIZE=  new Size(1408, 792);
+    private final static int PREROLL_FRAMES = 4;            // Frames kept in the ring
+    private final static int PREROLL_DECODE_FRAMES = 3;     // Newest frames decoded per trigger
+    private final static long PREROLL_MAX_AGE_MS = 500;     // Older frames may no longer show the target
+    private final static int DECODE_POOL_SIZE = 3;
+    // One entry per burst frame: exposure compensation in EV, and lens focus as a fraction of the
+    // closest focus distance, or -1 to leave autofocus on
+    private final static float[] BURST_EXPOSURE_EV = {0f, -1f, 1f, 0f, 0f};
+    private final static float[] BURST_FOCUS = {-1f, -1f, -1f, 1f, 0.5f};
+
+    private final PreRollDecoder.Listener mDecodeListener = new PreRollDecoder.Listener() {
+        @Override
+        public void onPreRollResult(String result) {
+            finishScanAttempt(result);
+        }
+    };
 
     /**
      * Registers the UI handlers and threads, and creates the barcode scanner object
@@ -132,11 +194,14 @@ public class MainActivity extends Activity {
             }
         });
 
-        // Handler for intercepting TAKE_PICTURE_COMPLETED back on the UI thread
+        // Handler for intercepting SCAN_RESULT and TAKE_PICTURE_COMPLETED back on the UI thread
         mUiThreadHandler = new Handler(Looper.getMainLooper()){
             @Override
             public void handleMessage(Message msg) {
                 switch (msg.what){
+                    case SCAN_RESULT:
+                        onScanResult((String) msg.obj);
+                        break;
                     case TAKE_PICTURE_COMPLETED:
                         onPictureComplete();
                         break;
@@ -152,8 +217,25 @@ public class MainActivity extends Activity {
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
 
-        // Create the class that will handle the image and process for barcodes
-        mBarcodeProcessor = new BarcodeFinder(this);
+        // Create the decoders that will process the pre-roll and burst frames for barcodes
+        mFrameDecoder = new PreRollDecoder(this, DECODE_POOL_SIZE);
+        mProfile = ScanProfile.load(this, R.raw.scan_profiles).get(getString(R.string.scan_profile));
+        mFrameDecoder.setProfile(mProfile);
+        mStillFinder = new BarcodeFinder(this);
+        mStillFinder.setProfile(mProfile);
+        mScheduler = new DecodeScheduler(DecodeScheduler.SYSTEM_CLOCK, DecodeScheduler.systemSensors(this), DECODE_POOL_SIZE);
+
+        // The preview feeds the pre-roll ring on its own thread, so copying never delays a capture
+        mPreRollThread = new HandlerThread("Pre-roll");
+        mPreRollThread.start();
+        mPreRollHandler = new Handler(mPreRollThread.getLooper());
+        mPreRollRing = new PreRollRing(PREROLL_FRAMES, CAPTURE_SIZE.getWidth(), CAPTURE_SIZE.getHeight());
+        mBurstRing = new PreRollRing(BURST_EXPOSURE_EV.length, CAPTURE_SIZE.getWidth(), CAPTURE_SIZE.getHeight());
+
+        String imagePath = getIntent().getStringExtra(EXTRA_IMAGE_PATH);
+        if (imagePath != null) {
+            scanStoredImage(imagePath);
+        }
 
         if (checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED)  {
             requestPermissions(new String[]{Manifest.permission.CAMERA}, REQUEST_PERMISSIONS);
@@ -173,6 +255,17 @@ public class MainActivity extends Activity {
         super.onPause();
     }
 
+    /**
+     * Releases the barcode engine helpers when we are finished
+     */
+    @Override
+    protected void onDestroy() {
+        mFrameDecoder.release();
+        mStillFinder.release();
+        mPreRollThread.quitSafely();
+        super.onDestroy();
+    }
+
     /**
      * Handles any physical button press to take the picture and evaluate for a barcode
      * @param keycode The keycode that is pressed/released
@@ -195,9 +288,58 @@ public class MainActivity extends Activity {
     }
 
     /**
-     * Called on the UI thread when the image is completely processed.  Re-starts the live preview
+     * Records the end of the burst or of one frame decode. Called on any thread.
+     *
+     * @param result - the decoded text, or null if nothing was found
+     */
+    private void finishScanAttempt(String result) {
+        if (result != null) {
+            mUiThreadHandler.obtainMessage(SCAN_RESULT, result).sendToTarget();
+        }
+        if (mAttemptsPending.decrementAndGet() == 0) {
+            mUiThreadHandler.sendEmptyMessage(TAKE_PICTURE_COMPLETED);
+        }
+    }
+
+    /**
+     * Called on the UI thread with each decoded frame. Shows the first, and stops the others.
+     *
+     * @param result - the decoded text
+     */
+    private void onScanResult(String result) {
+        if (mResultShown) {
+            return;
+        }
+        mResultShown = true;
+        mFrameDecoder.cancel();
+        CameraCaptureSession burstSession = mBurstSession;
+        if (burstSession != null) {
+            try {
+                burstSession.abortCaptures();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.w(LOG_TAG, "Unable to abort the burst", e);
+            }
+        }
+        Log.i(LOG_TAG, "Result: " + result);
+        PipelineTrace.begin(PipelineTrace.SHOW_SCAN_RESULT);
+        try {
+            Toast.makeText(MainActivity.this, result, Toast.LENGTH_LONG).show();
+        } finally {
+            PipelineTrace.end();
+        }
+    }
+
+    /**
+     * Called on the UI thread when the burst and every decode have finished.  Re-starts the live preview
+     *
+     * The preview is only restarted now, even if a result was shown earlier, since the burst owns
+     * the capture session until then.
      */
     private void onPictureComplete() {
+        mScheduler.recordOutcome(mResultShown);
+        if (!mResultShown) {
+            Toast.makeText(MainActivity.this, getResources().getString(R.string.no_barcode_in_image), Toast.LENGTH_LONG).show();
+        }
         mTakingPicture = false;
         createCameraPreview();
     }
@@ -213,11 +355,15 @@ public class MainActivity extends Activity {
                 return;
             }
             Surface surface = new Surface(texture);
+            Surface preRollSurface = getPreRollReader().getSurface();
             mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mCaptureRequestBuilder.addTarget(surface);
-            mCameraDevice.createCaptureSession(Collections.singletonList(surface), new CameraCaptureSession.StateCallback(){
+            mCaptureRequestBuilder.addTarget(preRollSurface);
+            final int sessionTrace = PipelineTrace.beginAsync(PipelineTrace.CREATE_CAPTURE_SESSION);
+            mCameraDevice.createCaptureSession(Arrays.asList(surface, preRollSurface), new CameraCaptureSession.StateCallback(){
                 @Override
                 public void onConfigured(CameraCaptureSession session) {
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
                     if (null == mCameraDevice) return;
                     mCameraCaptureSessions = session;
                     try {
@@ -228,6 +374,7 @@ public class MainActivity extends Activity {
                 }
                 @Override
                 public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
                     Toast.makeText(MainActivity.this, "Configuration change", Toast.LENGTH_SHORT).show();
                 }
             }, mBackgroundHandler);
@@ -236,6 +383,50 @@ public class MainActivity extends Activity {
         }
     }
 
+    /**
+     * Returns the reader that copies preview frames into the pre-roll ring, creating it if need be
+     */
+    private ImageReader getPreRollReader() {
+        if (mPreRollReader == null) {
+            mPreRollReader = ImageReader.newInstance(CAPTURE_SIZE.getWidth(), CAPTURE_SIZE.getHeight(), ImageFormat.YUV_420_888, 2);
+            mPreRollReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    PipelineTrace.begin(PipelineTrace.ON_IMAGE_AVAILABLE);
+                    try {
+                        copyPreRollImage(reader);
+                    } finally {
+                        PipelineTrace.end();
+                    }
+                }
+            }, mPreRollHandler);
+        }
+        return mPreRollReader;
+    }
+
+    /**
+     * Copies the newest preview frame into the pre-roll ring. Runs on the pre-roll thread.
+     *
+     * @param reader - The image reader
+     */
+    private void copyPreRollImage(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            return;   // The reader was closed with the camera
+        }
+        if (image != null) {
+            try {
+                if (mScheduler.shouldKeepFrame()) {   // Fewer copies when hot or low on battery
+                    mPreRollRing.offer(image);
+                }
+            } finally {
+                image.close();
+            }
+        }
+    }
+
     /**
      * Opens the camera
      */
@@ -247,25 +438,38 @@ public class MainActivity extends Activity {
             if (checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED)  {
                 return;
             }
+            final int openTrace = PipelineTrace.beginAsync(PipelineTrace.OPEN_CAMERA);
             cameraManager.openCamera(mCameraId, new CameraDevice.StateCallback() {
+                private boolean mOpening = true;   // Any of the callbacks may end the open
+
                 @Override
                 public void onOpened(CameraDevice camera) {
+                    endOpenTrace();
                     mCameraDevice = camera;
                     createCameraPreview();
                 }
 
                 @Override
                 public void onDisconnected(CameraDevice camera) {
+                    endOpenTrace();
                     mCameraDevice.close();
                 }
 
                 @Override
                 public void onError(CameraDevice camera, int error) {
+                    endOpenTrace();
                     if (null != mCameraDevice) {
                         mCameraDevice.close();
                         mCameraDevice = null;
                     }
                 }
+
+                private void endOpenTrace() {
+                    if (mOpening) {
+                        mOpening = false;
+                        PipelineTrace.endAsync(PipelineTrace.OPEN_CAMERA, openTrace);
+                    }
+                }
             }, null);
         } catch (CameraAccessException e) {
             e.printStackTrace();
@@ -277,6 +481,9 @@ public class MainActivity extends Activity {
 
     /**
      * Closes the camera
+     *
+     * The pre-roll reader is closed on the pre-roll thread, and we wait for it. Its images are
+     * copied into the ring on that thread, so the reader cannot be closed in the middle of a copy.
      */
     private synchronized void closeCamera() {
         if (mCameraCaptureSessions != null) {
@@ -287,6 +494,23 @@ public class MainActivity extends Activity {
             mCameraDevice.close();
             mCameraDevice = null;
         }
+        if (mPreRollReader != null) {
+            final ImageReader reader = mPreRollReader;
+            final ConditionVariable closed = new ConditionVariable();
+            mPreRollReader = null;
+            boolean posted = mPreRollHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reader.close();
+                    closed.open();
+                }
+            });
+            if (posted) {
+                closed.block();
+            } else {
+                reader.close();   // The pre-roll thread has quit, so nothing is copying
+            }
+        }
     }
 
 
@@ -306,19 +530,39 @@ public class MainActivity extends Activity {
         }
         mTakingPicture = true;
 
+        // Race the newest pre-roll frames against the burst below. The extra count keeps the
+        // trigger open until the pre-roll decodes have all been counted.
+        DecodeScheduler.Plan plan = mScheduler.update();
+        mFrameDecoder.setPoolSize(plan.getPoolSize());
+        mFrameDecoder.setDecimation(plan.getDecimation());
+        mResultShown = false;
+        mFrameDecoder.begin();
+        if (isTiled()) {
+            mAttemptsPending.set(1);   // Only the full resolution still. Preview frames are too coarse.
+        } else {
+            mAttemptsPending.set(2);
+            int preRollFrames = Math.min(PREROLL_DECODE_FRAMES, plan.getPoolSize());
+            mAttemptsPending.addAndGet(mFrameDecoder.decode(mPreRollRing, preRollFrames, PREROLL_MAX_AGE_MS, mDecodeListener));
+            mAttemptsPending.addAndGet(mFrameDecoder.decodeFused(mPreRollRing, PREROLL_MAX_AGE_MS, mDecodeListener));
+            finishScanAttempt(null);
+        }
+
         Log.d(LOG_TAG,"takeStillPicture()");
         SurfaceTexture texture = mTextureView.getSurfaceTexture();
         Surface surface = new Surface(texture);
         try {
             mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
             mCaptureRequestBuilder.addTarget(surface);
+            final int sessionTrace = PipelineTrace.beginAsync(PipelineTrace.CREATE_CAPTURE_SESSION);
             mCameraDevice.createCaptureSession(Collections.singletonList(surface), new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(CameraCaptureSession session) {
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
                     try {
                         mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START);
                         mCaptureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
                         mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, chooseBestFocusMode());
+                        final int precaptureTrace = PipelineTrace.beginAsync(PipelineTrace.PRECAPTURE);
                         session.capture(mCaptureRequestBuilder.build(), new CameraCaptureSession.CaptureCallback() {
                             @Override
                             public void onCaptureProgressed(CameraCaptureSession session, CaptureRequest request, CaptureResult partialResult) {
@@ -326,25 +570,45 @@ public class MainActivity extends Activity {
                             }
                             @Override
                             public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+                                PipelineTrace.endAsync(PipelineTrace.PRECAPTURE, precaptureTrace);
                                 handleCaptureCompleted();
                             }
+                            @Override
+                            public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+                                PipelineTrace.endAsync(PipelineTrace.PRECAPTURE, precaptureTrace);
+                                abandonBurst("Precapture failed, reason " + failure.getReason());
+                            }
                         }, mBackgroundHandler);
 
-                    } catch (CameraAccessException e) {
+                    } catch (CameraAccessException | IllegalStateException e) {
                         e.printStackTrace();
+                        abandonBurst("Unable to start the precapture");
                     }
                 }
 
                 @Override
                 public void onConfigureFailed(CameraCaptureSession session) {
-
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
+                    abandonBurst("Unable to configure the precapture session");
                 }
             }, mBackgroundHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
+            abandonBurst("Unable to create the precapture session");
         }
     }
 
+    /**
+     * Gives up the burst's hold on the trigger when the precapture fails before the burst starts.
+     * Without this the trigger would stay held, and no picture could be taken until a restart.
+     *
+     * @param reason - logged, to say where it failed
+     */
+    private void abandonBurst(String reason) {
+        Log.e(LOG_TAG, reason);
+        finishScanAttempt(null);
+    }
+
     private static boolean contains(int[] array, int value) {
         for (int i : array) {
             if (i == value) {
@@ -370,79 +634,341 @@ public class MainActivity extends Activity {
     }
 
 
+    /**
+     * Builds one still request per burst frame, each with its own exposure and focus
+     *
+     * Exposure steps are clamped to what the camera supports. Frames with a fixed focus distance
+     * fall back to autofocus on a fixed-focus lens.
+     */
+    private List<CaptureRequest> buildBurstRequests(Surface preview, Surface target) throws CameraAccessException {
+        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(mCameraDevice.getId());
+        Range<Integer> exposureRange = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+        Rational exposureStep = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_STEP);
+        Float closestFocus = characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        int autoFocusMode = chooseBestFocusMode();
+
+        List<CaptureRequest> requests = new ArrayList<CaptureRequest>(BURST_EXPOSURE_EV.length);
+        for (int i = 0; i < BURST_EXPOSURE_EV.length; i++) {
+            CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(preview);
+            builder.addTarget(target);
+            if ((exposureRange != null) && (exposureStep != null) && (exposureStep.floatValue() > 0)) {
+                int steps = Math.round(BURST_EXPOSURE_EV[i] / exposureStep.floatValue());
+                builder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, exposureRange.clamp(steps));
+            }
+            if ((BURST_FOCUS[i] >= 0) && (closestFocus != null) && (closestFocus > 0)) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
+                builder.set(CaptureRequest.LENS_FOCUS_DISTANCE, BURST_FOCUS[i] * closestFocus);
+            } else {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, autoFocusMode);
+            }
+            requests.add(builder.build());
+        }
+        return requests;
+    }
+
     /**
      * This callback is invoked when the capture request is complete.
      *
-     * Sets up another capture request to format the data in the preferred format and set a handler
-     * for when the image conversion is done
+     * Sets up a burst of capture requests in the preferred format, and a handler that decodes each
+     * frame as it arrives. Runs on the camera background thread.
      */
 
     private void handleCaptureCompleted(){
+        if (isTiled()) {
+            captureTiledStill();
+            return;
+        }
+        if (mResultShown) {
+            finishScanAttempt(null);   // A pre-roll frame already won, so there is no need for the burst
+            return;
+        }
         try {
             Log.d(LOG_TAG,"handleCaptureCompleted()");
             List<Surface> outputSurfaces = new ArrayList<Surface>();
             SurfaceTexture texture = mTextureView.getSurfaceTexture();
             Surface surface = new Surface(texture);
             outputSurfaces.add(surface);
-            ImageReader reader = ImageReader.newInstance(CAPTURE_SIZE.getWidth(), CAPTURE_SIZE.getHeight(), ImageFormat.YUV_420_888, 1);
-            outputSurfaces.add(reader.getSurface());
+            mBurstReader = ImageReader.newInstance(CAPTURE_SIZE.getWidth(), CAPTURE_SIZE.getHeight(), ImageFormat.YUV_420_888, BURST_EXPOSURE_EV.length);
+            final Surface readerSurface = mBurstReader.getSurface();
+            outputSurfaces.add(readerSurface);
+            final List<CaptureRequest> requests = buildBurstRequests(surface, readerSurface);
+            mBurstFramesRemaining = requests.size();
+
+            // Create an image listener that run on our background thread and processes the images
+            mBurstReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    PipelineTrace.begin(PipelineTrace.ON_IMAGE_AVAILABLE);
+                    try {
+                        handleCameraImageOnWorkerThread(reader);
+                    } finally {
+                        PipelineTrace.end();
+                    }
+                }
+            }, mBackgroundHandler);
 
-            mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            mCaptureRequestBuilder.addTarget(surface);
-            mCaptureRequestBuilder.addTarget(reader.getSurface());
+            // Create a configuration session. Its callbacks share the background thread with the images.
+            final int sessionTrace = PipelineTrace.beginAsync(PipelineTrace.CREATE_CAPTURE_SESSION);
+            mCameraDevice.createCaptureSession(outputSurfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
+                    mCameraCaptureSessions = session;
+                    mBurstSession = session;
+                    try {
+                        session.captureBurst(requests, new CameraCaptureSession.CaptureCallback() {
+                            @Override
+                            public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+                                if (!failure.wasImageCaptured()) {
+                                    onBurstFrameDone();   // Includes the frames dropped by abortCaptures()
+                                }
+                            }
+
+                            @Override
+                            public void onCaptureBufferLost(CameraCaptureSession session, CaptureRequest request, Surface target, long frameNumber) {
+                                if (target == readerSurface) {
+                                    onBurstFrameDone();
+                                }
+                            }
+
+                            @Override
+                            public void onCaptureSequenceAborted(CameraCaptureSession session, int sequenceId) {
+                                finishBurst();
+                            }
+                        }, mBackgroundHandler);
+                    } catch (CameraAccessException | IllegalStateException e) {
+                        e.printStackTrace();
+                        finishBurst();
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
+                    finishBurst();
+                }
+            }, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            finishBurst();
+        }
+    }
+
+    /**
+     * @return True if the profile asks for every code in a full resolution still
+     */
+    private boolean isTiled() {
+        return (mProfile != null) && mProfile.isTiled();
+    }
+
+    /**
+     * Finds the largest YUV_420_888 output size of the camera
+     *
+     * @return The size, or CAPTURE_SIZE if the camera does not list any
+     */
+    private Size getLargestYuvSize() throws CameraAccessException {
+        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(mCameraDevice.getId());
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size largest = CAPTURE_SIZE;
+        if (map != null) {
+            for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+                if ((long) size.getWidth() * size.getHeight() > (long) largest.getWidth() * largest.getHeight()) {
+                    largest = size;
+                }
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Takes one still at the largest YUV size and finds every code in it. Runs on the camera
+     * background thread, which has nothing else to do until the still has been decoded.
+     */
+    private void captureTiledStill() {
+        try {
+            Size size = getLargestYuvSize();
+            Log.d(LOG_TAG, "captureTiledStill() " + size);
+            List<Surface> outputSurfaces = new ArrayList<Surface>();
+            Surface surface = new Surface(mTextureView.getSurfaceTexture());
+            outputSurfaces.add(surface);
+            mStillReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, 1);
+            final Surface readerSurface = mStillReader.getSurface();
+            outputSurfaces.add(readerSurface);
+
+            final CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(surface);
+            builder.addTarget(readerSurface);
+            builder.set(CaptureRequest.CONTROL_AF_MODE, chooseBestFocusMode());
 
-            // Create an image listener that run on our background thread and processes the image
-            reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            mStillReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
                 @Override
                 public void onImageAvailable(ImageReader reader) {
-                    handleCameraImageOnWorkerThread(reader);
+                    PipelineTrace.begin(PipelineTrace.ON_IMAGE_AVAILABLE);
+                    try {
+                        finishTiledStill(decodeTiledStill(reader));
+                    } finally {
+                        PipelineTrace.end();
+                    }
                 }
             }, mBackgroundHandler);
 
-            // Create a configuration session. This handler can use our UI thread (null)
+            final int sessionTrace = PipelineTrace.beginAsync(PipelineTrace.CREATE_CAPTURE_SESSION);
             mCameraDevice.createCaptureSession(outputSurfaces, new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(CameraCaptureSession session) {
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
                     mCameraCaptureSessions = session;
                     try {
-                        //mCaptureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, 0);
-                        mCameraCaptureSessions.capture(mCaptureRequestBuilder.build(), null, null);
-                    } catch (CameraAccessException e) {
+                        session.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
+                            @Override
+                            public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+                                if (!failure.wasImageCaptured()) {
+                                    finishTiledStill(null);
+                                }
+                            }
+                        }, mBackgroundHandler);
+                    } catch (CameraAccessException | IllegalStateException e) {
                         e.printStackTrace();
+                        finishTiledStill(null);
                     }
                 }
 
                 @Override
                 public void onConfigureFailed(CameraCaptureSession session) {
-                    // No action
+                    PipelineTrace.endAsync(PipelineTrace.CREATE_CAPTURE_SESSION, sessionTrace);
+                    finishTiledStill(null);
                 }
-            }, null);
+            }, mBackgroundHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
+            finishTiledStill(null);
+        }
+    }
+
+    /**
+     * Decodes the full resolution still in tiles
+     *
+     * @param reader - The still image reader
+     * @return The text of every code found, one per line in reading order, or null if there are none
+     */
+    private String decodeTiledStill(ImageReader reader) {
+        List<ScanChannel.Code> results;
+        try {
+            results = mStillFinder.getAllBarcodeResults(reader);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        Log.d(LOG_TAG, results.size() + " codes in the still");
+        return joinText(results);
+    }
+
+    /**
+     * Finds every code in a stored image on the camera background thread, and shows them all
+     *
+     * @param path - a JPEG, PNG or WebP file
+     */
+    private void scanStoredImage(final String path) {
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                String text;
+                try {
+                    List<ScanChannel.Code> results = mStillFinder.getAllBarcodeResults(path);
+                    Log.d(LOG_TAG, results.size() + " codes in " + path);
+                    text = joinText(results);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to read " + path, e);
+                    text = null;
+                }
+                final String result = (text != null) ? text : getString(R.string.no_barcode_in_image);
+                mUiThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param results - codes in reading order
+     * @return The text of every code, one per line, or null if there are none
+     */
+    private static String joinText(List<ScanChannel.Code> results) {
+        if (results.isEmpty()) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        for (ScanChannel.Code result : results) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(result.getText());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Releases the still reader and its hold on the trigger. Safe to call more than once.
+     *
+     * @param result - every code found, or null if nothing was found
+     */
+    private void finishTiledStill(String result) {
+        if (mStillReader != null) {
+            mStillReader.close();
+            mStillReader = null;
+            finishScanAttempt(result);
         }
     }
 
     /**
-     * Handles the image data by calling our barcode engine helper class
+     * Copies a burst frame and starts decoding it. Runs on the camera background thread.
      *
      * @param reader - The image reader
      */
     private void handleCameraImageOnWorkerThread(ImageReader reader){
-        Log.d(LOG_TAG, "Processing barcode results");
-        String dataToShow = mBarcodeProcessor.getBarcodeResults(reader);
-        reader.close();
-
-        if(dataToShow == null) {
-            dataToShow = getResources().getString(R.string.no_barcode_in_image);
+        Image image = reader.acquireNextImage();
+        if (image == null) {
+            return;
+        }
+        boolean kept;
+        try {
+            kept = !mResultShown && mBurstRing.offer(image);   // No need to decode once a frame has won
+        } finally {
+            image.close();
         }
+        if (kept) {
+            Log.d(LOG_TAG, "Processing barcode results");
+            mAttemptsPending.addAndGet(mFrameDecoder.decode(mBurstRing, 1, Long.MAX_VALUE, mDecodeListener));
+        }
+        onBurstFrameDone();
+    }
 
-        // Show the user
-        Log.i(LOG_TAG, "Result: " + dataToShow );
-        Toast.makeText(MainActivity.this, dataToShow , Toast.LENGTH_LONG).show();
+    /**
+     * Counts a burst frame that was delivered, failed or dropped
+     */
+    private void onBurstFrameDone() {
+        if ((mBurstFramesRemaining > 0) && (--mBurstFramesRemaining == 0)) {
+            finishBurst();
+        }
+    }
 
-        Message msg = mUiThreadHandler.obtainMessage();
-        msg.what = TAKE_PICTURE_COMPLETED;
-        mUiThreadHandler.sendMessage(msg);
+    /**
+     * Releases the burst reader and its hold on the trigger. Safe to call more than once.
+     */
+    private void finishBurst() {
+        mBurstFramesRemaining = 0;
+        mBurstSession = null;
+        if (mBurstReader != null) {
+            mBurstReader.close();
+            mBurstReader = null;
+            finishScanAttempt(null);
+        }
     }
 
     /**
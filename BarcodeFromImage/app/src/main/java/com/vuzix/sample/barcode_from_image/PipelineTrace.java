@@ -0,0 +1,185 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Marks the camera, decode and UI stages of the pipeline as trace sections
+ *
+ * Stages that start and finish on one thread are marked with begin() and end(), which must be
+ * paired on that thread. Camera requests that finish in a callback, possibly on another thread,
+ * are marked with beginAsync(), which returns a cookie for the matching endAsync().
+ *
+ * On a device the sections go to android.os.Trace, where systrace and Perfetto show them beside
+ * the camera HAL and the scheduler. Off the device they are dropped unless a sink such as a
+ * TraceRecorder has been installed with setSink(), which lets a run on a desktop JVM be viewed in
+ * the same tools. Sections cost almost nothing while no trace is being taken, and never allocate.
+ */
+
+final class PipelineTrace {
+
+    /** Section names, shared by the device trace and the recorder */
+    static final String OPEN_CAMERA = "openCamera";
+    static final String CREATE_CAPTURE_SESSION = "createCaptureSession";
+    static final String PRECAPTURE = "precapture";
+    static final String ON_IMAGE_AVAILABLE = "onImageAvailable";
+    static final String DECODE_REGION = "decodeRegion";
+    static final String SCAN = "Scanner2.scan";
+    static final String SHOW_SCAN_RESULT = "showScanResult";
+
+    /**
+     * Receives the sections
+     */
+    interface Sink {
+        /**
+         * @param name - the section name
+         */
+        void begin(String name);
+
+        /**
+         * Ends the innermost section begun on this thread
+         */
+        void end();
+
+        /**
+         * @param name - the section name
+         * @param cookie - tells this section apart from others of the same name
+         */
+        void beginAsync(String name, int cookie);
+
+        /**
+         * @param name - the name the section was begun with
+         * @param cookie - the cookie the section was begun with
+         */
+        void endAsync(String name, int cookie);
+    }
+
+    /** Discards every section */
+    static final Sink NONE = new Sink() {
+        @Override
+        public void begin(String name) {
+        }
+
+        @Override
+        public void end() {
+        }
+
+        @Override
+        public void beginAsync(String name, int cookie) {
+        }
+
+        @Override
+        public void endAsync(String name, int cookie) {
+        }
+    };
+
+    /** Sends every section to android.os.Trace. Only usable on a device. */
+    static final Sink ANDROID = new Sink() {
+        @Override
+        public void begin(String name) {
+            Trace.beginSection(name);
+        }
+
+        @Override
+        public void end() {
+            Trace.endSection();
+        }
+
+        @Override
+        public void beginAsync(String name, int cookie) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+
+        @Override
+        public void endAsync(String name, int cookie) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    };
+
+    private static final AtomicInteger sNextCookie = new AtomicInteger();
+    private static volatile Sink sSink = "Dalvik".equals(System.getProperty("java.vm.name")) ? ANDROID : NONE;
+
+    private PipelineTrace() {
+    }
+
+    /**
+     * Sends all further sections to the given sink
+     *
+     * @param sink - the sink, or NONE
+     */
+    static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    /**
+     * Begins a section on the calling thread. Follow it with end() in a finally block.
+     *
+     * @param name - the section name
+     */
+    static void begin(String name) {
+        sSink.begin(name);
+    }
+
+    /**
+     * Ends the innermost section begun on the calling thread
+     */
+    static void end() {
+        sSink.end();
+    }
+
+    /**
+     * Begins a section that may end on another thread
+     *
+     * @param name - the section name
+     * @return The cookie to pass to endAsync()
+     */
+    static int beginAsync(String name) {
+        int cookie = sNextCookie.incrementAndGet();
+        sSink.beginAsync(name, cookie);
+        return cookie;
+    }
+
+    /**
+     * Ends a section begun with beginAsync()
+     *
+     * @param name - the section name
+     * @param cookie - the value beginAsync() returned
+     */
+    static void endAsync(String name, int cookie) {
+        sSink.endAsync(name, cookie);
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the frames of a trigger in parallel: the newest pre-roll frames, then the burst frames as
+ * they arrive
+ *
+ * Each frame is decoded on its own thread by its own BarcodeFinder, so the frames race each other.
+ * Once any of them succeeds, cancel() stops the frames that have not started yet, until begin() is
+ * called for the next trigger. A scan that has already started runs to completion.
+ *
+ * When the profile asks for it, the newest pre-roll frames are also averaged by LumaFusion and
+ * the fused frame joins the race. It decodes in light where every single frame is too noisy.
+ *
+ * A profile may also require several frames to agree. The finders then share one ResultVote, and a
+ * frame only reports a result once it confirms the result of earlier frames.
+ *
+ * The number of threads and the decode resolution can be lowered while running, by DecodeScheduler
+ * when the device is hot or the battery is low. When the profile asks for transformed variants of
+ * each frame, the finders decode them on one shared pool of the same size, so the variants do not
+ * add threads beyond what the scheduler allows.
+ *
+ * The tasks and the executor's queue are created up front and recycled, so submitting a frame
+ * allocates nothing. If every task is already queued, further frames are skipped.
+ */
+class PreRollDecoder {
+
+    /**
+     * Receives the outcome of each frame
+     */
+    interface Listener {
+        /**
+         * Called once per frame, on a worker thread
+         *
+         * @param result - the decoded text, or null if the frame had no acceptable code or was cancelled
+         */
+        void onPreRollResult(String result);
+    }
+
+    private static final String LOG_TAG = "BarcodeFromImage";
+    private static final int MAX_QUEUED_FRAMES = 16;   // More than a burst and its pre-roll
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ThreadPoolExecutor mVariantExecutor;   // Shared by the finders for their variants
+    private final ArrayBlockingQueue<FrameTask> mIdleTasks = new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+    private final FusedTask mFusedTask = new FusedTask();   // Guarded by this
+    private final BarcodeFinder[] mFinders;
+    private final ArrayBlockingQueue<BarcodeFinder> mIdleFinders;
+    private final PreRollRing.Frame[] mPinned;
+    private final LumaFusion mFusion = new LumaFusion();   // Used by one fusion task at a time
+    private ByteBuffer[] mFusionInput = new ByteBuffer[0];   // Guarded by mFusion
+    private ByteBuffer mFusedView;                           // Guarded by mFusion
+    private volatile ScanProfile mProfile = ScanProfile.DEFAULT;
+    private volatile ResultVote mVote;   // Shared by every finder, or null
+    private volatile boolean mCancelled;
+
+    /**
+     * Creates the threads and decoder instances
+     *
+     * @param context - the Context used to create the scanners
+     * @param poolSize - the number of frames decoded at once
+     */
+    PreRollDecoder(Context context, int poolSize) {
+        this(createFinders(context, poolSize));
+    }
+
+    /**
+     * Creates the threads around decoder instances made by the caller
+     *
+     * @param finders - one per frame decoded at once. Released by release().
+     */
+    PreRollDecoder(BarcodeFinder[] finders) {
+        int poolSize = finders.length;
+        // An ArrayBlockingQueue holds tasks without allocating a node for each one
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_FRAMES + 1));
+        for (int i = 0; i < MAX_QUEUED_FRAMES; i++) {
+            mIdleTasks.add(new FrameTask());
+        }
+        // Only used by profiles with variants, which cancel and requeue their tasks freely
+        mVariantExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mFinders = finders;
+        mIdleFinders = new ArrayBlockingQueue<>(poolSize);
+        for (BarcodeFinder finder : finders) {
+            finder.setVariantExecutor(mVariantExecutor);
+            mIdleFinders.add(finder);
+        }
+        mPinned = new PreRollRing.Frame[poolSize];
+    }
+
+    private static BarcodeFinder[] createFinders(Context context, int poolSize) {
+        BarcodeFinder[] finders = new BarcodeFinder[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            finders[i] = new BarcodeFinder(context);
+        }
+        return finders;
+    }
+
+    /**
+     * Selects the decode hints, which should match those of the still capture
+     *
+     * @param profile - The profile to apply, or null to restore the default full search
+     */
+    void setProfile(ScanProfile profile) {
+        mProfile = (profile != null) ? profile : ScanProfile.DEFAULT;
+        mVote = mProfile.createVote();
+        for (BarcodeFinder finder : mFinders) {
+            finder.setProfile(profile);
+            finder.setVote(mVote);
+        }
+    }
+
+    /**
+     * Changes the number of frames decoded at once. Frames already queued wait for a free thread.
+     *
+     * @param poolSize - between 1 and the pool size given to the constructor
+     */
+    synchronized void setPoolSize(int poolSize) {
+        poolSize = Math.max(1, Math.min(poolSize, mFinders.length));
+        resize(mExecutor, poolSize);
+        resize(mVariantExecutor, poolSize);
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int poolSize) {
+        // The core size may never exceed the maximum, so the order depends on the direction
+        if (poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+        } else {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Subsamples every decoded frame
+     *
+     * @param decimation - keep every Nth pixel of every Nth row. 1 decodes at full resolution.
+     */
+    void setDecimation(int decimation) {
+        for (BarcodeFinder finder : mFinders) {
+            finder.setDecimation(decimation);
+        }
+    }
+
+    /**
+     * Clears the cancellation and the votes of the previous trigger
+     */
+    void begin() {
+        mCancelled = false;
+        ResultVote vote = mVote;
+        if (vote != null) {
+            vote.reset();
+        }
+    }
+
+    /**
+     * Starts decoding the newest frames in a ring. Returns without waiting for them.
+     *
+     * Frames queue for a free decoder if more are submitted than the pool size. Nothing is decoded
+     * once the trigger has been cancelled.
+     *
+     * @param ring - the ring the frames are taken from
+     * @param maxFrames - the most frames to decode, no more than the pool size
+     * @param maxAgeMs - frames older than this are not decoded
+     * @param listener - called once for each frame being decoded
+     * @return The number of frames being decoded, which may be zero
+     */
+    synchronized int decode(PreRollRing ring, int maxFrames, long maxAgeMs, Listener listener) {
+        if (mCancelled) {
+            return 0;
+        }
+        int count = ring.acquireNewest(mPinned, Math.min(maxFrames, mPinned.length), maxAgeMs);
+        int submitted = 0;
+        for (int i = 0; i < count; i++) {
+            PreRollRing.Frame frame = mPinned[i];
+            mPinned[i] = null;
+            FrameTask task = mIdleTasks.poll();
+            if (task == null) {
+                Log.w(LOG_TAG, "Decode queue full, skipping a frame");
+                ring.release(frame);
+                continue;
+            }
+            task.mRing = ring;
+            task.mFrame = frame;
+            task.mListener = listener;
+            mExecutor.execute(task);
+            submitted++;
+        }
+        return submitted;
+    }
+
+    /**
+     * Starts decoding one frame fused from the newest frames in a ring, if the profile asks for it
+     *
+     * @param ring - the ring the frames are taken from
+     * @param maxAgeMs - frames older than this are not used
+     * @param listener - called once if this returns 1
+     * @return 1 if a fused frame is being decoded, or 0 if fusion is off, too few frames are recent,
+     * or the previous fused frame is still being decoded
+     */
+    synchronized int decodeFused(PreRollRing ring, long maxAgeMs, Listener listener) {
+        int wanted = mProfile.getFuseFrames();
+        if (mCancelled || (wanted < 2) || mFusedTask.mBusy) {
+            return 0;
+        }
+        if (mFusedTask.mFrames.length < wanted) {
+            mFusedTask.mFrames = new PreRollRing.Frame[wanted];   // Only when the profile changes
+        }
+        int count = ring.acquireNewest(mFusedTask.mFrames, wanted, maxAgeMs);
+        if (count < 2) {
+            for (int i = 0; i < count; i++) {
+                ring.release(mFusedTask.mFrames[i]);
+                mFusedTask.mFrames[i] = null;
+            }
+            return 0;
+        }
+        mFusedTask.mBusy = true;
+        mFusedTask.mCount = count;
+        mFusedTask.mRing = ring;
+        mFusedTask.mListener = listener;
+        mExecutor.execute(mFusedTask);
+        return 1;
+    }
+
+    /**
+     * Skips the frames that have not started decoding. Used once a result has been shown.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Stops the worker threads and releases the scanners. The object cannot be used afterwards.
+     */
+    void release() {
+        mCancelled = true;
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (BarcodeFinder finder : mFinders) {
+            finder.release();
+        }
+        mVariantExecutor.shutdown();
+    }
+
+    private String decodeFusedFrames(PreRollRing ring, PreRollRing.Frame[] frames, int count) throws InterruptedException {
+        synchronized (mFusion) {
+            if (mFusionInput.length < count) {
+                mFusionInput = new ByteBuffer[count];
+            }
+            for (int i = 0; i < count; i++) {
+                mFusionInput[i] = frames[i].getBuffer();
+            }
+            byte[] fused = mFusion.fuse(mFusionInput, count, ring.getWidth(), ring.getHeight());
+            if ((mFusedView == null) || (mFusedView.array() != fused)) {
+                mFusedView = ByteBuffer.wrap(fused);   // Only when the frame size changes
+            }
+            BarcodeFinder finder = mIdleFinders.take();
+            try {
+                return finder.getBarcodeResults(mFusedView, ring.getWidth(), ring.getHeight());
+            } finally {
+                mIdleFinders.add(finder);
+            }
+        }
+    }
+
+    private String decodeFrame(PreRollRing ring, PreRollRing.Frame frame) throws InterruptedException {
+        BarcodeFinder finder = mIdleFinders.take();
+        try {
+            return finder.getBarcodeResults(frame.getBuffer(), ring.getWidth(), ring.getHeight());
+        } finally {
+            mIdleFinders.add(finder);
+        }
+    }
+
+    /**
+     * Decodes one pinned frame, then returns itself to the idle tasks
+     */
+    private final class FrameTask implements Runnable {
+        PreRollRing mRing;
+        PreRollRing.Frame mFrame;
+        Listener mListener;
+
+        @Override
+        public void run() {
+            PreRollRing ring = mRing;
+            Listener listener = mListener;
+            String result = null;
+            try {
+                if (!mCancelled) {
+                    result = decodeFrame(ring, mFrame);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                ring.release(mFrame);
+                mRing = null;
+                mFrame = null;
+                mListener = null;
+                mIdleTasks.add(this);
+            }
+            if (result != null) {
+                mCancelled = true;
+            }
+            listener.onPreRollResult(result);
+        }
+    }
+
+    /**
+     * Fuses and decodes the frames pinned by decodeFused(). There is only one, reused for every trigger.
+     */
+    private final class FusedTask implements Runnable {
+        PreRollRing.Frame[] mFrames = new PreRollRing.Frame[0];
+        int mCount;
+        PreRollRing mRing;
+        Listener mListener;
+        boolean mBusy;   // Guarded by the PreRollDecoder
+
+        @Override
+        public void run() {
+            PreRollRing ring = mRing;
+            Listener listener = mListener;
+            String result = null;
+            try {
+                if (!mCancelled) {
+                    result = decodeFusedFrames(ring, mFrames, mCount);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                for (int i = 0; i < mCount; i++) {
+                    ring.release(mFrames[i]);
+                    mFrames[i] = null;
+                }
+                synchronized (PreRollDecoder.this) {
+                    mRing = null;
+                    mListener = null;
+                    mBusy = false;
+                }
+            }
+            if (result != null) {
+                mCancelled = true;
+            }
+            listener.onPreRollResult(result);
+        }
+    }
+}
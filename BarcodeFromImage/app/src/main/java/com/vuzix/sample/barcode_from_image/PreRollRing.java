@@ -0,0 +1,200 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.media.Image;
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the luma of the most recent preview frames, so a trigger can decode frames captured before
+ * the key was pressed. A second ring holds the frames of a burst capture as they arrive.
+ *
+ * Every slot is a direct buffer allocated up front, so the preview stream never allocates. The
+ * camera thread overwrites the oldest slot that is not being decoded. A decoder pins the frames it
+ * takes with acquireNewest(), and they are not overwritten until it calls release().
+ */
+class PreRollRing {
+    private final int mWidth;
+    private final int mHeight;
+    private final Frame[] mFrames;
+    private long mSequence;   // Guarded by this. The sequence of the newest published frame.
+
+    /**
+     * One slot of the ring
+     */
+    static final class Frame {
+        private final ByteBuffer mBuffer;
+        private long mSequence;      // 0 while the slot holds no complete frame
+        private long mCapturedAt;    // SystemClock.elapsedRealtime() when published
+        private boolean mWriting;
+        private int mPins;
+
+        private Frame(int size) {
+            mBuffer = ByteBuffer.allocateDirect(size);
+        }
+
+        /**
+         * @return The Y plane, width * height bytes with no row padding, positioned at zero
+         */
+        ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+    }
+
+    /**
+     * @param capacity - the number of frames kept
+     * @param width - width of the preview frames in pixels
+     * @param height - height of the preview frames in pixels
+     */
+    PreRollRing(int capacity, int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mFrames = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mFrames[i] = new Frame(width * height);
+        }
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Copies the Y plane of a camera image into the ring. Called on the camera thread.
+     *
+     * The frame is dropped if it is the wrong size, or if every slot is pinned by a decoder.
+     *
+     * @param image - a YUV_420_888 image. It is not closed.
+     * @return True if the frame was kept, and is now the newest
+     */
+    boolean offer(Image image) {
+        if ((image.getWidth() != mWidth) || (image.getHeight() != mHeight)) {
+            return false;
+        }
+        Frame frame = claim();
+        if (frame == null) {
+            return false;
+        }
+        Image.Plane plane = image.getPlanes()[0];
+        copyLuma(plane.getBuffer(), plane.getRowStride(), frame.mBuffer);
+        publish(frame);
+        return true;
+    }
+
+    /**
+     * Pins the newest frames, newest first. Each must be handed back to release().
+     *
+     * @param out - receives the frames
+     * @param max - the most frames to pin, no more than the length of out
+     * @param maxAgeMs - frames published longer ago than this are ignored
+     * @return The number of frames written to out
+     */
+    synchronized int acquireNewest(Frame[] out, int max, long maxAgeMs) {
+        long oldest = SystemClock.elapsedRealtime() - maxAgeMs;
+        long below = Long.MAX_VALUE;
+        int count = 0;
+        while (count < max) {
+            Frame newest = null;
+            for (Frame frame : mFrames) {
+                if ((frame.mSequence > 0) && (frame.mSequence < below) && (frame.mCapturedAt >= oldest)
+                        && ((newest == null) || (frame.mSequence > newest.mSequence))) {
+                    newest = frame;
+                }
+            }
+            if (newest == null) {
+                break;
+            }
+            newest.mPins++;
+            out[count++] = newest;
+            below = newest.mSequence;
+        }
+        return count;
+    }
+
+    /**
+     * Unpins a frame returned by acquireNewest()
+     */
+    synchronized void release(Frame frame) {
+        frame.mPins--;
+    }
+
+    /**
+     * Takes the oldest slot that nobody is decoding, and marks it as being written
+     */
+    private synchronized Frame claim() {
+        Frame oldest = null;
+        for (Frame frame : mFrames) {
+            if ((frame.mPins == 0) && !frame.mWriting
+                    && ((oldest == null) || (frame.mSequence < oldest.mSequence))) {
+                oldest = frame;
+            }
+        }
+        if (oldest != null) {
+            oldest.mWriting = true;
+            oldest.mSequence = 0;
+        }
+        return oldest;
+    }
+
+    private synchronized void publish(Frame frame) {
+        frame.mWriting = false;
+        frame.mSequence = ++mSequence;
+        frame.mCapturedAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Copies the Y plane without its row padding
+     */
+    private void copyLuma(ByteBuffer source, int rowStride, ByteBuffer target) {
+        target.clear();
+        if (rowStride == mWidth) {
+            source.limit(source.position() + mWidth * mHeight);
+            target.put(source);
+        } else {
+            int start = source.position();
+            for (int row = 0; row < mHeight; row++) {
+                int rowStart = start + row * rowStride;
+                source.limit(rowStart + mWidth);
+                source.position(rowStart);
+                target.put(source);
+            }
+        }
+        target.flip();
+    }
+}
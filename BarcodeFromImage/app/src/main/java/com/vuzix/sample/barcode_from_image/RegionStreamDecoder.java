@@ -0,0 +1,237 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Finds every code in a very large stored image without ever decoding the whole bitmap
+ *
+ * A scanned document or a panorama of racking can be 50 megapixels or more. Decoded in full that
+ * is 200 MB of ARGB, which runs out of memory on the device or takes seconds before any barcode
+ * work starts. Instead, BitmapRegionDecoder decodes one square region at a time into the same
+ * RGB_565 bitmap. Each region is converted row by row into a reused luma buffer and scanned before
+ * the next is decoded. Regions overlap like the tiles of a TiledDecoder, and the
+ * results are merged in the same way.
+ *
+ * Peak memory is set by the region size, not the image size: two bytes per region pixel for the
+ * bitmap, one for the luma, and whatever the preprocessor needs for one region. An instance must
+ * only be used from one thread, since the engine and the buffers are not shared.
+ */
+
+class RegionStreamDecoder {
+
+    /** Side of a square region in pixels */
+    static final int REGION_SIZE = TiledDecoder.TILE_SIZE;
+    /** Pixels shared by neighboring regions */
+    static final int REGION_OVERLAP = TiledDecoder.TILE_OVERLAP;
+
+    private final ScanEngine.FrameDecoder mDecoder;
+    private final TileGrid mGrid;
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private final LumaPreprocessor mPreprocessor = new LumaPreprocessor();
+    private final Rect mRegion = new Rect();
+    private Bitmap mBitmap;   // Created on first use, and every region is decoded into it
+    private byte[] mLuma = new byte[0];
+    private int[] mRow = new int[0];
+
+    /**
+     * @param decoder - the barcode engine, only called from the thread that calls decode()
+     */
+    RegionStreamDecoder(ScanEngine.FrameDecoder decoder) {
+        this(decoder, REGION_SIZE, REGION_OVERLAP);
+    }
+
+    /**
+     * @param decoder - the barcode engine, only called from the thread that calls decode()
+     * @param regionSize - side of a square region in pixels
+     * @param overlap - pixels shared by neighboring regions, less than regionSize
+     */
+    RegionStreamDecoder(ScanEngine.FrameDecoder decoder, int regionSize, int overlap) {
+        mDecoder = decoder;
+        mGrid = new TileGrid(regionSize, overlap);
+        mOptions.inPreferredConfig = Bitmap.Config.RGB_565;   // Half the memory of ARGB, and plenty for luma
+        mOptions.inMutable = true;
+    }
+
+    /**
+     * Frees the region bitmap. The decoder may still be used, and creates another when needed.
+     */
+    void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+
+    /**
+     * Finds every code in an image file
+     *
+     * @param path - a JPEG, PNG or WebP file
+     * @param profile - the scan profile results must satisfy. Only its search region is read.
+     * @return The accepted codes with their points in image coordinates, top to bottom and then
+     *         left to right. Empty if there are none.
+     * @throws IOException if the file cannot be read or decoded
+     */
+    List<ScanChannel.Code> decode(String path, ScanProfile profile) throws IOException {
+        BitmapRegionDecoder image = BitmapRegionDecoder.newInstance(path, false);
+        try {
+            return decode(image, profile);
+        } finally {
+            image.recycle();
+        }
+    }
+
+    /**
+     * Finds every code in an image that is open for region decoding
+     *
+     * @param image - the image. It is left open.
+     * @param profile - the scan profile results must satisfy. Only its search region is read.
+     * @return The accepted codes with their points in image coordinates, top to bottom and then
+     *         left to right. Empty if there are none.
+     * @throws IOException if a region cannot be decoded
+     */
+    List<ScanChannel.Code> decode(BitmapRegionDecoder image, ScanProfile profile) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        mGrid.cover(width, height, profile.getSearchRegion(width, height));
+        List<ScanChannel.Code> results = new ArrayList<>();
+        if (mGrid.getTileCount() == 0) {
+            return results;
+        }
+        int size = mGrid.getTileSize();
+        if (mBitmap == null) {
+            mBitmap = Bitmap.createBitmap(size, size, mOptions.inPreferredConfig);
+        }
+        if (mLuma.length < size * size) {
+            mLuma = new byte[size * size];
+            mRow = new int[size];
+        }
+
+        for (int tile = 0; tile < mGrid.getTileCount(); tile++) {
+            decodeRegion(image, profile, mGrid.getLeft(tile), mGrid.getTop(tile),
+                    mGrid.getWidth(tile), mGrid.getHeight(tile), results);
+        }
+        TiledDecoder.sortInReadingOrder(results);
+        return results;
+    }
+
+    /**
+     * Decodes one region of the image into the reused bitmap, converts it to luma and scans it
+     */
+    private void decodeRegion(BitmapRegionDecoder image, ScanProfile profile, int left, int top,
+                              int width, int height, List<ScanChannel.Code> results) throws IOException {
+        mRegion.set(left, top, left + width, top + height);
+        Bitmap bitmap;
+        PipelineTrace.begin(PipelineTrace.DECODE_REGION);
+        try {
+            mOptions.inBitmap = mBitmap;
+            try {
+                bitmap = image.decodeRegion(mRegion, mOptions);
+            } catch (IllegalArgumentException e) {
+                // Some decoders cannot reuse a bitmap for some formats. Take a new one for this region.
+                mOptions.inBitmap = null;
+                bitmap = image.decodeRegion(mRegion, mOptions);
+            }
+        } finally {
+            mOptions.inBitmap = null;
+            PipelineTrace.end();
+        }
+        if (bitmap == null) {
+            throw new IOException("Unable to decode region " + left + "," + top
+                    + " " + width + "x" + height);
+        }
+        try {
+            toLuma(bitmap, width, height);
+        } finally {
+            if (bitmap != mBitmap) {
+                bitmap.recycle();
+            }
+        }
+
+        if (profile.isInverted()) {
+            for (int i = 0; i < width * height; i++) {
+                mLuma[i] = (byte) ~mLuma[i];   // The engine expects dark marks on a light background
+            }
+        }
+        byte[] data = mPreprocessor.process(mLuma, width, height,
+                profile.getLowLightMode(), profile.getGamma(), profile.isBinarized());
+
+        ScanResult2[] found;
+        PipelineTrace.begin(PipelineTrace.SCAN);
+        try {
+            found = mDecoder.scan(data, width, height, null);
+        } finally {
+            PipelineTrace.end();
+        }
+        if (found == null) {
+            return;
+        }
+        for (ScanResult2 result : found) {
+            if (profile.accepts(result)) {
+                TiledDecoder.mergeResult(results, TiledDecoder.toFrameCode(result, left, top));
+            }
+        }
+    }
+
+    /**
+     * Converts the top left of a bitmap to luma in mLuma, one row at a time
+     *
+     * The BT.601 weights are applied in fixed point, so the result matches the camera's Y plane
+     * closely enough for the engine.
+     */
+    private void toLuma(Bitmap bitmap, int width, int height) {
+        final int[] row = mRow;
+        final byte[] luma = mLuma;
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int out = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                luma[out + x] = (byte) ((77 * r + 150 * g + 29 * b) >> 8);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes luma frames that the caller already has, without a Bitmap or an activity in between
+ *
+ * ScanServiceClient sends frames to the ScanService through shared memory. Tests use a channel
+ * that decodes them directly in the calling process instead.
+ */
+interface ScanChannel extends Closeable {
+
+    /**
+     * Decodes one frame. May block while the decoders are busy.
+     *
+     * @param luma - the Y plane, width * height bytes from its position, with no row padding
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param region - region of the frame to search, or null for the whole frame
+     * @return The codes found, which may be none
+     * @throws IOException if the frame could not be delivered or decoded
+     */
+    List<Code> scan(ByteBuffer luma, int width, int height, Rect region) throws IOException;
+
+    /**
+     * A decoded code. Smaller than a ScanResult2, and cheap to send between processes.
+     *
+     * The symbology is a stable id from SYMBOLOGY_NAMES, not the ordinal of the BarcodeType2,
+     * since the client and the service may be built against different versions of the SDK.
+     */
+    final class Code {
+        /** The symbology of codes whose BarcodeType2 is not known */
+        static final int UNKNOWN_SYMBOLOGY = -1;
+
+        /**
+         * The symbology ids. The id of a type is its index here. Names may only be appended, never
+         * removed or reordered. Names this SDK does not define are read as UNKNOWN_SYMBOLOGY.
+         */
+        private static final String[] SYMBOLOGY_NAMES = {
+                "AZTEC", "CODABAR", "CODE_39", "CODE_93", "CODE_128", "DATA_MATRIX", "EAN_8", "EAN_13",
+                "ITF", "MAXICODE", "PDF_417", "QR_CODE", "RSS_14", "RSS_EXPANDED", "UPC_A", "UPC_E",
+                "UPC_EAN_EXTENSION"
+        };
+        private static final BarcodeType2[] TYPES_BY_ID = new BarcodeType2[SYMBOLOGY_NAMES.length];
+        private static final int[] IDS_BY_ORDINAL = new int[BarcodeType2.values().length];
+
+        static {
+            Arrays.fill(IDS_BY_ORDINAL, UNKNOWN_SYMBOLOGY);
+            for (int id = 0; id < SYMBOLOGY_NAMES.length; id++) {
+                try {
+                    TYPES_BY_ID[id] = BarcodeType2.valueOf(SYMBOLOGY_NAMES[id]);
+                    IDS_BY_ORDINAL[TYPES_BY_ID[id].ordinal()] = id;
+                } catch (IllegalArgumentException e) {
+                    // Not defined by this version of the SDK
+                }
+            }
+        }
+
+        private final int mSymbology;
+        private final String mText;
+        private final int[] mPoints;
+
+        /**
+         * @param symbology - id of the symbology from symbologyId(). Ids unknown to this version of
+         *                  the SDK are taken as UNKNOWN_SYMBOLOGY.
+         * @param text - the decoded text
+         * @param points - result points as x0, y0, x1, y1...
+         */
+        Code(int symbology, String text, int[] points) {
+            mSymbology = (barcodeType(symbology) != null) ? symbology : UNKNOWN_SYMBOLOGY;
+            mText = text;
+            mPoints = points;
+        }
+
+        /**
+         * @param type - the symbology, or null
+         * @return The id of the symbology, or UNKNOWN_SYMBOLOGY if it has none
+         */
+        static int symbologyId(BarcodeType2 type) {
+            return (type != null) ? IDS_BY_ORDINAL[type.ordinal()] : UNKNOWN_SYMBOLOGY;
+        }
+
+        /**
+         * Copies the points of a result, so they can be moved without touching the SDK's own objects
+         *
+         * @param result - a result returned by the engine
+         * @return Result points as x0, y0, x1, y1..., or an empty array if it has none
+         */
+        static int[] copyPoints(ScanResult2 result) {
+            Point[] points = result.getResultPoints();
+            int[] coordinates = new int[(points != null) ? points.length * 2 : 0];
+            for (int i = 0; i < coordinates.length / 2; i++) {
+                coordinates[2 * i] = points[i].x;
+                coordinates[2 * i + 1] = points[i].y;
+            }
+            return coordinates;
+        }
+
+        /**
+         * @param symbology - a symbology id, or UNKNOWN_SYMBOLOGY
+         * @return The symbology, or null if the id is unknown to this version of the SDK
+         */
+        static BarcodeType2 barcodeType(int symbology) {
+            return ((symbology >= 0) && (symbology < TYPES_BY_ID.length)) ? TYPES_BY_ID[symbology] : null;
+        }
+
+        /**
+         * @return Id of the symbology, or UNKNOWN_SYMBOLOGY
+         */
+        int getSymbology() {
+            return mSymbology;
+        }
+
+        /**
+         * @return The symbology, or null if it is not known
+         */
+        BarcodeType2 getBarcodeType() {
+            return barcodeType(mSymbology);
+        }
+
+        /**
+         * @return The decoded text
+         */
+        String getText() {
+            return mText;
+        }
+
+        /**
+         * @return Result points as x0, y0, x1, y1... in frame coordinates
+         */
+        int[] getPoints() {
+            return mPoints;
+        }
+    }
+}
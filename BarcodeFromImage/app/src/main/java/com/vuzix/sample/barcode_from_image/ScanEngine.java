@@ -0,0 +1,172 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.vuzix.sdk.barcode.ScanResult2;
+import com.vuzix.sdk.barcode.Scanner2;
+import com.vuzix.sdk.barcode.Scanner2Factory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Decodes luma frames with a fixed pool of decoders, each with its own frame buffer
+ *
+ * A Scanner2 is not safe to share between threads, and creating one per frame is slow. The pool
+ * lets several callers decode at once, and makes any further callers wait for a free decoder.
+ * The engine is shared by the clients of the ScanService, and tests build one from fake decoders.
+ */
+class ScanEngine {
+    private static final String LOG_TAG = "BarcodeFromImage";
+
+    /**
+     * Decodes one frame. Scanner2 in production. Tests may supply their own.
+     */
+    interface FrameDecoder {
+        /**
+         * @param data - Y plane data
+         * @param width - width of the frame in pixels
+         * @param height - height of the frame in pixels
+         * @param region - region of the frame to search, or null for the whole frame
+         * @return The results, or null if there are none
+         */
+        ScanResult2[] scan(byte[] data, int width, int height, Rect region);
+    }
+
+    private final ArrayBlockingQueue<Worker> mWorkers;
+
+    /**
+     * @param decoders - one decoder per pool slot
+     */
+    ScanEngine(List<FrameDecoder> decoders) {
+        if (decoders.isEmpty()) {
+            throw new IllegalArgumentException("At least one decoder is required");
+        }
+        mWorkers = new ArrayBlockingQueue<>(decoders.size());
+        for (FrameDecoder decoder : decoders) {
+            mWorkers.add(new Worker(decoder));
+        }
+    }
+
+    /**
+     * Creates an engine backed by the barcode SDK
+     *
+     * @param context - the Context used to create the Scanner2 instances
+     * @param poolSize - the number of frames that may be decoded at once
+     * @return The engine
+     */
+    static ScanEngine create(Context context, int poolSize) {
+        List<FrameDecoder> decoders = new ArrayList<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            try {
+                final Scanner2 scanner = Scanner2Factory.getScanner(context);
+                decoders.add(new FrameDecoder() {
+                    @Override
+                    public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                        return scanner.scan(data, width, height, region);
+                    }
+                });
+            } catch (Exception ex) {
+                Log.e(LOG_TAG, "Unable to create a pooled scanner", ex);
+            }
+        }
+        return new ScanEngine(decoders);
+    }
+
+    /**
+     * Decodes one frame, waiting for a free decoder if need be
+     *
+     * @param luma - the Y plane, width * height bytes from its position. Its position is not changed.
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param region - region of the frame to search, or null for the whole frame
+     * @return The codes found
+     * @throws IllegalArgumentException if the frame is smaller than its dimensions
+     * @throws InterruptedException if interrupted while waiting for a decoder
+     */
+    List<ScanChannel.Code> decode(ByteBuffer luma, int width, int height, Rect region) throws InterruptedException {
+        if ((width <= 0) || (height <= 0) || ((long) width * height > luma.remaining())) {
+            throw new IllegalArgumentException("Frame of " + luma.remaining() + " bytes is too small for "
+                    + width + "x" + height);
+        }
+        Worker worker = mWorkers.take();
+        try {
+            int size = width * height;
+            if (worker.mBuffer.length < size) {
+                worker.mBuffer = new byte[size];
+            }
+            luma.duplicate().get(worker.mBuffer, 0, size);
+            ScanResult2[] results;
+            PipelineTrace.begin(PipelineTrace.SCAN);
+            try {
+                results = worker.mDecoder.scan(worker.mBuffer, width, height, region);
+            } finally {
+                PipelineTrace.end();
+            }
+            return toCodes(results);
+        } finally {
+            mWorkers.add(worker);
+        }
+    }
+
+    private static List<ScanChannel.Code> toCodes(ScanResult2[] results) {
+        if ((results == null) || (results.length == 0)) {
+            return Collections.emptyList();
+        }
+        List<ScanChannel.Code> codes = new ArrayList<>(results.length);
+        for (ScanResult2 result : results) {
+            codes.add(new ScanChannel.Code(ScanChannel.Code.symbologyId(result.getBarcodeType()),
+                    result.getText(), ScanChannel.Code.copyPoints(result)));
+        }
+        return codes;
+    }
+
+    /**
+     * A decoder and the buffer it decodes from
+     */
+    private static final class Worker {
+        final FrameDecoder mDecoder;
+        byte[] mBuffer = new byte[0];
+
+        Worker(FrameDecoder decoder) {
+            mDecoder = decoder;
+        }
+    }
+}
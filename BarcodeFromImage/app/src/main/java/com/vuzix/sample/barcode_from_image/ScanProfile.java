@@ -0,0 +1,476 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.Log;
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A named set of decode hints applied around each call to Scanner2.scan()
+ *
+ * Profiles restrict the symbologies we accept, the expected text length, whether the marks are
+ * printed light-on-dark, the part of the frame that is searched, how dim frames are normalized
+ * before they reach the engine, how many consecutive frames are averaged to cut sensor noise, which
+ * transformed copies of the frame are decoded in parallel, whether a full resolution still is
+ * decoded in tiles for every code in it, and how many frames must agree before a result is
+ * reported. They are loaded from the res/raw/scan_profiles.json config file so a site can be tuned
+ * without a code change.
+ *
+ * The search region is stored as fractions of the frame so the same profile works at any capture
+ * size. It is converted to a Rect once per frame size and then reused.
+ */
+
+class ScanProfile {
+    private static final String LOG_TAG = "BarcodeFromImage";
+
+    /** Name of the built-in profile, always available even if the config file cannot be read */
+    static final String DEFAULT_PROFILE_NAME = "default";
+
+    /** Searches all symbologies over the whole frame, which is the engine's own behavior */
+    static final ScanProfile DEFAULT = new Builder(DEFAULT_PROFILE_NAME).build();
+
+    private final String mName;
+    private final EnumSet<BarcodeType2> mSymbologies;   // null means all symbologies
+    private final int mMinLength;
+    private final int mMaxLength;
+    private final boolean mInverted;
+    private final float[] mRegionFractions;             // left, top, right, bottom or null for the whole frame
+    private final int mLowLightMode;                    // One of the LumaPreprocessor modes
+    private final float mGamma;                         // 0 chooses a gamma from the frame
+    private final boolean mBinarize;
+    private final int mFuseFrames;                      // 0 or 1 means frames are not fused
+    private final int mVariants;                        // VariantDecoder flags
+    private final boolean mTiled;                       // Stills are full resolution and decoded by TiledDecoder
+    private final int mConfirmFrames;                   // K of a ResultVote, or 0 or 1 for none
+    private final int mConfirmWindow;                   // N of a ResultVote
+
+    private final Rect mRegion = new Rect();
+    private int mRegionWidth;
+    private int mRegionHeight;
+
+    /**
+     * Collects the settings of a profile. Anything not set keeps the value of DEFAULT.
+     */
+    static final class Builder {
+        private final String mName;
+        private EnumSet<BarcodeType2> mSymbologies;
+        private int mMinLength;
+        private int mMaxLength = Integer.MAX_VALUE;
+        private boolean mInverted;
+        private float[] mRegionFractions;
+        private int mLowLightMode = LumaPreprocessor.MODE_AUTO;
+        private float mGamma;
+        private boolean mBinarize;
+        private int mFuseFrames;
+        private int mVariants = VariantDecoder.VARIANT_RAW;
+        private boolean mTiled;
+        private int mConfirmFrames;
+        private int mConfirmWindow;
+
+        /**
+         * @param name - the name of the profile
+         */
+        Builder(String name) {
+            mName = name;
+        }
+
+        /**
+         * @param symbologies - the accepted symbologies, or null for all
+         */
+        Builder setSymbologies(EnumSet<BarcodeType2> symbologies) {
+            mSymbologies = symbologies;
+            return this;
+        }
+
+        Builder setLength(int minLength, int maxLength) {
+            mMinLength = minLength;
+            mMaxLength = maxLength;
+            return this;
+        }
+
+        Builder setInverted(boolean inverted) {
+            mInverted = inverted;
+            return this;
+        }
+
+        /**
+         * @param regionFractions - left, top, right and bottom as fractions of the frame, or null for the whole frame
+         */
+        Builder setRegion(float[] regionFractions) {
+            mRegionFractions = regionFractions;
+            return this;
+        }
+
+        /**
+         * @param lowLightMode - one of the LumaPreprocessor modes
+         * @param gamma - the gamma to apply, or 0 to choose one from the frame
+         * @param binarize - true to threshold normalized frames to black and white
+         */
+        Builder setLowLight(int lowLightMode, float gamma, boolean binarize) {
+            mLowLightMode = lowLightMode;
+            mGamma = gamma;
+            mBinarize = binarize;
+            return this;
+        }
+
+        Builder setFuseFrames(int fuseFrames) {
+            mFuseFrames = fuseFrames;
+            return this;
+        }
+
+        /**
+         * @param variants - VariantDecoder flags
+         */
+        Builder setVariants(int variants) {
+            mVariants = variants;
+            return this;
+        }
+
+        Builder setTiled(boolean tiled) {
+            mTiled = tiled;
+            return this;
+        }
+
+        /**
+         * @param confirmFrames - K of a ResultVote, or 0 or 1 for none
+         * @param confirmWindow - N of a ResultVote
+         */
+        Builder setConfirm(int confirmFrames, int confirmWindow) {
+            mConfirmFrames = confirmFrames;
+            mConfirmWindow = confirmWindow;
+            return this;
+        }
+
+        ScanProfile build() {
+            return new ScanProfile(this);
+        }
+    }
+
+    private ScanProfile(Builder builder) {
+        mName = builder.mName;
+        mSymbologies = builder.mSymbologies;
+        mMinLength = builder.mMinLength;
+        mMaxLength = builder.mMaxLength;
+        mInverted = builder.mInverted;
+        mRegionFractions = builder.mRegionFractions;
+        mLowLightMode = builder.mLowLightMode;
+        mGamma = builder.mGamma;
+        mBinarize = builder.mBinarize;
+        mFuseFrames = builder.mFuseFrames;
+        mVariants = builder.mVariants;
+        mTiled = builder.mTiled;
+        mConfirmFrames = builder.mConfirmFrames;
+        mConfirmWindow = builder.mConfirmWindow;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The accepted symbologies, which are all the engine searches for, or null if every
+     * symbology is accepted
+     */
+    EnumSet<BarcodeType2> getSymbologies() {
+        return mSymbologies;
+    }
+
+    /**
+     * @return The accepted symbology names in the form expected by the scanner fragment and intent
+     * extras, or null if every symbology is accepted
+     */
+    String[] getSymbologyNames() {
+        if (mSymbologies == null) {
+            return null;
+        }
+        String[] names = new String[mSymbologies.size()];
+        int i = 0;
+        for (BarcodeType2 type : mSymbologies) {
+            names[i++] = type.name();
+        }
+        return names;
+    }
+
+    /**
+     * @return True if the marks are light on a dark background and the luma must be inverted before scanning
+     */
+    boolean isInverted() {
+        return mInverted;
+    }
+
+    /**
+     * @return LumaPreprocessor.MODE_OFF, MODE_AUTO or MODE_ALWAYS
+     */
+    int getLowLightMode() {
+        return mLowLightMode;
+    }
+
+    /**
+     * @return The gamma applied to stretched frames, or 0 to choose one from the frame
+     */
+    float getGamma() {
+        return mGamma;
+    }
+
+    /**
+     * @return True if stretched frames are also binarized against their local mean
+     */
+    boolean isBinarized() {
+        return mBinarize;
+    }
+
+    /**
+     * @return The number of consecutive frames LumaFusion averages into one, or 0 or 1 if frames
+     * are decoded one at a time
+     */
+    int getFuseFrames() {
+        return mFuseFrames;
+    }
+
+    /**
+     * @return A combination of the VariantDecoder.VARIANT_ flags. VARIANT_RAW means only the frame
+     * as captured is decoded.
+     */
+    int getVariants() {
+        return mVariants;
+    }
+
+    /**
+     * @return True if stills should be captured at the camera's full resolution and every code in
+     * them reported, as for packing lists and pallet labels
+     */
+    boolean isTiled() {
+        return mTiled;
+    }
+
+    /**
+     * @return K, the number of the last getConfirmWindow() frames that must agree before a result
+     * is reported, or 0 or 1 if the first result is reported
+     */
+    int getConfirmFrames() {
+        return mConfirmFrames;
+    }
+
+    /**
+     * @return N, the number of recent frames considered when confirming a result
+     */
+    int getConfirmWindow() {
+        return mConfirmWindow;
+    }
+
+    /**
+     * @return A new vote for this profile's confirmation rule, or null if results need no confirmation
+     */
+    ResultVote createVote() {
+        return (mConfirmFrames > 1) ? new ResultVote(mConfirmFrames, mConfirmWindow) : null;
+    }
+
+    /**
+     * Get the region of the frame to search
+     *
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @return The region to pass to Scanner2.scan(), or null to search the whole frame. The Rect is
+     * owned by the profile and is only valid until the next call.
+     */
+    synchronized Rect getSearchRegion(int width, int height) {
+        if (mRegionFractions == null) {
+            return null;
+        }
+        if ((width != mRegionWidth) || (height != mRegionHeight)) {
+            mRegion.set((int) (mRegionFractions[0] * width), (int) (mRegionFractions[1] * height),
+                    (int) (mRegionFractions[2] * width), (int) (mRegionFractions[3] * height));
+            mRegionWidth = width;
+            mRegionHeight = height;
+        }
+        return mRegion;
+    }
+
+    /**
+     * Checks a decoded result against the symbology and length restrictions of this profile
+     *
+     * The engine is already limited to the symbologies by SymbologyScanner, so the symbology check
+     * only catches results it reports regardless.
+     *
+     * @param result - A result returned by the scan engine
+     * @return True if the result should be reported
+     */
+    boolean accepts(ScanResult2 result) {
+        String text = result.getText();
+        if ((text == null) || (text.length() < mMinLength) || (text.length() > mMaxLength)) {
+            return false;
+        }
+        return (mSymbologies == null) || mSymbologies.contains(result.getBarcodeType());
+    }
+
+    /**
+     * Loads every profile from a raw JSON resource
+     *
+     * The file contains an object of named profiles, for example:
+     * <pre>
+     * { "warehouse": { "symbologies": ["CODE_128", "DATA_MATRIX"], "minLength": 6, "maxLength": 40,
+     *                  "inverted": false, "region": [0.1, 0.2, 0.9, 0.8],
+     *                  "lowLight": "auto", "gamma": 0, "binarize": false, "fuseFrames": 0,
+     *                  "variants": ["rotate90", "invert", "mirror"], "tiled": false,
+     *                  "confirmFrames": 0, "confirmWindow": 0 } }
+     * </pre>
+     * lowLight is one of "off", "auto" or "always". Any key may be omitted. A profile that cannot be parsed is logged and skipped.
+     *
+     * @param context - The Context used to open the resource
+     * @param resId - The raw resource ID of the config file
+     * @return The profiles by name. Always contains DEFAULT_PROFILE_NAME.
+     */
+    static Map<String, ScanProfile> load(Context context, int resId) {
+        Map<String, ScanProfile> profiles = new LinkedHashMap<>();
+        profiles.put(DEFAULT_PROFILE_NAME, DEFAULT);
+        try (InputStream in = context.getResources().openRawResource(resId)) {
+            JSONObject root = new JSONObject(readFully(in));
+            JSONArray names = root.names();
+            for (int i = 0; (names != null) && (i < names.length()); i++) {
+                String name = names.getString(i);
+                try {
+                    profiles.put(name, fromJson(name, root.getJSONObject(name)));
+                } catch (JSONException | IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Ignoring scan profile " + name + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Unable to read scan profiles, using defaults", e);
+        }
+        return profiles;
+    }
+
+    private static ScanProfile fromJson(String name, JSONObject json) throws JSONException {
+        EnumSet<BarcodeType2> symbologies = null;
+        JSONArray types = json.optJSONArray("symbologies");
+        if (types != null) {
+            symbologies = EnumSet.noneOf(BarcodeType2.class);
+            for (int i = 0; i < types.length(); i++) {
+                symbologies.add(BarcodeType2.valueOf(types.getString(i)));
+            }
+        }
+
+        float[] region = null;
+        JSONArray bounds = json.optJSONArray("region");
+        if (bounds != null) {
+            if (bounds.length() != 4) {
+                throw new IllegalArgumentException("region must be [left, top, right, bottom]");
+            }
+            region = new float[4];
+            for (int i = 0; i < 4; i++) {
+                region[i] = (float) bounds.getDouble(i);
+            }
+            if ((region[0] < 0) || (region[1] < 0) || (region[2] > 1) || (region[3] > 1)
+                    || (region[0] >= region[2]) || (region[1] >= region[3])) {
+                throw new IllegalArgumentException("region must be fractions of the frame");
+            }
+        }
+
+        int confirmFrames = json.optInt("confirmFrames", 0);
+        int confirmWindow = json.optInt("confirmWindow", confirmFrames);
+        if ((confirmFrames > 1) && (confirmWindow < confirmFrames)) {
+            throw new IllegalArgumentException("confirmWindow must be at least confirmFrames");
+        }
+
+        return new Builder(name)
+                .setSymbologies(symbologies)
+                .setLength(json.optInt("minLength", 0), json.optInt("maxLength", Integer.MAX_VALUE))
+                .setInverted(json.optBoolean("inverted", false))
+                .setRegion(region)
+                .setLowLight(parseLowLightMode(json.optString("lowLight", "auto")),
+                        (float) json.optDouble("gamma", 0), json.optBoolean("binarize", false))
+                .setFuseFrames(json.optInt("fuseFrames", 0))
+                .setVariants(parseVariants(json.optJSONArray("variants")))
+                .setTiled(json.optBoolean("tiled", false))
+                .setConfirm(confirmFrames, confirmWindow)
+                .build();
+    }
+
+    private static int parseVariants(JSONArray names) throws JSONException {
+        int variants = VariantDecoder.VARIANT_RAW;
+        for (int i = 0; (names != null) && (i < names.length()); i++) {
+            switch (names.getString(i)) {
+                case "rotate90":
+                    variants |= VariantDecoder.VARIANT_ROTATE_90;
+                    break;
+                case "invert":
+                    variants |= VariantDecoder.VARIANT_INVERT;
+                    break;
+                case "mirror":
+                    variants |= VariantDecoder.VARIANT_MIRROR;
+                    break;
+                default:
+                    throw new IllegalArgumentException("variants must be rotate90, invert or mirror");
+            }
+        }
+        return variants;
+    }
+
+    private static int parseLowLightMode(String mode) {
+        switch (mode) {
+            case "off":
+                return LumaPreprocessor.MODE_OFF;
+            case "auto":
+                return LumaPreprocessor.MODE_AUTO;
+            case "always":
+                return LumaPreprocessor.MODE_ALWAYS;
+            default:
+                throw new IllegalArgumentException("lowLight must be off, auto or always");
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int count;
+        while ((count = in.read(chunk)) != -1) {
+            out.write(chunk, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Rect;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A headless service that decodes luma frames sent by other apps
+ *
+ * Apps that already have camera frames bind to this service rather than launching the scanner
+ * activity. Each frame arrives as a SharedMemory region, so the pixels are never copied through
+ * the Binder, and the codes come back in a compact form. Frames are decoded by a pooled ScanEngine,
+ * so several clients may scan at once. Binding requires the SCAN permission declared in the manifest.
+ *
+ * The protocol is a single transaction, written and read by ScanServiceClient:
+ *  request: interface token, SharedMemory, int width, int height, int hasRegion, [4 ints region]
+ *  reply: exception status, int count, then per code: int symbology, String text, int[] points
+ *
+ * The symbology is the stable id of ScanChannel.Code, never the ordinal of the BarcodeType2, since
+ * the client may be built against another version of the SDK.
+ */
+public class ScanService extends Service {
+    private static final String LOG_TAG = "BarcodeFromImage";
+
+    static final String DESCRIPTOR = "com.vuzix.sample.barcode_from_image.ScanService";
+    static final int TRANSACTION_SCAN = IBinder.FIRST_CALL_TRANSACTION;
+
+    private final IBinder mBinder = new ScanBinder();
+    private ScanEngine mEngine;
+
+    /**
+     * Creates the decoder pool, one decoder per core
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        try {
+            mEngine = ScanEngine.create(this, Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "No scanners available, the scan service will refuse frames");
+        }
+    }
+
+    /**
+     * @param intent - the Intent used to bind
+     * @return The Binder that ScanServiceClient talks to
+     */
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    /**
+     * Writes the codes of a reply
+     */
+    static void writeCodes(Parcel reply, List<ScanChannel.Code> codes) {
+        reply.writeInt(codes.size());
+        for (ScanChannel.Code code : codes) {
+            reply.writeInt(code.getSymbology());
+            reply.writeString(code.getText());
+            reply.writeIntArray(code.getPoints());
+        }
+    }
+
+    /**
+     * Reads the codes of a reply written by writeCodes()
+     */
+    static List<ScanChannel.Code> readCodes(Parcel reply) {
+        int count = reply.readInt();
+        List<ScanChannel.Code> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int symbology = reply.readInt();
+            String text = reply.readString();
+            codes.add(new ScanChannel.Code(symbology, text, reply.createIntArray()));
+        }
+        return codes;
+    }
+
+    /**
+     * Handles the scan transaction. Runs on the Binder thread pool, so transactions from several
+     * clients are decoded in parallel, up to the size of the decoder pool.
+     */
+    private class ScanBinder extends Binder {
+        @Override
+        protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            if (code != TRANSACTION_SCAN) {
+                return super.onTransact(code, data, reply, flags);
+            }
+            data.enforceInterface(DESCRIPTOR);
+            SharedMemory memory = SharedMemory.CREATOR.createFromParcel(data);
+            int width = data.readInt();
+            int height = data.readInt();
+            Rect region = null;
+            if (data.readInt() != 0) {
+                region = new Rect(data.readInt(), data.readInt(), data.readInt(), data.readInt());
+            }
+
+            ByteBuffer luma = null;
+            try {
+                if (mEngine == null) {
+                    throw new IllegalStateException("No scanners available");
+                }
+                luma = memory.mapReadOnly();
+                List<ScanChannel.Code> codes = mEngine.decode(luma, width, height, region);
+                reply.writeNoException();
+                writeCodes(reply, codes);
+            } catch (ErrnoException e) {
+                reply.writeException(new IllegalStateException("Unable to map frame: " + e.getMessage()));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                reply.writeException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reply.writeException(new IllegalStateException("Interrupted waiting for a decoder"));
+            } finally {
+                if (luma != null) {
+                    SharedMemory.unmap(luma);
+                }
+                memory.close();
+            }
+            return true;
+        }
+    }
+}
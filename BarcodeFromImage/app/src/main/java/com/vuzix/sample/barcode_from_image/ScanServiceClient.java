@@ -0,0 +1,160 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Rect;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The client side of the ScanService
+ *
+ * Bind to the service with an Intent for ScanService, and wrap the IBinder passed to
+ * onServiceConnected() in one of these. The client keeps one shared memory region and reuses it
+ * for every frame, growing it when a larger frame arrives.
+ *
+ * A caller that produces its frames itself can write them straight into getFrameBuffer() and then
+ * call scanFrameBuffer(), which saves the one copy that scan() makes.
+ *
+ * Calls are serialized, since they share the region. Use one client per scanning thread.
+ */
+class ScanServiceClient implements ScanChannel {
+    private final IBinder mBinder;
+    private SharedMemory mSharedMemory;
+    private ByteBuffer mFrameBuffer;
+
+    /**
+     * @param binder - the IBinder from onServiceConnected()
+     */
+    ScanServiceClient(IBinder binder) {
+        mBinder = binder;
+    }
+
+    /**
+     * Returns the shared region, sized for a frame. Its contents are sent by scanFrameBuffer().
+     *
+     * @param size - the number of bytes needed, normally width * height
+     * @return A buffer of exactly size bytes, positioned at zero
+     * @throws IOException if the region cannot be created
+     */
+    synchronized ByteBuffer getFrameBuffer(int size) throws IOException {
+        if ((mSharedMemory == null) || (mSharedMemory.getSize() < size)) {
+            release();
+            try {
+                mSharedMemory = SharedMemory.create("scan frame", size);
+                mFrameBuffer = mSharedMemory.mapReadWrite();
+            } catch (ErrnoException e) {
+                release();
+                throw new IOException("Unable to create shared frame memory", e);
+            }
+        }
+        mFrameBuffer.clear();
+        mFrameBuffer.limit(size);
+        return mFrameBuffer;
+    }
+
+    @Override
+    public synchronized List<Code> scan(ByteBuffer luma, int width, int height, Rect region) throws IOException {
+        ByteBuffer frame = getFrameBuffer(width * height);
+        ByteBuffer source = luma.duplicate();
+        source.limit(source.position() + width * height);
+        frame.put(source);
+        return scanFrameBuffer(width, height, region);
+    }
+
+    /**
+     * Decodes the frame already written to getFrameBuffer()
+     *
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param region - region of the frame to search, or null for the whole frame
+     * @return The codes found
+     * @throws IOException if the service cannot be reached or refuses the frame
+     */
+    synchronized List<Code> scanFrameBuffer(int width, int height, Rect region) throws IOException {
+        if (mSharedMemory == null) {
+            throw new IllegalStateException("getFrameBuffer() has not been called");
+        }
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(ScanService.DESCRIPTOR);
+            mSharedMemory.writeToParcel(data, 0);
+            data.writeInt(width);
+            data.writeInt(height);
+            if (region != null) {
+                data.writeInt(1);
+                data.writeInt(region.left);
+                data.writeInt(region.top);
+                data.writeInt(region.right);
+                data.writeInt(region.bottom);
+            } else {
+                data.writeInt(0);
+            }
+            mBinder.transact(ScanService.TRANSACTION_SCAN, data, reply, 0);
+            reply.readException();
+            return ScanService.readCodes(reply);
+        } catch (RemoteException | RuntimeException e) {
+            throw new IOException("Scan service failed", e);
+        } finally {
+            reply.recycle();
+            data.recycle();
+        }
+    }
+
+    /**
+     * Frees the shared region. Unbinding from the service is left to the caller.
+     */
+    @Override
+    public synchronized void close() {
+        release();
+    }
+
+    private void release() {
+        if (mFrameBuffer != null) {
+            SharedMemory.unmap(mFrameBuffer);
+            mFrameBuffer = null;
+        }
+        if (mSharedMemory != null) {
+            mSharedMemory.close();
+            mSharedMemory = null;
+        }
+    }
+}
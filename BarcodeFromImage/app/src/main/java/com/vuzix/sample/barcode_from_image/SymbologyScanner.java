@@ -0,0 +1,98 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.graphics.Rect;
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+import com.vuzix.sdk.barcode.Scanner2;
+import com.vuzix.sdk.barcode.Scanner2Factory;
+
+import java.util.EnumSet;
+
+
+/**
+ * A Scanner2 that only searches for the symbologies of the current scan profile
+ *
+ * Every symbology the engine does not have to try is time saved on every frame, so the profile's
+ * symbologies are handed to the engine rather than only used to filter its results.
+ * ScanProfile.accepts() still checks each result, in case the engine reports others anyway.
+ *
+ * Like the Scanner2 it wraps, an instance must only be used by one thread at a time. The engine
+ * is only reconfigured when the symbologies change, so a steady profile costs nothing per frame.
+ */
+
+class SymbologyScanner implements ScanEngine.FrameDecoder {
+    private final Scanner2 mScanner;
+    private EnumSet<BarcodeType2> mSymbologies;   // As configured. null is every symbology, the engine's own default.
+
+    /**
+     * @param scanner - the engine, searching for every symbology
+     */
+    SymbologyScanner(Scanner2 scanner) {
+        mScanner = scanner;
+    }
+
+    /**
+     * Creates an engine instance
+     *
+     * @param context - The Context used to create the Scanner2
+     * @return The scanner, searching for every symbology
+     * @throws Exception if the SDK cannot create a Scanner2
+     */
+    static SymbologyScanner create(Context context) throws Exception {
+        return new SymbologyScanner(Scanner2Factory.getScanner(context));
+    }
+
+    /**
+     * Limits the search of subsequent scans
+     *
+     * @param symbologies - the symbologies to search for, or null for every symbology. Profiles
+     *                    never change their set, so an unchanged set is recognized by identity.
+     */
+    void setSymbologies(EnumSet<BarcodeType2> symbologies) {
+        if (symbologies == mSymbologies) {
+            return;
+        }
+        BarcodeType2[] types = (symbologies != null)
+                ? symbologies.toArray(new BarcodeType2[symbologies.size()]) : BarcodeType2.values();
+        mScanner.setBarcodeTypes(types);
+        mSymbologies = symbologies;
+    }
+
+    @Override
+    public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+        return mScanner.scan(data, width, height, region);
+    }
+}
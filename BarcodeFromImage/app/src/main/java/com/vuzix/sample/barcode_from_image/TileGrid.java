@@ -0,0 +1,169 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Rect;
+
+
+/**
+ * The overlapping square tiles that cover the searched area of a frame or image
+ *
+ * Tiles step across the area by the tile size less the overlap, in reading order. The last tile
+ * of a row or column is set against the far edge of the area rather than hanging over it, so it
+ * overlaps its neighbor by more than the usual amount, and only an area smaller than a tile gives
+ * tiles smaller than the tile size. TiledDecoder and RegionStreamDecoder both walk their frames
+ * with one of these.
+ *
+ * Only the public fields of a Rect are used, so the geometry can be checked on the JVM.
+ */
+
+class TileGrid {
+    private final int mTileSize;
+    private final int mOverlap;
+
+    // The area being covered
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private int mColumns;
+    private int mRows;
+
+    /**
+     * @param tileSize - side of a square tile in pixels
+     * @param overlap - pixels shared by neighboring tiles, less than tileSize
+     */
+    TileGrid(int tileSize, int overlap) {
+        if ((overlap < 0) || (overlap >= tileSize)) {
+            throw new IllegalArgumentException("Overlap " + overlap + " must be less than the tile size " + tileSize);
+        }
+        mTileSize = tileSize;
+        mOverlap = overlap;
+    }
+
+    /**
+     * Covers the part of a frame that is searched
+     *
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param region - the region to search, which is clipped to the frame, or null for the whole frame
+     */
+    void cover(int width, int height, Rect region) {
+        if (region != null) {
+            mLeft = Math.max(0, region.left);
+            mTop = Math.max(0, region.top);
+            mRight = Math.min(width, region.right);
+            mBottom = Math.min(height, region.bottom);
+        } else {
+            mLeft = 0;
+            mTop = 0;
+            mRight = width;
+            mBottom = height;
+        }
+        boolean empty = (mRight <= mLeft) || (mBottom <= mTop);
+        mColumns = empty ? 0 : tileCount(mRight - mLeft, mTileSize, mOverlap);
+        mRows = empty ? 0 : tileCount(mBottom - mTop, mTileSize, mOverlap);
+    }
+
+    /**
+     * @return Side of a square tile in pixels, and so the largest tile
+     */
+    int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * @return The number of tiles, or 0 if the covered area is empty
+     */
+    int getTileCount() {
+        return mColumns * mRows;
+    }
+
+    /**
+     * @param tile - a tile number, from 0 in reading order
+     * @return Left edge of the tile in frame coordinates
+     */
+    int getLeft(int tile) {
+        return mLeft + tileOffset(tile % mColumns, mRight - mLeft, mTileSize, mOverlap);
+    }
+
+    /**
+     * @param tile - a tile number, from 0 in reading order
+     * @return Top edge of the tile in frame coordinates
+     */
+    int getTop(int tile) {
+        return mTop + tileOffset(tile / mColumns, mBottom - mTop, mTileSize, mOverlap);
+    }
+
+    /**
+     * @param tile - a tile number, from 0 in reading order
+     * @return Width of the tile in pixels
+     */
+    int getWidth(int tile) {
+        return Math.min(mTileSize, mRight - getLeft(tile));
+    }
+
+    /**
+     * @param tile - a tile number, from 0 in reading order
+     * @return Height of the tile in pixels
+     */
+    int getHeight(int tile) {
+        return Math.min(mTileSize, mBottom - getTop(tile));
+    }
+
+    /**
+     * @param length - length of the searched area along one axis
+     * @param tileSize - side of a square tile in pixels
+     * @param overlap - pixels shared by neighboring tiles
+     * @return The number of tiles needed to cover it
+     */
+    static int tileCount(int length, int tileSize, int overlap) {
+        if (length <= tileSize) {
+            return 1;
+        }
+        int step = tileSize - overlap;
+        return (length - overlap + step - 1) / step;
+    }
+
+    /**
+     * @param index - the tile number along one axis
+     * @param length - length of the searched area along that axis
+     * @param tileSize - side of a square tile in pixels
+     * @param overlap - pixels shared by neighboring tiles
+     * @return Offset of the tile from the start of the area. The last tile is set against the far
+     *         edge, so it overlaps its neighbor by more than the usual amount.
+     */
+    static int tileOffset(int index, int length, int tileSize, int overlap) {
+        return Math.max(0, Math.min(index * (tileSize - overlap), length - tileSize));
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.util.Log;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Finds every code in a full resolution still by decoding it in overlapping tiles on several cores
+ *
+ * A packing list or a shelf of labels holds more codes than the engine reports from a preview
+ * frame, and at preview resolution the small ones are too coarse to read. A still from the
+ * largest YUV size has the detail, but is too large to scan in one call. So the still is cut into
+ * square tiles that overlap by TILE_OVERLAP pixels, and every worker thread takes tiles until none
+ * are left, copying each into its own buffer and scanning it with its own Scanner2. A code no
+ * larger than the overlap lies wholly inside at least one tile.
+ *
+ * Each accepted result is copied into a ScanChannel.Code with its points moved from tile to frame
+ * coordinates. The SDK's own results are never modified.
+ *
+ * A code that lies in the overlap is found in two or four tiles. Codes with the same text and
+ * symbology whose bounding boxes intersect are taken to be one code, and the largest of them is
+ * kept, since it is the one seen whole. Two labels with the same text side by side are both kept.
+ *
+ * Each worker's tile buffer and preprocessor are reused from tile to tile and from still to still.
+ */
+
+class TiledDecoder {
+    private static final String LOG_TAG = "BarcodeFromImage";
+
+    /** Side of a square tile in pixels. About a preview frame, which the engine scans quickly. */
+    static final int TILE_SIZE = 1024;
+    /** Pixels shared by neighboring tiles. The largest code that is certain to be found whole. */
+    static final int TILE_OVERLAP = 256;
+
+    // Indices of a bounding box in an int[4]
+    private static final int LEFT = 0;
+    private static final int TOP = 1;
+    private static final int RIGHT = 2;
+    private static final int BOTTOM = 3;
+
+    private final Object mLock = new Object();
+    private final ExecutorService mExecutor;
+    private final TileWorker[] mWorkers;
+    private final TileGrid mGrid;   // Only changed by decode() while no workers are running
+    private final AtomicInteger mNextTile = new AtomicInteger();
+
+    // Fields of the current job. Written before the workers are started.
+    private ByteBuffer mSource;
+    private int mRowStride;
+    private ScanProfile mProfile;
+    private int mTileCount;
+
+    // Guarded by mLock
+    private int mRunning;
+    private final List<ScanChannel.Code> mResults = new ArrayList<>();
+
+    /**
+     * @param decoders - one per worker thread. Each is only called from its own thread.
+     * @param tileSize - side of a square tile in pixels
+     * @param overlap - pixels shared by neighboring tiles, less than tileSize
+     */
+    TiledDecoder(List<ScanEngine.FrameDecoder> decoders, int tileSize, int overlap) {
+        mGrid = new TileGrid(tileSize, overlap);
+        mWorkers = new TileWorker[decoders.size()];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new TileWorker(decoders.get(i));
+        }
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, mWorkers.length));
+    }
+
+    /**
+     * Creates a decoder with a Scanner2 per thread, each searching only for the profile's symbologies
+     *
+     * @param context - the Context used to create the Scanner2 instances
+     * @param threads - the number of tiles decoded at once, usually the number of cores
+     * @return The decoder
+     */
+    static TiledDecoder create(Context context, int threads) {
+        List<ScanEngine.FrameDecoder> decoders = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            try {
+                decoders.add(SymbologyScanner.create(context));
+            } catch (Exception ex) {
+                Log.e(LOG_TAG, "Unable to create a tile scanner", ex);
+            }
+        }
+        return new TiledDecoder(decoders, TILE_SIZE, TILE_OVERLAP);
+    }
+
+    /**
+     * Stops the worker threads. The object cannot be used afterwards.
+     */
+    void release() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Decodes every tile of a frame and returns each code found in it once
+     *
+     * Blocks the calling thread until every tile has been decoded. The frame is not referenced
+     * once this returns.
+     *
+     * @param luma - the Y plane, from position zero. Only read, and its position is not changed.
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param rowStride - bytes from the start of one row to the start of the next
+     * @param profile - the scan profile results must satisfy. Only its search region is tiled.
+     * @return The accepted codes with their points in frame coordinates, top to bottom and then
+     *         left to right. Empty if there are none.
+     * @throws InterruptedException if interrupted while waiting for the tiles
+     */
+    synchronized List<ScanChannel.Code> decode(ByteBuffer luma, int width, int height, int rowStride,
+                                          ScanProfile profile) throws InterruptedException {
+        if (luma.limit() < (height - 1) * rowStride + width) {
+            throw new IllegalArgumentException("Plane of " + luma.limit() + " bytes is too small for "
+                    + width + "x" + height + " with a row stride of " + rowStride);
+        }
+        mGrid.cover(width, height, profile.getSearchRegion(width, height));
+        if ((mGrid.getTileCount() == 0) || (mWorkers.length == 0)) {
+            return new ArrayList<>();
+        }
+
+        mSource = luma;
+        mRowStride = rowStride;
+        mProfile = profile;
+        mTileCount = mGrid.getTileCount();
+        mNextTile.set(0);
+        synchronized (mLock) {
+            mResults.clear();
+            mRunning = Math.min(mWorkers.length, mTileCount);
+        }
+        for (int i = 0; i < Math.min(mWorkers.length, mTileCount); i++) {
+            mExecutor.execute(mWorkers[i]);
+        }
+
+        List<ScanChannel.Code> results;
+        synchronized (mLock) {
+            try {
+                while (mRunning > 0) {
+                    mLock.wait();
+                }
+            } finally {
+                // Claim the remaining tiles so the workers stop early if we were interrupted
+                mNextTile.set(mTileCount);
+                while (mRunning > 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                mSource = null;
+            }
+            results = new ArrayList<>(mResults);
+            mResults.clear();
+        }
+        sortInReadingOrder(results);
+        return results;
+    }
+
+    /**
+     * Copies a result from one tile, moving its points into frame coordinates
+     *
+     * @param result - a result from the engine, in tile coordinates. It is not modified.
+     * @param left - offset of the tile from the left of the frame
+     * @param top - offset of the tile from the top of the frame
+     * @return The code in frame coordinates
+     */
+    static ScanChannel.Code toFrameCode(ScanResult2 result, int left, int top) {
+        int[] points = ScanChannel.Code.copyPoints(result);
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] += left;
+            points[i + 1] += top;
+        }
+        return new ScanChannel.Code(ScanChannel.Code.symbologyId(result.getBarcodeType()),
+                result.getText(), points);
+    }
+
+    /**
+     * Adds a code unless the same code has already been found in a neighboring tile
+     *
+     * @param results - the codes found so far, in frame coordinates
+     * @param result - a code from one tile, already in frame coordinates
+     */
+    static void mergeResult(List<ScanChannel.Code> results, ScanChannel.Code result) {
+        int[] boundsA = new int[4];
+        int[] boundsB = new int[4];
+        boolean hasBounds = bounds(result, boundsA);
+        for (int i = 0; i < results.size(); i++) {
+            ScanChannel.Code found = results.get(i);
+            if ((found.getSymbology() != result.getSymbology()) || !found.getText().equals(result.getText())) {
+                continue;
+            }
+            boolean foundHasBounds = bounds(found, boundsB);
+            if (!hasBounds || !foundHasBounds) {
+                return;   // No geometry to tell them apart. Report the code once.
+            }
+            if (intersects(boundsA, boundsB)) {
+                if (area(boundsA) > area(boundsB)) {
+                    results.set(i, result);
+                }
+                return;
+            }
+        }
+        results.add(result);
+    }
+
+    /**
+     * Sorts codes top to bottom and then left to right by the corners of their bounding boxes
+     *
+     * @param results - the codes, in frame coordinates
+     */
+    static void sortInReadingOrder(List<ScanChannel.Code> results) {
+        Collections.sort(results, new Comparator<ScanChannel.Code>() {
+            private final int[] mBoundsA = new int[4];
+            private final int[] mBoundsB = new int[4];
+
+            @Override
+            public int compare(ScanChannel.Code a, ScanChannel.Code b) {
+                bounds(a, mBoundsA);
+                bounds(b, mBoundsB);
+                if (mBoundsA[TOP] != mBoundsB[TOP]) {
+                    return (mBoundsA[TOP] < mBoundsB[TOP]) ? -1 : 1;
+                }
+                return Integer.compare(mBoundsA[LEFT], mBoundsB[LEFT]);
+            }
+        });
+    }
+
+    /**
+     * Adds a code from a worker
+     */
+    private void addResult(ScanChannel.Code result) {
+        synchronized (mLock) {
+            mergeResult(mResults, result);
+        }
+    }
+
+    /**
+     * Sets out to the bounding box of the code's points, indexed by LEFT, TOP, RIGHT and BOTTOM
+     *
+     * @return False if the code has no points
+     */
+    private static boolean bounds(ScanChannel.Code result, int[] out) {
+        int[] points = result.getPoints();
+        if (points.length < 2) {
+            Arrays.fill(out, 0);
+            return false;
+        }
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            left = Math.min(left, points[i]);
+            top = Math.min(top, points[i + 1]);
+            right = Math.max(right, points[i]);
+            bottom = Math.max(bottom, points[i + 1]);
+        }
+        out[LEFT] = left;
+        out[TOP] = top;
+        out[RIGHT] = right + 1;
+        out[BOTTOM] = bottom + 1;
+        return true;
+    }
+
+    private static boolean intersects(int[] a, int[] b) {
+        return (a[LEFT] < b[RIGHT]) && (b[LEFT] < a[RIGHT]) && (a[TOP] < b[BOTTOM]) && (b[TOP] < a[BOTTOM]);
+    }
+
+    private static long area(int[] bounds) {
+        return (long) (bounds[RIGHT] - bounds[LEFT]) * (bounds[BOTTOM] - bounds[TOP]);
+    }
+
+    /**
+     * Takes tiles until none are left, decoding each in a reused buffer
+     */
+    private class TileWorker implements Runnable {
+        final ScanEngine.FrameDecoder mDecoder;
+        final LumaPreprocessor mPreprocessor = new LumaPreprocessor();
+        byte[] mBuffer = new byte[0];
+
+        TileWorker(ScanEngine.FrameDecoder decoder) {
+            mDecoder = decoder;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Our own view of the plane, so the workers' positions don't clash
+                ByteBuffer source = mSource.duplicate();
+                int tile;
+                while ((tile = mNextTile.getAndIncrement()) < mTileCount) {
+                    decodeTile(source, tile);
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Tile decoding failed", e);
+            } finally {
+                synchronized (mLock) {
+                    mRunning--;
+                    mLock.notifyAll();
+                }
+            }
+        }
+
+        private void decodeTile(ByteBuffer source, int tile) {
+            int left = mGrid.getLeft(tile);
+            int top = mGrid.getTop(tile);
+            int width = mGrid.getWidth(tile);
+            int height = mGrid.getHeight(tile);
+            if (mBuffer.length < width * height) {
+                mBuffer = new byte[mGrid.getTileSize() * mGrid.getTileSize()];
+            }
+            for (int y = 0; y < height; y++) {
+                source.position((top + y) * mRowStride + left);
+                source.get(mBuffer, y * width, width);
+            }
+
+            ScanProfile profile = mProfile;
+            if (profile.isInverted()) {
+                for (int i = 0; i < width * height; i++) {
+                    mBuffer[i] = (byte) ~mBuffer[i];   // The engine expects dark marks on a light background
+                }
+            }
+            byte[] data = mPreprocessor.process(mBuffer, width, height,
+                    profile.getLowLightMode(), profile.getGamma(), profile.isBinarized());
+
+            if (mDecoder instanceof SymbologyScanner) {
+                ((SymbologyScanner) mDecoder).setSymbologies(profile.getSymbologies());
+            }
+            ScanResult2[] results;
+            PipelineTrace.begin(PipelineTrace.SCAN);
+            try {
+                results = mDecoder.scan(data, width, height, null);
+            } finally {
+                PipelineTrace.end();
+            }
+            if (results == null) {
+                return;
+            }
+            for (ScanResult2 result : results) {
+                if (profile.accepts(result)) {
+                    addResult(toFrameCode(result, left, top));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.Log;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Decodes several transformed copies of a frame at the same time
+ *
+ * The raw frame is always decoded. Depending on the requested variants it is also rotated by 90
+ * degrees (so 1D codes held vertically become horizontal), inverted (for white-on-black marks)
+ * and mirrored. Only the requested variants get a task, each with its own frame buffer and its own
+ * Scanner2 instance. The first variant that yields an acceptable result wins, and the others stop
+ * as soon as they next check for cancellation.
+ *
+ * The tasks run on the executor they are given. PreRollDecoder gives all of its finders one
+ * executor, sized by DecodeScheduler, so variants never scan on more threads than the scheduler
+ * allows. The SDK's results are not modified: the winner's points are mapped into a copy.
+ *
+ * The engine cannot be interrupted once a scan has started, so a losing variant may still be
+ * scanning when decode() returns. Its buffer is not touched again until that scan completes.
+ */
+
+class VariantDecoder {
+    private static final String LOG_TAG = "BarcodeFromImage";
+
+    static final int VARIANT_RAW = 0;
+    static final int VARIANT_ROTATE_90 = 1;
+    static final int VARIANT_INVERT = 1 << 1;
+    static final int VARIANT_MIRROR = 1 << 2;
+
+    private static final int[] VARIANTS = {VARIANT_RAW, VARIANT_ROTATE_90, VARIANT_INVERT, VARIANT_MIRROR};
+
+    // Life cycle of each task. Guarded by mLock.
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_READING = 2;    // Still reading the caller's frame
+    private static final int STATE_SCANNING = 3;   // Only using its own buffer
+
+    private final Object mLock = new Object();
+    private final ExecutorService mExecutor;
+    private final boolean mOwnsExecutor;
+    private final int mVariants;
+    private final VariantTask[] mTasks;
+
+    private volatile boolean mCancelled;
+    private int mPending;
+    private ScanChannel.Code mWinner;
+
+    /**
+     * Creates a task and a decoder instance for the raw frame and for each requested variant
+     *
+     * @param context - The Context used to create the Scanner2 instances
+     * @param variants - a combination of the VARIANT_ flags
+     * @param executor - runs the tasks, and may be shared with other decoders. If null, a thread
+     *                 is created for each task and stopped by release().
+     */
+    VariantDecoder(Context context, int variants, ExecutorService executor) {
+        mVariants = variants;
+        int count = 0;
+        for (int variant : VARIANTS) {
+            if (isRequested(variant)) {
+                count++;
+            }
+        }
+        mTasks = new VariantTask[count];
+        int i = 0;
+        for (int variant : VARIANTS) {
+            if (!isRequested(variant)) {
+                continue;
+            }
+            SymbologyScanner scanner = null;
+            try {
+                scanner = SymbologyScanner.create(context);
+            } catch (Exception ex) {
+                Log.e(LOG_TAG, "Unable to create a scanner for variant " + variant, ex);
+            }
+            mTasks[i++] = new VariantTask(variant, scanner);
+        }
+        mOwnsExecutor = (executor == null);
+        mExecutor = mOwnsExecutor ? Executors.newFixedThreadPool(count) : executor;
+    }
+
+    /**
+     * @return The combination of VARIANT_ flags this decoder was created for
+     */
+    int getVariants() {
+        return mVariants;
+    }
+
+    /**
+     * Stops the worker threads, unless the executor is shared. The object cannot be used afterwards.
+     */
+    void release() {
+        mCancelled = true;
+        if (mOwnsExecutor) {
+            mExecutor.shutdown();
+        }
+    }
+
+    private boolean isRequested(int variant) {
+        return (variant == VARIANT_RAW) || ((mVariants & variant) != 0);
+    }
+
+    /**
+     * Decodes the frame and the requested variants of it, returning the first acceptable result
+     *
+     * Blocks the calling thread until a variant succeeds or all of them have failed. The frame data
+     * is not referenced once this returns.
+     *
+     * @param data - Y plane data
+     * @param width - width of the frame in pixels
+     * @param height - height of the frame in pixels
+     * @param region - region of the frame to search, or null for the whole frame
+     * @param profile - the scan profile results must satisfy
+     * @return The winning code with its points in frame coordinates, or null
+     */
+    ScanChannel.Code decode(byte[] data, int width, int height, Rect region, ScanProfile profile) {
+        synchronized (mLock) {
+            // A losing scan from the previous frame may still be using its buffer
+            for (VariantTask task : mTasks) {
+                while (task.mState != STATE_IDLE) {
+                    if (!waitOnLock()) {
+                        return null;
+                    }
+                }
+            }
+
+            mCancelled = false;
+            mWinner = null;
+            mPending = 0;
+            for (VariantTask task : mTasks) {
+                task.prepare(data, width, height, region, profile);
+                mPending++;
+            }
+            for (VariantTask task : mTasks) {
+                mExecutor.execute(task);
+            }
+
+            while ((mWinner == null) && (mPending > 0)) {
+                if (!waitOnLock()) {
+                    break;
+                }
+            }
+
+            // Cancel the rest, and don't return until nobody is still reading the caller's frame
+            mCancelled = true;
+            for (VariantTask task : mTasks) {
+                if (task.mState == STATE_QUEUED) {
+                    task.mState = STATE_IDLE;
+                }
+            }
+            for (VariantTask task : mTasks) {
+                while (task.mState == STATE_READING) {
+                    if (!waitOnLock()) {
+                        break;
+                    }
+                }
+                task.mSource = null;
+            }
+            return mWinner;
+        }
+    }
+
+    /**
+     * Waits for a task state change. Must hold mLock.
+     *
+     * @return False if the thread was interrupted
+     */
+    private boolean waitOnLock() {
+        try {
+            mLock.wait();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Records the outcome of a task
+     */
+    private void onTaskDone(VariantTask task, ScanChannel.Code result) {
+        synchronized (mLock) {
+            task.mState = STATE_IDLE;
+            mPending--;
+            if ((result != null) && (mWinner == null) && !mCancelled) {
+                mWinner = result;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Transforms the frame for one variant into a reusable buffer and decodes it
+     */
+    private class VariantTask implements Runnable {
+        final int mVariant;
+        final SymbologyScanner mScanner;
+        final Rect mRegion = new Rect();
+        byte[] mBuffer = new byte[0];
+
+        // Fields of the current job. Written under mLock before the task is queued.
+        int mState = STATE_IDLE;
+        byte[] mSource;
+        int mWidth;
+        int mHeight;
+        boolean mHasRegion;
+        ScanProfile mProfile;
+
+        VariantTask(int variant, SymbologyScanner scanner) {
+            mVariant = variant;
+            mScanner = scanner;
+        }
+
+        void prepare(byte[] data, int width, int height, Rect region, ScanProfile profile) {
+            mSource = data;
+            mWidth = width;
+            mHeight = height;
+            mProfile = profile;
+            mHasRegion = (region != null);
+            if (mHasRegion) {
+                transformRegion(region);
+            }
+            if (mBuffer.length < width * height) {
+                mBuffer = new byte[width * height];
+            }
+            mState = STATE_QUEUED;
+        }
+
+        @Override
+        public void run() {
+            byte[] source;
+            synchronized (mLock) {
+                if (mState != STATE_QUEUED) {
+                    return;   // Cancelled before we started, and already accounted for
+                }
+                mState = STATE_READING;
+                source = mSource;
+            }
+
+            ScanChannel.Code winner = null;
+            try {
+                boolean complete = transform(source);
+                synchronized (mLock) {
+                    mState = STATE_SCANNING;
+                    mLock.notifyAll();
+                }
+                if (complete && !mCancelled && (mScanner != null)) {
+                    boolean rotated = (mVariant == VARIANT_ROTATE_90);
+                    mScanner.setSymbologies(mProfile.getSymbologies());
+                    ScanResult2[] results;
+                    PipelineTrace.begin(PipelineTrace.SCAN);
+                    try {
+                        results = mScanner.scan(mBuffer, rotated ? mHeight : mWidth,
+                                rotated ? mWidth : mHeight, mHasRegion ? mRegion : null);
+                    } finally {
+                        PipelineTrace.end();
+                    }
+                    if (results != null) {
+                        for (ScanResult2 result : results) {
+                            if (mProfile.accepts(result)) {
+                                winner = toFrameCode(result);
+                                break;
+                            }
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Variant " + mVariant + " failed", e);
+            } finally {
+                onTaskDone(this, winner);
+            }
+        }
+
+        /**
+         * Writes the variant of source into mBuffer, checking for cancellation once per row
+         *
+         * @return False if cancelled part way through
+         */
+        private boolean transform(byte[] source) {
+            final int width = mWidth;
+            final int height = mHeight;
+            final byte[] dest = mBuffer;
+            switch (mVariant) {
+                case VARIANT_ROTATE_90:
+                    // Clockwise. Source row y becomes destination column (height - 1 - y)
+                    for (int y = 0; y < height; y++) {
+                        if (mCancelled) {
+                            return false;
+                        }
+                        int in = y * width;
+                        int out = height - 1 - y;
+                        for (int x = 0; x < width; x++) {
+                            dest[out] = source[in + x];
+                            out += height;
+                        }
+                    }
+                    return true;
+                case VARIANT_INVERT:
+                    for (int y = 0; y < height; y++) {
+                        if (mCancelled) {
+                            return false;
+                        }
+                        int end = (y + 1) * width;
+                        for (int i = y * width; i < end; i++) {
+                            dest[i] = (byte) ~source[i];
+                        }
+                    }
+                    return true;
+                case VARIANT_MIRROR:
+                    for (int y = 0; y < height; y++) {
+                        if (mCancelled) {
+                            return false;
+                        }
+                        int in = y * width;
+                        int out = in + width - 1;
+                        for (int x = 0; x < width; x++) {
+                            dest[out - x] = source[in + x];
+                        }
+                    }
+                    return true;
+                default:
+                    System.arraycopy(source, 0, dest, 0, width * height);
+                    return !mCancelled;
+            }
+        }
+
+        /**
+         * Maps the search region from frame coordinates into the coordinates of this variant
+         */
+        private void transformRegion(Rect region) {
+            switch (mVariant) {
+                case VARIANT_ROTATE_90:
+                    mRegion.set(mHeight - region.bottom, region.left, mHeight - region.top, region.right);
+                    break;
+                case VARIANT_MIRROR:
+                    mRegion.set(mWidth - region.right, region.top, mWidth - region.left, region.bottom);
+                    break;
+                default:
+                    mRegion.set(region.left, region.top, region.right, region.bottom);
+                    break;
+            }
+        }
+
+        /**
+         * Copies a result, mapping its points from the coordinates of this variant back into frame
+         * coordinates. The result itself belongs to the SDK and is left as it is.
+         */
+        private ScanChannel.Code toFrameCode(ScanResult2 result) {
+            int[] points = ScanChannel.Code.copyPoints(result);
+            for (int i = 0; i < points.length; i += 2) {
+                if (mVariant == VARIANT_ROTATE_90) {
+                    int x = points[i + 1];
+                    points[i + 1] = mHeight - 1 - points[i];
+                    points[i] = x;
+                } else if (mVariant == VARIANT_MIRROR) {
+                    points[i] = mWidth - 1 - points[i];
+                }
+            }
+            return new ScanChannel.Code(ScanChannel.Code.symbologyId(result.getBarcodeType()),
+                    result.getText(), points);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package android.media;
+
+import android.graphics.ImageFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV_420_888 image whose Y plane is set by the test. Only the Y plane is filled in.
+ *
+ * The constructors of Image and Image.Plane are only visible inside android.media, which is why
+ * this lives here. getPlanes() returns the same array every time, so reading a frame allocates nothing.
+ */
+public class TestImage extends Image {
+    private final int mWidth;
+    private final int mHeight;
+    private final TestPlane mLuma = new TestPlane();
+    private final Plane[] mPlanes = {mLuma};
+    private long mTimestamp;
+
+    /**
+     * @param width - width of the image in pixels
+     * @param height - height of the image in pixels
+     */
+    public TestImage(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Replaces the Y plane
+     *
+     * @param buffer - the pixels, from its position. It is not copied.
+     * @param rowStride - bytes from the start of one row to the next
+     */
+    public void setLuma(ByteBuffer buffer, int rowStride) {
+        mLuma.mBuffer = buffer;
+        mLuma.mRowStride = rowStride;
+    }
+
+    @Override
+    public int getFormat() {
+        return ImageFormat.YUV_420_888;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public void setTimestamp(long timestamp) {
+        mTimestamp = timestamp;
+    }
+
+    @Override
+    public Plane[] getPlanes() {
+        return mPlanes;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to free
+    }
+
+    private static final class TestPlane extends Plane {
+        ByteBuffer mBuffer;
+        int mRowStride;
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Rect;
+import android.media.TestImage;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the steady-state decode path allocates no more than a budget per frame
+ *
+ * Garbage collection pauses are the largest source of preview jank and slow decodes, so once its
+ * buffers are warm the per-frame path should not allocate at all. A stage is fed a thousand
+ * warm-up frames, then a few rounds of measured ones, cycling through frames drawn by SyntheticFrames.
+ * The best round counts, since the JIT and the runtime allocate now and then on their own while an
+ * allocation in the path shows up in every round. The calling thread's allocations are counted, along
+ * with those of any worker thread a stage names.
+ *
+ * BarcodeFinder runs with a stand-in for the barcode engine, under a plain and a low-light profile,
+ * as do the frame fusion and the scheduler's per-frame check. Camera frames reach PreRollRing as a
+ * TestImage, so copying them into the ring is measured, but not the small array a real
+ * Image.getPlanes() returns, which belongs to the platform. The pre-roll decode is measured from
+ * submission to the result reaching its listener, counting the worker thread as well. An idle pool
+ * thread allocates a little each time it waits for work, inside the executor, so a bare round trip
+ * through an executor like the decoder's is measured first and taken off. The engine's own
+ * allocations belong to the SDK and are not measured. On a JVM without a per-thread allocation
+ * counter the tests are skipped, not passed.
+ */
+public class AllocationBudgetTest {
+
+    /** The budget of the decode path: nothing at all */
+    private static final long BUDGET_BYTES_PER_FRAME = 0;
+
+    private static final int WIDTH = SyntheticFrames.CAPTURE_WIDTH;
+    private static final int HEIGHT = SyntheticFrames.CAPTURE_HEIGHT;
+    private static final int DISTINCT_FRAMES = 8;
+    private static final int WARMUP_FRAMES = 1000;
+    private static final int MEASURED_FRAMES = 1000;
+    private static final int ROUNDS = 3;
+    private static final int RING_CAPACITY = 4;
+    private static final long MAX_FRAME_AGE_MS = 1000;
+
+    private static ByteBuffer[] sFrames;   // Drawn once, since drawing takes a while
+
+    /**
+     * One step of the per-frame path
+     */
+    private interface Stage {
+        /**
+         * @param luma - the Y plane, width * height bytes from position zero
+         * @param width - width of the frame in pixels
+         * @param height - height of the frame in pixels
+         */
+        void process(ByteBuffer luma, int width, int height);
+    }
+
+    private final AllocationCounter mAllocations = new AllocationCounter();
+
+    @Before
+    public void setUp() {
+        assumeTrue("Allocation cannot be measured on this JVM", mAllocations.getThreadAllocatedBytes() >= 0);
+        if (sFrames == null) {
+            sFrames = SyntheticFrames.drawFrames(WIDTH, HEIGHT, DISTINCT_FRAMES);
+        }
+    }
+
+    @Test
+    public void barcodeFinderStaysWithinBudget() {
+        assertWithinBudget("BarcodeFinder", finderStage(createFinder()));
+    }
+
+    @Test
+    public void lowLightBarcodeFinderStaysWithinBudget() {
+        BarcodeFinder finder = createFinder();
+        finder.setProfile(new ScanProfile.Builder("low_light")
+                .setInverted(true)
+                .setRegion(new float[] {0.25f, 0.25f, 0.75f, 0.75f})
+                .setLowLight(LumaPreprocessor.MODE_ALWAYS, 0, true)
+                .build());
+        finder.setDecimation(2);
+        assertWithinBudget("BarcodeFinder low light", finderStage(finder));
+    }
+
+    @Test
+    public void lumaFusionStaysWithinBudget() {
+        final LumaFusion fusion = new LumaFusion();
+        final ByteBuffer[] fusionInput = new ByteBuffer[4];
+        assertWithinBudget("LumaFusion", new Stage() {
+            private int mNext;
+
+            @Override
+            public void process(ByteBuffer luma, int width, int height) {
+                fusionInput[mNext++ % fusionInput.length] = luma;
+                if (mNext >= fusionInput.length) {
+                    fusion.fuse(fusionInput, fusionInput.length, width, height);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void preRollRingOfferStaysWithinBudget() {
+        final PreRollRing ring = new PreRollRing(RING_CAPACITY, WIDTH, HEIGHT);
+        assertWithinBudget("PreRollRing.offer", offerStage(ring, new TestImage(WIDTH, HEIGHT)));
+    }
+
+    @Test
+    public void preRollDecodeStaysWithinBudget() {
+        final PreRollRing ring = new PreRollRing(RING_CAPACITY, WIDTH, HEIGHT);
+        final Stage offer = offerStage(ring, new TestImage(WIDTH, HEIGHT));
+        final PreRollDecoder decoder = new PreRollDecoder(new BarcodeFinder[] {createFinder()});
+        final CountingListener listener = new CountingListener();
+        Stage stage = new Stage() {
+            @Override
+            public void process(ByteBuffer luma, int width, int height) {
+                offer.process(luma, width, height);
+                int expected = listener.mResults + decoder.decode(ring, 1, MAX_FRAME_AGE_MS, listener);
+                while (listener.mResults < expected) {
+                    Thread.yield();
+                }
+            }
+        };
+        try {
+            // The pool keeps its one thread, so the first frame names the worker to measure
+            stage.process(sFrames[0], WIDTH, HEIGHT);
+            assumeTrue("Allocation cannot be measured on the worker thread",
+                    mAllocations.getThreadAllocatedBytes(listener.mWorker) >= 0);
+            double executor = measureExecutor();
+            double perFrame = measure(stage, new Thread[] {listener.mWorker});
+            assertWithinBudget("PreRollDecoder", ((perFrame < 0) || (executor < 0)) ? -1 : Math.max(0, perFrame - executor));
+        } finally {
+            decoder.release();
+        }
+    }
+
+    @Test
+    public void decodeSchedulerStaysWithinBudget() {
+        final DecodeScheduler scheduler = new DecodeScheduler(new DecodeScheduler.Clock() {
+            private long mNow;
+
+            @Override
+            public long elapsedRealtime() {
+                return mNow += 33;
+            }
+        }, new DecodeScheduler.Sensors() {
+            @Override
+            public int getThermalStatus() {
+                return 0;
+            }
+
+            @Override
+            public int getBatteryPercent() {
+                return 50;
+            }
+
+            @Override
+            public boolean isCharging() {
+                return true;
+            }
+        }, 3);
+        assertWithinBudget("DecodeScheduler", new Stage() {
+            @Override
+            public void process(ByteBuffer luma, int width, int height) {
+                scheduler.shouldKeepFrame();
+            }
+        });
+    }
+
+    /**
+     * @return A finder whose stand-in engine finds nothing, like most preview frames
+     */
+    private static BarcodeFinder createFinder() {
+        BarcodeFinder finder = new BarcodeFinder(null, new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                return null;
+            }
+        });
+        finder.setVote(new ResultVote(3, 5));
+        return finder;
+    }
+
+    /**
+     * Measures a round trip through a one-thread executor built like the one in PreRollDecoder
+     *
+     * @return The fewest bytes the round trip allocates per frame, or -1 if unknown
+     */
+    private double measureExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(RING_CAPACITY));
+        final CountingListener listener = new CountingListener();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                listener.onPreRollResult(null);
+            }
+        };
+        Stage stage = new Stage() {
+            @Override
+            public void process(ByteBuffer luma, int width, int height) {
+                int expected = listener.mResults + 1;
+                executor.execute(task);
+                while (listener.mResults < expected) {
+                    Thread.yield();
+                }
+            }
+        };
+        try {
+            stage.process(sFrames[0], WIDTH, HEIGHT);
+            return measure(stage, new Thread[] {listener.mWorker});
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Counts the results of a PreRollDecoder, and remembers the thread they arrive on
+     */
+    private static final class CountingListener implements PreRollDecoder.Listener {
+        volatile int mResults;
+        volatile Thread mWorker;
+
+        @Override
+        public void onPreRollResult(String result) {
+            mWorker = Thread.currentThread();
+            mResults++;   // Only the one worker thread writes
+        }
+    }
+
+    /**
+     * @return A stage that hands each frame to a ring as a camera image with no row padding
+     */
+    private static Stage offerStage(final PreRollRing ring, final TestImage image) {
+        return new Stage() {
+            @Override
+            public void process(ByteBuffer luma, int width, int height) {
+                image.setLuma(luma, width);
+                ring.offer(image);
+                luma.rewind();   // The copy consumes the buffer, which the next stage reads again
+            }
+        };
+    }
+
+    private static Stage finderStage(final BarcodeFinder finder) {
+        return new Stage() {
+            @Override
+            public void process(ByteBuffer luma, int width, int height) {
+                finder.getBarcodeResults(luma, width, height);
+            }
+        };
+    }
+
+    /**
+     * Measures a stage and fails if it is over budget
+     *
+     * @param workers - threads the stage hands its frames to, whose allocations count too
+     */
+    private void assertWithinBudget(String name, Stage stage, Thread... workers) {
+        assertWithinBudget(name, measure(stage, workers));
+    }
+
+    /**
+     * Fails if a measured stage is over budget
+     *
+     * @param perFrame - the bytes allocated per frame, or -1 if unknown
+     */
+    private static void assertWithinBudget(String name, double perFrame) {
+        assumeTrue("Allocation cannot be measured on this JVM", perFrame >= 0);
+        assertTrue(String.format(Locale.US, "%s allocates %.1f bytes per frame, over the budget of %d",
+                name, perFrame, BUDGET_BYTES_PER_FRAME), perFrame <= BUDGET_BYTES_PER_FRAME);
+    }
+
+    /**
+     * Runs a stage over warm-up frames, then over several rounds of measured frames
+     *
+     * @return The fewest bytes allocated per measured frame on the calling thread and the workers in
+     * any round, or -1 if unknown
+     */
+    private double measure(Stage stage, Thread[] workers) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            stage.process(sFrames[i % sFrames.length], WIDTH, HEIGHT);
+        }
+        long fewest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            // Reading the counters allocates a little itself, so take off the cost of one read
+            long overhead = -allocatedBytes(workers);
+            long before = allocatedBytes(workers);
+            overhead += before;
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                stage.process(sFrames[i % sFrames.length], WIDTH, HEIGHT);
+            }
+            long after = allocatedBytes(workers);
+            if ((before < 0) || (after < 0)) {
+                return -1;
+            }
+            fewest = Math.min(fewest, Math.max(0, after - before - overhead));
+        }
+        return (double) fewest / MEASURED_FRAMES;
+    }
+
+    /**
+     * @return The bytes allocated so far by the calling thread and the workers together, or -1 if unknown
+     */
+    private long allocatedBytes(Thread[] workers) {
+        long total = mAllocations.getThreadAllocatedBytes();
+        if (total < 0) {
+            return -1;
+        }
+        for (Thread worker : workers) {
+            long allocated = mAllocations.getThreadAllocatedBytes(worker);
+            if (allocated < 0) {
+                return -1;
+            }
+            total += allocated;
+        }
+        return total;
+    }
+}
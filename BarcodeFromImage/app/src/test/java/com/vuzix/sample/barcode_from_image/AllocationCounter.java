@@ -0,0 +1,96 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import java.lang.reflect.Method;
+
+
+/**
+ * Reads the bytes allocated by a thread, through whichever API the runtime has
+ *
+ * On a desktop JVM this is the HotSpot per-thread counter, which is exact. On a device it is
+ * android.os.Debug's allocation counting. Reflection keeps this class loadable on both.
+ */
+
+class AllocationCounter {
+    private Object mThreadBean;         // com.sun.management.ThreadMXBean on HotSpot
+    private Method mThreadAllocated;    // getThreadAllocatedBytes(long)
+    private Method mDebugAllocated;     // android.os.Debug.getThreadAllocSize()
+
+    AllocationCounter() {
+        try {
+            Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+            Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (type.isInstance(bean)) {
+                mThreadBean = bean;
+                mThreadAllocated = type.getMethod("getThreadAllocatedBytes", long.class);
+                return;
+            }
+        } catch (ReflectiveOperationException e) {
+            // Not a HotSpot JVM
+        }
+        try {
+            Class<?> debug = Class.forName("android.os.Debug");
+            debug.getMethod("startAllocCounting").invoke(null);
+            mDebugAllocated = debug.getMethod("getThreadAllocSize");
+        } catch (ReflectiveOperationException e) {
+            // Not Android either
+        }
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, or -1 if unknown
+     */
+    long getThreadAllocatedBytes() {
+        return getThreadAllocatedBytes(Thread.currentThread());
+    }
+
+    /**
+     * @param thread - the thread to read. Only HotSpot can read a thread other than the current one.
+     * @return The bytes allocated by the thread so far, or -1 if unknown
+     */
+    long getThreadAllocatedBytes(Thread thread) {
+        try {
+            if (mThreadAllocated != null) {
+                return (Long) mThreadAllocated.invoke(mThreadBean, thread.getId());
+            }
+            if ((mDebugAllocated != null) && (thread == Thread.currentThread())) {
+                return ((Integer) mDebugAllocated.invoke(null)).longValue();
+            }
+        } catch (ReflectiveOperationException e) {
+            // Fall through
+        }
+        return -1;
+    }
+}
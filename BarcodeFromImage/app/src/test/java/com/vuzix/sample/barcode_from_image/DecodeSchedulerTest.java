@@ -0,0 +1,304 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.os.PowerManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the DecodeScheduler policy against a fake clock and scripted sensor readings
+ */
+public class DecodeSchedulerTest {
+    private static final int MAX_POOL_SIZE = 4;
+    private static final long POLL_MS = 5000;
+    private static final long RECOVERY_MS = 30000;
+
+    private FakeClock mClock;
+    private FakeSensors mSensors;
+    private DecodeScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mSensors = new FakeSensors();
+        mScheduler = new DecodeScheduler(mClock, mSensors, MAX_POOL_SIZE);
+    }
+
+    @Test
+    public void startsAtFullWork() {
+        DecodeScheduler.Plan plan = mScheduler.update();
+        assertEquals(DecodeScheduler.LEVEL_FULL, plan.getLevel());
+        assertEquals(MAX_POOL_SIZE, plan.getPoolSize());
+        assertEquals(1, plan.getDecimation());
+        assertEquals(0, plan.getFrameIntervalMs());
+    }
+
+    @Test
+    public void stepsDownAsSoonAsTheReadingsCallForIt() {
+        mScheduler.update();
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_SEVERE;
+        mClock.advance(POLL_MS);
+        DecodeScheduler.Plan plan = mScheduler.update();
+        assertEquals(DecodeScheduler.LEVEL_MINIMAL, plan.getLevel());
+        assertEquals(1, plan.getPoolSize());
+        assertEquals(2, plan.getDecimation());
+    }
+
+    @Test
+    public void stepsDownPastIntermediateLevelsAtOnce() {
+        mScheduler.update();
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_MODERATE;
+        mClock.advance(POLL_MS);
+        assertEquals(DecodeScheduler.LEVEL_LOW, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void recoversOneLevelPerRecoveryPeriod() {
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_SEVERE;
+        assertEquals(DecodeScheduler.LEVEL_MINIMAL, mScheduler.update().getLevel());
+
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_NONE;
+        mClock.advance(POLL_MS);
+        assertEquals("Recovery starts with this reading", DecodeScheduler.LEVEL_MINIMAL, mScheduler.update().getLevel());
+        int[] expected = {DecodeScheduler.LEVEL_LOW, DecodeScheduler.LEVEL_REDUCED, DecodeScheduler.LEVEL_FULL};
+        for (int level : expected) {
+            int before = mScheduler.update().getLevel();
+            pollFor(RECOVERY_MS - POLL_MS);
+            assertEquals("Still waiting for the recovery period", before, mScheduler.update().getLevel());
+            mClock.advance(POLL_MS);
+            assertEquals(level, mScheduler.update().getLevel());
+        }
+        pollFor(2 * RECOVERY_MS);
+        assertEquals(DecodeScheduler.LEVEL_FULL, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void recoveryRestartsWhenTheReadingsStopAllowingIt() {
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_MODERATE;
+        assertEquals(DecodeScheduler.LEVEL_LOW, mScheduler.update().getLevel());
+
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_NONE;
+        pollFor(RECOVERY_MS - POLL_MS);
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_MODERATE;
+        mClock.advance(POLL_MS);
+        assertEquals(DecodeScheduler.LEVEL_LOW, mScheduler.update().getLevel());
+
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_NONE;
+        mClock.advance(POLL_MS);
+        mScheduler.update();
+        pollFor(RECOVERY_MS - POLL_MS);
+        assertEquals("The earlier part of the recovery must not count", DecodeScheduler.LEVEL_LOW,
+                mScheduler.update().getLevel());
+        mClock.advance(POLL_MS);
+        assertEquals(DecodeScheduler.LEVEL_REDUCED, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void readsTheSensorsAtMostOncePerPollInterval() {
+        mScheduler.update();
+        assertEquals(1, mSensors.mThermalReads);
+        for (int i = 0; i < 100; i++) {
+            mClock.advance((POLL_MS - 1) / 100);
+            mScheduler.update();
+            mScheduler.shouldKeepFrame();
+        }
+        assertEquals(1, mSensors.mThermalReads);
+        mClock.advance(POLL_MS);
+        mScheduler.shouldKeepFrame();
+        assertEquals(2, mSensors.mThermalReads);
+    }
+
+    @Test
+    public void ignoresNewReadingsUntilTheNextPoll() {
+        mScheduler.update();
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_SEVERE;
+        mClock.advance(POLL_MS - 1);
+        assertEquals(DecodeScheduler.LEVEL_FULL, mScheduler.update().getLevel());
+        mClock.advance(1);
+        assertEquals(DecodeScheduler.LEVEL_MINIMAL, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void reducesWorkOnLowBatteryUnlessCharging() {
+        mSensors.mBatteryPercent = 25;
+        assertEquals(DecodeScheduler.LEVEL_REDUCED, mScheduler.update().getLevel());
+
+        setUp();
+        mSensors.mBatteryPercent = 10;
+        assertEquals(DecodeScheduler.LEVEL_LOW, mScheduler.update().getLevel());
+
+        setUp();
+        mSensors.mBatteryPercent = 10;
+        mSensors.mCharging = true;
+        assertEquals(DecodeScheduler.LEVEL_FULL, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void ignoresTheSuccessRatioUntilThereAreEnoughOutcomes() {
+        for (int i = 0; i < 7; i++) {
+            mScheduler.recordOutcome(false);
+        }
+        assertEquals(100, mScheduler.getSuccessPercent());
+        assertEquals(DecodeScheduler.LEVEL_FULL, mScheduler.update().getLevel());
+
+        mScheduler.recordOutcome(false);
+        assertEquals(0, mScheduler.getSuccessPercent());
+        mClock.advance(POLL_MS);
+        assertEquals(DecodeScheduler.LEVEL_REDUCED, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void stepsDownOneMoreLevelBelowTheSuccessThreshold() {
+        // Two successes in ten is exactly the threshold, and does not count as low
+        for (int i = 0; i < 10; i++) {
+            mScheduler.recordOutcome(i < 2);
+        }
+        assertEquals(20, mScheduler.getSuccessPercent());
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_LIGHT;
+        assertEquals(DecodeScheduler.LEVEL_REDUCED, mScheduler.update().getLevel());
+
+        // One more failure takes it below
+        mScheduler.recordOutcome(false);
+        assertEquals(18, mScheduler.getSuccessPercent());
+        mClock.advance(POLL_MS);
+        assertEquals(DecodeScheduler.LEVEL_LOW, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void neverGoesBelowMinimal() {
+        for (int i = 0; i < 32; i++) {
+            mScheduler.recordOutcome(false);
+        }
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_CRITICAL;
+        assertEquals(DecodeScheduler.LEVEL_MINIMAL, mScheduler.update().getLevel());
+    }
+
+    @Test
+    public void onlyCountsTheNewestOutcomes() {
+        for (int i = 0; i < 32; i++) {
+            mScheduler.recordOutcome(false);
+        }
+        for (int i = 0; i < 32; i++) {
+            mScheduler.recordOutcome(true);
+        }
+        assertEquals(100, mScheduler.getSuccessPercent());
+    }
+
+    @Test
+    public void forgetsOutcomesOlderThanTheWindow() {
+        for (int i = 0; i < 32; i++) {
+            mScheduler.recordOutcome(true);
+        }
+        for (int i = 0; i < 31; i++) {
+            mScheduler.recordOutcome(false);
+        }
+        assertEquals(3, mScheduler.getSuccessPercent());
+        mScheduler.recordOutcome(false);
+        assertEquals(0, mScheduler.getSuccessPercent());
+    }
+
+    @Test
+    public void keepsFramesAtTheIntervalOfThePlan() {
+        assertTrue(mScheduler.shouldKeepFrame());
+        assertTrue("Every frame is kept at full work", mScheduler.shouldKeepFrame());
+
+        mSensors.mThermalStatus = PowerManager.THERMAL_STATUS_SEVERE;
+        mClock.advance(POLL_MS);
+        DecodeScheduler.Plan plan = mScheduler.update();
+        assertTrue(mScheduler.shouldKeepFrame());
+        mClock.advance(plan.getFrameIntervalMs() - 1);
+        assertFalse(mScheduler.shouldKeepFrame());
+        mClock.advance(1);
+        assertTrue(mScheduler.shouldKeepFrame());
+    }
+
+    @Test
+    public void returnsTheSamePlanWhileTheLevelHolds() {
+        DecodeScheduler.Plan plan = mScheduler.update();
+        pollFor(RECOVERY_MS);
+        assertSame(plan, mScheduler.update());
+    }
+
+    /**
+     * Advances the clock one poll interval at a time, updating at each
+     */
+    private void pollFor(long durationMs) {
+        for (long elapsed = 0; elapsed < durationMs; elapsed += POLL_MS) {
+            mClock.advance(POLL_MS);
+            mScheduler.update();
+        }
+    }
+
+    private static final class FakeClock implements DecodeScheduler.Clock {
+        long mNow = 1000000;
+
+        void advance(long ms) {
+            mNow += ms;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mNow;
+        }
+    }
+
+    private static final class FakeSensors implements DecodeScheduler.Sensors {
+        int mThermalStatus = PowerManager.THERMAL_STATUS_NONE;
+        int mBatteryPercent = 100;
+        boolean mCharging;
+        int mThermalReads;
+
+        @Override
+        public int getThermalStatus() {
+            mThermalReads++;
+            return mThermalStatus;
+        }
+
+        @Override
+        public int getBatteryPercent() {
+            return mBatteryPercent;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return mCharging;
+        }
+    }
+}
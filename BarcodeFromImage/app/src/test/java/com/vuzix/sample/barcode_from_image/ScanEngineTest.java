@@ -0,0 +1,277 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Round trips frames through a ScanEngine of fake decoders, by way of InProcessScanChannel
+ */
+public class ScanEngineTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void decodesTheFrameAndReturnsItsCodes() throws IOException {
+        final List<byte[]> frames = new ArrayList<>();
+        final List<Rect> regions = new ArrayList<>();
+        final ScanResult2 result = result("0123456789", BarcodeType2.CODE_128, point(3, 4), point(60, 4));
+        InProcessScanChannel channel = channel(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                frames.add(Arrays.copyOf(data, width * height));
+                regions.add(region);
+                return new ScanResult2[] { result };
+            }
+        });
+
+        byte[] luma = frame(7);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(luma.length + 10);
+        buffer.position(10);
+        buffer.mark();
+        buffer.put(luma);
+        buffer.reset();
+        Rect region = new Rect();
+        List<ScanChannel.Code> codes = channel.scan(buffer, WIDTH, HEIGHT, region);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(luma, frames.get(0));
+        assertSame(region, regions.get(0));
+        assertEquals("The position of the frame must not change", 10, buffer.position());
+        assertEquals(1, codes.size());
+        ScanChannel.Code code = codes.get(0);
+        assertEquals("0123456789", code.getText());
+        assertEquals(BarcodeType2.CODE_128, code.getBarcodeType());
+        assertEquals(ScanChannel.Code.symbologyId(BarcodeType2.CODE_128), code.getSymbology());
+        assertArrayEquals(new int[] { 3, 4, 60, 4 }, code.getPoints());
+    }
+
+    @Test
+    public void returnsNoCodesWhenNothingIsFound() throws IOException {
+        InProcessScanChannel channel = channel(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                return null;
+            }
+        });
+        assertTrue(channel.scan(ByteBuffer.wrap(frame(1)), WIDTH, HEIGHT, null).isEmpty());
+    }
+
+    @Test
+    public void reusesTheWorkerBufferForSmallerFrames() throws IOException {
+        final List<byte[]> buffers = new ArrayList<>();
+        InProcessScanChannel channel = channel(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                buffers.add(data);
+                return null;
+            }
+        });
+        channel.scan(ByteBuffer.wrap(frame(1)), WIDTH, HEIGHT, null);
+        channel.scan(ByteBuffer.wrap(frame(2)), WIDTH / 2, HEIGHT / 2, null);
+        assertSame(buffers.get(0), buffers.get(1));
+    }
+
+    @Test
+    public void keepsUnknownSymbologiesUnknown() throws IOException {
+        final ScanResult2 result = result("A1", null);
+        InProcessScanChannel channel = channel(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                return new ScanResult2[] { result };
+            }
+        });
+        ScanChannel.Code code = channel.scan(ByteBuffer.wrap(frame(1)), WIDTH, HEIGHT, null).get(0);
+        assertEquals(ScanChannel.Code.UNKNOWN_SYMBOLOGY, code.getSymbology());
+        assertNull(code.getBarcodeType());
+        assertEquals(0, code.getPoints().length);
+    }
+
+    @Test
+    public void symbologyIdsRoundTrip() {
+        for (BarcodeType2 type : BarcodeType2.values()) {
+            int id = ScanChannel.Code.symbologyId(type);
+            assertTrue(type + " has no id", id >= 0);
+            assertEquals(type, new ScanChannel.Code(id, "", new int[0]).getBarcodeType());
+        }
+        assertEquals(ScanChannel.Code.UNKNOWN_SYMBOLOGY, new ScanChannel.Code(1000, "", new int[0]).getSymbology());
+        assertEquals(ScanChannel.Code.UNKNOWN_SYMBOLOGY, new ScanChannel.Code(-5, "", new int[0]).getSymbology());
+    }
+
+    @Test
+    public void rejectsFramesSmallerThanTheirSize() throws IOException {
+        InProcessScanChannel channel = channel(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                fail("A short frame must not be decoded");
+                return null;
+            }
+        });
+        try {
+            channel.scan(ByteBuffer.allocate(WIDTH * HEIGHT - 1), WIDTH, HEIGHT, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void refusesFramesOnceClosed() {
+        InProcessScanChannel channel = channel(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                return null;
+            }
+        });
+        channel.close();
+        try {
+            channel.scan(ByteBuffer.wrap(frame(1)), WIDTH, HEIGHT, null);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void decodesNoMoreFramesAtOnceThanThereAreDecoders() throws InterruptedException {
+        final int decoderCount = 2;
+        final int threadCount = 6;
+        final int framesPerThread = 20;
+        final AtomicInteger busy = new AtomicInteger();
+        final AtomicInteger mostBusy = new AtomicInteger();
+        final AtomicInteger decoded = new AtomicInteger();
+        List<ScanEngine.FrameDecoder> decoders = new ArrayList<>();
+        for (int i = 0; i < decoderCount; i++) {
+            decoders.add(new ScanEngine.FrameDecoder() {
+                @Override
+                public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                    int now = busy.incrementAndGet();
+                    int most;
+                    while ((most = mostBusy.get()) < now && !mostBusy.compareAndSet(most, now)) {
+                        // Retry
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    busy.decrementAndGet();
+                    decoded.incrementAndGet();
+                    return null;
+                }
+            });
+        }
+        final InProcessScanChannel channel = new InProcessScanChannel(new ScanEngine(decoders));
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final byte[] luma = frame(i);
+            threads[i] = new Thread("Scan Client " + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < framesPerThread; j++) {
+                            channel.scan(ByteBuffer.wrap(luma), WIDTH, HEIGHT, null);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(threadCount * framesPerThread, decoded.get());
+        assertTrue("At most " + decoderCount + " decoders, but " + mostBusy.get() + " were busy",
+                mostBusy.get() <= decoderCount);
+    }
+
+    private static InProcessScanChannel channel(ScanEngine.FrameDecoder decoder) {
+        return new InProcessScanChannel(new ScanEngine(Collections.singletonList(decoder)));
+    }
+
+    /**
+     * @return A frame of distinct bytes, different for each seed
+     */
+    private static byte[] frame(int seed) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = (byte) (i * 31 + seed);
+        }
+        return luma;
+    }
+
+    private static ScanResult2 result(String text, BarcodeType2 type, Point... points) {
+        ScanResult2 result = mock(ScanResult2.class);
+        when(result.getText()).thenReturn(text);
+        when(result.getBarcodeType()).thenReturn(type);
+        when(result.getResultPoints()).thenReturn((points.length > 0) ? points : null);
+        return result;
+    }
+
+    /**
+     * Sets the fields directly, since the constructors of the Android stubs do nothing on the JVM
+     */
+    private static Point point(int x, int y) {
+        Point point = new Point();
+        point.x = x;
+        point.y = y;
+        return point;
+    }
+}
@@ -0,0 +1,714 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Encodes text into the module grid of a barcode, for SyntheticFrames to draw
+ *
+ * Only what test frames need is supported:
+ *  - Code 128 uses code set C for even runs of digits and code set B otherwise
+ *  - EAN-13 takes 12 digits and adds the check digit, or 13 digits with a valid one
+ *  - QR codes use byte mode, error correction level L, versions 1 to 4 (up to 78 bytes) and mask 0
+ *  - Data Matrix uses ASCII encodation in the square ECC 200 sizes from 10x10 to 26x26 (up to 44
+ *    codewords), which all have a single data region and a single error correction block
+ *
+ * Everything here is plain Java, so frames can be generated on a desktop JVM.
+ */
+
+class SymbolEncoder {
+
+    /**
+     * The modules of an encoded symbol, one boolean per module, true for dark
+     */
+    static final class Symbol {
+        private final BarcodeType2 mType;
+        private final String mText;
+        private final int mWidth;
+        private final int mHeight;
+        private final boolean[] mModules;
+        private final int mQuietZone;
+
+        Symbol(BarcodeType2 type, String text, int width, int height, boolean[] modules, int quietZone) {
+            mType = type;
+            mText = text;
+            mWidth = width;
+            mHeight = height;
+            mModules = modules;
+            mQuietZone = quietZone;
+        }
+
+        BarcodeType2 getType() {
+            return mType;
+        }
+
+        /**
+         * @return The text a decoder should return, including any check digit that was added
+         */
+        String getText() {
+            return mText;
+        }
+
+        /**
+         * @return Width in modules, without the quiet zone
+         */
+        int getWidth() {
+            return mWidth;
+        }
+
+        /**
+         * @return Height in modules, without the quiet zone
+         */
+        int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return The light margin the symbology requires on every side, in modules
+         */
+        int getQuietZone() {
+            return mQuietZone;
+        }
+
+        /**
+         * @return True if the module is dark. Modules outside the symbol are light.
+         */
+        boolean isDark(int x, int y) {
+            if ((x < 0) || (y < 0) || (x >= mWidth) || (y >= mHeight)) {
+                return false;
+            }
+            return mModules[y * mWidth + x];
+        }
+    }
+
+    // Bar and space widths of each Code 128 symbol, bar first. 103 to 105 are the start codes.
+    private static final String[] CODE128_PATTERNS = {
+            "212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312", "132212", "221213",
+            "221312", "231212", "112232", "122132", "122231", "113222", "123122", "123221", "223211", "221132",
+            "221231", "213212", "223112", "312131", "311222", "321122", "321221", "312212", "322112", "322211",
+            "212123", "212321", "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+            "231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121", "313121", "211331",
+            "231131", "213113", "213311", "213131", "311123", "311321", "331121", "312113", "312311", "332111",
+            "314111", "221411", "431111", "111224", "111422", "121124", "121421", "141122", "141221", "112214",
+            "112412", "122114", "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+            "111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112", "421211", "212141",
+            "214121", "412121", "111143", "111341", "131141", "114113", "114311", "411113", "411311", "113141",
+            "114131", "311141", "411131", "211412", "211214", "211232"
+    };
+    private static final String CODE128_STOP = "2331112";
+    private static final int CODE128_CODE_C = 99;
+    private static final int CODE128_CODE_B = 100;
+    private static final int CODE128_START_B = 104;
+    private static final int CODE128_START_C = 105;
+
+    // EAN-13 left hand odd parity digits. Even parity is the reverse of the right hand code, which
+    // is the complement of the odd parity code.
+    private static final int[] EAN_L_CODES = {0x0D, 0x19, 0x13, 0x3D, 0x23, 0x31, 0x2F, 0x3B, 0x37, 0x0B};
+    // Parity of the six left hand digits for each leading digit, 1 for even (G) parity, first digit in the top bit
+    private static final int[] EAN_FIRST_DIGIT_PARITY = {0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A};
+
+    // QR data codewords and error correction codewords at level L, versions 1 to 4
+    private static final int[] QR_DATA_CODEWORDS = {19, 34, 55, 80};
+    private static final int[] QR_EC_CODEWORDS = {7, 10, 15, 20};
+    private static final int QR_FORMAT_LEVEL_L = 1;
+    private static final int QR_MASK = 0;
+
+    // Data Matrix square sizes with one data region, and their data and error correction codewords
+    private static final int[] DM_SIZES = {10, 12, 14, 16, 18, 20, 22, 24, 26};
+    private static final int[] DM_DATA_CODEWORDS = {3, 5, 8, 12, 18, 22, 30, 36, 44};
+    private static final int[] DM_EC_CODEWORDS = {5, 7, 10, 12, 14, 18, 20, 24, 28};
+
+    private static final int LINEAR_MIN_HEIGHT = 24;   // Bar height in modules, at least
+    private static final int LINEAR_QUIET_ZONE = 10;
+    private static final int QR_QUIET_ZONE = 4;
+    private static final int DM_QUIET_ZONE = 1;
+
+    private SymbolEncoder() {
+    }
+
+    /**
+     * Encodes a Code 128 symbol
+     *
+     * @param text - printable ASCII text
+     * @return The symbol
+     * @throws IllegalArgumentException if the text has characters Code 128 set B cannot hold
+     */
+    static Symbol code128(String text) {
+        // Start, one code per character at most, two code set changes and the checksum
+        int[] codes = new int[text.length() + 4];
+        int count = 0;
+        boolean setC = isDigits(text, 0, 4);
+        codes[count++] = setC ? CODE128_START_C : CODE128_START_B;
+        int i = 0;
+        while (i < text.length()) {
+            if (setC && !isDigits(text, i, 2)) {
+                codes[count++] = CODE128_CODE_B;
+                setC = false;
+            } else if (!setC && (text.length() - i >= 4) && ((text.length() - i) % 2 == 0)
+                    && isDigits(text, i, text.length() - i)) {
+                codes[count++] = CODE128_CODE_C;   // Only for digits that run to the end, to keep it simple
+                setC = true;
+            }
+            if (setC) {
+                codes[count++] = (text.charAt(i) - '0') * 10 + (text.charAt(i + 1) - '0');
+                i += 2;
+            } else {
+                char c = text.charAt(i++);
+                if ((c < ' ') || (c > 127)) {
+                    throw new IllegalArgumentException("Not encodable in Code 128 set B: " + (int) c);
+                }
+                codes[count++] = c - ' ';
+            }
+        }
+        int checksum = codes[0];
+        for (int k = 1; k < count; k++) {
+            checksum += codes[k] * k;
+        }
+        codes[count++] = checksum % 103;
+
+        int width = count * 11 + 13;   // The stop pattern is 13 modules
+        boolean[] row = new boolean[width];
+        int x = 0;
+        for (int k = 0; k < count; k++) {
+            x = appendWidths(row, x, CODE128_PATTERNS[codes[k]]);
+        }
+        appendWidths(row, x, CODE128_STOP);
+        return linear(BarcodeType2.CODE_128, text, row);
+    }
+
+    /**
+     * Encodes an EAN-13 symbol
+     *
+     * @param digits - 12 digits, or 13 digits ending in the correct check digit
+     * @return The symbol. Its text has all 13 digits.
+     * @throws IllegalArgumentException if the digits are not valid
+     */
+    static Symbol ean13(String digits) {
+        if (((digits.length() != 12) && (digits.length() != 13)) || !isDigits(digits, 0, digits.length())) {
+            throw new IllegalArgumentException("EAN-13 needs 12 or 13 digits: " + digits);
+        }
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * ((i % 2 == 0) ? 1 : 3);
+        }
+        char check = (char) ('0' + (10 - sum % 10) % 10);
+        if ((digits.length() == 13) && (digits.charAt(12) != check)) {
+            throw new IllegalArgumentException("Wrong EAN-13 check digit: " + digits);
+        }
+        String text = digits.substring(0, 12) + check;
+
+        boolean[] row = new boolean[95];
+        int x = appendBits(row, 0, 0x5, 3);   // Start guard 101
+        int parity = EAN_FIRST_DIGIT_PARITY[text.charAt(0) - '0'];
+        for (int i = 1; i <= 6; i++) {
+            int code = EAN_L_CODES[text.charAt(i) - '0'];
+            if ((parity & (1 << (6 - i))) != 0) {
+                code = reverse7(~code & 0x7F);
+            }
+            x = appendBits(row, x, code, 7);
+        }
+        x = appendBits(row, x, 0x0A, 5);   // Centre guard 01010
+        for (int i = 7; i <= 12; i++) {
+            x = appendBits(row, x, ~EAN_L_CODES[text.charAt(i) - '0'] & 0x7F, 7);
+        }
+        appendBits(row, x, 0x5, 3);
+        return linear(BarcodeType2.EAN_13, text, row);
+    }
+
+    /**
+     * Encodes a QR code in the smallest version that holds the text
+     *
+     * @param text - the text, encoded as UTF-8 bytes
+     * @return The symbol
+     * @throws IllegalArgumentException if the text needs more than version 4
+     */
+    static Symbol qrCode(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int version = 0;
+        while ((version < QR_DATA_CODEWORDS.length) && (bytes.length + 2 > QR_DATA_CODEWORDS[version])) {
+            version++;   // 4 bit mode, 8 bit count and up to 4 terminator bits fit in 2 bytes
+        }
+        if (version == QR_DATA_CODEWORDS.length) {
+            throw new IllegalArgumentException("Too long for a version 4 QR code: " + bytes.length + " bytes");
+        }
+        int dataCount = QR_DATA_CODEWORDS[version];
+        int ecCount = QR_EC_CODEWORDS[version];
+        version++;
+
+        // Byte mode 0100, 8 bit length, the bytes, then a 0000 terminator that ends on a byte boundary
+        int[] codewords = new int[dataCount + ecCount];
+        codewords[0] = 0x40 | ((bytes.length >> 4) & 0x0F);
+        int previous = bytes.length & 0x0F;
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            codewords[i + 1] = ((previous << 4) | (b >> 4)) & 0xFF;
+            previous = b & 0x0F;
+        }
+        codewords[bytes.length + 1] = (previous << 4) & 0xFF;
+        for (int i = bytes.length + 2; i < dataCount; i++) {
+            codewords[i] = ((i - bytes.length) % 2 == 0) ? 0xEC : 0x11;
+        }
+        ReedSolomon.QR.encode(codewords, dataCount, ecCount);
+
+        int size = 17 + 4 * version;
+        boolean[] modules = new boolean[size * size];
+        boolean[] function = new boolean[size * size];
+        drawFinder(modules, function, size, 0, 0);
+        drawFinder(modules, function, size, size - 7, 0);
+        drawFinder(modules, function, size, 0, size - 7);
+        for (int i = 8; i < size - 8; i++) {
+            setModule(modules, function, size, i, 6, i % 2 == 0);
+            setModule(modules, function, size, 6, i, i % 2 == 0);
+        }
+        if (version > 1) {
+            int centre = size - 7;
+            for (int dy = -2; dy <= 2; dy++) {
+                for (int dx = -2; dx <= 2; dx++) {
+                    int ring = Math.max(Math.abs(dx), Math.abs(dy));
+                    setModule(modules, function, size, centre + dx, centre + dy, ring != 1);
+                }
+            }
+        }
+        drawQrFormat(modules, function, size);
+
+        // Place the codeword bits in two module wide columns, zigzagging up and down from the right
+        int bit = 0;
+        int totalBits = codewords.length * 8;
+        int direction = -1;
+        int y = size - 1;
+        for (int x = size - 1; x > 0; x -= 2) {
+            if (x == 6) {
+                x--;   // Skip the vertical timing pattern
+            }
+            while ((y >= 0) && (y < size)) {
+                for (int i = 0; i < 2; i++) {
+                    int index = y * size + x - i;
+                    if (function[index]) {
+                        continue;
+                    }
+                    boolean dark = false;
+                    if (bit < totalBits) {
+                        dark = ((codewords[bit >> 3] >> (7 - (bit & 7))) & 1) != 0;
+                        bit++;
+                    }
+                    if ((x - i + y) % 2 == 0) {   // Mask 0
+                        dark = !dark;
+                    }
+                    modules[index] = dark;
+                }
+                y += direction;
+            }
+            direction = -direction;
+            y += direction;
+        }
+        return new Symbol(BarcodeType2.QR_CODE, text, size, size, modules, QR_QUIET_ZONE);
+    }
+
+    /**
+     * Encodes a Data Matrix symbol in the smallest square size that holds the text
+     *
+     * @param text - ISO 8859-1 text
+     * @return The symbol
+     * @throws IllegalArgumentException if the text needs more than 44 codewords
+     */
+    static Symbol dataMatrix(String text) {
+        int[] data = new int[text.length() * 2];
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isDigits(text, i, 2)) {
+                data[count++] = 130 + (c - '0') * 10 + (text.charAt(i + 1) - '0');
+                i++;
+            } else if (c < 128) {
+                data[count++] = c + 1;
+            } else if (c < 256) {
+                data[count++] = 235;   // Upper shift
+                data[count++] = c - 128 + 1;
+            } else {
+                throw new IllegalArgumentException("Not encodable in Data Matrix ASCII: " + (int) c);
+            }
+        }
+        int sizeIndex = 0;
+        while ((sizeIndex < DM_SIZES.length) && (count > DM_DATA_CODEWORDS[sizeIndex])) {
+            sizeIndex++;
+        }
+        if (sizeIndex == DM_SIZES.length) {
+            throw new IllegalArgumentException("Too long for a 26x26 Data Matrix: " + count + " codewords");
+        }
+        int dataCount = DM_DATA_CODEWORDS[sizeIndex];
+        int ecCount = DM_EC_CODEWORDS[sizeIndex];
+        int[] codewords = new int[dataCount + ecCount];
+        System.arraycopy(data, 0, codewords, 0, count);
+        if (count < dataCount) {
+            codewords[count] = 129;   // The first pad is not randomized
+            for (int i = count + 1; i < dataCount; i++) {
+                int pad = 129 + ((149 * (i + 1)) % 253) + 1;
+                codewords[i] = (pad <= 254) ? pad : pad - 254;
+            }
+        }
+        ReedSolomon.DATA_MATRIX.encode(codewords, dataCount, ecCount);
+
+        int size = DM_SIZES[sizeIndex];
+        int[] placement = new DataMatrixPlacement(size - 2, size - 2).place();
+        boolean[] modules = new boolean[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                boolean dark;
+                if (x == 0 || y == size - 1) {
+                    dark = true;                    // Solid L finder
+                } else if (y == 0) {
+                    dark = (x % 2 == 0);            // Alternating top edge
+                } else if (x == size - 1) {
+                    dark = (y % 2 == 1);            // Alternating right edge
+                } else {
+                    int value = placement[(y - 1) * (size - 2) + (x - 1)];
+                    if (value <= 1) {
+                        dark = (value == 1);        // Fixed corner pattern
+                    } else {
+                        int codeword = codewords[value / 10 - 1];
+                        dark = ((codeword >> (8 - value % 10)) & 1) != 0;
+                    }
+                }
+                modules[y * size + x] = dark;
+            }
+        }
+        return new Symbol(BarcodeType2.DATA_MATRIX, text, size, size, modules, DM_QUIET_ZONE);
+    }
+
+    private static Symbol linear(BarcodeType2 type, String text, boolean[] row) {
+        int height = Math.max(LINEAR_MIN_HEIGHT, row.length / 4);
+        boolean[] modules = new boolean[row.length * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(row, 0, modules, y * row.length, row.length);
+        }
+        return new Symbol(type, text, row.length, height, modules, LINEAR_QUIET_ZONE);
+    }
+
+    private static boolean isDigits(String text, int start, int count) {
+        if (start + count > text.length()) {
+            return false;
+        }
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends alternating bars and spaces, bar first, with the given widths
+     */
+    private static int appendWidths(boolean[] row, int x, String widths) {
+        for (int i = 0; i < widths.length(); i++) {
+            int w = widths.charAt(i) - '0';
+            for (int k = 0; k < w; k++) {
+                row[x++] = (i % 2 == 0);
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Appends the low bits of a value, most significant first, with 1 as a dark module
+     */
+    private static int appendBits(boolean[] row, int x, int value, int bits) {
+        for (int i = bits - 1; i >= 0; i--) {
+            row[x++] = ((value >> i) & 1) != 0;
+        }
+        return x;
+    }
+
+    private static int reverse7(int value) {
+        return Integer.reverse(value) >>> 25;
+    }
+
+    private static void setModule(boolean[] modules, boolean[] function, int size, int x, int y, boolean dark) {
+        modules[y * size + x] = dark;
+        function[y * size + x] = true;
+    }
+
+    /**
+     * Draws a QR finder pattern with its light separator, clipped to the symbol
+     */
+    private static void drawFinder(boolean[] modules, boolean[] function, int size, int left, int top) {
+        for (int dy = -1; dy <= 7; dy++) {
+            for (int dx = -1; dx <= 7; dx++) {
+                int x = left + dx;
+                int y = top + dy;
+                if ((x < 0) || (y < 0) || (x >= size) || (y >= size)) {
+                    continue;
+                }
+                int ring = Math.max(Math.abs(dx - 3), Math.abs(dy - 3));
+                setModule(modules, function, size, x, y, (ring != 2) && (ring != 4));
+            }
+        }
+    }
+
+    /**
+     * Draws both copies of the QR format information, and the dark module beside them
+     */
+    private static void drawQrFormat(boolean[] modules, boolean[] function, int size) {
+        int data = (QR_FORMAT_LEVEL_L << 3) | QR_MASK;
+        int remainder = data;
+        for (int i = 0; i < 10; i++) {
+            remainder = (remainder << 1) ^ (((remainder >> 9) & 1) * 0x537);
+        }
+        int format = ((data << 10) | (remainder & 0x3FF)) ^ 0x5412;
+
+        for (int i = 0; i < 15; i++) {
+            boolean dark = ((format >> i) & 1) != 0;
+            // Around the top left finder: up column 8, then left along row 8, skipping the timing patterns
+            if (i < 6) {
+                setModule(modules, function, size, 8, i, dark);
+            } else if (i < 8) {
+                setModule(modules, function, size, 8, i + 1, dark);
+            } else if (i == 8) {
+                setModule(modules, function, size, 7, 8, dark);
+            } else {
+                setModule(modules, function, size, 14 - i, 8, dark);
+            }
+            // Split between the other two finders
+            if (i < 8) {
+                setModule(modules, function, size, size - 1 - i, 8, dark);
+            } else {
+                setModule(modules, function, size, 8, size - 15 + i, dark);
+            }
+        }
+        setModule(modules, function, size, 8, size - 8, true);
+    }
+
+    /**
+     * Reed-Solomon error correction over GF(256)
+     */
+    private static final class ReedSolomon {
+        static final ReedSolomon QR = new ReedSolomon(0x11D, 0);
+        static final ReedSolomon DATA_MATRIX = new ReedSolomon(0x12D, 1);
+
+        private final int[] mExp = new int[512];
+        private final int[] mLog = new int[256];
+        private final int mFirstRoot;
+
+        /**
+         * @param polynomial - the field's primitive polynomial
+         * @param firstRoot - the power of alpha of the generator polynomial's first root
+         */
+        private ReedSolomon(int polynomial, int firstRoot) {
+            int x = 1;
+            for (int i = 0; i < 255; i++) {
+                mExp[i] = x;
+                mLog[x] = i;
+                x <<= 1;
+                if (x >= 256) {
+                    x ^= polynomial;
+                }
+            }
+            for (int i = 255; i < mExp.length; i++) {
+                mExp[i] = mExp[i - 255];
+            }
+            mFirstRoot = firstRoot;
+        }
+
+        private int multiply(int a, int b) {
+            return ((a == 0) || (b == 0)) ? 0 : mExp[mLog[a] + mLog[b]];
+        }
+
+        /**
+         * Writes the error correction codewords after the data codewords
+         */
+        void encode(int[] codewords, int dataCount, int ecCount) {
+            // Generator polynomial, highest power first with an implied leading 1
+            int[] generator = new int[ecCount];
+            generator[0] = 1;
+            int[] product = new int[ecCount + 1];
+            product[0] = 1;
+            for (int i = 0; i < ecCount; i++) {
+                int root = mExp[mFirstRoot + i];
+                for (int k = i + 1; k > 0; k--) {
+                    product[k] ^= multiply(product[k - 1], root);
+                }
+            }
+            System.arraycopy(product, 1, generator, 0, ecCount);
+
+            int[] remainder = new int[ecCount];
+            for (int i = 0; i < dataCount; i++) {
+                int factor = codewords[i] ^ remainder[0];
+                System.arraycopy(remainder, 1, remainder, 0, ecCount - 1);
+                remainder[ecCount - 1] = 0;
+                for (int k = 0; k < ecCount; k++) {
+                    remainder[k] ^= multiply(generator[k], factor);
+                }
+            }
+            System.arraycopy(remainder, 0, codewords, dataCount, ecCount);
+        }
+    }
+
+    /**
+     * The ECC 200 module placement algorithm. Each module of the mapping matrix gets
+     * 10 * codeword number + bit number, with codewords counted from 1 and bits from 1 (the most
+     * significant) to 8. The two fixed pattern values are 0 (light) and 1 (dark).
+     */
+    private static final class DataMatrixPlacement {
+        private final int mRows;
+        private final int mColumns;
+        private final int[] mValues;
+
+        DataMatrixPlacement(int rows, int columns) {
+            mRows = rows;
+            mColumns = columns;
+            mValues = new int[rows * columns];
+            Arrays.fill(mValues, -1);
+        }
+
+        int[] place() {
+            int codeword = 1;
+            int row = 4;
+            int column = 0;
+            do {
+                if ((row == mRows) && (column == 0)) {
+                    corner1(codeword++);
+                }
+                if ((row == mRows - 2) && (column == 0) && (mColumns % 4 != 0)) {
+                    corner2(codeword++);
+                }
+                if ((row == mRows - 2) && (column == 0) && (mColumns % 8 == 4)) {
+                    corner3(codeword++);
+                }
+                if ((row == mRows + 4) && (column == 2) && (mColumns % 8 == 0)) {
+                    corner4(codeword++);
+                }
+                // Sweep up and to the right
+                do {
+                    if ((row < mRows) && (column >= 0) && (mValues[row * mColumns + column] < 0)) {
+                        utah(row, column, codeword++);
+                    }
+                    row -= 2;
+                    column += 2;
+                } while ((row >= 0) && (column < mColumns));
+                row += 1;
+                column += 3;
+                // Sweep down and to the left
+                do {
+                    if ((row >= 0) && (column < mColumns) && (mValues[row * mColumns + column] < 0)) {
+                        utah(row, column, codeword++);
+                    }
+                    row += 2;
+                    column -= 2;
+                } while ((row < mRows) && (column >= 0));
+                row += 3;
+                column += 1;
+            } while ((row < mRows) || (column < mColumns));
+
+            if (mValues[mRows * mColumns - 1] < 0) {
+                mValues[mRows * mColumns - 1] = 1;
+                mValues[mRows * mColumns - 2] = 0;
+                mValues[(mRows - 1) * mColumns - 1] = 0;
+                mValues[(mRows - 1) * mColumns - 2] = 1;
+            }
+            return mValues;
+        }
+
+        private void module(int row, int column, int codeword, int bit) {
+            if (row < 0) {
+                row += mRows;
+                column += 4 - ((mRows + 4) % 8);
+            }
+            if (column < 0) {
+                column += mColumns;
+                row += 4 - ((mColumns + 4) % 8);
+            }
+            mValues[row * mColumns + column] = codeword * 10 + bit;
+        }
+
+        private void utah(int row, int column, int codeword) {
+            module(row - 2, column - 2, codeword, 1);
+            module(row - 2, column - 1, codeword, 2);
+            module(row - 1, column - 2, codeword, 3);
+            module(row - 1, column - 1, codeword, 4);
+            module(row - 1, column, codeword, 5);
+            module(row, column - 2, codeword, 6);
+            module(row, column - 1, codeword, 7);
+            module(row, column, codeword, 8);
+        }
+
+        private void corner1(int codeword) {
+            module(mRows - 1, 0, codeword, 1);
+            module(mRows - 1, 1, codeword, 2);
+            module(mRows - 1, 2, codeword, 3);
+            module(0, mColumns - 2, codeword, 4);
+            module(0, mColumns - 1, codeword, 5);
+            module(1, mColumns - 1, codeword, 6);
+            module(2, mColumns - 1, codeword, 7);
+            module(3, mColumns - 1, codeword, 8);
+        }
+
+        private void corner2(int codeword) {
+            module(mRows - 3, 0, codeword, 1);
+            module(mRows - 2, 0, codeword, 2);
+            module(mRows - 1, 0, codeword, 3);
+            module(0, mColumns - 4, codeword, 4);
+            module(0, mColumns - 3, codeword, 5);
+            module(0, mColumns - 2, codeword, 6);
+            module(0, mColumns - 1, codeword, 7);
+            module(1, mColumns - 1, codeword, 8);
+        }
+
+        private void corner3(int codeword) {
+            module(mRows - 3, 0, codeword, 1);
+            module(mRows - 2, 0, codeword, 2);
+            module(mRows - 1, 0, codeword, 3);
+            module(0, mColumns - 2, codeword, 4);
+            module(0, mColumns - 1, codeword, 5);
+            module(1, mColumns - 1, codeword, 6);
+            module(2, mColumns - 1, codeword, 7);
+            module(3, mColumns - 1, codeword, 8);
+        }
+
+        private void corner4(int codeword) {
+            module(mRows - 1, 0, codeword, 1);
+            module(mRows - 1, mColumns - 1, codeword, 2);
+            module(0, mColumns - 3, codeword, 3);
+            module(0, mColumns - 2, codeword, 4);
+            module(0, mColumns - 1, codeword, 5);
+            module(1, mColumns - 3, codeword, 6);
+            module(1, mColumns - 2, codeword, 7);
+            module(1, mColumns - 1, codeword, 8);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+
+/**
+ * Draws encoded symbols into Y plane frames, with known distortions and the true corner positions
+ *
+ * This lets decode rate and latency be measured without a camera or printed targets. Frames have
+ * the layout BarcodeFinder.getBarcodeResults(ByteBuffer...) takes: width * height bytes with no row
+ * padding. The symbol is drawn on a light label (its quiet zone) over a darker background, mapped
+ * through a perspective transform, then blurred and given sensor noise.
+ *
+ * The same seed gives the same frames, so runs can be compared. Everything here is plain Java, so
+ * frames can be generated on a desktop JVM.
+ *
+ * The frame buffer and blur buffers are reused from call to call, so an instance must only be used
+ * from one thread.
+ */
+
+class SyntheticFrames {
+
+    /** The camera capture size of this sample */
+    static final int CAPTURE_WIDTH = 1408;
+    static final int CAPTURE_HEIGHT = 792;
+
+    // Each pixel is the average of SUPERSAMPLE x SUPERSAMPLE samples, so module edges are not jagged
+    private static final int SUPERSAMPLE = 2;
+
+    /**
+     * How a symbol is degraded
+     */
+    static final class Distortion {
+        /** No distortion: black on white, square to the camera, sharp and noise free */
+        static final Distortion NONE = new Distortion(0, 0, 0, 0, 0, 255, 128);
+
+        private final float mRotationDegrees;
+        private final float mPerspective;
+        private final int mBlurRadius;
+        private final float mNoiseSigma;
+        private final int mDarkLevel;
+        private final int mLightLevel;
+        private final int mBackgroundLevel;
+
+        /**
+         * @param rotationDegrees - clockwise rotation of the symbol about its centre
+         * @param perspective - how much narrower the top edge is than the bottom, as a fraction from
+         *                      0 (none) to below 1. 0.3 is roughly a label tilted back by 45 degrees.
+         * @param blurRadius - radius of the blur in pixels, 0 for none. Two box blur passes are used,
+         *                     which is close to a Gaussian.
+         * @param noiseSigma - standard deviation of the Gaussian noise added to every pixel, in levels
+         * @param darkLevel - luma of the dark modules
+         * @param lightLevel - luma of the light modules and the quiet zone. Contrast is the difference.
+         * @param backgroundLevel - luma of the frame outside the quiet zone
+         */
+        Distortion(float rotationDegrees, float perspective, int blurRadius, float noiseSigma,
+                   int darkLevel, int lightLevel, int backgroundLevel) {
+            mRotationDegrees = rotationDegrees;
+            mPerspective = perspective;
+            mBlurRadius = blurRadius;
+            mNoiseSigma = noiseSigma;
+            mDarkLevel = darkLevel;
+            mLightLevel = lightLevel;
+            mBackgroundLevel = backgroundLevel;
+        }
+    }
+
+    /**
+     * A drawn frame and its ground truth
+     */
+    static final class Frame {
+        private final byte[] mLuma;
+        private final int mWidth;
+        private final int mHeight;
+        private final SymbolEncoder.Symbol mSymbol;
+        private final float[] mCorners;
+
+        Frame(byte[] luma, int width, int height, SymbolEncoder.Symbol symbol, float[] corners) {
+            mLuma = luma;
+            mWidth = width;
+            mHeight = height;
+            mSymbol = symbol;
+            mCorners = corners;
+        }
+
+        /**
+         * @return The Y plane, owned by the SyntheticFrames and overwritten by its next call to render()
+         */
+        byte[] getLuma() {
+            return mLuma;
+        }
+
+        int getWidth() {
+            return mWidth;
+        }
+
+        int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return The symbol that was drawn. Its type and text are what a decoder should report.
+         */
+        SymbolEncoder.Symbol getSymbol() {
+            return mSymbol;
+        }
+
+        /**
+         * @return The symbol's outer corners in pixels, without the quiet zone: x and y of the
+         * top left, top right, bottom right and bottom left corners in the symbol's own orientation
+         */
+        float[] getCorners() {
+            return mCorners;
+        }
+
+        /**
+         * Writes the frame as a binary PGM image, for a look at what the decoder was given
+         *
+         * @param out - the stream to write to. It is not closed.
+         * @throws IOException if the stream cannot be written
+         */
+        void writePgm(OutputStream out) throws IOException {
+            out.write(("P5\n" + mWidth + " " + mHeight + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(mLuma, 0, mWidth * mHeight);
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Random mRandom;
+    private final byte[] mLuma;
+    private final int[] mPlane;
+    private final int[] mScratch;
+    private final double[] mForward = new double[9];   // Unit square to pixels
+    private final double[] mInverse = new double[9];   // Pixels to unit square
+
+    /**
+     * Draws one symbol of each of several symbologies per frame, under varied distortions, into
+     * direct buffers like those of PreRollRing
+     *
+     * @param width - width of the frames in pixels
+     * @param height - height of the frames in pixels
+     * @param count - the number of frames
+     * @return The frames, each width * height bytes from position zero
+     */
+    static ByteBuffer[] drawFrames(int width, int height, int count) {
+        SyntheticFrames generator = new SyntheticFrames(width, height, 1);
+        SymbolEncoder.Symbol[] symbols = {
+                SymbolEncoder.code128("PALLET-0042"),
+                SymbolEncoder.ean13("400638133393"),
+                SymbolEncoder.qrCode("https://www.vuzix.com"),
+                SymbolEncoder.dataMatrix("LOT 2024-117")
+        };
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            Distortion distortion = new Distortion(i * 17 % 90 - 45,
+                    (i % 3) * 0.15f, i % 3, 2 + i % 5, 20 + i * 7 % 60, 200 + i * 5 % 50, 90 + i * 13 % 80);
+            Frame frame = generator.render(symbols[i % symbols.length],
+                    width / 2f, height / 2f, 4 + i % 4, distortion);
+            frames[i] = ByteBuffer.allocateDirect(width * height);
+            frames[i].put(frame.getLuma(), 0, width * height);
+            frames[i].clear();
+        }
+        return frames;
+    }
+
+    /**
+     * @param width - frame width in pixels, such as CAPTURE_WIDTH
+     * @param height - frame height in pixels
+     * @param seed - seed for the noise
+     */
+    SyntheticFrames(int width, int height, long seed) {
+        mWidth = width;
+        mHeight = height;
+        mRandom = new Random(seed);
+        mLuma = new byte[width * height];
+        mPlane = new int[width * height];
+        mScratch = new int[width * height];
+    }
+
+    /**
+     * Draws one symbol into a new frame
+     *
+     * @param symbol - the symbol to draw, from SymbolEncoder
+     * @param centreX - x of the symbol's centre in pixels
+     * @param centreY - y of the symbol's centre in pixels
+     * @param moduleSize - width of one module in pixels, before perspective
+     * @param distortion - how the symbol is degraded
+     * @return The frame and its ground truth
+     */
+    Frame render(SymbolEncoder.Symbol symbol, float centreX, float centreY, float moduleSize, Distortion distortion) {
+        float[] corners = placeCorners(symbol, centreX, centreY, moduleSize, distortion);
+        squareToQuad(corners, mForward);
+        adjoint(mForward, mInverse);
+
+        int[] plane = mPlane;
+        int quiet = symbol.getQuietZone();
+        float quietU = (float) quiet / symbol.getWidth();
+        float quietV = (float) quiet / symbol.getHeight();
+
+        // Only pixels inside the label need sampling. Find its bounding box.
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float[] point = new float[2];
+        for (int i = 0; i < 4; i++) {
+            float u = ((i == 1) || (i == 2)) ? 1 + quietU : -quietU;
+            float v = (i >= 2) ? 1 + quietV : -quietV;
+            map(mForward, u, v, point);
+            minX = Math.min(minX, point[0]);
+            maxX = Math.max(maxX, point[0]);
+            minY = Math.min(minY, point[1]);
+            maxY = Math.max(maxY, point[1]);
+        }
+        int left = Math.max(0, (int) Math.floor(minX));
+        int right = Math.min(mWidth, (int) Math.ceil(maxX) + 1);
+        int top = Math.max(0, (int) Math.floor(minY));
+        int bottom = Math.min(mHeight, (int) Math.ceil(maxY) + 1);
+
+        int background = distortion.mBackgroundLevel;
+        for (int i = 0; i < mWidth * mHeight; i++) {
+            plane[i] = background;
+        }
+        int samples = SUPERSAMPLE * SUPERSAMPLE;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                int sum = 0;
+                for (int sy = 0; sy < SUPERSAMPLE; sy++) {
+                    for (int sx = 0; sx < SUPERSAMPLE; sx++) {
+                        map(mInverse, x + (sx + 0.5f) / SUPERSAMPLE, y + (sy + 0.5f) / SUPERSAMPLE, point);
+                        float u = point[0];
+                        float v = point[1];
+                        if ((u < -quietU) || (u > 1 + quietU) || (v < -quietV) || (v > 1 + quietV)) {
+                            sum += background;
+                        } else {
+                            int moduleX = (int) Math.floor(u * symbol.getWidth());
+                            int moduleY = (int) Math.floor(v * symbol.getHeight());
+                            sum += symbol.isDark(moduleX, moduleY) ? distortion.mDarkLevel : distortion.mLightLevel;
+                        }
+                    }
+                }
+                plane[y * mWidth + x] = (sum + samples / 2) / samples;
+            }
+        }
+
+        if (distortion.mBlurRadius > 0) {
+            for (int pass = 0; pass < 2; pass++) {
+                boxBlur(plane, mScratch, mWidth, mHeight, distortion.mBlurRadius, 1, mWidth);
+                boxBlur(mScratch, plane, mHeight, mWidth, distortion.mBlurRadius, mWidth, 1);
+            }
+        }
+
+        byte[] luma = mLuma;
+        float sigma = distortion.mNoiseSigma;
+        for (int i = 0; i < mWidth * mHeight; i++) {
+            int value = plane[i];
+            if (sigma > 0) {
+                value += Math.round(mRandom.nextGaussian() * sigma);
+            }
+            luma[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+        return new Frame(luma, mWidth, mHeight, symbol, corners);
+    }
+
+    /**
+     * Works out where the symbol's corners land in the frame
+     */
+    private static float[] placeCorners(SymbolEncoder.Symbol symbol, float centreX, float centreY,
+                                        float moduleSize, Distortion distortion) {
+        float halfWidth = symbol.getWidth() * moduleSize / 2;
+        float halfHeight = symbol.getHeight() * moduleSize / 2;
+        float topHalfWidth = halfWidth * (1 - distortion.mPerspective);
+        float[] corners = {
+                -topHalfWidth, -halfHeight,
+                topHalfWidth, -halfHeight,
+                halfWidth, halfHeight,
+                -halfWidth, halfHeight
+        };
+        double radians = Math.toRadians(distortion.mRotationDegrees);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        for (int i = 0; i < 8; i += 2) {
+            float x = corners[i];
+            float y = corners[i + 1];
+            corners[i] = centreX + x * cos - y * sin;
+            corners[i + 1] = centreY + x * sin + y * cos;
+        }
+        return corners;
+    }
+
+    /**
+     * Finds the projective transform that maps the unit square onto four corners, in the order
+     * (0,0), (1,0), (1,1), (0,1)
+     *
+     * @param corners - x and y of the four corners
+     * @param out - receives the 3x3 matrix in row-major order
+     */
+    private static void squareToQuad(float[] corners, double[] out) {
+        double x0 = corners[0], y0 = corners[1], x1 = corners[2], y1 = corners[3];
+        double x2 = corners[4], y2 = corners[5], x3 = corners[6], y3 = corners[7];
+        double dx3 = x0 - x1 + x2 - x3;
+        double dy3 = y0 - y1 + y2 - y3;
+        double g = 0;
+        double h = 0;
+        if ((dx3 != 0) || (dy3 != 0)) {
+            double dx1 = x1 - x2;
+            double dx2 = x3 - x2;
+            double dy1 = y1 - y2;
+            double dy2 = y3 - y2;
+            double denominator = dx1 * dy2 - dx2 * dy1;
+            g = (dx3 * dy2 - dx2 * dy3) / denominator;
+            h = (dx1 * dy3 - dx3 * dy1) / denominator;
+        }
+        out[0] = x1 - x0 + g * x1;
+        out[1] = x3 - x0 + h * x3;
+        out[2] = x0;
+        out[3] = y1 - y0 + g * y1;
+        out[4] = y3 - y0 + h * y3;
+        out[5] = y0;
+        out[6] = g;
+        out[7] = h;
+        out[8] = 1;
+    }
+
+    /**
+     * The adjoint of a 3x3 matrix, which is its inverse up to a scale that a projective map ignores
+     */
+    private static void adjoint(double[] m, double[] out) {
+        out[0] = m[4] * m[8] - m[5] * m[7];
+        out[1] = m[2] * m[7] - m[1] * m[8];
+        out[2] = m[1] * m[5] - m[2] * m[4];
+        out[3] = m[5] * m[6] - m[3] * m[8];
+        out[4] = m[0] * m[8] - m[2] * m[6];
+        out[5] = m[2] * m[3] - m[0] * m[5];
+        out[6] = m[3] * m[7] - m[4] * m[6];
+        out[7] = m[1] * m[6] - m[0] * m[7];
+        out[8] = m[0] * m[4] - m[1] * m[3];
+    }
+
+    private static void map(double[] m, float x, float y, float[] out) {
+        double w = m[6] * x + m[7] * y + m[8];
+        out[0] = (float) ((m[0] * x + m[1] * y + m[2]) / w);
+        out[1] = (float) ((m[3] * x + m[4] * y + m[5]) / w);
+    }
+
+    /**
+     * Box blurs every line of a plane in one direction, repeating the edge pixels beyond the ends
+     *
+     * @param lines - the number of lines
+     * @param length - the number of pixels in a line
+     * @param step - the distance between neighbouring pixels of a line
+     * @param lineStep - the distance between the first pixels of neighbouring lines
+     */
+    private static void boxBlur(int[] in, int[] out, int length, int lines, int radius, int step, int lineStep) {
+        int window = radius * 2 + 1;
+        for (int line = 0; line < lines; line++) {
+            int base = line * lineStep;
+            int last = base + (length - 1) * step;
+            int sum = 0;
+            for (int i = -radius; i <= radius; i++) {
+                sum += in[base + Math.max(0, Math.min(length - 1, i)) * step];
+            }
+            for (int i = 0; i < length; i++) {
+                out[base + i * step] = (sum + window / 2) / window;
+                int leaving = base + Math.max(0, i - radius) * step;
+                int entering = Math.min(last, base + (i + radius + 1) * step);
+                sum += in[entering] - in[leaving];
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the tiles of a TileGrid cover the searched area, overlap as asked and stay inside it
+ */
+public class TileGridTest {
+    private static final int TILE_SIZE = 64;
+    private static final int OVERLAP = 16;
+
+    @Test
+    public void countsOneTileForAnAreaNoLargerThanATile() {
+        assertEquals(1, TileGrid.tileCount(1, TILE_SIZE, OVERLAP));
+        assertEquals(1, TileGrid.tileCount(TILE_SIZE, TILE_SIZE, OVERLAP));
+    }
+
+    @Test
+    public void countsTilesStepByStep() {
+        // Each tile after the first adds the tile size less the overlap
+        assertEquals(2, TileGrid.tileCount(TILE_SIZE + 1, TILE_SIZE, OVERLAP));
+        assertEquals(2, TileGrid.tileCount(2 * TILE_SIZE - OVERLAP, TILE_SIZE, OVERLAP));
+        assertEquals(3, TileGrid.tileCount(2 * TILE_SIZE - OVERLAP + 1, TILE_SIZE, OVERLAP));
+        assertEquals(4, TileGrid.tileCount(200, TILE_SIZE, OVERLAP));
+    }
+
+    @Test
+    public void setsTheLastTileAgainstTheFarEdge() {
+        assertEquals(0, TileGrid.tileOffset(0, 200, TILE_SIZE, OVERLAP));
+        assertEquals(48, TileGrid.tileOffset(1, 200, TILE_SIZE, OVERLAP));
+        assertEquals(96, TileGrid.tileOffset(2, 200, TILE_SIZE, OVERLAP));
+        assertEquals(136, TileGrid.tileOffset(3, 200, TILE_SIZE, OVERLAP));
+        assertEquals("An area smaller than a tile starts at its edge", 0, TileGrid.tileOffset(0, 10, TILE_SIZE, OVERLAP));
+    }
+
+    @Test
+    public void coversTheWholeFrameWithAtLeastTheOverlap() {
+        int[][] sizes = { { 200, 100 }, { 64, 64 }, { 65, 112 }, { 1000, 7 }, { 5, 5 } };
+        for (int[] size : sizes) {
+            TileGrid grid = new TileGrid(TILE_SIZE, OVERLAP);
+            grid.cover(size[0], size[1], null);
+            assertCovered(grid, 0, 0, size[0], size[1]);
+        }
+    }
+
+    @Test
+    public void walksTilesInReadingOrder() {
+        TileGrid grid = new TileGrid(TILE_SIZE, OVERLAP);
+        grid.cover(200, 100, null);
+        assertEquals(8, grid.getTileCount());
+        int[] lefts = { 0, 48, 96, 136 };
+        int[] tops = { 0, 36 };
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            assertEquals(lefts[tile % 4], grid.getLeft(tile));
+            assertEquals(tops[tile / 4], grid.getTop(tile));
+            assertEquals(TILE_SIZE, grid.getWidth(tile));
+            assertEquals(TILE_SIZE, grid.getHeight(tile));
+        }
+    }
+
+    @Test
+    public void clipsTheRegionToTheFrame() {
+        TileGrid grid = new TileGrid(TILE_SIZE, OVERLAP);
+        grid.cover(200, 100, rect(150, -20, 300, 40));
+        assertEquals(1, grid.getTileCount());
+        assertEquals(150, grid.getLeft(0));
+        assertEquals(0, grid.getTop(0));
+        assertEquals("A tile is never wider than the area", 50, grid.getWidth(0));
+        assertEquals(40, grid.getHeight(0));
+
+        grid.cover(200, 100, rect(10, 20, 190, 90));
+        assertCovered(grid, 10, 20, 190, 90);
+    }
+
+    @Test
+    public void coversNothingForAnEmptyArea() {
+        TileGrid grid = new TileGrid(TILE_SIZE, OVERLAP);
+        grid.cover(0, 100, null);
+        assertEquals(0, grid.getTileCount());
+        grid.cover(200, 100, rect(250, 0, 300, 100));
+        assertEquals("A region outside the frame", 0, grid.getTileCount());
+        grid.cover(200, 100, rect(50, 50, 50, 80));
+        assertEquals(0, grid.getTileCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnOverlapAsLargeAsTheTile() {
+        new TileGrid(TILE_SIZE, TILE_SIZE);
+    }
+
+    /**
+     * Checks every pixel of the area is in a tile, no tile leaves it, and neighbors share the overlap
+     */
+    private static void assertCovered(TileGrid grid, int left, int top, int right, int bottom) {
+        int width = right - left;
+        int height = bottom - top;
+        int[] hits = new int[width * height];
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            int tileLeft = grid.getLeft(tile);
+            int tileTop = grid.getTop(tile);
+            int tileWidth = grid.getWidth(tile);
+            int tileHeight = grid.getHeight(tile);
+            assertTrue("Tile " + tile + " leaves the area", (tileLeft >= left) && (tileTop >= top)
+                    && (tileLeft + tileWidth <= right) && (tileTop + tileHeight <= bottom));
+            assertEquals(Math.min(TILE_SIZE, width), tileWidth);
+            assertEquals(Math.min(TILE_SIZE, height), tileHeight);
+            for (int y = tileTop; y < tileTop + tileHeight; y++) {
+                for (int x = tileLeft; x < tileLeft + tileWidth; x++) {
+                    hits[(y - top) * width + (x - left)]++;
+                }
+            }
+            if ((tile % columns(grid)) > 0) {
+                int previousRight = grid.getLeft(tile - 1) + grid.getWidth(tile - 1);
+                assertTrue("Tile " + tile + " overlaps its left neighbor by less than " + OVERLAP,
+                        previousRight - tileLeft >= OVERLAP);
+            }
+        }
+        for (int i = 0; i < hits.length; i++) {
+            assertTrue("Pixel " + (left + i % width) + "," + (top + i / width) + " is in no tile", hits[i] > 0);
+        }
+    }
+
+    /**
+     * @return The number of tiles in a row, found by where the top first changes
+     */
+    private static int columns(TileGrid grid) {
+        int columns = 1;
+        while ((columns < grid.getTileCount()) && (grid.getTop(columns) == grid.getTop(0))) {
+            columns++;
+        }
+        return columns;
+    }
+
+    /**
+     * Sets the fields directly, since the methods of the Android stubs do nothing on the JVM
+     */
+    private static Rect rect(int left, int top, int right, int bottom) {
+        Rect rect = new Rect();
+        rect.left = left;
+        rect.top = top;
+        rect.right = right;
+        rect.bottom = bottom;
+        return rect;
+    }
+}
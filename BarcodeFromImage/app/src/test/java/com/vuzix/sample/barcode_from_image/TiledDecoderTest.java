@@ -0,0 +1,217 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Decodes a frame in small tiles with a fake engine on one worker, so tiles arrive in reading order
+ */
+public class TiledDecoderTest {
+    private static final int TILE_SIZE = 64;
+    private static final int OVERLAP = 16;
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 100;
+    private static final int ROW_STRIDE = 208;   // Padded, like a camera plane
+
+    // Tile offsets for a 200x100 frame, the last of each axis set against the far edge
+    private static final int[] LEFTS = { 0, 48, 96, 136 };
+    private static final int[] TOPS = { 0, 36 };
+
+    @Test
+    public void copiesEachTileFromTheFrameIntoOneBuffer() throws InterruptedException {
+        final List<byte[]> buffers = new ArrayList<>();
+        final List<byte[]> tiles = new ArrayList<>();
+        TiledDecoder decoder = decoder(new ScanEngine.FrameDecoder() {
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                buffers.add(data);
+                byte[] tile = new byte[width * height];
+                System.arraycopy(data, 0, tile, 0, tile.length);
+                tiles.add(tile);
+                return null;
+            }
+        });
+        try {
+            ByteBuffer frame = frame();
+            assertTrue(decoder.decode(frame, WIDTH, HEIGHT, ROW_STRIDE, ScanProfile.DEFAULT).isEmpty());
+            assertEquals(LEFTS.length * TOPS.length, tiles.size());
+            for (int tile = 0; tile < tiles.size(); tile++) {
+                assertArrayEquals("Tile " + tile, expectedTile(LEFTS[tile % LEFTS.length], TOPS[tile / LEFTS.length]),
+                        tiles.get(tile));
+                assertSame("The worker's buffer must be reused", buffers.get(0), buffers.get(tile));
+            }
+            assertTrue(buffers.get(0).length <= TILE_SIZE * TILE_SIZE);
+
+            decoder.decode(frame, WIDTH, HEIGHT, ROW_STRIDE, ScanProfile.DEFAULT);
+            assertSame("The buffer must be kept from frame to frame", buffers.get(0), buffers.get(buffers.size() - 1));
+        } finally {
+            decoder.release();
+        }
+    }
+
+    @Test
+    public void mergesCodesInTheOverlapAndReportsThemInFrameCoordinates() throws InterruptedException {
+        // The same code seen in the overlap of the first two tiles, and another in the last tile
+        final Point[] first = { point(50, 10), point(60, 10) };
+        final Point[] second = { point(2, 10), point(12, 10) };
+        final Point[] last = { point(10, 50), point(20, 50) };
+        final ScanResult2[][] found = new ScanResult2[LEFTS.length * TOPS.length][];
+        found[0] = new ScanResult2[] { result("SHARED", first) };
+        found[1] = new ScanResult2[] { result("SHARED", second) };
+        found[found.length - 1] = new ScanResult2[] { result("LAST", last) };
+        TiledDecoder decoder = decoder(new ScanEngine.FrameDecoder() {
+            private int mTile;
+
+            @Override
+            public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                return found[mTile++];
+            }
+        });
+        List<ScanChannel.Code> codes;
+        try {
+            codes = decoder.decode(frame(), WIDTH, HEIGHT, ROW_STRIDE, ScanProfile.DEFAULT);
+        } finally {
+            decoder.release();
+        }
+
+        assertEquals(2, codes.size());
+        assertEquals("SHARED", codes.get(0).getText());
+        assertArrayEquals(new int[] { 50, 10, 60, 10 }, codes.get(0).getPoints());
+        assertEquals("LAST", codes.get(1).getText());
+        assertArrayEquals(new int[] { 146, 86, 156, 86 }, codes.get(1).getPoints());
+        assertEquals("The engine's points must not be moved", 2, second[0].x);
+        assertEquals(10, last[0].x);
+        assertEquals(50, last[0].y);
+    }
+
+    @Test
+    public void keepsTheLargerOfTwoIntersectingCopies() {
+        List<ScanChannel.Code> results = new ArrayList<>();
+        ScanChannel.Code cut = code("A", 40, 0, 63, 20);
+        ScanChannel.Code whole = code("A", 40, 0, 80, 20);
+        TiledDecoder.mergeResult(results, cut);
+        TiledDecoder.mergeResult(results, whole);
+        assertEquals(1, results.size());
+        assertSame(whole, results.get(0));
+
+        ScanChannel.Code apart = code("A", 150, 0, 190, 20);
+        TiledDecoder.mergeResult(results, apart);
+        assertEquals("Two labels with the same text side by side are both kept", 2, results.size());
+    }
+
+    @Test
+    public void sortsTopToBottomThenLeftToRight() {
+        ScanChannel.Code lowerLeft = code("C", 0, 50, 10, 60);
+        ScanChannel.Code upperRight = code("B", 100, 0, 110, 10);
+        ScanChannel.Code upperLeft = code("A", 0, 0, 10, 10);
+        List<ScanChannel.Code> results = new ArrayList<>();
+        Collections.addAll(results, lowerLeft, upperRight, upperLeft);
+        TiledDecoder.sortInReadingOrder(results);
+        assertSame(upperLeft, results.get(0));
+        assertSame(upperRight, results.get(1));
+        assertSame(lowerLeft, results.get(2));
+    }
+
+    private static TiledDecoder decoder(ScanEngine.FrameDecoder engine) {
+        return new TiledDecoder(Collections.singletonList(engine), TILE_SIZE, OVERLAP);
+    }
+
+    /**
+     * @return A frame of high contrast, so the preprocessor passes tiles through unchanged
+     */
+    private static ByteBuffer frame() {
+        ByteBuffer frame = ByteBuffer.allocate((HEIGHT - 1) * ROW_STRIDE + WIDTH);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < ROW_STRIDE && y * ROW_STRIDE + x < frame.limit(); x++) {
+                frame.put(y * ROW_STRIDE + x, (x < WIDTH) ? pixel(x, y) : (byte) 0x55);
+            }
+        }
+        return frame;
+    }
+
+    private static byte pixel(int x, int y) {
+        return (byte) (x * 7 + y * 31);
+    }
+
+    private static byte[] expectedTile(int left, int top) {
+        byte[] tile = new byte[TILE_SIZE * TILE_SIZE];
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                tile[y * TILE_SIZE + x] = pixel(left + x, top + y);
+            }
+        }
+        return tile;
+    }
+
+    private static ScanChannel.Code code(String text, int left, int top, int right, int bottom) {
+        return new ScanChannel.Code(ScanChannel.Code.symbologyId(BarcodeType2.QR_CODE), text,
+                new int[] { left, top, right, bottom });
+    }
+
+    private static ScanResult2 result(String text, Point... points) {
+        ScanResult2 result = mock(ScanResult2.class);
+        when(result.getText()).thenReturn(text);
+        when(result.getBarcodeType()).thenReturn(BarcodeType2.QR_CODE);
+        when(result.getResultPoints()).thenReturn(points);
+        return result;
+    }
+
+    /**
+     * Sets the fields directly, since the constructors of the Android stubs do nothing on the JVM
+     */
+    private static Point point(int x, int y) {
+        Point point = new Point();
+        point.x = x;
+        point.y = y;
+        return point;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ Copyright (c) 2018, Vuzix Corporation
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+
+ Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+
+ Neither the name of Vuzix Corporation nor the names of
+ its contributors may be used to endorse or promote products derived
+ from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.vuzix.sample.barcode_from_image;
+
+import android.graphics.Rect;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Records PipelineTrace sections in memory and writes them as Chrome trace event JSON
+ *
+ * The file opens in Perfetto (ui.perfetto.dev) and in chrome://tracing, with one track per thread,
+ * so overlapping decodes and threads stalled waiting for one another can be seen rather than
+ * inferred from per-stage averages. Camera requests, which end in a callback, get tracks of their own.
+ *
+ * Events go into arrays sized when the recorder is created, so recording takes a lock but never
+ * allocates, and does not disturb what it measures. Events past the capacity are counted and dropped.
+ *
+ * main() runs the decode path on a desktop JVM: several threads share a ScanEngine whose stand-in
+ * decoders do preprocessing work in place of the barcode engine, and the trace is written to the
+ * file named by the first argument. It is kept with the unit tests so it stays out of the APK. Run
+ * it with ./gradlew :app:runTraceRecorder, adding --args=FILE for another output file.
+ */
+
+class TraceRecorder implements PipelineTrace.Sink {
+
+    private static final char PHASE_BEGIN = 'B';
+    private static final char PHASE_END = 'E';
+    private static final char PHASE_ASYNC_BEGIN = 'b';
+    private static final char PHASE_ASYNC_END = 'e';
+    private static final String CATEGORY = "pipeline";
+
+    private static final int ENGINE_DECODERS = 2;
+    private static final int CLIENT_THREADS = 3;
+    private static final int FRAMES_PER_CLIENT = 20;
+    private static final int DISTINCT_FRAMES = 8;
+
+    private final long mStartNs = System.nanoTime();
+    private final long[] mTimes;
+    private final char[] mPhases;
+    private final String[] mNames;
+    private final int[] mCookies;
+    private final Thread[] mThreads;
+    private int mCount;
+    private int mDropped;
+
+    /**
+     * @param capacity - the most events to keep. Each section is two events.
+     */
+    TraceRecorder(int capacity) {
+        mTimes = new long[capacity];
+        mPhases = new char[capacity];
+        mNames = new String[capacity];
+        mCookies = new int[capacity];
+        mThreads = new Thread[capacity];
+    }
+
+    /**
+     * Traces the decode path on this JVM and writes the result
+     *
+     * @param args - the output file, by default pipeline_trace.json
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File output = new File((args.length > 0) ? args[0] : "pipeline_trace.json");
+        final int width = SyntheticFrames.CAPTURE_WIDTH;
+        final int height = SyntheticFrames.CAPTURE_HEIGHT;
+        final ByteBuffer[] frames = SyntheticFrames.drawFrames(width, height, DISTINCT_FRAMES);
+
+        // Fewer decoders than callers, as in the app, so the callers queue for them
+        List<ScanEngine.FrameDecoder> decoders = new ArrayList<>(ENGINE_DECODERS);
+        for (int i = 0; i < ENGINE_DECODERS; i++) {
+            decoders.add(new ScanEngine.FrameDecoder() {
+                private final LumaPreprocessor mStandIn = new LumaPreprocessor();
+
+                @Override
+                public ScanResult2[] scan(byte[] data, int width, int height, Rect region) {
+                    mStandIn.process(data, width, height, LumaPreprocessor.MODE_ALWAYS, 0, true);
+                    return null;
+                }
+            });
+        }
+        final ScanEngine engine = new ScanEngine(decoders);
+
+        TraceRecorder recorder = new TraceRecorder(CLIENT_THREADS * FRAMES_PER_CLIENT * 4);
+        PipelineTrace.setSink(recorder);
+        Thread[] clients = new Thread[CLIENT_THREADS];
+        for (int i = 0; i < clients.length; i++) {
+            final int first = i;
+            clients[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int f = 0; f < FRAMES_PER_CLIENT; f++) {
+                        PipelineTrace.begin(PipelineTrace.ON_IMAGE_AVAILABLE);
+                        try {
+                            engine.decode(frames[(first + f) % frames.length], width, height, null);
+                        } catch (InterruptedException e) {
+                            return;
+                        } finally {
+                            PipelineTrace.end();
+                        }
+                    }
+                }
+            }, "Client " + (i + 1));
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        PipelineTrace.setSink(PipelineTrace.NONE);
+
+        recorder.write(output);
+        System.out.println("Wrote " + recorder.size() + " events to " + output);
+    }
+
+    @Override
+    public void begin(String name) {
+        record(PHASE_BEGIN, name, 0);
+    }
+
+    @Override
+    public void end() {
+        record(PHASE_END, null, 0);
+    }
+
+    @Override
+    public void beginAsync(String name, int cookie) {
+        record(PHASE_ASYNC_BEGIN, name, cookie);
+    }
+
+    @Override
+    public void endAsync(String name, int cookie) {
+        record(PHASE_ASYNC_END, name, cookie);
+    }
+
+    private synchronized void record(char phase, String name, int cookie) {
+        if (mCount == mTimes.length) {
+            mDropped++;
+            return;
+        }
+        mTimes[mCount] = System.nanoTime();
+        mPhases[mCount] = phase;
+        mNames[mCount] = name;
+        mCookies[mCount] = cookie;
+        mThreads[mCount] = Thread.currentThread();
+        mCount++;
+    }
+
+    /**
+     * @return The number of events recorded
+     */
+    synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * @return The number of events dropped because the recorder was full
+     */
+    synchronized int getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Writes the events recorded so far to a file
+     *
+     * @param file - the file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    void write(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeJson(out);
+        }
+    }
+
+    /**
+     * Writes the events recorded so far in the Chrome trace event format
+     *
+     * @param out - receives the JSON
+     * @throws IOException if it cannot be written
+     */
+    synchronized void writeJson(Appendable out) throws IOException {
+        out.append("{\"displayTimeUnit\":\"ms\",\"otherData\":{\"dropped\":").append(Integer.toString(mDropped))
+                .append("},\"traceEvents\":[\n");
+        List<Thread> named = new ArrayList<>();
+        boolean first = true;
+        for (int i = 0; i < mCount; i++) {
+            Thread thread = mThreads[i];
+            if (!named.contains(thread)) {
+                named.add(thread);
+                first = separate(out, first);
+                out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":")
+                        .append(Long.toString(thread.getId())).append(",\"args\":{\"name\":");
+                quote(out, thread.getName());
+                out.append("}}");
+            }
+            first = separate(out, first);
+            out.append("{\"ph\":\"").append(mPhases[i]).append('"');
+            if (mNames[i] != null) {
+                out.append(",\"name\":");
+                quote(out, mNames[i]);
+            }
+            out.append(",\"cat\":\"").append(CATEGORY).append("\",\"ts\":")
+                    .append(String.format(Locale.US, "%.3f", (mTimes[i] - mStartNs) / 1000.0))
+                    .append(",\"pid\":1,\"tid\":").append(Long.toString(thread.getId()));
+            if ((mPhases[i] == PHASE_ASYNC_BEGIN) || (mPhases[i] == PHASE_ASYNC_END)) {
+                out.append(",\"id\":").append(Integer.toString(mCookies[i]));
+            }
+            out.append('}');
+        }
+        out.append("\n]}\n");
+    }
+
+    private static boolean separate(Appendable out, boolean first) throws IOException {
+        if (!first) {
+            out.append(",\n");
+        }
+        return false;
+    }
+
+    private static void quote(Appendable out, String text) throws IOException {
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
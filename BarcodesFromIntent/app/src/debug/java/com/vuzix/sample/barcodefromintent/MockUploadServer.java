@@ -0,0 +1,275 @@
+/*
+Copyright (c) 2017, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.vuzix.sample.barcodefromintent;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A minimal local HTTP endpoint that accepts the batches posted by ResultUploader
+ *
+ * It stands in for the real endpoint when there is none, and lets the upload path be exercised
+ * without a network. It listens on the loopback interface only, logs each batch it receives, and
+ * keeps counts of requests, batches and results, and the text of every result. It can also be told
+ * to fail the next few requests, to exercise the retry and backoff path and the dropping of rejected
+ * batches.
+ *
+ * Only what ResultUploader sends is understood: one POST per connection, with a Content-Length.
+ */
+class MockUploadServer implements Closeable {
+    private static final String LOG_TAG = "BarcodeFromIntent";
+    private static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    private volatile boolean mClosed;
+    private volatile int mFailuresRemaining;
+    private volatile int mFailureCode;
+    private volatile int mRequestCount;
+    private volatile int mBatchCount;
+    private volatile int mGzipBatchCount;
+    private volatile int mResultCount;
+    private final List<String> mTexts = new ArrayList<>();   // Guarded by itself
+
+    /**
+     * Starts listening on an unused loopback port
+     *
+     * @throws IOException if no port can be opened
+     */
+    MockUploadServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread("Mock Upload Server") {
+            @Override
+            public void run() {
+                while (!mClosed) {
+                    try (Socket socket = mServerSocket.accept()) {
+                        handle(socket);
+                    } catch (IOException e) {
+                        if (!mClosed) {
+                            Log.w(LOG_TAG, "Mock upload server: " + e);
+                        }
+                    }
+                }
+            }
+        };
+        mThread.start();
+    }
+
+    /**
+     * @return The URL to give to ResultUploader
+     */
+    URL getUrl() {
+        try {
+            return new URL(String.format(Locale.US, "http://127.0.0.1:%d/scans", mServerSocket.getLocalPort()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Makes the next requests fail with 503 Service Unavailable
+     *
+     * @param count - the number of requests to fail
+     */
+    void failNextRequests(int count) {
+        failNextRequests(count, 503);
+    }
+
+    /**
+     * Makes the next requests fail with the given status
+     *
+     * @param count - the number of requests to fail
+     * @param code - the HTTP status to answer them with, such as 408, 429 or 500
+     */
+    void failNextRequests(int count, int code) {
+        mFailureCode = code;
+        mFailuresRemaining = count;
+    }
+
+    /**
+     * @return The number of requests received so far, including failed ones
+     */
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return The number of batches accepted so far
+     */
+    int getBatchCount() {
+        return mBatchCount;
+    }
+
+    /**
+     * @return The number of results in the batches accepted so far
+     */
+    int getResultCount() {
+        return mResultCount;
+    }
+
+    /**
+     * @return The number of accepted batches that were posted with Content-Encoding: gzip
+     */
+    int getGzipBatchCount() {
+        return mGzipBatchCount;
+    }
+
+    /**
+     * @return The text of every result in the batches accepted so far, in the order received
+     */
+    List<String> getTexts() {
+        synchronized (mTexts) {
+            return new ArrayList<>(mTexts);
+        }
+    }
+
+    /**
+     * Stops listening
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mServerSocket.close();
+    }
+
+    private void handle(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        String requestLine = readLine(in);
+        int contentLength = -1;
+        boolean gzip = false;
+        String header;
+        while (!(header = readLine(in)).isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = header.substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    respond(socket, 400, "Bad Request");
+                    return;
+                }
+            } else if (name.equals("content-encoding")) {
+                gzip = value.equalsIgnoreCase("gzip");
+            }
+        }
+
+        if (!requestLine.startsWith("POST ") || (contentLength < 0) || (contentLength > MAX_BODY_SIZE)) {
+            respond(socket, 400, "Bad Request");
+            return;
+        }
+        byte[] body = new byte[contentLength];
+        new DataInputStream(in).readFully(body);
+        mRequestCount++;
+        if (mFailuresRemaining > 0) {
+            mFailuresRemaining--;
+            respond(socket, mFailureCode, "Failure");
+            return;
+        }
+
+        try {
+            InputStream bodyStream = new ByteArrayInputStream(body);
+            if (gzip) {
+                bodyStream = new GZIPInputStream(bodyStream);
+            }
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = bodyStream.read(buffer)) != -1) {
+                json.write(buffer, 0, count);
+            }
+            JSONArray results = new JSONArray(new String(json.toByteArray(), StandardCharsets.UTF_8));
+            synchronized (mTexts) {
+                for (int i = 0; i < results.length(); i++) {
+                    mTexts.add(results.getJSONObject(i).getString("text"));
+                }
+            }
+            mResultCount += results.length();
+            if (gzip) {
+                mGzipBatchCount++;
+            }
+            mBatchCount++;   // Last, so a test that sees the batch also sees its results
+            Log.i(LOG_TAG, "Mock upload server received " + results.length() + " results in "
+                    + contentLength + " bytes");
+            respond(socket, 200, "OK");
+        } catch (IOException | JSONException e) {
+            Log.w(LOG_TAG, "Mock upload server received a malformed batch: " + e);
+            respond(socket, 400, "Bad Request");
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void respond(Socket socket, int code, String reason) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(String.format(Locale.US, "HTTP/1.1 %d %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n",
+                code, reason).getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
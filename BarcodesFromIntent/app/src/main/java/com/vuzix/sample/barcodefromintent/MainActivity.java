@@ -36,6 +36,7 @@ import android.app.Activity;
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -44,6 +45,11 @@ import android.widget.Toast;
 import com.vuzix.sdk.barcode.ScanResult2;
 import com.vuzix.sdk.barcode.ScannerIntent;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+
 
 /**
  * This sample demonstrates how to use an intent to access the built-in barcode scanner to scan a
@@ -54,9 +60,19 @@ import com.vuzix.sdk.barcode.ScannerIntent;
  * This leaves very little to be done by this application.
  */
 public class MainActivity extends Activity {
+    private static final String LOG_TAG = "BarcodeFromIntent";
     private static final int REQUEST_CODE_SCAN = 90001;  // Must be unique within this Activity
+    private static final int REQUEST_CODE_SCAN_SESSION = 90002;
+    private static final String UPLOAD_SPOOL_DIRECTORY = "uploads";
+    private static final String LOCAL_UPLOAD_URL = "local";
+    private static final int UPLOAD_BATCH_SIZE = 50;
+    private static final long UPLOAD_BATCH_DELAY_MS = 30 * 1000;
     private Button mButtonScan;
+    private Button mButtonScanSession;
     private EditText mTextEntryField;
+    private ScanProfile mScanProfile;
+    private ResultUploader mResultUploader;
+    private MockUploadServer mMockUploadServer;
 
     /**
      * Sets up the User Interface
@@ -69,6 +85,14 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
         mTextEntryField = (EditText) findViewById(R.id.scannedTextResult);
 
+        // The decode hints restrict the scanner to the symbologies used at this site
+        mScanProfile = ScanProfile.load(this, R.raw.scan_profiles).get(getString(R.string.scan_profile));
+        if (mScanProfile == null) {
+            mScanProfile = ScanProfile.DEFAULT;
+        }
+
+        createResultUploader();
+
         mButtonScan = (Button) findViewById(R.id.btn_scan_barcode);
         mButtonScan.requestFocusFromTouch();
         mButtonScan.setOnClickListener(new View.OnClickListener() {
@@ -78,6 +102,68 @@ public class MainActivity extends Activity {
                 OnScanClick();
             }
         });
+
+        mButtonScanSession = (Button) findViewById(R.id.btn_scan_session);
+        mButtonScanSession.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                OnScanSessionClick();
+            }
+        });
+    }
+
+    /**
+     * Sends any queued results and stops the local endpoint
+     */
+    @Override
+    protected void onDestroy() {
+        if (mResultUploader != null) {
+            mResultUploader.close();
+        }
+        if (mMockUploadServer != null) {
+            try {
+                mMockUploadServer.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to stop the mock upload server", e);
+            }
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Creates the uploader for accepted results. The endpoint comes from R.string.upload_url. An
+     * empty value disables uploads, and "local" sends them to a MockUploadServer in this process.
+     * Only debug builds have one, and the debug resources make it the default.
+     */
+    private void createResultUploader() {
+        String uploadUrl = getString(R.string.upload_url);
+        if (uploadUrl.isEmpty()) {
+            return;
+        }
+        try {
+            URL endpoint;
+            if (uploadUrl.equals(LOCAL_UPLOAD_URL)) {
+                mMockUploadServer = new MockUploadServer();
+                endpoint = mMockUploadServer.getUrl();
+            } else {
+                endpoint = new URL(uploadUrl);
+            }
+            mResultUploader = new ResultUploader(new File(getFilesDir(), UPLOAD_SPOOL_DIRECTORY), endpoint,
+                    UPLOAD_BATCH_SIZE, UPLOAD_BATCH_DELAY_MS);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to set up result uploads", e);
+        }
+    }
+
+    /**
+     * Queues an accepted result for upload, if uploads are enabled
+     *
+     * @param scanResult - the accepted result
+     */
+    private void upload(ScanResult2 scanResult) {
+        if (mResultUploader != null) {
+            mResultUploader.enqueue(scanResult);
+        }
     }
 
     /**
@@ -86,6 +172,10 @@ public class MainActivity extends Activity {
     private void OnScanClick() {
         Intent scannerIntent = new Intent(ScannerIntent.ACTION);
         scannerIntent.putExtra(ScannerIntent.EXTRA_ENABLE_PREVIEW,false);
+        String[] symbologies = mScanProfile.getSymbologyNames();
+        if (symbologies != null) {
+            scannerIntent.putExtra(ScannerIntent.EXTRA_BARCODE2_TYPES, symbologies);
+        }
         try {
 
             // The Vuzix  M-Series has a built-in Barcode Scanner app that is registered for this intent.
@@ -95,6 +185,19 @@ public class MainActivity extends Activity {
         }
     }
 
+    /**
+     * Handler for the session button. Keeps one scanner open for many barcodes, rather than
+     * launching the built-in scanner and opening the camera once per barcode.
+     */
+    private void OnScanSessionClick() {
+        Intent sessionIntent = new Intent(this, ScanSessionActivity.class);
+        String[] symbologies = mScanProfile.getSymbologyNames();
+        if (symbologies != null) {
+            sessionIntent.putExtra(ScannerIntent.EXTRA_BARCODE2_TYPES, symbologies);
+        }
+        startActivityForResult(sessionIntent, REQUEST_CODE_SCAN_SESSION);
+    }
+
     /**
      * The  M-Series Barcode Scanner App will scan a barcode and return
      *
@@ -108,7 +211,28 @@ public class MainActivity extends Activity {
             case REQUEST_CODE_SCAN:
                 if (resultCode == Activity.RESULT_OK) {
                     ScanResult2 scanResult = data.getParcelableExtra(ScannerIntent.RESULT_EXTRA_SCAN_RESULT2);
-                    mTextEntryField.setText( scanResult.getText() );
+                    if (mScanProfile.accepts(scanResult)) {
+                        mTextEntryField.setText( scanResult.getText() );
+                        upload(scanResult);
+                    } else {
+                        Toast.makeText(this, R.string.unexpected_barcode, Toast.LENGTH_LONG).show();
+                    }
+                }
+                return;
+            case REQUEST_CODE_SCAN_SESSION:
+                if (resultCode == Activity.RESULT_OK) {
+                    ArrayList<ScanResult2> scanResults = data.getParcelableArrayListExtra(ScanSessionActivity.RESULT_EXTRA_SCAN_RESULTS);
+                    StringBuilder text = new StringBuilder();
+                    for (ScanResult2 scanResult : scanResults) {
+                        if (mScanProfile.accepts(scanResult)) {
+                            if (text.length() > 0) {
+                                text.append(", ");
+                            }
+                            text.append(scanResult.getText());
+                            upload(scanResult);
+                        }
+                    }
+                    mTextEntryField.setText(text);
                 }
                 return;
         }
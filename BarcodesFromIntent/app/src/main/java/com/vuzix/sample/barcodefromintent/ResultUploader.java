@@ -0,0 +1,500 @@
+/*
+Copyright (c) 2017, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.vuzix.sample.barcodefromintent;
+
+import android.util.Log;
+
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends scan results to an HTTP endpoint in compressed batches
+ *
+ * Posting one request per scan keeps the Wi-Fi radio awake and pays the connection cost every
+ * time. Instead, results are collected until either a batch is full or the oldest result has
+ * waited long enough. The batch is then written to the spool directory as gzipped JSON, and the
+ * spooled batches are posted in order. A batch is only deleted once the endpoint accepts it, so
+ * batches survive restarts and network outages. Failed posts are retried with exponential backoff.
+ *
+ * Results that are still being collected are appended to a journal in the spool directory as they
+ * are queued, one JSON object per line, and synced to storage. The journal is named after the batch
+ * it will become, and is deleted once that batch is spooled. If the process dies first, the next
+ * uploader seals the journal into its batch, unless the batch was already spooled. So a queued
+ * result is sent exactly once, whenever the process ends. All the work happens on a background thread.
+ *
+ * Each batch is a JSON array of {"text", "symbology", "time"} objects, posted with
+ * Content-Encoding: gzip.
+ */
+class ResultUploader {
+    private static final String LOG_TAG = "BarcodeFromIntent";
+
+    private static final String BATCH_SUFFIX = ".json.gz";
+    private static final String JOURNAL_SUFFIX = ".pending";
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+
+    private final File mSpoolDirectory;
+    private final URL mEndpoint;
+    private final int mMaxBatchSize;
+    private final long mMaxBatchDelayMs;
+    private final long mMinRetryDelayMs;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+
+    // Only used on the upload thread
+    private final ArrayList<JSONObject> mPending = new ArrayList<>();
+    private FileOutputStream mJournal;   // Open while mPending holds results
+    private long mNextBatchNumber;
+    private long mRetryDelayMs;
+    private ScheduledFuture<?> mSealTimer;
+    private ScheduledFuture<?> mUploadTimer;
+
+    private final Runnable mSealBatch = new Runnable() {
+        @Override
+        public void run() {
+            sealBatch();
+        }
+    };
+
+    private final Runnable mUploadBatches = new Runnable() {
+        @Override
+        public void run() {
+            uploadBatches();
+        }
+    };
+
+    /**
+     * Starts the upload thread, and begins sending any batches and results left from a previous run
+     *
+     * @param spoolDirectory - where batches are kept until they are accepted
+     * @param endpoint - the URL batches are posted to
+     * @param maxBatchSize - the most results sent in one batch
+     * @param maxBatchDelayMs - the longest a result waits for its batch to fill
+     */
+    ResultUploader(File spoolDirectory, URL endpoint, int maxBatchSize, long maxBatchDelayMs) {
+        this(spoolDirectory, endpoint, maxBatchSize, maxBatchDelayMs, MIN_RETRY_DELAY_MS);
+    }
+
+    /**
+     * @param spoolDirectory - where batches are kept until they are accepted
+     * @param endpoint - the URL batches are posted to
+     * @param maxBatchSize - the most results sent in one batch
+     * @param maxBatchDelayMs - the longest a result waits for its batch to fill
+     * @param minRetryDelayMs - the delay before the first retry, which doubles with each failure
+     */
+    ResultUploader(File spoolDirectory, URL endpoint, int maxBatchSize, long maxBatchDelayMs, long minRetryDelayMs) {
+        mSpoolDirectory = spoolDirectory;
+        mEndpoint = endpoint;
+        mMaxBatchSize = maxBatchSize;
+        mMaxBatchDelayMs = maxBatchDelayMs;
+        mMinRetryDelayMs = minRetryDelayMs;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Result Uploader");
+            }
+        });
+        // Like quitting a looper safely: work already queued runs, but timers are dropped
+        mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!mSpoolDirectory.isDirectory() && !mSpoolDirectory.mkdirs()) {
+                    Log.e(LOG_TAG, "Unable to create " + mSpoolDirectory);
+                }
+                File[] batches = listBatches();
+                if (batches.length > 0) {
+                    mNextBatchNumber = batchNumber(batches[batches.length - 1]) + 1;
+                }
+                recoverJournals();
+                if (listBatches().length > 0) {
+                    startUpload();
+                }
+            }
+        }, 0);
+    }
+
+    /**
+     * Queues a result for upload. May be called from any thread.
+     *
+     * @param result - the scan result
+     */
+    void enqueue(ScanResult2 result) {
+        final JSONObject record = new JSONObject();
+        try {
+            BarcodeType2 type = result.getBarcodeType();
+            record.put("text", result.getText());
+            record.put("symbology", (type != null) ? type.name() : JSONObject.NULL);
+            record.put("time", System.currentTimeMillis());
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Unable to record scan result", e);
+            return;
+        }
+        Runnable add = new Runnable() {
+            @Override
+            public void run() {
+                appendToJournal(record);
+                mPending.add(record);
+                if (mPending.size() >= mMaxBatchSize) {
+                    sealBatch();
+                } else if (mPending.size() == 1) {
+                    mSealTimer = schedule(mSealBatch, mMaxBatchDelayMs);
+                }
+            }
+        };
+        if (schedule(add, 0) == null) {
+            Log.w(LOG_TAG, "Uploader is closed, not sending " + record);
+        }
+    }
+
+    /**
+     * Writes any partial batch to the spool and stops the upload thread. Spooled batches that have
+     * not been sent yet are sent the next time an uploader is created.
+     */
+    void close() {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                sealBatch();
+                closeJournal();
+            }
+        }, 0);
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Waits for the upload thread to finish after close()
+     *
+     * @param timeoutMs - the longest to wait
+     * @return True if it has finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitClose(long timeoutMs) throws InterruptedException {
+        return mExecutor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending results to the spool as one batch, and starts sending it
+     */
+    private void sealBatch() {
+        cancel(mSealTimer);
+        mSealTimer = null;
+        if (mPending.isEmpty()) {
+            return;
+        }
+        File batch = new File(mSpoolDirectory, batchName(mNextBatchNumber) + BATCH_SUFFIX);
+        File partial = new File(mSpoolDirectory, batch.getName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(partial)), StandardCharsets.UTF_8)) {
+            writer.write(new JSONArray(mPending).toString());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to spool " + mPending.size() + " results", e);
+            partial.delete();
+            return;   // Keep the results, and try again with the next one
+        }
+        if (!partial.renameTo(batch)) {
+            Log.e(LOG_TAG, "Unable to spool " + batch);
+            return;
+        }
+        // The batch now holds the results, so the journal is stale even if this delete is lost
+        closeJournal();
+        journalFile(mNextBatchNumber).delete();
+        mNextBatchNumber++;
+        mPending.clear();
+        if (mRetryDelayMs == 0) {
+            // Otherwise a retry is already scheduled, and will pick this batch up
+            startUpload();
+        }
+    }
+
+    /**
+     * Appends a result to the journal of the batch being collected, and syncs it to storage
+     *
+     * A result that cannot be journaled is still kept in memory, and is only lost if the process
+     * dies before its batch is sealed.
+     */
+    private void appendToJournal(JSONObject record) {
+        try {
+            if (mJournal == null) {
+                File journal = journalFile(mNextBatchNumber);
+                boolean recovered = journal.length() > 0;
+                mJournal = new FileOutputStream(journal, true);
+                if (recovered) {
+                    mJournal.write('\n');   // A recovered journal may end in a torn line
+                }
+            }
+            mJournal.write((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            mJournal.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to journal scan result", e);
+        }
+    }
+
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Unable to close the upload journal", e);
+            }
+            mJournal = null;
+        }
+    }
+
+    /**
+     * Seals the results journaled by an earlier uploader into their batches
+     *
+     * A journal whose batch was spooled before the process died is deleted rather than sent again.
+     */
+    private void recoverJournals() {
+        File[] journals = mSpoolDirectory.listFiles();
+        if (journals == null) {
+            return;
+        }
+        Arrays.sort(journals);
+        for (File journal : journals) {
+            String name = journal.getName();
+            if (!name.endsWith(JOURNAL_SUFFIX)) {
+                continue;
+            }
+            long number = batchNumber(name, JOURNAL_SUFFIX);
+            if ((number < 0) || new File(mSpoolDirectory, batchName(number) + BATCH_SUFFIX).exists()) {
+                journal.delete();
+                continue;
+            }
+            if (!readJournal(journal)) {
+                continue;   // Left in place, so it can be tried again next time
+            }
+            File current = journalFile(mNextBatchNumber);
+            if (!journal.equals(current) && !journal.renameTo(current)) {
+                Log.e(LOG_TAG, "Unable to recover " + journal);
+                mPending.clear();
+                continue;
+            }
+            sealBatch();
+            if (!mPending.isEmpty()) {
+                // Not spooled. Keep collecting into the same journal, and try again with the next result.
+                mSealTimer = schedule(mSealBatch, mMaxBatchDelayMs);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the results in a journal to mPending
+     *
+     * @return False if the journal cannot be read
+     */
+    private boolean readJournal(File journal) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    mPending.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    // The last line is torn if the process died while writing it
+                    Log.w(LOG_TAG, "Skipping a damaged result in " + journal.getName());
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to read " + journal, e);
+            return false;
+        }
+    }
+
+    /**
+     * Posts every spooled batch in order, stopping at the first failure and retrying later
+     */
+    private void uploadBatches() {
+        for (File batch : listBatches()) {
+            if (!post(batch)) {
+                mRetryDelayMs = Math.min(MAX_RETRY_DELAY_MS, Math.max(mMinRetryDelayMs, mRetryDelayMs * 2));
+                // Jitter, so headsets that lost the network together do not all retry together
+                long delayMs = mRetryDelayMs / 2 + (long) (mRandom.nextDouble() * mRetryDelayMs / 2);
+                Log.w(LOG_TAG, "Upload failed, retrying in " + delayMs + "ms");
+                mUploadTimer = schedule(mUploadBatches, delayMs);
+                return;
+            }
+            batch.delete();
+        }
+        mRetryDelayMs = 0;
+    }
+
+    private void startUpload() {
+        cancel(mUploadTimer);
+        mUploadTimer = schedule(mUploadBatches, 0);
+    }
+
+    /**
+     * Posts one batch
+     *
+     * @param batch - the spooled batch file
+     * @return True if the batch is done with. False if it should be sent again later.
+     */
+    private boolean post(File batch) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) mEndpoint.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(batch.length());
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            try (InputStream in = new FileInputStream(batch);
+                 OutputStream out = connection.getOutputStream()) {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            }
+            int responseCode = connection.getResponseCode();
+            if ((responseCode >= 200) && (responseCode < 300)) {
+                return true;
+            }
+            if ((responseCode >= 400) && (responseCode < 500) && (responseCode != 408) && (responseCode != 429)) {
+                // Sending it again will not help, and would block every batch behind it
+                Log.e(LOG_TAG, "Endpoint rejected " + batch.getName() + " with " + responseCode + ", dropping it");
+                return true;
+            }
+            Log.w(LOG_TAG, "Endpoint returned " + responseCode + " for " + batch.getName());
+            return false;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to post " + batch.getName() + ": " + e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return The spooled batches, oldest first
+     */
+    private File[] listBatches() {
+        File[] batches = mSpoolDirectory.listFiles();
+        if (batches == null) {
+            return new File[0];
+        }
+        ArrayList<File> sorted = new ArrayList<>();
+        for (File batch : batches) {
+            if (batch.getName().endsWith(BATCH_SUFFIX)) {
+                sorted.add(batch);
+            } else if (batch.getName().endsWith(".tmp")) {
+                batch.delete();   // Left by a crash part way through sealBatch()
+            }
+        }
+        File[] result = sorted.toArray(new File[sorted.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File journalFile(long number) {
+        return new File(mSpoolDirectory, batchName(number) + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Runs a task on the upload thread
+     *
+     * @return The task, or null once the uploader is closed
+     */
+    private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        try {
+            return mExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private static void cancel(ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private static String batchName(long number) {
+        return String.format(Locale.US, "%016d", number);
+    }
+
+    private static long batchNumber(File batch) {
+        return batchNumber(batch.getName(), BATCH_SUFFIX);
+    }
+
+    /**
+     * @return The number at the start of a spool file name, or -1 if there is none
+     */
+    private static long batchNumber(String name, String suffix) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
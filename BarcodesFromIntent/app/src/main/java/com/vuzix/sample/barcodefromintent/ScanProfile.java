@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2017, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.vuzix.sample.barcodefromintent;
+
+import android.content.Context;
+import android.util.Log;
+import com.vuzix.sdk.barcode.BarcodeType2;
+import com.vuzix.sdk.barcode.ScanResult2;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A named set of decode hints for the scanner
+ *
+ * Profiles restrict the symbologies the scanner searches for and the expected text length. They are
+ * loaded from the res/raw/scan_profiles.json config file so a site can be tuned without a code change.
+ *
+ * The config file is shared with the Barcode From Image sample. The inversion and search region
+ * entries it may contain only apply when we feed the engine ourselves, so they are ignored here.
+ */
+
+class ScanProfile {
+    private static final String LOG_TAG = "BarcodeFromIntent";
+
+    /** Name of the built-in profile, always available even if the config file cannot be read */
+    static final String DEFAULT_PROFILE_NAME = "default";
+
+    /** Searches all symbologies, which is the scanner's own behavior */
+    static final ScanProfile DEFAULT = new ScanProfile(DEFAULT_PROFILE_NAME, null, 0, Integer.MAX_VALUE);
+
+    private final String mName;
+    private final EnumSet<BarcodeType2> mSymbologies;   // null means all symbologies
+    private final int mMinLength;
+    private final int mMaxLength;
+
+    ScanProfile(String name, EnumSet<BarcodeType2> symbologies, int minLength, int maxLength) {
+        mName = name;
+        mSymbologies = symbologies;
+        mMinLength = minLength;
+        mMaxLength = maxLength;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The accepted symbologies, or null if every symbology is accepted
+     */
+    EnumSet<BarcodeType2> getSymbologies() {
+        return mSymbologies;
+    }
+
+    /**
+     * @return The accepted symbology names in the form expected by the scanner fragment and intent
+     * extras, or null if every symbology is accepted
+     */
+    String[] getSymbologyNames() {
+        if (mSymbologies == null) {
+            return null;
+        }
+        String[] names = new String[mSymbologies.size()];
+        int i = 0;
+        for (BarcodeType2 type : mSymbologies) {
+            names[i++] = type.name();
+        }
+        return names;
+    }
+
+    /**
+     * Checks a decoded result against the symbology and length restrictions of this profile
+     *
+     * @param result - A result returned by the scanner
+     * @return True if the result should be reported
+     */
+    boolean accepts(ScanResult2 result) {
+        String text = result.getText();
+        if ((text == null) || (text.length() < mMinLength) || (text.length() > mMaxLength)) {
+            return false;
+        }
+        return (mSymbologies == null) || mSymbologies.contains(result.getBarcodeType());
+    }
+
+    /**
+     * Loads every profile from a raw JSON resource
+     *
+     * The file contains an object of named profiles, for example:
+     * <pre>
+     * { "warehouse": { "symbologies": ["CODE_128", "DATA_MATRIX"], "minLength": 6, "maxLength": 40 } }
+     * </pre>
+     * Any key may be omitted. A profile that cannot be parsed is logged and skipped.
+     *
+     * @param context - The Context used to open the resource
+     * @param resId - The raw resource ID of the config file
+     * @return The profiles by name. Always contains DEFAULT_PROFILE_NAME.
+     */
+    static Map<String, ScanProfile> load(Context context, int resId) {
+        Map<String, ScanProfile> profiles = new LinkedHashMap<>();
+        profiles.put(DEFAULT_PROFILE_NAME, DEFAULT);
+        try (InputStream in = context.getResources().openRawResource(resId)) {
+            JSONObject root = new JSONObject(readFully(in));
+            JSONArray names = root.names();
+            for (int i = 0; (names != null) && (i < names.length()); i++) {
+                String name = names.getString(i);
+                try {
+                    profiles.put(name, fromJson(name, root.getJSONObject(name)));
+                } catch (JSONException | IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Ignoring scan profile " + name + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Unable to read scan profiles, using defaults", e);
+        }
+        return profiles;
+    }
+
+    private static ScanProfile fromJson(String name, JSONObject json) throws JSONException {
+        EnumSet<BarcodeType2> symbologies = null;
+        JSONArray types = json.optJSONArray("symbologies");
+        if (types != null) {
+            symbologies = EnumSet.noneOf(BarcodeType2.class);
+            for (int i = 0; i < types.length(); i++) {
+                symbologies.add(BarcodeType2.valueOf(types.getString(i)));
+            }
+        }
+
+        return new ScanProfile(name, symbologies,
+                json.optInt("minLength", 0),
+                json.optInt("maxLength", Integer.MAX_VALUE));
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int count;
+        while ((count = in.read(chunk)) != -1) {
+            out.write(chunk, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,233 @@
+/*
+Copyright (c) 2017, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.vuzix.sample.barcodefromintent;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.vuzix.sdk.barcode.ScanResult2;
+import com.vuzix.sdk.barcode.ScannerFragment;
+import com.vuzix.sdk.barcode.ScannerIntent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+
+/**
+ * Scans many barcodes from a single launch
+ *
+ * The built-in scanner returns after one barcode, so every additional code costs a full activity
+ * launch and camera open. This activity hosts the scanner fragment and keeps it running, collecting
+ * codes until the user presses back or the requested number of codes has been scanned. The codes
+ * are returned together as a batch, and may also be streamed to the caller as they are scanned.
+ *
+ * Launch it with startActivityForResult(). The extras mirror those of ScannerIntent where possible.
+ */
+public class ScanSessionActivity extends Activity {
+
+    /** Optional int: finish automatically after this many codes. Zero or absent means no limit. */
+    public static final String EXTRA_MAX_SCANS = "max_scans";
+    /** Optional ResultReceiver: each code is sent to it with RESULT_CODE_SCAN as soon as it is scanned */
+    public static final String EXTRA_RESULT_RECEIVER = "result_receiver";
+    /** ArrayList of ScanResult2 in the result Intent, in the order they were scanned */
+    public static final String RESULT_EXTRA_SCAN_RESULTS = "scan_results";
+    /** The resultCode used for codes streamed to the EXTRA_RESULT_RECEIVER */
+    public static final int RESULT_CODE_SCAN = 1;
+
+    private static final int REQUEST_PERMISSIONS = 3333;  // unique to this activity
+    // The scanner reports the same code on every frame while it stays in view. Repeats within this
+    // window of the code last being counted are ignored, so a code held in view counts once per window.
+    private static final long REPEAT_HOLDOFF_MS = 1500;
+
+    private final ArrayList<ScanResult2> mResults = new ArrayList<>();
+    private ResultReceiver mResultReceiver;
+    private int mMaxScans;
+    private final HashMap<String, Long> mLastSeen = new HashMap<>();   // text to elapsedRealtime when last counted
+    private TextView mCountView;
+
+    /**
+     * Sets up the User Interface and requests the camera permission if needed
+     *
+     * @param savedInstanceState - unused and passed unchanged to the superclass
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_scan_session);
+        setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LOCKED);
+        mCountView = (TextView) findViewById(R.id.scan_count);
+
+        Intent intent = getIntent();
+        mMaxScans = intent.getIntExtra(EXTRA_MAX_SCANS, 0);
+        mResultReceiver = intent.getParcelableExtra(EXTRA_RESULT_RECEIVER);
+        updateCount();
+
+        if (checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.CAMERA}, REQUEST_PERMISSIONS);
+        } else {
+            showScanner();
+        }
+    }
+
+    /**
+     * Shows the scanner fragment, passing through the symbologies requested by our caller
+     */
+    private void showScanner() {
+        try {
+            ScannerFragment scannerFragment = new ScannerFragment();
+            String[] symbologies = getIntent().getStringArrayExtra(ScannerIntent.EXTRA_BARCODE2_TYPES);
+            if (symbologies != null) {
+                Bundle args = new Bundle();
+                args.putStringArray(ScannerFragment.ARG_BARCODE2_TYPES, symbologies);
+                scannerFragment.setArguments(args);
+            }
+            getFragmentManager().beginTransaction().replace(R.id.fragment_container, scannerFragment).commit();
+            scannerFragment.setListener2(new ScannerFragment.Listener2() {
+                @Override
+                public void onScan2Result(Bitmap bitmap, ScanResult2[] results) {
+                    onSessionScanResult(results);
+                }
+
+                @Override
+                public void onError() {
+                    Toast.makeText(ScanSessionActivity.this, R.string.scanner_error_message, Toast.LENGTH_LONG).show();
+                    finishSession();
+                }
+            });
+        } catch (NoClassDefFoundError e) {
+            // The SDK stubs we compiled against cannot be resolved when not on an M-Series
+            Toast.makeText(this, R.string.only_on_mseries, Toast.LENGTH_LONG).show();
+            finishSession();
+        }
+    }
+
+    /**
+     * Called for every frame in which the scanner finds barcodes. The scanner stays open.
+     *
+     * @param results -  an array of ScanResult2
+     */
+    private void onSessionScanResult(ScanResult2[] results) {
+        long now = SystemClock.elapsedRealtime();
+        for (ScanResult2 result : results) {
+            Long lastCounted = mLastSeen.get(result.getText());
+            if ((lastCounted != null) && (now - lastCounted < REPEAT_HOLDOFF_MS)) {
+                continue;
+            }
+            mLastSeen.put(result.getText(), now);
+
+            mResults.add(result);
+            if (mResultReceiver != null) {
+                Bundle data = new Bundle();
+                data.putParcelable(ScannerIntent.RESULT_EXTRA_SCAN_RESULT2, result);
+                mResultReceiver.send(RESULT_CODE_SCAN, data);
+            }
+            if ((mMaxScans > 0) && (mResults.size() >= mMaxScans)) {
+                finishSession();
+                return;
+            }
+        }
+        forgetStaleCodes(now);
+        updateCount();
+    }
+
+    /**
+     * Drops codes last counted longer ago than the hold-off, so the map stays small
+     */
+    private void forgetStaleCodes(long now) {
+        Iterator<Long> iterator = mLastSeen.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() >= REPEAT_HOLDOFF_MS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Shows the number of codes scanned so far
+     */
+    private void updateCount() {
+        mCountView.setText(getResources().getQuantityString(R.plurals.codes_scanned, mResults.size(), mResults.size()));
+    }
+
+    /**
+     * Returns the batch of codes to our caller and closes the scanner
+     */
+    private void finishSession() {
+        if (isFinishing()) {
+            return;
+        }
+        Intent data = new Intent();
+        data.putParcelableArrayListExtra(RESULT_EXTRA_SCAN_RESULTS, mResults);
+        setResult(mResults.isEmpty() ? Activity.RESULT_CANCELED : Activity.RESULT_OK, data);
+        finish();
+    }
+
+    /**
+     * Back ends the session, returning whatever has been scanned so far
+     */
+    @Override
+    public void onBackPressed() {
+        finishSession();
+    }
+
+    /**
+     * Handle permissions response.  Either closes the session, or shows the scanner
+     *
+     * @param requestCode - unique value to identify the request
+     * @param permissions - specific permission being granted/denied
+     * @param grantResults - results for each permission
+     */
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        if ((requestCode == REQUEST_PERMISSIONS) && (grantResults.length > 0)) {
+            if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                showScanner();
+            } else {
+                Toast.makeText(this, R.string.no_permission, Toast.LENGTH_LONG).show();
+                finishSession();
+            }
+        } else {
+            super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        }
+    }
+}